@@ -0,0 +1,450 @@
+/*
+ * Copyright 2014 Elhuyar Fundazioa
+
+This file is part of EliXa.
+
+    EliXa is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    EliXa is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with EliXa.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elh.eus.absa;
+
+import ixa.kaflib.KAFDocument;
+import ixa.kaflib.Term;
+import ixa.kaflib.WF;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Benchmark corpus of a language: the example corpus shipped with elixa (examples/example_LANG.tsv) followed
+ * by synthetic tweets. Tweets are generated from a fixed seed, so every run (and every fork) works on the same
+ * data. The vocabulary of the tweets is made of the words of the example corpus plus pseudo-words built from
+ * its letters, sampled with a Zipf-like distribution, and tweets contain the usual micro-text phenomena
+ * (users, hashtags, urls, emoticons, elongated and upper case words).
+ *
+ * The corpus can also be written as a tagged corpus store, pseudo-tagged (lemma = lower cased form, PoS tag
+ * derived from the form), so that feature extraction can be benchmarked offline, without PoS tagging models.
+ *
+ * @author isanvi
+ *
+ */
+public final class BenchmarkCorpus {
+
+	public static final long SEED = 20150721L;
+
+	private static final String[] EMOTICONS = {":)", ":-)", ":(", ":'(", ";)", ":D", "xD", ":P", "<3", ":-/"};
+	private static final String[] PUNCTUATION = {",", ".", "!", "?", "...", "!!", ":"};
+	private static final String[] POLARITIES = {"positive", "negative", "neutral"};
+	private static final String[] TAGS = {"N", "V", "G", "A", "D", "P", "C"};
+	private static final String[] LEXICON_POLARITIES = {"pos", "neg", "pos", "neg", "neu", "int", "wea", "shi"};
+	private static final int PSEUDO_WORDS = 5000;
+
+	private final String lang;
+	// id, polarity, text
+	private final List<String[]> rows = new ArrayList<String[]>();
+	private final List<String> vocabulary;
+	private File dir;
+
+	private BenchmarkCorpus (String lang, int tweets)
+	{
+		this.lang = lang;
+		readExamples();
+		this.vocabulary = buildVocabulary();
+		Random rnd = new Random(SEED ^ lang.hashCode());
+		for (int i=0; i<tweets; i++)
+		{
+			rows.add(new String[] {"bench"+i, POLARITIES[rnd.nextInt(POLARITIES.length)], tweet(rnd)});
+		}
+	}
+
+	/**
+	 * @param String lang : language of the corpus (en|es|eu|fr)
+	 * @param int tweets : number of synthetic tweets added to the example corpus
+	 * @return BenchmarkCorpus
+	 */
+	public static BenchmarkCorpus create (String lang, int tweets)
+	{
+		return new BenchmarkCorpus(lang, tweets);
+	}
+
+	private void readExamples ()
+	{
+		InputStream in = BenchmarkCorpus.class.getClassLoader().getResourceAsStream("examples/example_"+lang+".tsv");
+		if (in == null)
+		{
+			System.err.println("BenchmarkCorpus - no example corpus for language "+lang+", only synthetic tweets are used.");
+			return;
+		}
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				String[] fields = line.split("\t");
+				if (fields.length >= 3)
+				{
+					rows.add(new String[] {"example"+fields[0], fields[1], fields[2]});
+				}
+			}
+		} catch (IOException ioe) {
+			System.err.println("BenchmarkCorpus - error when reading the example corpus for language "+lang);
+		}
+	}
+
+	/**
+	 * Words of the example corpus first (most frequent ranks), then pseudo-words built from the letters of the corpus.
+	 */
+	private List<String> buildVocabulary ()
+	{
+		LinkedHashSet<String> words = new LinkedHashSet<String>();
+		StringBuilder letters = new StringBuilder();
+		for (String[] row : rows)
+		{
+			for (String token : row[2].split("\\s+"))
+			{
+				String word = token.replaceAll("[\\p{Punct}&&[^']]", "");
+				if (!word.isEmpty() && Character.isLetter(word.codePointAt(0)) && !token.startsWith("http"))
+				{
+					words.add(word);
+					letters.append(word.toLowerCase());
+				}
+			}
+		}
+		if (letters.length() == 0)
+		{
+			letters.append("etaoinshrdlu");
+		}
+		Random rnd = new Random(SEED);
+		while (words.size() < PSEUDO_WORDS)
+		{
+			int length = 2 + rnd.nextInt(8);
+			StringBuilder word = new StringBuilder(length);
+			for (int i=0; i<length; i++)
+			{
+				word.append(letters.charAt(rnd.nextInt(letters.length())));
+			}
+			words.add(word.toString());
+		}
+		return new ArrayList<String>(words);
+	}
+
+	private String word (Random rnd)
+	{
+		// Zipf-like rank distribution
+		int rank = (int) Math.floor(Math.pow(vocabulary.size(), rnd.nextDouble())) - 1;
+		return vocabulary.get(Math.min(Math.max(rank, 0), vocabulary.size()-1));
+	}
+
+	private String tweet (Random rnd)
+	{
+		StringBuilder sb = new StringBuilder();
+		if (rnd.nextDouble() < 0.3)
+		{
+			sb.append("@").append(word(rnd)).append("_").append(rnd.nextInt(100)).append(' ');
+		}
+		int length = 6 + rnd.nextInt(20);
+		for (int i=0; i<length; i++)
+		{
+			String w = word(rnd);
+			double p = rnd.nextDouble();
+			if (p < 0.06)
+			{
+				// elongated word: feooooo
+				char last = w.charAt(w.length()-1);
+				StringBuilder elongated = new StringBuilder(w);
+				for (int j=rnd.nextInt(5); j>=0; j--)
+				{
+					elongated.append(last);
+				}
+				w = elongated.toString();
+			}
+			else if (p < 0.1)
+			{
+				w = w.toUpperCase();
+			}
+			else if (p < 0.13)
+			{
+				w = "#"+w;
+			}
+			sb.append(w);
+			if (rnd.nextDouble() < 0.15)
+			{
+				sb.append(' ').append(PUNCTUATION[rnd.nextInt(PUNCTUATION.length)]);
+			}
+			sb.append(' ');
+		}
+		if (rnd.nextDouble() < 0.3)
+		{
+			sb.append(EMOTICONS[rnd.nextInt(EMOTICONS.length)]).append(' ');
+		}
+		if (rnd.nextDouble() < 0.15)
+		{
+			sb.append("https://t.co/").append(Long.toString(rnd.nextLong() & 0xffffffffL, 36)).append(' ');
+		}
+		return sb.toString().trim();
+	}
+
+	public String getLang ()
+	{
+		return lang;
+	}
+
+	public int size ()
+	{
+		return rows.size();
+	}
+
+	/**
+	 * @return List<String> : texts of the corpus.
+	 */
+	public List<String> getTexts ()
+	{
+		List<String> texts = new ArrayList<String>(rows.size());
+		for (String[] row : rows)
+		{
+			texts.add(row[2]);
+		}
+		return texts;
+	}
+
+	/**
+	 * @return List<String> : pseudo lemmas of the given text (lower cased tokens).
+	 */
+	public static List<String> lemmas (String text)
+	{
+		List<String> lemmas = new ArrayList<String>();
+		for (String token : text.split("\\s+"))
+		{
+			lemmas.add(token.toLowerCase());
+		}
+		return lemmas;
+	}
+
+	/**
+	 * @return String : corpus in "id<tab>polarity<tab>text" (tabNotagged) format.
+	 */
+	public String toTsv ()
+	{
+		StringBuilder sb = new StringBuilder();
+		for (String[] row : rows)
+		{
+			sb.append(row[0]).append('\t').append(row[1]).append('\t').append(row[2]).append('\n');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Write synthetic tweets to a file in "id<tab>polarity<tab>text" (tabNotagged) format. Tweets are
+	 * generated while writing, so the size of the file is not limited by memory. The same tweets are written
+	 * for the same language and size.
+	 *
+	 * @param int tweets : number of tweets
+	 * @param File file : output file
+	 * @throws IOException
+	 */
+	public void writeTweets (int tweets, File file) throws IOException
+	{
+		Random rnd = new Random((SEED+1) ^ lang.hashCode());
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8))) {
+			for (int i=0; i<tweets; i++)
+			{
+				out.print("doc"+i+"\t"+POLARITIES[rnd.nextInt(POLARITIES.length)]+"\t"+tweet(rnd)+"\n");
+			}
+		}
+	}
+
+	/**
+	 * @return CorpusReader : reader over the corpus (tabNotagged format).
+	 */
+	public CorpusReader reader ()
+	{
+		return new CorpusReader(new ByteArrayInputStream(toTsv().getBytes(StandardCharsets.UTF_8)), "tabNotagged", lang);
+	}
+
+	/**
+	 * @return File : temporal directory of the corpus files (created on first use, see delete()).
+	 * @throws IOException
+	 */
+	private File dir () throws IOException
+	{
+		if (dir == null)
+		{
+			dir = Files.createTempDirectory("elixa-bench-"+lang).toFile();
+		}
+		return dir;
+	}
+
+	/**
+	 * Write the pseudo-tagged corpus to a tagged corpus store (once).
+	 *
+	 * @return String : path to the tagged corpus store.
+	 * @throws IOException
+	 */
+	public String taggedStore () throws IOException
+	{
+		File file = new File(dir(), "corpus"+TaggedCorpusStore.EXTENSION);
+		if (!file.exists())
+		{
+			TaggedCorpusStore store = TaggedCorpusStore.open(file.getPath());
+			for (String[] row : rows)
+			{
+				store.put(row[0]+"_g", TaggedSentence.fromKAF(pseudoTag(lang, row[2])));
+			}
+		}
+		return file.getPath();
+	}
+
+	/**
+	 * Pseudo-tag a text: whitespace tokenization, lemma = lower cased form, PoS tag derived from the form.
+	 *
+	 * @param String lang : language of the text
+	 * @param String text
+	 * @return KAFDocument : tagged text
+	 */
+	public static KAFDocument pseudoTag (String lang, String text)
+	{
+		KAFDocument kaf = new KAFDocument(lang, "v1.naf");
+		int offset = 0;
+		for (String token : text.split("\\s+"))
+		{
+			offset = text.indexOf(token, offset);
+			WF wf = kaf.newWF(offset, token, 1);
+			wf.setLength(token.length());
+			offset += token.length();
+			Term term = kaf.newTerm(KAFDocument.newWFSpan(Arrays.asList(wf)));
+			term.setLemma(token.toLowerCase());
+			String tag;
+			if (!Character.isLetterOrDigit(token.codePointAt(0)) && token.length() < 4)
+			{
+				tag = "O";
+			}
+			else if (token.startsWith("@") || token.startsWith("#"))
+			{
+				tag = "R";
+			}
+			else
+			{
+				tag = TAGS[Math.floorMod(token.toLowerCase().hashCode(), TAGS.length)];
+			}
+			term.setPos(tag);
+			term.setMorphofeat(tag);
+		}
+		return kaf;
+	}
+
+	/**
+	 * Write a polarity lexicon ("lemma<tab>polarity" format) with entries for one in every four words of the
+	 * vocabulary of the corpus, plus synthetic entries up to the given size.
+	 *
+	 * @param int size : minimum number of entries
+	 * @return File : lexicon file
+	 * @throws IOException
+	 */
+	public File lexicon (int size) throws IOException
+	{
+		File file = new File(dir(), "lexicon-"+size+".lex");
+		if (file.exists())
+		{
+			return file;
+		}
+		Random rnd = new Random(SEED);
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8))) {
+			int n = 0;
+			for (int i=0; i<vocabulary.size(); i+=4)
+			{
+				out.println(vocabulary.get(i).toLowerCase()+"\t"+LEXICON_POLARITIES[rnd.nextInt(LEXICON_POLARITIES.length)]);
+				n++;
+			}
+			for (; n<size; n++)
+			{
+				out.println("lex"+Integer.toString(n, 36)+"\t"+LEXICON_POLARITIES[rnd.nextInt(LEXICON_POLARITIES.length)]);
+			}
+		}
+		return file;
+	}
+
+	/**
+	 * Feature extraction parameters of a typical tweet polarity model: word form, lemma and PoS n-grams,
+	 * polarity lexicon scores and n-grams, and tweet normalization. Sentences are read from the pseudo-tagged
+	 * store; the pos-model name selects the external tagger code path, so that no ixa-pipe model is loaded.
+	 *
+	 * @return Properties
+	 * @throws IOException
+	 */
+	public Properties params () throws IOException
+	{
+		Properties params = new Properties();
+		params.setProperty("pos-model", "eustagger-pretagged");
+		params.setProperty("lemma-model", "none");
+		params.setProperty("kafDir", taggedStore());
+		params.setProperty("wfngrams", "2");
+		params.setProperty("wfMinFreq", "2");
+		params.setProperty("lemmaNgrams", "2");
+		params.setProperty("lemmaMinFreq", "2");
+		params.setProperty("pos", "1");
+		params.setProperty("chrngrams", "3-5");
+		params.setProperty("chrfMinFreq", "5");
+		params.setProperty("polarLexiconGeneral", lexicon(10000).getPath());
+		params.setProperty("polNgrams", "yes");
+		params.setProperty("sentenceLength", "yes");
+		params.setProperty("upperCaseRatio", "yes");
+		params.setProperty("normalization", "all");
+		params.setProperty("polarity", "yes");
+		return params;
+	}
+
+	/**
+	 * @return Features : feature set extracted from the corpus with the benchmark parameters (see params()).
+	 * @throws IOException
+	 */
+	public Features features () throws IOException
+	{
+		return new Features(reader(), params(), "3");
+	}
+
+	/**
+	 * Remove the temporal files of the corpus.
+	 */
+	public void delete ()
+	{
+		if (dir != null)
+		{
+			File store = new File(dir, "corpus"+TaggedCorpusStore.EXTENSION);
+			if (store.exists())
+			{
+				try {
+					TaggedCorpusStore.open(store.getPath()).close();
+				} catch (IOException ioe) {
+					System.err.println("BenchmarkCorpus - error when closing the tagged corpus store "+store);
+				}
+			}
+			FileUtils.deleteQuietly(dir);
+			dir = null;
+		}
+	}
+}
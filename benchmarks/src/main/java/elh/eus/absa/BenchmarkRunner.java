@@ -0,0 +1,66 @@
+/*
+ * Copyright 2014 Elhuyar Fundazioa
+
+This file is part of EliXa.
+
+    EliXa is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    EliXa is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with EliXa.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elh.eus.absa;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of the benchmarks jar. Accepts the usual JMH command line options (e.g., a benchmark regexp,
+ * -p lang=es, -f, -wi, -i), and by default adds the gc profiler (allocation rate per operation) and writes 
+ * the results to elixa-benchmarks.json, so that runs of different versions can be compared.
+ *
+ * @author isanvi
+ *
+ */
+public class BenchmarkRunner {
+
+	public static final String RESULT_FILE = "elixa-benchmarks.json";
+
+	public static void main (String[] args) throws Exception
+	{
+		CommandLineOptions cmdOptions = new CommandLineOptions(args);
+		if (cmdOptions.shouldHelp() || cmdOptions.shouldList() || cmdOptions.shouldListProfilers()
+				|| cmdOptions.shouldListResultFormats() || cmdOptions.shouldListWithParams())
+		{
+			// list/help options are handled by the JMH main
+			org.openjdk.jmh.Main.main(args);
+			return;
+		}
+		ChainedOptionsBuilder options = new OptionsBuilder().parent(cmdOptions);
+		if (cmdOptions.getProfilers().isEmpty())
+		{
+			options.addProfiler(GCProfiler.class);
+		}
+		if (!cmdOptions.getResult().hasValue())
+		{
+			options.result(RESULT_FILE);
+		}
+		if (!cmdOptions.getResultFormat().hasValue())
+		{
+			options.resultFormat(ResultFormatType.JSON);
+		}
+		new Runner(options.build()).run();
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2014 Elhuyar Fundazioa
+
+This file is part of EliXa.
+
+    EliXa is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    EliXa is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with EliXa.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elh.eus.absa;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streaming pseudo-tagger for the tag-doc benchmark (see TagDocBenchmark). It speaks the protocol of the
+ * external tagger processes of TaggerPool: documents are read from standard input, each followed by a
+ * delimiter line, and the NAF of each document (see BenchmarkCorpus.pseudoTag) is written to standard output
+ * followed by the delimiter line.
+ *
+ * Usage: java -cp elixa-benchmarks.jar elh.eus.absa.BenchmarkTagger [lang] [delimiter]
+ *
+ * @author isanvi
+ *
+ */
+public class BenchmarkTagger {
+
+	public static void main (String[] args) throws IOException
+	{
+		String lang = (args.length > 0) ? args[0] : "en";
+		String delimiter = (args.length > 1) ? args[1] : TaggerPool.DEFAULT_DELIMITER;
+
+		BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+		Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+		StringBuilder doc = new StringBuilder();
+		String line;
+		while ((line = in.readLine()) != null)
+		{
+			if (!line.trim().equals(delimiter))
+			{
+				doc.append(line).append("\n");
+				continue;
+			}
+			String text = doc.toString().trim();
+			doc.setLength(0);
+			// empty output for empty documents, the caller reports them as tagging errors.
+			if (!text.isEmpty())
+			{
+				String naf = BenchmarkCorpus.pseudoTag(lang, text).toString();
+				out.write(naf);
+				if (!naf.endsWith("\n"))
+				{
+					out.write("\n");
+				}
+			}
+			out.write(delimiter+"\n");
+			out.flush();
+		}
+		out.flush();
+	}
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2014 Elhuyar Fundazioa
+
+This file is part of EliXa.
+
+    EliXa is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    EliXa is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with EliXa.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elh.eus.absa;
+
+import ixa.kaflib.KAFDocument;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.ArgumentParserException;
+import net.sourceforge.argparse4j.inf.Namespace;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Check that tagging sentences in batches with a Basque external tagger (NLPpipelineWrapper.eustaggerCallBatch, 
+ * taggerBatchSize parameter) gives the same tagged sentences as tagging them one by one (eustaggerCall).
+ *
+ * Sentences are read from a tabNotagged corpus ("id<tab>polarity<tab>text", or a sentence per line), or 
+ * taken from the Basque benchmark corpus if no corpus is given (see BenchmarkCorpus). Each sentence is tagged on its own and 
+ * in batches, and the text and terms layers of the tagged files are compared (word forms, offsets, sentence 
+ * numbers, lemmas and tags, see TaggedSentence), since the headers of the files split from a batch differ from 
+ * those written by the tagger. Differences are printed, and the exit code is 1 if any sentence differs.
+ *
+ * Usage: java -cp elixa-benchmarks.jar elh.eus.absa.EustaggerBatchCheck -t /path/to/eustagger [-c corpus.tsv] [-b 50]
+ *
+ * @author isanvi
+ *
+ */
+public class EustaggerBatchCheck {
+
+	public static void main (String[] args) throws IOException
+	{
+		ArgumentParser parser = ArgumentParsers.newFor("eustagger-batch-check").build()
+				.description("Compare batched and per sentence tagging with a Basque external tagger.");
+		parser.addArgument("-t", "--tagger")
+		.required(true)
+		.help("Tagger executable (eustagger|euslem|ixa-pipe-pos-eu), as given in the pos-model parameter.");
+		parser.addArgument("-c", "--corpus")
+		.help("tabNotagged corpus (or a sentence per line). Synthetic Basque sentences are used by default.");
+		parser.addArgument("-n", "--sentences")
+		.type(Integer.class)
+		.setDefault(200)
+		.help("Number of sentences to check (default 200).");
+		parser.addArgument("-b", "--batchSize")
+		.type(Integer.class)
+		.setDefault(50)
+		.help("Number of sentences per tagger call (default 50).");
+		Namespace ns;
+		try {
+			ns = parser.parseArgs(args);
+		} catch (ArgumentParserException e) {
+			parser.handleError(e);
+			System.exit(1);
+			return;
+		}
+		String tagger = ns.getString("tagger");
+		int batchSize = ns.getInt("batchSize");
+		List<String> sentences = readSentences(ns.getString("corpus"), ns.getInt("sentences"));
+		File dir = Files.createTempDirectory("elixa-batch-check").toFile();
+		try {
+			File single = new File(dir, "single");
+			File batch = new File(dir, "batch");
+			single.mkdirs();
+			batch.mkdirs();
+
+			long start = System.nanoTime();
+			for (int i=0; i<sentences.size(); i++)
+			{
+				NLPpipelineWrapper.eustaggerCall(tagger, sentences.get(i), new File(single, "s"+i).getPath());
+			}
+			double singleSecs = (System.nanoTime()-start)/1e9;
+
+			start = System.nanoTime();
+			for (int from=0; from<sentences.size(); from+=batchSize)
+			{
+				List<String> chunk = sentences.subList(from, Math.min(from+batchSize, sentences.size()));
+				List<String> fnames = new ArrayList<String>(chunk.size());
+				for (int i=from; i<from+chunk.size(); i++)
+				{
+					fnames.add(new File(batch, "s"+i).getPath());
+				}
+				NLPpipelineWrapper.eustaggerCallBatch(tagger, chunk, fnames);
+			}
+			double batchSecs = (System.nanoTime()-start)/1e9;
+
+			int differences = 0;
+			for (int i=0; i<sentences.size(); i++)
+			{
+				String expected = read(new File(single, "s"+i+".kaf"));
+				String actual = read(new File(batch, "s"+i+".kaf"));
+				if (!expected.equals(actual))
+				{
+					if (differences < 5)
+					{
+						System.out.println("sentence "+i+": "+sentences.get(i)+"\n--- one by one:\n"+expected+"--- batch:\n"+actual);
+					}
+					differences++;
+				}
+			}
+			System.out.println(String.format("EustaggerBatchCheck - %d sentences, %d different. One by one: %.1f s, batches of %d: %.1f s",
+					sentences.size(), differences, singleSecs, batchSize, batchSecs));
+			System.exit(differences > 0 ? 1 : 0);
+		} finally {
+			FileUtils.deleteQuietly(dir);
+		}
+	}
+
+	private static List<String> readSentences (String corpus, int max) throws IOException
+	{
+		if (corpus == null)
+		{
+			List<String> texts = BenchmarkCorpus.create("eu", max).getTexts();
+			return new ArrayList<String>(texts.subList(0, Math.min(max, texts.size())));
+		}
+		List<String> sentences = new ArrayList<String>();
+		for (String line : Files.readAllLines(new File(corpus).toPath(), StandardCharsets.UTF_8))
+		{
+			String[] fields = line.split("\t");
+			String text = (fields.length >= 3) ? fields[2] : line;
+			if (!text.trim().isEmpty())
+			{
+				sentences.add(text);
+			}
+			if (sentences.size() == max)
+			{
+				break;
+			}
+		}
+		return sentences;
+	}
+
+	private static String read (File f) throws IOException
+	{
+		if (!f.exists())
+		{
+			return "<no tagged file>\n";
+		}
+		// both files are rebuilt from the layers Elixa reads, so that only those are compared.
+		KAFDocument kaf = KAFDocument.createFromFile(f);
+		return TaggedSentence.fromKAF(kaf).toKAF(kaf.getLang()).toString();
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2014 Elhuyar Fundazioa
+
+This file is part of EliXa.
+
+    EliXa is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    EliXa is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with EliXa.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elh.eus.absa;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Per sentence feature lookups of Features (sentences per second): n-gram feature names (featureFromArray),
+ * word form n-gram features (checkNgramFeatures) and polarity lexicon features (checkPolarityLexicons).
+ * The feature set is extracted from the benchmark corpus in the setup (see BenchmarkCorpus.params()), and
+ * each operation processes the n-gram windows of a sentence, as loadInstances does.
+ *
+ * @author isanvi
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dfile.encoding=UTF-8")
+public class FeatureExtractionBenchmark {
+
+	private static final int MAX_NGRAM = 2;
+
+	@Param({"en", "es", "eu", "fr"})
+	public String lang;
+
+	@Param({"2000"})
+	public int tweets;
+
+	private BenchmarkCorpus corpus;
+	private Features features;
+	// [sentence][position] : n-gram window ending at each token of the sentence
+	private List<List<LinkedList<String>>> windows = new ArrayList<List<LinkedList<String>>>();
+	// [sentence] : lemmas and lemma n-grams of the sentence
+	private List<List<String>> lemmas = new ArrayList<List<String>>();
+	private int next;
+
+	@Setup
+	public void setup () throws IOException
+	{
+		corpus = BenchmarkCorpus.create(lang, tweets);
+		features = corpus.features();
+		for (String text : corpus.getTexts())
+		{
+			List<LinkedList<String>> sentWindows = new ArrayList<LinkedList<String>>();
+			List<String> sentLemmas = new ArrayList<String>();
+			LinkedList<String> window = new LinkedList<String>();
+			for (String lemma : BenchmarkCorpus.lemmas(text))
+			{
+				if (window.size() >= MAX_NGRAM)
+				{
+					window.removeFirst();
+				}
+				window.add(lemma);
+				sentWindows.add(new LinkedList<String>(window));
+				sentLemmas.add(lemma);
+				if (window.size() > 1)
+				{
+					sentLemmas.add(features.featureFromArray(window, ""));
+				}
+			}
+			windows.add(sentWindows);
+			lemmas.add(sentLemmas);
+		}
+	}
+
+	@TearDown
+	public void tearDown ()
+	{
+		corpus.delete();
+	}
+
+	private int nextSentence ()
+	{
+		int sentence = next;
+		next = (next+1) % windows.size();
+		return sentence;
+	}
+
+	@Benchmark
+	public void featureFromArray (Blackhole bh)
+	{
+		for (LinkedList<String> window : windows.get(nextSentence()))
+		{
+			bh.consume(features.featureFromArray(window, "wf"));
+		}
+	}
+
+	@Benchmark
+	public FeatureVector checkNgramFeatures ()
+	{
+		List<LinkedList<String>> sentence = windows.get(nextSentence());
+		FeatureVector fVector = new FeatureVector();
+		for (LinkedList<String> window : sentence)
+		{
+			features.checkNgramFeatures(window, fVector, "wf", sentence.size(), false, 1);
+		}
+		return fVector;
+	}
+
+	@Benchmark
+	public FeatureVector checkPolarityLexicons ()
+	{
+		List<String> sentence = lemmas.get(nextSentence());
+		FeatureVector fVector = new FeatureVector();
+		for (String lemma : sentence)
+		{
+			features.checkPolarityLexicons(lemma, fVector, sentence.size(), true);
+		}
+		return fVector;
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2014 Elhuyar Fundazioa
+
+This file is part of EliXa.
+
+    EliXa is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    EliXa is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with EliXa.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elh.eus.absa;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Polarity lexicon loading (lexicons per second) and lookup (lookups per second), both for text lexicons and
+ * compiled lexicons (see CompiledLexicon). Lookups are done with the lemmas of the benchmark corpus.
+ *
+ * @author isanvi
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dfile.encoding=UTF-8")
+public class LexiconBenchmark {
+
+	@Param({"en", "es", "eu", "fr"})
+	public String lang;
+
+	@Param({"100000"})
+	public int entries;
+
+	private BenchmarkCorpus corpus;
+	private File textFile;
+	private File compiledFile;
+	private Lexicon text;
+	private Lexicon compiled;
+	private String[] keys;
+	private int next;
+
+	@Setup
+	public void setup () throws IOException
+	{
+		corpus = BenchmarkCorpus.create(lang, 2000);
+		textFile = corpus.lexicon(entries);
+		compiledFile = new File(textFile.getPath()+CompiledLexicon.EXTENSION);
+		text = new Lexicon(textFile, "lemma");
+		text.compile(compiledFile, "lemma");
+		compiled = new Lexicon(compiledFile, "lemma");
+		List<String> lemmas = new ArrayList<String>();
+		for (String sentence : corpus.getTexts())
+		{
+			lemmas.addAll(BenchmarkCorpus.lemmas(sentence));
+		}
+		keys = lemmas.toArray(new String[lemmas.size()]);
+	}
+
+	@TearDown
+	public void tearDown ()
+	{
+		corpus.delete();
+	}
+
+	private String nextKey ()
+	{
+		String key = keys[next];
+		next = (next+1) % keys.length;
+		return key;
+	}
+
+	@Benchmark
+	public Lexicon loadText ()
+	{
+		return new Lexicon(textFile, "lemma");
+	}
+
+	@Benchmark
+	public Lexicon loadCompiled ()
+	{
+		return new Lexicon(compiledFile, "lemma");
+	}
+
+	@Benchmark
+	public Lexicon.Polarity lookupText ()
+	{
+		return text.getPolarity(nextKey());
+	}
+
+	@Benchmark
+	public Lexicon.Polarity lookupCompiled ()
+	{
+		return compiled.getPolarity(nextKey());
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2014 Elhuyar Fundazioa
+
+This file is part of EliXa.
+
+    EliXa is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    EliXa is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with EliXa.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elh.eus.absa;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import weka.core.Instances;
+
+/**
+ * End-to-end feature extraction: Features.loadInstances over the whole benchmark corpus (normalization, 
+ * tagged sentence lookup and vectorization), reading the sentences from the pseudo-tagged store. 
+ * The primary score is corpora per second; the "sentences" secondary score gives sentences per second.
+ *
+ * @author isanvi
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dfile.encoding=UTF-8")
+public class LoadInstancesBenchmark {
+
+	@Param({"en", "es", "eu", "fr"})
+	public String lang;
+
+	@Param({"2000"})
+	public int tweets;
+
+	private BenchmarkCorpus corpus;
+	private Features features;
+
+	/**
+	 * Number of sentences vectorized.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Sentences
+	{
+		public long sentences;
+
+		@Setup(Level.Iteration)
+		public void reset ()
+		{
+			sentences = 0;
+		}
+	}
+
+	@Setup
+	public void setup () throws IOException
+	{
+		corpus = BenchmarkCorpus.create(lang, tweets);
+		features = corpus.features();
+	}
+
+	@TearDown
+	public void tearDown ()
+	{
+		corpus.delete();
+	}
+
+	@Benchmark
+	public Instances loadInstances (Sentences counter) throws IOException
+	{
+		Instances instances = features.loadInstances(false, "bench");
+		counter.sentences += instances.numInstances();
+		return instances;
+	}
+}
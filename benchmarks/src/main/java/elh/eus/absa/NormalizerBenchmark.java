@@ -0,0 +1,78 @@
+/*
+ * Copyright 2014 Elhuyar Fundazioa
+
+This file is part of EliXa.
+
+    EliXa is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    EliXa is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with EliXa.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elh.eus.absa;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * MicroTextNormalizer.normalizeSentence throughput (sentences per second), with the normalization options 
+ * used by feature extraction for normalization=all.
+ *
+ * @author isanvi
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dfile.encoding=UTF-8")
+public class NormalizerBenchmark {
+
+	@Param({"en", "es", "eu", "fr"})
+	public String lang;
+
+	@Param({"2000"})
+	public int tweets;
+
+	private MicroTextNormalizer normalizer;
+	private String[] sentences;
+	private int next;
+
+	@Setup
+	public void setup ()
+	{
+		normalizer = new MicroTextNormalizer(lang);
+		normalizer.setEmodict(this.getClass().getClassLoader().getResourceAsStream("emoticons.lex"));
+		List<String> texts = BenchmarkCorpus.create(lang, tweets).getTexts();
+		sentences = texts.toArray(new String[texts.size()]);
+	}
+
+	@Benchmark
+	public String normalizeSentence ()
+	{
+		String sentence = sentences[next];
+		next = (next+1) % sentences.length;
+		return normalizer.normalizeSentence(sentence, true, true, true, true, true);
+	}
+}
@@ -0,0 +1,370 @@
+/*
+ * Copyright 2014 Elhuyar Fundazioa
+
+This file is part of EliXa.
+
+    EliXa is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    EliXa is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with EliXa.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elh.eus.absa;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.ArgumentParserException;
+import net.sourceforge.argparse4j.inf.Namespace;
+
+/**
+ * Regression check for MicroTextNormalizer.normalizeSentence: sentences are normalized with several combinations
+ * of the normalization options and compared to the outputs stored in a fixture.
+ *
+ * The fixture (normalizer-regression.tsv.gz) was written with the normalizer previous to the single pass
+ * normalizeSentence, so the check shows whether the current normalizer still gives byte-identical output. It
+ * holds, per language, the OOV dictionary and form dictionary used, the benchmark corpus tweets (see BenchmarkCorpus)
+ * and the same tweets with edge cases injected (whitespace variants, attached users and hashtags, interjections,
+ * urls, combining marks, supplementary and full-width characters...). The emoticon dictionary is emoticons.lex.
+ *
+ * Fixture lines (tab separated, tabs/newlines/backslashes in the fields are escaped):
+ *    flags	option combinations, as 5 digits each (url, user, hashtag, emot, nonStandard).
+ *    oov	lang	word	correction
+ *    form	lang	word
+ *    case	lang	input	output (one per option combination)
+ *
+ * Differences are printed, and the exit code is 1 if any sentence differs. With -w the fixture is written
+ * instead, using the normalizer in the classpath.
+ *
+ * Usage: java -cp elixa-benchmarks.jar elh.eus.absa.NormalizerRegressionCheck [-f fixture.tsv.gz] [-w fixture.tsv.gz [-n 500]]
+ *
+ * @author isanvi
+ *
+ */
+public class NormalizerRegressionCheck {
+
+	public static final String FIXTURE = "normalizer-regression.tsv.gz";
+
+	private static final String[] LANGS = {"en", "es", "eu", "fr"};
+	private static final String[] FLAGS = {"11111", "10000", "01100", "00010", "00001", "11110"};
+
+	//pieces injected in the benchmark tweets to write the fixture.
+	private static final String[] EDGE_CASES = {"jajajaja", "JAJAJA!!", "jejeje", "hahaha", "ha", "juasjuas", "lol", "LOLOL", "jojojo",
+		"muahahaha", "muaaacks", "pufff", "ufff", "uf", "(jajaja)", "¡¡holaaaa!!", "\"feooo\"", "q", "xq", "PP", "CCOO", "WWW", "aaaa",
+		"hola#mundo", "hola@usuario", "@usuario_largo_de_mas_de_15", "@a", "#HolaMundo2015", "#123abc", "#ETA", "#hola,mundo",
+		"#", "@", "##", "http://www.elhuyar.eus", "https://t.co/AbC123", "www.elhuyar.eus", "ftp://x.y/z?a=b", "mailto:a@b.c",
+		"x:y", "e\u0301", "cafe\u0301\u0301\u0301", "\uD83D\uDE00", "\uD83D\uDE00\uD83D\uDE00", "\uFF48\uFF4F\uFF4C\uFF41", "\uFF03\uFF48",
+		"\u0001", "a\u0000b", "\u00ADsoft", "ÑAÑAÑA", "İstanbul", "ß", "\u2603", ":)", ":-)))", ";)", ":D", "xDDD", "<3", ":'(",
+		"...", "!!!", "¿?", "-", "'", "d'accord", "l'homme", "etxe-ko", "2015", "1st", "n\u0303", "\u05E9\u05DC\u05D5\u05DD"};
+	private static final String[] SPACES = {" ", "  ", "\t", "\n", " \t ", "\u00A0", "\u2003", "\u3000", "\u000B", "\f", "\r\n", "\u200B"};
+	// results are printed as UTF-8 whatever the default charset of the JVM is.
+	private static final PrintWriter stdout = new PrintWriter(new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8), true);
+
+	public static void main (String[] args) throws IOException
+	{
+		ArgumentParser parser = ArgumentParsers.newFor("normalizer-regression-check").build()
+				.description("Compare MicroTextNormalizer output with the outputs stored in a regression fixture.");
+		parser.addArgument("-f", "--fixture")
+		.help("Fixture to check against (default: "+FIXTURE+" in the classpath).");
+		parser.addArgument("-w", "--write")
+		.help("Write a fixture with the normalizer in the classpath to the given file, instead of checking.");
+		parser.addArgument("-n", "--tweets")
+		.type(Integer.class)
+		.setDefault(500)
+		.help("Benchmark corpus tweets per language when writing a fixture (default 500).");
+		Namespace ns;
+		try {
+			ns = parser.parseArgs(args);
+		} catch (ArgumentParserException e) {
+			parser.handleError(e);
+			System.exit(1);
+			return;
+		}
+		if (ns.getString("write") != null)
+		{
+			write(ns.getString("write"), ns.getInt("tweets"));
+			return;
+		}
+		InputStream in = (ns.getString("fixture") != null) ? new FileInputStream(ns.getString("fixture"))
+				: NormalizerRegressionCheck.class.getClassLoader().getResourceAsStream(FIXTURE);
+		if (in == null)
+		{
+			System.err.println("NormalizerRegressionCheck - fixture not found: "+FIXTURE);
+			System.exit(1);
+		}
+		System.exit(check(in) > 0 ? 1 : 0);
+	}
+
+	/**
+	 * Normalize the fixture sentences and compare them to the stored outputs.
+	 *
+	 * @return int : number of differences.
+	 */
+	private static int check (InputStream fixture) throws IOException
+	{
+		String[] flags = null;
+		Map<String, HashMap<String, String>> oov = new HashMap<String, HashMap<String, String>>();
+		Map<String, StringBuilder> forms = new HashMap<String, StringBuilder>();
+		Map<String, MicroTextNormalizer> normalizers = new HashMap<String, MicroTextNormalizer>();
+		int cases = 0;
+		int differences = 0;
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(fixture), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				String[] fields = line.split("\t", -1);
+				for (int i=0; i<fields.length; i++)
+				{
+					fields[i] = unescape(fields[i]);
+				}
+				if (fields[0].equals("flags"))
+				{
+					flags = new String[fields.length-1];
+					System.arraycopy(fields, 1, flags, 0, flags.length);
+				}
+				else if (fields[0].equals("oov"))
+				{
+					if (!oov.containsKey(fields[1]))
+					{
+						oov.put(fields[1], new HashMap<String, String>());
+					}
+					oov.get(fields[1]).put(fields[2], fields[3]);
+				}
+				else if (fields[0].equals("form"))
+				{
+					if (!forms.containsKey(fields[1]))
+					{
+						forms.put(fields[1], new StringBuilder());
+					}
+					forms.get(fields[1]).append(fields[2]).append("\n");
+				}
+				else if (fields[0].equals("case"))
+				{
+					String lang = fields[1];
+					MicroTextNormalizer normalizer = normalizers.get(lang);
+					if (normalizer == null)
+					{
+						HashMap<String, String> langOov = oov.containsKey(lang) ? oov.get(lang) : new HashMap<String, String>();
+						String langForms = forms.containsKey(lang) ? forms.get(lang).toString() : "";
+						normalizer = normalizer(lang, langOov, langForms);
+						normalizers.put(lang, normalizer);
+					}
+					for (int f=0; f<flags.length; f++)
+					{
+						String actual = normalize(normalizer, fields[2], flags[f]);
+						if (!actual.equals(fields[3+f]))
+						{
+							if (differences < 10)
+							{
+								stdout.println(lang+" "+flags[f]+" input:    "+escape(fields[2])+"\n"+lang+" "+flags[f]+" expected: "
+										+escape(fields[3+f])+"\n"+lang+" "+flags[f]+" actual:   "+escape(actual));
+							}
+							differences++;
+						}
+						cases++;
+					}
+				}
+			}
+		}
+		stdout.println(String.format("NormalizerRegressionCheck - %d normalizations, %d different.", cases, differences));
+		return differences;
+	}
+
+	/**
+	 * Write a fixture with the normalizer in the classpath.
+	 */
+	private static void write (String file, int tweets) throws IOException
+	{
+		Random rnd = new Random(BenchmarkCorpus.SEED);
+		try (PrintWriter out = new PrintWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file)), StandardCharsets.UTF_8))) {
+			out.print("flags");
+			for (String f : FLAGS)
+			{
+				out.print("\t"+f);
+			}
+			out.print("\n");
+			for (String lang : LANGS)
+			{
+				List<String> texts = BenchmarkCorpus.create(lang, tweets).getTexts();
+				// OOV and form dictionaries: words of the corpus, and the corrections of some of the edge cases.
+				HashMap<String, String> langOov = new LinkedHashMap<String, String>();
+				langOov.put("q", "que");
+				langOov.put("xq", "porque");
+				langOov.put("PP", "PP");
+				Set<String> langForms = new LinkedHashSet<String>();
+				langForms.add("hola");
+				langForms.add("feo");
+				langForms.add("aa");
+				for (String text : texts.subList(0, Math.min(texts.size(), 50)))
+				{
+					for (String w : text.split("\\s+"))
+					{
+						w = w.replaceAll("[\\p{Punct}&&[^']]", "");
+						if (w.length() > 1 && rnd.nextDouble() < 0.5)
+						{
+							if (rnd.nextDouble() < 0.1)
+							{
+								langOov.put(w, w.toUpperCase());
+							}
+							else
+							{
+								langForms.add(w.toLowerCase());
+							}
+						}
+					}
+				}
+				StringBuilder formText = new StringBuilder();
+				for (Map.Entry<String, String> e : langOov.entrySet())
+				{
+					out.print("oov\t"+lang+"\t"+escape(e.getKey())+"\t"+escape(e.getValue())+"\n");
+				}
+				for (String w : langForms)
+				{
+					out.print("form\t"+lang+"\t"+escape(w)+"\n");
+					formText.append(w).append("\n");
+				}
+				MicroTextNormalizer normalizer = normalizer(lang, new HashMap<String, String>(langOov), formText.toString());
+
+				List<String> inputs = new ArrayList<String>(texts);
+				for (String text : texts)
+				{
+					inputs.add(inject(text, rnd));
+				}
+				for (String e : EDGE_CASES)
+				{
+					inputs.add(e);
+					inputs.add(" "+e+SPACES[rnd.nextInt(SPACES.length)]+e+" ");
+				}
+				inputs.add("");
+				inputs.add(" \t ");
+				for (String input : inputs)
+				{
+					out.print("case\t"+lang+"\t"+escape(input));
+					for (String f : FLAGS)
+					{
+						out.print("\t"+escape(normalize(normalizer, input, f)));
+					}
+					out.print("\n");
+				}
+			}
+		}
+		stdout.println("NormalizerRegressionCheck - fixture written: "+file);
+	}
+
+	private static MicroTextNormalizer normalizer (String lang, HashMap<String, String> oov, String forms) throws IOException
+	{
+		MicroTextNormalizer normalizer = new MicroTextNormalizer(lang);
+		normalizer.setEmodict(emodict());
+		normalizer.setNonStandard(oov);
+		normalizer.setFormDict(new ByteArrayInputStream(forms.getBytes(StandardCharsets.UTF_8)));
+		return normalizer;
+	}
+
+	/**
+	 * Read the emoticon dictionary of the classpath as UTF-8, as MicroTextNormalizer.setEmodict(InputStream) 
+	 * would with a UTF-8 default charset.
+	 */
+	private static HashMap<String, String> emodict () throws IOException
+	{
+		HashMap<String, String> emodict = new HashMap<String, String>();
+		InputStream in = NormalizerRegressionCheck.class.getClassLoader().getResourceAsStream("emoticons.lex");
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				String[] fields = line.split("\t");
+				if (!line.startsWith("#") && !line.matches("^\\s*$") && fields.length > 1)
+				{
+					emodict.put(fields[0], fields[1]);
+				}
+			}
+		}
+		return emodict;
+	}
+
+	private static String normalize (MicroTextNormalizer normalizer, String input, String flags)
+	{
+		return normalizer.normalizeSentence(input, flags.charAt(0) == '1', flags.charAt(1) == '1', flags.charAt(2) == '1',
+				flags.charAt(3) == '1', flags.charAt(4) == '1');
+	}
+
+	/**
+	 * Inject edge cases and whitespace variants between the tokens of a tweet.
+	 */
+	private static String inject (String text, Random rnd)
+	{
+		StringBuilder sb = new StringBuilder();
+		for (String token : text.split(" "))
+		{
+			double p = rnd.nextDouble();
+			if (p < 0.15)
+			{
+				sb.append(EDGE_CASES[rnd.nextInt(EDGE_CASES.length)]).append(SPACES[rnd.nextInt(SPACES.length)]);
+			}
+			else if (p < 0.2)
+			{
+				// attached to the token
+				token = token+EDGE_CASES[rnd.nextInt(EDGE_CASES.length)];
+			}
+			sb.append(token).append((rnd.nextDouble() < 0.2) ? SPACES[rnd.nextInt(SPACES.length)] : " ");
+		}
+		return sb.toString();
+	}
+
+	private static String escape (String s)
+	{
+		return s.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+	}
+
+	private static String unescape (String s)
+	{
+		if (s.indexOf('\\') < 0)
+		{
+			return s;
+		}
+		StringBuilder sb = new StringBuilder(s.length());
+		for (int i=0; i<s.length(); i++)
+		{
+			char c = s.charAt(i);
+			if (c == '\\' && i+1 < s.length())
+			{
+				char n = s.charAt(++i);
+				sb.append((n == 't') ? '\t' : (n == 'n') ? '\n' : (n == 'r') ? '\r' : n);
+			}
+			else
+			{
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+}
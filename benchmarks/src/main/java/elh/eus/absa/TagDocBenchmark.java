@@ -0,0 +1,375 @@
+/*
+ * Copyright 2014 Elhuyar Fundazioa
+
+This file is part of EliXa.
+
+    EliXa is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    EliXa is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with EliXa.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elh.eus.absa;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.impl.Arguments;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.ArgumentParserException;
+import net.sourceforge.argparse4j.inf.Namespace;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
+
+import weka.core.Instances;
+
+/**
+ * End to end benchmark of the tag-doc pipeline (CorpusReader -> Features -> WekaWrapper classification).
+ *
+ * A polarity model is first trained offline over the pseudo-tagged benchmark corpus (see BenchmarkCorpus).
+ * Then, for each corpus size, synthetic tweets are classified with the elixa CLI (tag-doc in streaming mode)
+ * in a separate JVM, so that peak memory is measured for each size on its own. Sentences are tagged by
+ * BenchmarkTagger processes through TaggerPool, so that the whole pipeline (normalization, tagging, NAF
+ * writing and reading, feature vectors, classification) runs without PoS tagging models.
+ *
+ * For each size it reports sentences per second, peak RSS of the tag-doc JVM and the time spent in each
+ * pipeline stage (see PipelineStage). Results are printed and written to elixa-tagdoc-benchmark.json.
+ *
+ * Usage: java -cp elixa-benchmarks.jar elh.eus.absa.TagDocBenchmark [-l lang] [-s 10000,100000,1000000] ...
+ *
+ * @author isanvi
+ *
+ */
+public class TagDocBenchmark {
+
+	public static final String RESULT_FILE = "elixa-tagdoc-benchmark.json";
+
+	private static final String TAGGER = "euslem-benchmark";
+
+	public static void main (String[] args) throws Exception
+	{
+		ArgumentParser parser = ArgumentParsers.newFor("tagdoc-benchmark").build()
+				.description("End to end benchmark of the elixa tag-doc pipeline.");
+		parser.addArgument("-l", "--language")
+		.choices("en", "es", "eu", "fr")
+		.setDefault("es")
+		.help("Language of the benchmark corpora (default es).");
+		parser.addArgument("-s", "--sizes")
+		.setDefault("10000,100000,1000000")
+		.help("Comma separated corpus sizes, in sentences (default 10000,100000,1000000).");
+		parser.addArgument("-n", "--trainSize")
+		.type(Integer.class)
+		.setDefault(2000)
+		.help("Number of synthetic tweets added to the example corpus to train the model (default 2000).");
+		parser.addArgument("-b", "--batchSize")
+		.type(Integer.class)
+		.setDefault(10000)
+		.help("tag-doc streaming batch size (default 10000).");
+		parser.addArgument("-t", "--threads")
+		.type(Integer.class)
+		.setDefault(1)
+		.help("Feature extraction threads (threads parameter, default 1).");
+		parser.addArgument("-w", "--taggerWorkers")
+		.type(Integer.class)
+		.setDefault(1)
+		.help("Tagger processes (taggerWorkers parameter, default 1).");
+		parser.addArgument("-d", "--workDir")
+		.help("Directory for the model, corpora and logs. Corpora found there are reused. "
+				+ "A temporal directory, deleted at the end, is used by default.");
+		parser.addArgument("-j", "--jvmArgs")
+		.setDefault("")
+		.help("Options of the tag-doc JVM (e.g., \"-Xmx4g\").");
+		parser.addArgument("-o", "--output")
+		.setDefault(RESULT_FILE)
+		.help("JSON result file (default "+RESULT_FILE+").");
+		// tag-doc run of a single corpus, used by the child JVMs.
+		parser.addArgument("--run")
+		.type(Integer.class)
+		.help(Arguments.SUPPRESS);
+
+		Namespace ns;
+		try {
+			ns = parser.parseArgs(args);
+		} catch (ArgumentParserException e) {
+			parser.handleError(e);
+			System.exit(1);
+			return;
+		}
+
+		if (ns.getInt("run") != null)
+		{
+			run(ns.getInt("run"), ns.getString("language"), new File(ns.getString("workDir")), ns.getInt("batchSize"));
+			System.exit(0);
+		}
+
+		boolean temporal = ns.getString("workDir") == null;
+		File workDir = temporal ? Files.createTempDirectory("elixa-tagdoc").toFile() : new File(ns.getString("workDir"));
+		workDir.mkdirs();
+		try {
+			benchmark(ns, workDir);
+		} finally {
+			if (temporal)
+			{
+				FileUtils.deleteQuietly(workDir);
+			}
+		}
+	}
+
+	private static void benchmark (Namespace ns, File workDir) throws Exception
+	{
+		String lang = ns.getString("language");
+		BenchmarkCorpus corpus = BenchmarkCorpus.create(lang, ns.getInt("trainSize"));
+		try {
+			train(corpus, ns, workDir);
+		} finally {
+			corpus.delete();
+		}
+
+		List<Properties> results = new ArrayList<Properties>();
+		StringBuilder header = new StringBuilder(String.format("%n%10s %10s %10s %10s %10s", "sentences", "seconds", "sent/s", "peak RSS", "classified"));
+		for (PipelineStage stage : PipelineStage.values())
+		{
+			header.append(String.format(" %10s", stage.getLabel()));
+		}
+		System.out.println(header);
+		for (String size : ns.getString("sizes").split(","))
+		{
+			int sentences = Integer.parseInt(size.trim());
+			File tweets = new File(workDir, "corpus-"+lang+"-"+sentences+".tsv");
+			if (!tweets.exists())
+			{
+				System.err.println("TagDocBenchmark - generating "+sentences+" sentences: "+tweets);
+				corpus.writeTweets(sentences, tweets);
+			}
+			Properties result = fork(sentences, ns, workDir);
+			results.add(result);
+			System.out.println(format(result));
+		}
+		writeJson(results, ns, new File(ns.getString("output")));
+		System.err.println("TagDocBenchmark - results written to "+ns.getString("output"));
+	}
+
+	/**
+	 * Train a polarity model over the pseudo-tagged corpus, and write the tag-doc configuration of the benchmark:
+	 * the same features, and the BenchmarkTagger as external tagger.
+	 */
+	private static void train (BenchmarkCorpus corpus, Namespace ns, File workDir) throws Exception
+	{
+		Properties params = corpus.params();
+		File lexicon = new File(workDir, "lexicon.lex");
+		FileUtils.copyFile(new File(params.getProperty("polarLexiconGeneral")), lexicon);
+
+		System.err.println("TagDocBenchmark - training model over "+corpus.size()+" sentences");
+		Features features = new Features(corpus.reader(), params, "3");
+		Instances traindata = features.loadInstances(false, "benchmark");
+		traindata.setClass(traindata.attribute("polarityCat"));
+		File model = new File(workDir, "benchmark.model");
+		new WekaWrapper(traindata, true, "smo", "1").saveModel(model.getPath());
+		if (!model.exists())
+		{
+			throw new IOException("TagDocBenchmark - benchmark model could not be trained");
+		}
+
+		params.remove("kafDir");
+		params.setProperty("taggedStore", "yes");
+		params.setProperty("polarLexiconGeneral", lexicon.getAbsolutePath());
+		params.setProperty("pos-model", TAGGER);
+		params.setProperty("taggerWorkers", String.valueOf(ns.getInt("taggerWorkers")));
+		params.setProperty("taggerCommand", javaCommand()+" -Xmx256m -cp "+System.getProperty("java.class.path")
+				+" "+BenchmarkTagger.class.getName()+" "+corpus.getLang());
+		params.setProperty("threads", String.valueOf(ns.getInt("threads")));
+		try (OutputStream out = new FileOutputStream(new File(workDir, "benchmark.cfg"))) {
+			params.store(out, "elixa tag-doc benchmark configuration");
+		}
+	}
+
+	/**
+	 * Run the benchmark of a corpus size in a new JVM and return its results.
+	 */
+	private static Properties fork (int sentences, Namespace ns, File workDir) throws IOException, InterruptedException
+	{
+		List<String> command = new ArrayList<String>();
+		command.add(javaCommand());
+		for (String arg : ns.getString("jvmArgs").trim().split("\\s+"))
+		{
+			if (!arg.isEmpty())
+			{
+				command.add(arg);
+			}
+		}
+		command.add("-Dfile.encoding=UTF-8");
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(TagDocBenchmark.class.getName());
+		command.add("--run");
+		command.add(String.valueOf(sentences));
+		command.add("-l");
+		command.add(ns.getString("language"));
+		command.add("-b");
+		command.add(String.valueOf(ns.getInt("batchSize")));
+		command.add("-d");
+		command.add(workDir.getAbsolutePath());
+
+		File log = new File(workDir, "tagdoc-"+sentences+".log");
+		System.err.println("TagDocBenchmark - classifying "+sentences+" sentences (log: "+log+")");
+		Process process = new ProcessBuilder(command).redirectErrorStream(true)
+				.redirectOutput(ProcessBuilder.Redirect.to(log)).start();
+		int exit = process.waitFor();
+		File result = resultFile(workDir, sentences);
+		if (exit != 0 || !result.exists())
+		{
+			throw new IOException("TagDocBenchmark - tag-doc run of "+sentences+" sentences failed, see "+log);
+		}
+		Properties props = new Properties();
+		try (InputStream in = new FileInputStream(result)) {
+			props.load(in);
+		}
+		return props;
+	}
+
+	/**
+	 * Classify a corpus with tag-doc (streaming mode) and write the results of the run.
+	 */
+	private static void run (int sentences, String lang, File workDir, int batchSize) throws Exception
+	{
+		File tweets = new File(workDir, "corpus-"+lang+"-"+sentences+".tsv");
+		String[] args = {"tag-doc", "-m", new File(workDir, "benchmark.model").getPath(), "-p",
+				new File(workDir, "benchmark.cfg").getPath(), "-l", lang, "-f", "tabNotagged", "-cn", "3",
+				"-b", String.valueOf(batchSize)};
+
+		PrintStream stdout = System.out;
+		PipelineStage.resetAll();
+		long start = System.nanoTime();
+		try (InputStream in = new BufferedInputStream(new FileInputStream(tweets))) {
+			System.setIn(in);
+			// classification output is formatted but not written
+			System.setOut(new PrintStream(NullOutputStream.NULL_OUTPUT_STREAM));
+			CLI.main(args);
+		} finally {
+			System.setOut(stdout);
+			TaggerPool.closeAll();
+		}
+		double seconds = (System.nanoTime() - start)/1e9;
+
+		Properties props = new Properties();
+		props.setProperty("sentences", String.valueOf(sentences));
+		props.setProperty("classified", String.valueOf(PipelineStage.CLASSIFY.getCount()));
+		props.setProperty("seconds", String.valueOf(seconds));
+		props.setProperty("peakRssKB", String.valueOf(peakRss()));
+		for (PipelineStage stage : PipelineStage.values())
+		{
+			props.setProperty("stage."+stage.getLabel(), String.valueOf(stage.getNanos()/1e9));
+		}
+		try (OutputStream out = new FileOutputStream(resultFile(workDir, sentences))) {
+			props.store(out, "elixa tag-doc benchmark run");
+		}
+	}
+
+	private static File resultFile (File workDir, int sentences)
+	{
+		return new File(workDir, "tagdoc-"+sentences+".properties");
+	}
+
+	private static String javaCommand ()
+	{
+		return System.getProperty("java.home")+File.separator+"bin"+File.separator+"java";
+	}
+
+	/**
+	 * @return long : peak resident set size of this process in KB (VmHWM), -1 if it is not available (non Linux systems).
+	 */
+	private static long peakRss ()
+	{
+		File status = new File("/proc/self/status");
+		if (!status.exists())
+		{
+			return -1;
+		}
+		try {
+			for (String line : Files.readAllLines(status.toPath(), StandardCharsets.UTF_8))
+			{
+				if (line.startsWith("VmHWM:"))
+				{
+					return Long.parseLong(line.replaceAll("[^0-9]", ""));
+				}
+			}
+		} catch (IOException ioe) {
+			System.err.println("TagDocBenchmark - peak RSS could not be read: "+ioe.getMessage());
+		}
+		return -1;
+	}
+
+	private static double number (Properties result, String key)
+	{
+		return Double.parseDouble(result.getProperty(key));
+	}
+
+	private static String format (Properties result)
+	{
+		StringBuilder sb = new StringBuilder();
+		double seconds = number(result, "seconds");
+		sb.append(String.format("%10d %10.1f %10.1f %8dMB %10d", (long) number(result, "sentences"), seconds,
+				number(result, "classified")/seconds, (long) number(result, "peakRssKB")/1024, (long) number(result, "classified")));
+		for (PipelineStage stage : PipelineStage.values())
+		{
+			sb.append(String.format(" %9.1fs", number(result, "stage."+stage.getLabel())));
+		}
+		return sb.toString();
+	}
+
+	private static void writeJson (List<Properties> results, Namespace ns, File file) throws IOException
+	{
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8))) {
+			out.println("{");
+			out.println("  \"language\": \""+ns.getString("language")+"\",");
+			out.println("  \"batchSize\": "+ns.getInt("batchSize")+",");
+			out.println("  \"threads\": "+ns.getInt("threads")+",");
+			out.println("  \"taggerWorkers\": "+ns.getInt("taggerWorkers")+",");
+			out.println("  \"results\": [");
+			for (int i=0; i<results.size(); i++)
+			{
+				Properties result = results.get(i);
+				double seconds = number(result, "seconds");
+				out.println("    {");
+				out.println("      \"sentences\": "+result.getProperty("sentences")+",");
+				out.println("      \"classified\": "+result.getProperty("classified")+",");
+				out.println("      \"seconds\": "+seconds+",");
+				out.println("      \"sentencesPerSecond\": "+(number(result, "classified")/seconds)+",");
+				out.println("      \"peakRssKB\": "+result.getProperty("peakRssKB")+",");
+				out.println("      \"stageSeconds\": {");
+				PipelineStage[] stages = PipelineStage.values();
+				for (int s=0; s<stages.length; s++)
+				{
+					out.println("        \""+stages[s].getLabel()+"\": "+result.getProperty("stage."+stages[s].getLabel())
+							+((s < stages.length-1) ? "," : ""));
+				}
+				out.println("      }");
+				out.println("    }"+((i < results.size()-1) ? "," : ""));
+			}
+			out.println("  ]");
+			out.println("}");
+		}
+	}
+}
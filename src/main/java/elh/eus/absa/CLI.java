@@ -23,6 +23,7 @@ package elh.eus.absa;
 import ixa.kaflib.KAFDocument;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
@@ -48,6 +49,7 @@ import net.sourceforge.argparse4j.inf.Subparsers;
 import org.apache.commons.io.FileUtils;
 import org.jdom2.JDOMException;
 
+import weka.classifiers.Classifier;
 import weka.core.Attribute;
 import weka.core.Instance;
 import weka.core.Instances;
@@ -125,6 +127,24 @@ public class CLI {
 	 */
 	private Subparser predictParser;
 	
+	/**
+	 * Parser that manages the import/export of binary tagged corpus stores from/to NAF.
+	 */
+	private Subparser taggedStoreParser;
+	/**
+	 * Parser to compile polarity lexicons to the binary lexicon format.
+	 */
+	private Subparser compileLexiconParser;
+	/**
+	 * Parser to create model bundles (classifier + feature dictionary + lexicons + clusters).
+	 */
+	private Subparser bundleModelParser;
+	
+	/**
+	 * Parser that manages the document classification server sub-command.
+	 */
+	private Subparser serveParser;
+	
 	
 	/**
 	 * Default polarity lexicon names. 
@@ -163,6 +183,14 @@ public class CLI {
 		loadTagSentParameters();
 		predictParser = subParsers.addParser("tag-naf").help("Predict polarity of a text");
 		loadPredictionParameters();
+		taggedStoreParser = subParsers.addParser("tagged-store").help("Tagged corpus store import/export CLI");
+		loadTaggedStoreParameters();
+		compileLexiconParser = subParsers.addParser("compile-lexicon").help("Polarity lexicon compilation CLI");
+		loadCompileLexiconParameters();
+		bundleModelParser = subParsers.addParser("bundle-model").help("Model bundle creation CLI");
+		loadBundleModelParameters();
+		serveParser = subParsers.addParser("serve").help("Document classification server CLI");
+		loadServeParameters();
 	}
 	
 	
@@ -214,11 +242,19 @@ public class CLI {
 				slot2(System.in);
 			}else if (args[0].equals("tag-naf")){
 				predictPolarity(System.in);
+			} else if (args[0].equals("tagged-store")) {
+				taggedStore();
+			} else if (args[0].equals("compile-lexicon")) {
+				compileLexicon();
+			} else if (args[0].equals("bundle-model")) {
+				bundleModel();
+			} else if (args[0].equals("serve")) {
+				serve();
 			}
 		} catch (ArgumentParserException e) {
 			argParser.handleError(e);
 			System.out.println("Run java -jar target/elixa-" + version
-					+ ".jar (train-atc|slot2|tagSentences|tag-ate|train-doc|eval-doc|tag-doc|tag-naf) -help for details");
+					+ ".jar (train-atc|slot2|tagSentences|tag-ate|train-doc|eval-doc|tag-doc|tag-naf|tagged-store|compile-lexicon|bundle-model|serve) -help for details");
 			System.exit(1);
 		}
 	}
@@ -332,13 +368,25 @@ public class CLI {
 		String lang = parsedArguments.getString("language");
 		String format = parsedArguments.getString("format");
 		boolean print = parsedArguments.getBoolean("print");
+		int taggerWorkers = parsedArguments.getInt("taggerWorkers");
+		int taggerBatchSize = parsedArguments.getInt("taggerBatchSize");
+		
+		if (taggerWorkers > 0)
+		{
+			TaggerPool.configure(posModel, new String[] {posModel}, taggerWorkers, TaggerPool.DEFAULT_DELIMITER, 120);
+		}
 		
 		System.err.println("Sentence tagging CLI, going to read the corpus.");
 		CorpusReader reader = new CorpusReader(inputStream, format, lang);
 		try {
-			String tagDir= dir+File.separator+lang;
-			Files.createDirectories(Paths.get(tagDir));
-			reader.tagSentences(tagDir, posModel, lemmaModel, print);
+			String tagDir= dir;
+			// binary tagged corpus store, otherwise a directory per language is created.
+			if (!TaggedCorpusStore.isStore(dir))
+			{
+				tagDir= dir+File.separator+lang;
+				Files.createDirectories(Paths.get(tagDir));
+			}
+			reader.tagSentences(tagDir, posModel, lemmaModel, print, taggerBatchSize);
 		} catch (Exception e) {			
 			e.printStackTrace();
 		} 
@@ -355,7 +403,8 @@ public class CLI {
 		.help("Pass the model to do the lemmatization as a parameter.\n");
 		tagSentParser.addArgument("-d", "--dir")
 		.required(true)
-		.help("directory to store tagged files.\n");
+		.help("directory to store tagged files. If a path with the '.tgs' extension is given tagged sentences are stored"
+				+ " in a binary tagged corpus store instead.\n");
 		tagSentParser.addArgument("-f", "--format")
 		.setDefault("tabNotagged")
 		.choices("tabNotagged", "semeval2015")	
@@ -365,6 +414,17 @@ public class CLI {
 		tagSentParser.addArgument("-p", "--print")
 		.action(Arguments.storeTrue())
 		.help("Whether the tagged files should be printed as a corpus.\n");
+		tagSentParser.addArgument("-tw", "--taggerWorkers")
+		.type(Integer.class)
+		.setDefault(0)
+		.help("Basque external taggers (eustagger|ixa-pipe-pos-eu) only: number of long running tagger processes to tag with."
+				+ " Taggers must work in streaming mode (see TaggerPool). 0 (default) starts a tagger process per sentence.\n");
+		tagSentParser.addArgument("-tb", "--taggerBatchSize")
+		.type(Integer.class)
+		.setDefault(1)
+		.help("Basque external taggers (eustagger|euslem|ixa-pipe-pos-eu) only: number of sentences to tag with each tagger call."
+				+ " Sentences are separated by a boundary token, and the tagged output is split back into a document per sentence"
+				+ " at that token. Default is 1.\n");
 		tagSentParser.addArgument("-l","--language")
 		.setDefault("en")
 		.choices("de", "en", "es", "eu", "it", "nl", "fr")
@@ -374,6 +434,145 @@ public class CLI {
 	}
 	
 	
+	/**
+	 * Import tagged files (kaf/naf) into a binary tagged corpus store, or export the contents of a store
+	 * as tagged files.
+	 */
+	public final void taggedStore() throws IOException
+	{
+		String storePath = parsedArguments.getString("store");
+		String importDir = parsedArguments.getString("importDir");
+		String exportDir = parsedArguments.getString("exportDir");
+		String lang = parsedArguments.getString("language");
+		
+		if (!TaggedCorpusStore.isStore(storePath))
+		{
+			System.err.println("EliXa::tagged-store - store path must have the '"+TaggedCorpusStore.EXTENSION+"' extension: "+storePath);
+			System.exit(1);
+		}
+		TaggedCorpusStore store = TaggedCorpusStore.open(storePath);
+		if (importDir != null)
+		{
+			int imported = store.importNAF(importDir);
+			System.err.println("EliXa::tagged-store - "+imported+" tagged files imported from "+importDir);
+		}
+		if (exportDir != null)
+		{
+			int exported = store.exportNAF(exportDir, lang);
+			System.err.println("EliXa::tagged-store - "+exported+" tagged files exported to "+exportDir);
+		}
+		store.close();
+	}
+	
+	public final void loadTaggedStoreParameters()
+	{
+		taggedStoreParser.addArgument("-s", "--store")
+		.required(true)
+		.help("Path to the tagged corpus store ('.tgs' extension). It is created if it does not exist.\n");
+		taggedStoreParser.addArgument("-i", "--importDir")
+		.required(false)
+		.help("Directory containing tagged files (kaf/naf) to import into the store.\n");
+		taggedStoreParser.addArgument("-e", "--exportDir")
+		.required(false)
+		.help("Directory to export the tagged sentences in the store to (one kaf/naf file per sentence).\n");
+		taggedStoreParser.addArgument("-l","--language")
+		.setDefault("en")
+		.choices("de", "en", "es", "eu", "it", "nl", "fr")
+		.help("Language of the exported tagged files.\n");
+	}
+	
+	
+	/**
+	 * Compile a polarity lexicon into the binary lexicon format, which is memory-mapped when loaded. 
+	 * Compiled lexicons can be used wherever a lexicon path is expected (e.g., polarLexiconGeneral).
+	 */
+	public final void compileLexicon() throws IOException
+	{
+		String lexPath = parsedArguments.getString("lexicon");
+		String outPath = parsedArguments.getString("output");
+		String syn = parsedArguments.getString("syn");
+		if (outPath == null)
+		{
+			outPath = lexPath+CompiledLexicon.EXTENSION;
+		}
+		
+		long startTime = System.currentTimeMillis();
+		Lexicon lexicon = new Lexicon(new File(lexPath), syn);
+		lexicon.compile(new File(outPath), syn);
+		System.err.println("EliXa::compile-lexicon - "+lexicon.size()+" entries compiled to "+outPath
+				+" ("+(double)(System.currentTimeMillis()-startTime)/1000+" seconds)");
+	}
+	
+	public final void loadCompileLexiconParameters()
+	{
+		compileLexiconParser.addArgument("-l", "--lexicon")
+		.required(true)
+		.help("Path to the polarity lexicon to compile.\n");
+		compileLexiconParser.addArgument("-o", "--output")
+		.required(false)
+		.help("Path to the compiled lexicon (default: lexicon path + '"+CompiledLexicon.EXTENSION+"').\n");
+		compileLexiconParser.addArgument("-s", "--syn")
+		.choices("lemma", "first", "rank", "mfs")
+		.setDefault("lemma")
+		.help("Type of the lexicon entries: lemmas, or WordNet synsets (first|rank|mfs).\n");
+	}
+	
+	
+	/**
+	 * Create a model bundle from a trained model and the parameter file it was trained with. The bundle stores 
+	 * the classifier, the feature dictionary, the polarity lexicons and the cluster maps of the model in a single 
+	 * file, which can be used wherever a model path is expected (e.g., tag-doc and eval-doc -m option).
+	 */
+	public final void bundleModel() throws IOException
+	{
+		String paramFile = parsedArguments.getString("params");
+		String model = parsedArguments.getString("model");
+		String lang = parsedArguments.getString("language");
+		String outPath = parsedArguments.getString("output");
+		
+		Properties params = loadParameters(paramFile, lang);
+		model = WekaWrapper.getModelResource(model, lang, "twt");
+		if (outPath == null)
+		{
+			outPath = parsedArguments.getString("model")+ModelBundle.EXTENSION;
+		}
+		// same default general lexicon tag-doc uses
+		if (params.getProperty("polarLexiconGeneral","default").equalsIgnoreCase("default"))
+		{
+			InputStream lexRsrc =  this.getClass().getClassLoader().getResourceAsStream(lang+File.separator+defaultLexicons.getProperty(lang));
+			params.setProperty("polarLexiconGeneral", FileUtilsElh.getElixaResource(lexRsrc,"elixa-lexicon"));
+		}
+		
+		long startTime = System.currentTimeMillis();
+		try {
+			ModelBundle.write(model, params, new File(outPath));
+		} catch (Exception e) {
+			System.err.println("EliXa::bundle-model - error when creating the model bundle: "+e.getMessage());
+			e.printStackTrace();
+			System.exit(1);
+		}
+		System.err.println("EliXa::bundle-model - model bundle written to "+outPath
+				+" ("+(double)(System.currentTimeMillis()-startTime)/1000+" seconds)");
+	}
+	
+	public final void loadBundleModelParameters()
+	{
+		bundleModelParser.addArgument("-m", "--model")
+		.required(true)
+		.help("The trained model to bundle (or 'default' for the default model of the language).\n");
+		bundleModelParser.addArgument("-p", "--params")
+		.required(true)
+		.help("Parameter file the model was trained with (polarity lexicon and cluster paths are read from it).\n");
+		bundleModelParser.addArgument("-l", "--language")
+		.setDefault("en")
+		.choices("de", "en", "es", "eu", "it", "nl", "fr")
+		.help("Language of the model.\n");
+		bundleModelParser.addArgument("-o", "--output")
+		.required(false)
+		.help("Path to the model bundle (default: model path + '"+ModelBundle.EXTENSION+"').\n");
+	}
+	
+	
 	/**
 	 * Main method to do Aspect Term Extraction tagging.
 	 *
@@ -441,6 +640,13 @@ public class CLI {
 		Properties params = loadParameters(paramFile, lang);
 		String kafDir = setPoStaggingFolder(params,"train");
 		System.err.println("trainDoc : pos tagging folder set to: "+kafDir);
+		// incremental training: n-gram counts and feature vectors of previous trainings, see TrainingState.
+		String incremental = parsedArguments.getString("incremental");
+		if (incremental != null)
+		{
+			params.setProperty("trainState", incremental);
+			System.err.println("trainDoc : incremental training, training state folder set to: "+incremental);
+		}
 		
 		
 		CorpusReader reader = new CorpusReader(inputStream, corpusFormat, lang);
@@ -543,6 +749,12 @@ public class CLI {
 		.help("Choose the number of classes the classifier should work on "
 				+ "(binary=p|n ; 3=p|n|neu ; 3+=p|n|neu|none ; 5=p|n|neu|p+|n+ ; 5+=p|n|neu|p+|n+|none )"
 				+ " it defaults to 3 (p|n|neu).\n");
+		trainDocParser.addArgument("-inc","--incremental")
+		.required(false)
+		.help("Incremental training: folder where the training state (n-gram counts of each sentence and feature vectors "
+				+ "of each opinion) is kept between trainings. Sentences already used in the previous training are not "
+				+ "tagged, counted nor vectorized again, unless their text or the feature parameters changed. "
+				+ "Use a static tagged files folder (kafDir) as well.\n");
 		trainDocParser.addArgument("-o","--outputpredictions")		
 		.action(Arguments.storeTrue())
 		.setDefault("false")
@@ -789,6 +1001,23 @@ public class CLI {
 		String lang = parsedArguments.getString("language");	
 		String classnum = parsedArguments.getString("classnum");
 		boolean ruleBased = parsedArguments.getBoolean("ruleBasedClassifier");
+		int batchSize = parsedArguments.getInt("batchSize");
+		boolean stageTimes = parsedArguments.getBoolean("stageTimes");
+		
+		if (batchSize > 0)
+		{
+			if (!ruleBased && corpusFormat.matches("(tabNotagged|ireom)"))
+			{
+				tagDocStream(inputStream, batchSize);
+				if (stageTimes)
+				{
+					System.err.print("EliXa::tag-doc - time per pipeline stage:\n"+PipelineStage.report());
+				}
+				return;
+			}
+			System.err.println("EliXa::tag-doc - streaming mode is only available for tabNotagged and ireom formats "
+					+ "and the ML classifier. The whole corpus will be read before classifying it.");
+		}
 		
 		//Read corpus sentences
 		CorpusReader reader = new CorpusReader(inputStream, corpusFormat, lang);
@@ -880,35 +1109,8 @@ public class CLI {
 				//testdata.deleteAttributeAt(0);
 				//classify.setTestdata(testdata);
 				classify.setTestdata(traindata);
-				classify.loadModel(model);
 
-				for (String oId : reader.getOpinions().keySet())
-				{
-					int iId = atpTrain.getOpinInst().get(oId);
-					Instance i = traindata.get(iId-1);
-					double label = classify.getMLclass().classifyInstance(i);
-					String lblStr = i.classAttribute().value((int) label);
-					String actual = "?";
-					if (reader.getOpinion(oId).getPolarity() != null)
-					{
-						actual = reader.getOpinion(oId).getPolarity();
-					}
-					String rId = reader.getOpinion(oId).getsId().replaceFirst("_g$", "");
-					String oSent = reader.getOpinionSentence(oId);
-					if (corpusFormat.startsWith("tab"))
-					{
-						StringBuilder sb = new StringBuilder();
-						for (String kk : oSent.split("\n"))
-						{
-							sb.append(kk.split("\\t")[0]);
-							sb.append(" ");
-						}
-						oSent=sb.toString(); 
-					}
-					
-					System.out.println(rId+"\t"+actual+"\t"+lblStr+"\t"+oSent+"\t"+reader.getOpinionSentence(oId).replaceAll("\n", " ").replaceAll("\\t",":::"));
-					reader.getOpinion(oId).setPolarity(lblStr);
-				}
+				printTagDocResults(reader, atpTrain, traindata, classify.getMLclass(), corpusFormat);
 
 				//reader.print2Semeval2015format(model+"tagATP.xml");
 				//reader.print2conll(model+"tagAtp.conll");
@@ -916,9 +1118,183 @@ public class CLI {
 				e.printStackTrace();			
 			}
 		}
+		if (stageTimes)
+		{
+			System.err.print("EliXa::tag-doc - time per pipeline stage:\n"+PipelineStage.report());
+		}
 	}
 	
 	
+	/**
+	 * Streaming version of tag-doc: input lines are read and classified in batches of batchSize lines,
+	 * and results are written as soon as each batch is classified, so memory use does not depend on the
+	 * size of the input. Output is the same as that of tag-doc.
+	 * 
+	 * If no kafDir is given in the configuration each batch is tagged in its own temporal folder, which is
+	 * deleted once the batch is classified.
+	 *  
+	 * @param inputStream : tabNotagged or ireom corpus
+	 * @param batchSize : number of lines per batch
+	 */
+	private void tagDocStream(final InputStream inputStream, int batchSize) throws IOException
+	{
+		String paramFile = parsedArguments.getString("params");
+		String corpusFormat = parsedArguments.getString("corpusFormat");
+		String model = parsedArguments.getString("model");
+		String lang = parsedArguments.getString("language");	
+		String classnum = parsedArguments.getString("classnum");
+		
+		Properties params = loadParameters(paramFile, lang);
+		String posModelPath = params.getProperty("pos-model", "default");
+		boolean tempTagging = params.getProperty("kafDir", "none").equalsIgnoreCase("none");
+		
+		String lexiconGen = params.getProperty("polarLexiconGeneral","default");		
+		if (lexiconGen.equalsIgnoreCase("default"))
+		{
+			InputStream lexRsrc =  this.getClass().getClassLoader().getResourceAsStream(lang+File.separator+defaultLexicons.getProperty(lang));
+			lexiconGen = FileUtilsElh.getElixaResource(lexRsrc,"elixa-lexicon");
+			params.setProperty("polarLexiconGeneral",lexiconGen);
+		}
+		
+		model = WekaWrapper.getModelResource(model, lang, "twt");
+		CorpusReader empty = new CorpusReader(new ByteArrayInputStream(new byte[0]), corpusFormat, lang);
+		Features atpTrain = new Features (empty, params, classnum, model);
+		Classifier classifier;
+		try {
+			classifier = new WekaWrapper(model,lang).getMLclass();
+		} catch (Exception e) {
+			System.err.println("EliXa::tag-doc - model could not be loaded: "+model);
+			e.printStackTrace();
+			return;
+		}
+		
+		BufferedReader breader = new BufferedReader(new InputStreamReader(inputStream));
+		StringBuilder batch = new StringBuilder();
+		int lines = 0;
+		int total = 0;
+		String line;
+		while ((line = breader.readLine()) != null)
+		{
+			batch.append(line).append("\n");
+			lines++;
+			if (lines == batchSize)
+			{
+				total += tagDocBatch(batch.toString(), corpusFormat, lang, posModelPath, tempTagging, params, atpTrain, classifier);
+				Log.progress("EliXa::tag-doc", "EliXa::tag-doc - "+total+" documents classified");
+				batch = new StringBuilder();
+				lines = 0;
+			}
+		}
+		if (lines > 0)
+		{
+			total += tagDocBatch(batch.toString(), corpusFormat, lang, posModelPath, tempTagging, params, atpTrain, classifier);
+		}
+		Log.info("EliXa::tag-doc - "+total+" documents classified");
+	}
+	
+	/**
+	 * Classify a batch of the streaming tag-doc mode and print the results.
+	 * 
+	 * @return int number of documents classified.
+	 */
+	private int tagDocBatch(String batch, String corpusFormat, String lang, String posModelPath, boolean tempTagging,
+			Properties params, Features atpTrain, Classifier classifier) throws IOException
+	{
+		CorpusReader reader = new CorpusReader(new ByteArrayInputStream(batch.getBytes()), corpusFormat, lang);
+		File tempDir = null;
+		if (tempTagging)
+		{
+			tempDir = FileUtilsElh.createTempDirectory();
+			String kafDir = tempDir.getAbsolutePath();
+			if (params.getProperty("taggedStore", "no").equalsIgnoreCase("yes"))
+			{
+				kafDir = kafDir+File.separator+"tagged"+TaggedCorpusStore.EXTENSION;
+			}
+			params.setProperty("kafDir", kafDir);
+		}
+		
+		int classified = 0;
+		try {
+			atpTrain.setCorpus(reader);
+			Instances traindata;
+			if (lang.equalsIgnoreCase("eu") && posModelPath.contains("eustagger"))
+			{
+				traindata = atpTrain.loadInstancesConll(false, "atp",true);
+			}
+			else
+			{
+				traindata = atpTrain.loadInstances(false, "atp");
+			}
+			traindata.setClass(traindata.attribute("polarityCat"));
+			
+			classified = printTagDocResults(reader, atpTrain, traindata, classifier, corpusFormat);
+			System.out.flush();
+		} catch (Exception e) {
+			Log.error("EliXa::tag-doc - error when classifying batch, its documents won't be classified.", e);
+		} finally {
+			if (tempDir != null)
+			{
+				String kafDir = params.getProperty("kafDir");
+				if (TaggedCorpusStore.isStore(kafDir) && new File(kafDir).exists())
+				{
+					TaggedCorpusStore.open(kafDir).close();
+				}
+				FileUtils.deleteQuietly(tempDir);
+			}
+		}
+		return classified;
+	}
+	
+	/**
+	 * Classify the opinions of a tag-doc corpus and print the results (id, actual polarity, predicted polarity, 
+	 * sentence and sentence in a single line) to the standard output. Predicted polarities are also stored in 
+	 * the corpus opinions. Used both by the batch and the streaming modes of tag-doc.
+	 * 
+	 * @param reader : corpus being tagged
+	 * @param atpTrain : features object the instances were loaded with (opinion -> instance mapping)
+	 * @param data : instances of the corpus, with the class attribute set
+	 * @param classifier : polarity classifier
+	 * @param corpusFormat : format of the corpus
+	 * @return int number of documents classified.
+	 * @throws Exception if the classifier fails
+	 */
+	private int printTagDocResults(CorpusReader reader, Features atpTrain, Instances data, Classifier classifier, 
+			String corpusFormat) throws Exception
+	{
+		int classified = 0;
+		for (String oId : reader.getOpinions().keySet())
+		{
+			int iId = atpTrain.getOpinInst().get(oId);
+			Instance i = data.get(iId-1);
+			long start = PipelineStage.start();
+			double label = classifier.classifyInstance(i);
+			PipelineStage.CLASSIFY.stop(start);
+			String lblStr = i.classAttribute().value((int) label);
+			String actual = "?";
+			if (reader.getOpinion(oId).getPolarity() != null)
+			{
+				actual = reader.getOpinion(oId).getPolarity();
+			}
+			String rId = reader.getOpinion(oId).getsId().replaceFirst("_g$", "");
+			String oSent = reader.getOpinionSentence(oId);
+			if (corpusFormat.startsWith("tab"))
+			{
+				StringBuilder sb = new StringBuilder();
+				for (String kk : oSent.split("\n"))
+				{
+					sb.append(kk.split("\\t")[0]);
+					sb.append(" ");
+				}
+				oSent=sb.toString(); 
+			}
+			
+			System.out.println(rId+"\t"+actual+"\t"+lblStr+"\t"+oSent+"\t"+reader.getOpinionSentence(oId).replaceAll("\n", " ").replaceAll("\\t",":::"));
+			reader.getOpinion(oId).setPolarity(lblStr);
+			classified++;
+		}
+		return classified;
+	}
+	
 	/**
 	 * Create the main parameters available for training ATP models.
 	 */
@@ -971,6 +1347,86 @@ public class CLI {
 		.help("Choose language; if not provided it defaults to: \n"
 				+ "\t- If the input format is NAF, the language value in incoming NAF file."
 				+ "\t- en otherwise.\n");
+		tagDocParser.addArgument("-b","--batchSize")
+		.type(Integer.class)
+		.setDefault(0)
+		.help("Streaming mode: read and classify the input in batches of the given number of lines, printing the results "
+				+ "of each batch as soon as it is classified, so that memory use does not depend on the input size. "
+				+ "Only for tabNotagged and ireom formats and the ML classifier. 0 (default) reads the whole corpus before classifying it.\n");
+		tagDocParser.addArgument("-st","--stageTimes")
+		.action(Arguments.storeTrue())
+		.setDefault(false)
+		.help("Print to stderr the time spent in each stage of the pipeline (read, normalize, tag, naf-io, vectorize, classify) "
+				+ "once the corpus is classified.\n");
+	}
+	
+	
+	/**
+	 * Start a long running document classification server: the model is loaded once and sentences are
+	 * classified on demand (see ClassificationServer). 
+	 */
+	public final void serve() throws IOException
+	{
+		String paramFile = parsedArguments.getString("params");
+		String model = parsedArguments.getString("model");
+		String lang = parsedArguments.getString("language");	
+		String classnum = parsedArguments.getString("classnum");
+		String host = parsedArguments.getString("host");
+		int port = parsedArguments.getInt("port");
+		int workers = parsedArguments.getInt("workers");
+		
+		Properties params = loadParameters(paramFile, lang);
+		
+		// polarity lexicons	
+		String lexiconGen = params.getProperty("polarLexiconGeneral","default");		
+		if (lexiconGen.equalsIgnoreCase("default"))
+		{
+			InputStream lexRsrc =  this.getClass().getClassLoader().getResourceAsStream(lang+File.separator+defaultLexicons.getProperty(lang));
+			lexiconGen = FileUtilsElh.getElixaResource(lexRsrc,"elixa-lexicon");
+			params.setProperty("polarLexiconGeneral",lexiconGen);
+		}
+		
+		try {
+			model = WekaWrapper.getModelResource(model, lang, "twt");
+			ClassificationServer server = new ClassificationServer(params, model, lang, classnum, workers);
+			server.start(host, port);
+		} catch (Exception e) {
+			System.err.println("EliXa::serve - classification server could not be started.");
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+	
+	private void loadServeParameters() {
+		serveParser.addArgument("-p", "--params")
+		.setDefault("default")
+		.help("Load the training parameters file\n");
+		serveParser.addArgument("-m","--model")		
+		.setDefault("default")
+		.help("Pre trained model to classify sentences with. Features are extracted from the model\n");
+		serveParser.addArgument("-cn","--classnum")
+		.required(false)
+		.choices("3", "3+", "5+", "5", "binary")
+		.setDefault("3+none")
+		.help("Choose the number of classes the classifier should work on "
+				+ "(binary=p|n ; 3=p|n|neu ; 3+=p|n|neu|none ; 5=p|n|neu|p+|n+ ; 5+=p|n|neu|p+|n+|none )"
+				+ " it defaults to 3 (p|n|neu).\n");		
+		serveParser.addArgument("-l","--language")
+		.setDefault("en")
+		.choices("de", "en", "es", "eu", "it", "nl", "fr")
+		.help("Language of the sentences to classify; if not provided it defaults to en.\n");
+		serveParser.addArgument("-H","--host")
+		.setDefault("localhost")
+		.help("Address the server listens on.\n");
+		serveParser.addArgument("-P","--port")
+		.type(Integer.class)
+		.setDefault(8080)
+		.help("Port the server listens on. Sentences are sent as \"id<tab>text\" lines to POST /classify,"
+				+ " and \"id<tab>label<tab>class:probability ...\" lines are returned.\n");
+		serveParser.addArgument("-w","--workers")
+		.type(Integer.class)
+		.setDefault(1)
+		.help("Number of requests classified concurrently (each worker loads its own copy of the feature extractor and model).\n");
 	}
 	
 	
@@ -1665,6 +2121,10 @@ public class CLI {
 			}
 		}
 		
+		// log level and async logging (logLevel, logAsync, logProgressInterval), see Log.
+		Log.configure(params);
+		// metric exports (metricsFile, metricsInterval, metricsJmx), see Metrics.
+		Metrics.configure(params);
 		return params;
 		
 	}
@@ -1681,6 +2141,11 @@ public class CLI {
 			      }
 			});			
 			kafDir = tempDir.getAbsolutePath();
+			// all tagged sentences in a single binary store instead of a file per sentence
+			if (params.getProperty("taggedStore", "no").equalsIgnoreCase("yes"))
+			{
+				kafDir = kafDir+File.separator+"tagged"+TaggedCorpusStore.EXTENSION;
+			}
 			params.setProperty("kafDir", kafDir);
 			switch (functionality)
 			{
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2014 Elhuyar Fundazioa
+
+This file is part of EliXa.
+
+    EliXa is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    EliXa is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with EliXa.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elh.eus.absa;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.io.FileUtils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import weka.classifiers.Classifier;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Long running document classification server. The polarity model, its feature set, lexicons and
+ * taggers are loaded once, and sentences are classified on demand over HTTP:
+ *
+ *  - POST /classify : request body contains one "id<tab>text" sentence per line (same as the ireom corpus format).
+ *    The response contains a line per sentence: "id<tab>label<tab>class1:prob1 class2:prob2 ...". If a sentence
+ *    could not be tagged its label is '?' and no distribution is given.
+ *  - GET /health : returns "ok" if the server is up.
+ *  - GET /metrics : metrics of the server in Prometheus text format (JSON with /metrics?format=json), see Metrics.
+ *
+ * Requests are served concurrently by a pool of classification engines. Each engine has its own feature
+ * extractor and classifier objects, so engines do not share mutable state.
+ *
+ * @author isanvi
+ *
+ */
+public class ClassificationServer {
+
+	private BlockingQueue<Engine> engines;
+	private String lang;
+	private int workers;
+	private HttpServer server;
+
+	private static final Metrics.Timer requestTime = Metrics.timer("elixa_server_request_seconds",
+			"Classification request latency.");
+	private static final Metrics.Counter requestErrors = Metrics.counter("elixa_server_request_errors_total",
+			"Classification requests which ended with an error.");
+
+	/**
+	 * Classification engine: feature extractor + classifier for a single request at a time.
+	 */
+	private static class Engine
+	{
+		private Properties params;
+		private Features features;
+		private Classifier classifier;
+	}
+
+	/**
+	 * Constructor. Loads the model and creates the classification engines.
+	 *
+	 * @param Properties params : feature configuration (as used to train the model).
+	 * @param String model : path to the model file.
+	 * @param String lang : language of the sentences to classify.
+	 * @param String classnum : number of classes of the model (binary|3|3+|5|5+).
+	 * @param int workers : number of engines (concurrent requests).
+	 * @throws Exception if the model can not be loaded.
+	 */
+	public ClassificationServer (Properties params, String model, String lang, String classnum, int workers) throws Exception
+	{
+		this.lang = lang;
+		this.workers = workers;
+		engines = new ArrayBlockingQueue<Engine>(workers);
+		for (int w=0; w<workers; w++)
+		{
+			Engine engine = new Engine();
+			engine.params = new Properties();
+			engine.params.putAll(params);
+			CorpusReader empty = new CorpusReader(new ByteArrayInputStream(new byte[0]), "ireom", lang);
+			engine.features = new Features(empty, engine.params, classnum, model);
+			engine.classifier = new WekaWrapper(model, lang).getMLclass();
+			engines.add(engine);
+			System.err.println("ClassificationServer - engine "+(w+1)+"/"+workers+" ready.");
+		}
+	}
+
+	/**
+	 * Start listening for requests. The server runs until the JVM is stopped.
+	 *
+	 * @param String host : address to bind to (e.g., localhost).
+	 * @param int port
+	 * @throws IOException
+	 */
+	public void start (String host, int port) throws IOException
+	{
+		server = HttpServer.create(new InetSocketAddress(host, port), 0);
+		server.createContext("/classify", new ClassifyHandler());
+		server.createContext("/health", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				respond(exchange, 200, "ok\n");
+			}
+		});
+		server.createContext("/metrics", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				String query = exchange.getRequestURI().getQuery();
+				if (query != null && query.contains("format=json"))
+				{
+					respond(exchange, 200, Metrics.toJson(), "application/json; charset=utf-8");
+				}
+				else
+				{
+					respond(exchange, 200, Metrics.toPrometheus(), "text/plain; version=0.0.4; charset=utf-8");
+				}
+			}
+		});
+		server.setExecutor(Executors.newFixedThreadPool(workers));
+		server.start();
+		System.err.println("ClassificationServer - listening on http://"+host+":"+port+"/classify ("+workers+" workers)");
+	}
+
+	/**
+	 * Stop the server, waiting at most the given seconds for ongoing requests to finish.
+	 */
+	public void stop (int delay)
+	{
+		if (server != null)
+		{
+			server.stop(delay);
+		}
+	}
+
+	/**
+	 * Classify a set of sentences.
+	 *
+	 * @param String input : "id<tab>text" sentences, one per line.
+	 * @return String : "id<tab>label<tab>distribution" lines.
+	 * @throws Exception
+	 */
+	public String classify (String input) throws Exception
+	{
+		Engine engine = engines.take();
+		try {
+			return classify(engine, input);
+		} finally {
+			engines.put(engine);
+		}
+	}
+
+	private String classify (Engine engine, String input) throws Exception
+	{
+		CorpusReader reader = new CorpusReader(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), "ireom", lang);
+		// opinion ids are stored before tagging, because opinions which can not be tagged are removed from the corpus.
+		List<String> oIds = new ArrayList<String>(reader.getOpinions().keySet());
+		List<String> rIds = new ArrayList<String>();
+		for (String oId : oIds)
+		{
+			rIds.add(reader.getOpinion(oId).getsId().replaceFirst("_g$", ""));
+		}
+
+		// each request is tagged in its own temporal folder.
+		File tempDir = FileUtilsElh.createTempDirectory();
+		String kafDir = tempDir.getAbsolutePath();
+		if (engine.params.getProperty("taggedStore", "no").equalsIgnoreCase("yes"))
+		{
+			kafDir = kafDir+File.separator+"tagged"+TaggedCorpusStore.EXTENSION;
+		}
+		engine.params.setProperty("kafDir", kafDir);
+
+		StringBuilder sb = new StringBuilder();
+		try {
+			engine.features.setCorpus(reader);
+			String posModel = engine.params.getProperty("pos-model", "default");
+			Instances data;
+			if (lang.equalsIgnoreCase("eu") && posModel.contains("eustagger"))
+			{
+				data = engine.features.loadInstancesConll(false, "atp", true);
+			}
+			else
+			{
+				data = engine.features.loadInstances(false, "atp");
+			}
+			data.setClass(data.attribute("polarityCat"));
+
+			for (int k=0; k<oIds.size(); k++)
+			{
+				sb.append(rIds.get(k)).append("\t");
+				Integer iId = engine.features.getOpinInst().get(oIds.get(k));
+				if (iId == null || !reader.getOpinions().containsKey(oIds.get(k)))
+				{
+					sb.append("?\t\n");
+					continue;
+				}
+				Instance i = data.get(iId-1);
+				long start = PipelineStage.start();
+				double label = engine.classifier.classifyInstance(i);
+				double[] dist = engine.classifier.distributionForInstance(i);
+				PipelineStage.CLASSIFY.stop(start);
+				sb.append(i.classAttribute().value((int) label)).append("\t");
+				for (int c=0; c<dist.length; c++)
+				{
+					if (c > 0)
+					{
+						sb.append(" ");
+					}
+					sb.append(i.classAttribute().value(c)).append(":").append(String.format("%.4f", dist[c]));
+				}
+				sb.append("\n");
+			}
+		} finally {
+			if (TaggedCorpusStore.isStore(kafDir) && new File(kafDir).exists())
+			{
+				TaggedCorpusStore.open(kafDir).close();
+			}
+			FileUtils.deleteQuietly(tempDir);
+		}
+		return sb.toString();
+	}
+
+	private class ClassifyHandler implements HttpHandler
+	{
+		@Override
+		public void handle(HttpExchange exchange) throws IOException
+		{
+			if (!exchange.getRequestMethod().equalsIgnoreCase("POST"))
+			{
+				respond(exchange, 405, "only POST requests are accepted\n");
+				return;
+			}
+			long start = Metrics.start();
+			try {
+				String input = new String(readAll(exchange.getRequestBody()), StandardCharsets.UTF_8);
+				String output = classify(input);
+				requestTime.stop(start);
+				respond(exchange, 200, output);
+			} catch (Exception e) {
+				requestErrors.inc();
+				Log.error("ClassificationServer::handle - error when classifying request: "+e.getMessage(), e);
+				respond(exchange, 500, "error: "+e.getMessage()+"\n");
+			}
+		}
+	}
+
+	private static byte[] readAll (InputStream in) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		int n;
+		while ((n = in.read(buf)) > 0)
+		{
+			out.write(buf, 0, n);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+
+	private static void respond (HttpExchange exchange, int code, String body) throws IOException
+	{
+		respond(exchange, code, body, "text/tab-separated-values; charset=utf-8");
+	}
+
+	private static void respond (HttpExchange exchange, int code, String body, String contentType) throws IOException
+	{
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(code, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+}
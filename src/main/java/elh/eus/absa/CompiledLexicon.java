@@ -0,0 +1,421 @@
+/*
+ * Copyright 2014 Elhuyar Fundazioa
+
+This file is part of EliXa.
+
+    EliXa is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    EliXa is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with EliXa.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elh.eus.absa;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Compiled (binary) polarity lexicon. A lexicon is parsed once (see Lexicon) and written in a compact binary
+ * file, which is memory-mapped when opened: opening a compiled lexicon does not parse nor copy its entries,
+ * and processes using the same lexicon file share it through the OS page cache.
+ *
+ * File format (big endian):
+ *    magic "ELIXALEX" | int version | int entries (n) | int length + UTF-8 bytes of the syn mode (padded to 4 bytes)
+ *    int[n+1] key offsets | int[n] scalar polarities | float[n] numeric | float[n] positive | float[n] negative
+ *    | int[n] entry order | UTF-8 keys.
+ * Keys are sorted by their UTF-8 bytes, and looked up by binary search. The entry order holds the positions of the
+ * entries in the order the source lexicon enumerated them, which keySet() keeps: polarity lexicon features are 
+ * created in that order, so models trained with the text lexicon keep their attribute order.
+ *
+ * The object is read only, and can be shared by several threads.
+ *
+ * @author isanvi
+ *
+ */
+public class CompiledLexicon {
+
+	public static final String EXTENSION = ".lexbin";
+
+	private static final byte[] MAGIC = "ELIXALEX".getBytes(StandardCharsets.US_ASCII);
+	private static final int VERSION = 2;
+
+	private ByteBuffer buffer;
+	private int size;
+	private String syn;
+	private int offsetsStart;
+	private int scalarStart;
+	private int numericStart;
+	private int posStart;
+	private int negStart;
+	private int orderStart;
+	private int keysStart;
+
+	private CompiledLexicon ()
+	{
+	}
+
+	/**
+	 * @param File file
+	 * @return boolean : true if the file is a compiled lexicon.
+	 */
+	public static boolean isCompiled (File file)
+	{
+		if (!file.isFile())
+		{
+			return false;
+		}
+		byte[] head = new byte[MAGIC.length];
+		try (InputStream in = new FileInputStream(file)) {
+			int read = 0;
+			int n;
+			while (read < head.length && (n = in.read(head, read, head.length-read)) > 0)
+			{
+				read += n;
+			}
+			return read == head.length && Arrays.equals(head, MAGIC);
+		} catch (IOException ioe) {
+			return false;
+		}
+	}
+
+	/**
+	 * Memory-map a compiled lexicon file.
+	 *
+	 * @param File file : compiled lexicon.
+	 * @return CompiledLexicon
+	 * @throws IOException if the file can not be read or it is not a compiled lexicon.
+	 */
+	public static CompiledLexicon open (File file) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE)
+			{
+				throw new IOException("CompiledLexicon::open - lexicon file too big: "+file);
+			}
+			// the mapping remains valid after the channel is closed.
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return wrap(mapped, file.toString());
+		}
+	}
+
+	/**
+	 * Read a compiled lexicon from a buffer (e.g. a region of a mapped model bundle, see ModelBundle).
+	 * The buffer is not copied. Positions are absolute, starting at 0.
+	 *
+	 * @param ByteBuffer buf : compiled lexicon bytes.
+	 * @param String name : name of the lexicon source, for error messages.
+	 * @return CompiledLexicon
+	 * @throws IOException if the buffer does not contain a compiled lexicon.
+	 */
+	static CompiledLexicon wrap (ByteBuffer buf, String name) throws IOException
+	{
+		CompiledLexicon lex = new CompiledLexicon();
+		lex.buffer = buf;
+		byte[] magic = new byte[MAGIC.length];
+		for (int i=0; i<magic.length && i<buf.limit(); i++)
+		{
+			magic[i] = buf.get(i);
+		}
+		if (!Arrays.equals(magic, MAGIC))
+		{
+			throw new IOException("CompiledLexicon::open - not a compiled lexicon: "+name);
+		}
+		int version = buf.getInt(8);
+		if (version != VERSION)
+		{
+			throw new IOException("CompiledLexicon::open - unsupported compiled lexicon version ("+version+"), compile the lexicon again: "+name);
+		}
+		lex.size = buf.getInt(12);
+		int synLength = buf.getInt(16);
+		byte[] synBytes = new byte[synLength];
+		for (int i=0; i<synLength; i++)
+		{
+			synBytes[i] = buf.get(20+i);
+		}
+		lex.syn = new String(synBytes, StandardCharsets.UTF_8);
+		lex.offsetsStart = 20 + pad(synLength);
+		lex.scalarStart = lex.offsetsStart + 4*(lex.size+1);
+		lex.numericStart = lex.scalarStart + 4*lex.size;
+		lex.posStart = lex.numericStart + 4*lex.size;
+		lex.negStart = lex.posStart + 4*lex.size;
+		lex.orderStart = lex.negStart + 4*lex.size;
+		lex.keysStart = lex.orderStart + 4*lex.size;
+		return lex;
+	}
+
+	/**
+	 * Write a lexicon in the compiled format.
+	 *
+	 * @param Lexicon lexicon : lexicon to compile.
+	 * @param String syn : (lemma|first|rank|mfs) type of the entries the lexicon was loaded with.
+	 * @param File file : output file.
+	 * @throws IOException
+	 */
+	public static void write (Lexicon lexicon, String syn, File file) throws IOException
+	{
+		try (OutputStream out = new FileOutputStream(file)) {
+			write(lexicon, syn, out);
+		}
+	}
+
+	/**
+	 * Write a lexicon in the compiled format to the given stream. The stream is not closed.
+	 *
+	 * @param Lexicon lexicon : lexicon to compile.
+	 * @param String syn : (lemma|first|rank|mfs) type of the entries the lexicon was loaded with.
+	 * @param OutputStream stream : output stream.
+	 * @throws IOException
+	 */
+	public static void write (Lexicon lexicon, String syn, OutputStream stream) throws IOException
+	{
+		final Map<String, byte[]> encoded = new HashMap<String, byte[]>(lexicon.size()*2);
+		List<String> entryOrder = new ArrayList<String>(lexicon.size());
+		for (String key : lexicon.getEntrySet())
+		{
+			entryOrder.add(key);
+			encoded.put(key, key.getBytes(StandardCharsets.UTF_8));
+		}
+		List<String> keys = new ArrayList<String>(entryOrder);
+		Collections.sort(keys, new Comparator<String>() {
+			@Override
+			public int compare(String a, String b) {
+				return compareBytes(encoded.get(a), encoded.get(b));
+			}
+		});
+
+		byte[] synBytes = syn.getBytes(StandardCharsets.UTF_8);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+		out.write(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(keys.size());
+		out.writeInt(synBytes.length);
+		out.write(synBytes);
+		for (int i=synBytes.length; i<pad(synBytes.length); i++)
+		{
+			out.write(0);
+		}
+		int offset = 0;
+		for (String key : keys)
+		{
+			out.writeInt(offset);
+			offset += encoded.get(key).length;
+		}
+		out.writeInt(offset);
+		List<Lexicon.Polarity> polarities = new ArrayList<Lexicon.Polarity>(keys.size());
+		for (String key : keys)
+		{
+			polarities.add(lexicon.getPolarity(key));
+		}
+		for (Lexicon.Polarity pol : polarities)
+		{
+			out.writeInt(pol.getScalar());
+		}
+		for (Lexicon.Polarity pol : polarities)
+		{
+			out.writeFloat(pol.getNumeric());
+		}
+		for (Lexicon.Polarity pol : polarities)
+		{
+			out.writeFloat(pol.getPositiveScore());
+		}
+		for (Lexicon.Polarity pol : polarities)
+		{
+			out.writeFloat(pol.getNegativeScore());
+		}
+		Map<String, Integer> positions = new HashMap<String, Integer>(keys.size()*2);
+		for (int i=0; i<keys.size(); i++)
+		{
+			positions.put(keys.get(i), i);
+		}
+		for (String key : entryOrder)
+		{
+			out.writeInt(positions.get(key));
+		}
+		for (String key : keys)
+		{
+			out.write(encoded.get(key));
+		}
+		out.flush();
+	}
+
+	private static int pad (int length)
+	{
+		return (length + 3) & ~3;
+	}
+
+	private static int compareBytes (byte[] a, byte[] b)
+	{
+		int n = Math.min(a.length, b.length);
+		for (int i=0; i<n; i++)
+		{
+			int c = (a[i] & 0xff) - (b[i] & 0xff);
+			if (c != 0)
+			{
+				return c;
+			}
+		}
+		return a.length - b.length;
+	}
+
+	/**
+	 * Compare the i-th key of the lexicon with the given (UTF-8 encoded) key.
+	 */
+	private int compareKey (int i, byte[] key)
+	{
+		int start = keysStart + buffer.getInt(offsetsStart + 4*i);
+		int length = keysStart + buffer.getInt(offsetsStart + 4*(i+1)) - start;
+		int n = Math.min(length, key.length);
+		for (int j=0; j<n; j++)
+		{
+			int c = (buffer.get(start+j) & 0xff) - (key[j] & 0xff);
+			if (c != 0)
+			{
+				return c;
+			}
+		}
+		return length - key.length;
+	}
+
+	/**
+	 * @param String key : lemma or synset.
+	 * @return int : position of the entry in the lexicon, or -1 if the key is not in the lexicon.
+	 */
+	public int find (String key)
+	{
+		byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+		int lo = 0;
+		int hi = size - 1;
+		while (lo <= hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			int c = compareKey(mid, bytes);
+			if (c < 0)
+			{
+				lo = mid + 1;
+			}
+			else if (c > 0)
+			{
+				hi = mid - 1;
+			}
+			else
+			{
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	public int size ()
+	{
+		return size;
+	}
+
+	/**
+	 * @return String : (lemma|first|rank|mfs) type of the entries the lexicon was compiled with.
+	 */
+	public String getSyn ()
+	{
+		return syn;
+	}
+
+	public String getKey (int i)
+	{
+		int start = keysStart + buffer.getInt(offsetsStart + 4*i);
+		int length = keysStart + buffer.getInt(offsetsStart + 4*(i+1)) - start;
+		byte[] bytes = new byte[length];
+		for (int j=0; j<length; j++)
+		{
+			bytes[j] = buffer.get(start+j);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	public int getScalar (int i)
+	{
+		return buffer.getInt(scalarStart + 4*i);
+	}
+
+	public float getNumeric (int i)
+	{
+		return buffer.getFloat(numericStart + 4*i);
+	}
+
+	public float getPositiveScore (int i)
+	{
+		return buffer.getFloat(posStart + 4*i);
+	}
+
+	public float getNegativeScore (int i)
+	{
+		return buffer.getFloat(negStart + 4*i);
+	}
+
+	/**
+	 * @return Set<String> : read only view of the keys of the lexicon, in the order of the source lexicon.
+	 */
+	public Set<String> keySet ()
+	{
+		return new AbstractSet<String>() {
+			@Override
+			public Iterator<String> iterator() {
+				return new Iterator<String>() {
+					private int next = 0;
+
+					@Override
+					public boolean hasNext() {
+						return next < size;
+					}
+
+					@Override
+					public String next() {
+						if (next >= size)
+						{
+							throw new NoSuchElementException();
+						}
+						return getKey(buffer.getInt(orderStart + 4*(next++)));
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+
+			@Override
+			public boolean contains(Object o) {
+				return (o instanceof String) && find((String) o) >= 0;
+			}
+		};
+	}
+}
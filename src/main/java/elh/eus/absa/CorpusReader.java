@@ -33,9 +33,15 @@ import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -104,6 +110,7 @@ public class CorpusReader {
 	 */
 	public CorpusReader (InputStream in, String format, boolean nullSentOps, String lang)
 	{
+		long start = PipelineStage.start();
 		if (format.compareTo("semeval2015")==0)
 		{
 			extractOpinionsAbsaSemEval2015(in, nullSentOps);			
@@ -156,6 +163,7 @@ public class CorpusReader {
 		
 		setLang(lang);	
 		setFormat(format);
+		PipelineStage.READ.stop(start);
 	}
 	
 	/**
@@ -1062,12 +1070,26 @@ public class CorpusReader {
 	 *  given as argument. Sentence Ids are used as file names. If a tagged file already exists 
 	 *  that sentence is not tagged 
 	 * 
-	 * @param nafdir : path to the directory were tagged files should be stored
+	 * @param nafdir : path to the directory were tagged files should be stored. If the path has the '.tgs' extension
+	 *                 tagged sentences are stored in a binary tagged corpus store instead (see TaggedCorpusStore).
 	 * @param posModel : model to be used by the PoS tagger
 	 * @throws IOException
 	 * @throws JDOMException
 	 */
 	public void tagSentences(String nafdir, String posModel, String lemmaModel, boolean print) throws IOException, JDOMException
+	{
+		tagSentences(nafdir, posModel, lemmaModel, print, 1);
+	}
+	
+	/**
+	 *  Same as tagSentences(nafdir, posModel, lemmaModel, print), but Basque external taggers (eustagger) tag 
+	 *  'batchSize' sentences per call (see NLPpipelineWrapper.eustaggerCallBatch).
+	 * 
+	 * @param batchSize : number of sentences per eustagger call.
+	 * @throws IOException
+	 * @throws JDOMException
+	 */
+	public void tagSentences(String nafdir, String posModel, String lemmaModel, boolean print, int batchSize) throws IOException, JDOMException
 	{		
 		eus.ixa.ixa.pipe.pos.Annotate postagger = null;
 		if (!eustagger.matcher(posModel).find())
@@ -1083,12 +1105,35 @@ public class CorpusReader {
 			}
 		}
 		
+		// nafdir may also be a binary tagged corpus store
+		TaggedCorpusStore store = null;
+		if (TaggedCorpusStore.isStore(nafdir))
+		{
+			store = TaggedCorpusStore.open(nafdir);
+		}
+		// external tagger processes (see TaggerPool) can tag several sentences at the same time.
+		else if (TaggerPool.get(posModel) != null && TaggerPool.get(posModel).size() > 1)
+		{
+			eustaggerParallel(nafdir, posModel, TaggerPool.get(posModel).size());
+		}
+		else if (batchSize > 1 && eustagger.matcher(posModel).find())
+		{
+			eustaggerBatch(nafdir, posModel, batchSize);
+		}
+		
 		KAFDocument nafinst = new KAFDocument("","");
 		for (String sId : getSentences().keySet())
 		{
 			String nafname = sId.replace(':', '_');
 			String nafPath = nafdir+File.separator+nafname+".kaf";			
-			if (FileUtilsElh.checkFile(nafPath))
+			if (store != null)
+			{
+				if (store.tagSentence(sId, getSentences().get(sId), lang, posModel, lemmaModel, postagger) == 2)
+				{
+					System.err.println("CorpusReader::tagSentence : sentence already in store:"+sId);
+				}
+			}
+			else if (FileUtilsElh.checkFile(nafPath))
 			{
 				System.err.println("CorpusReader::tagSentence : file already there:"+nafPath);
 			}
@@ -1113,12 +1158,91 @@ public class CorpusReader {
 			{
 				String toprint = "<doc id=\""+sId+"\" polarity=\""+getSentenceOpinions(sId).get(0).getPolarity()+"\">";
 				System.out.println(toprint);
-				System.out.println(IOUtils.toString(new FileInputStream(new File(nafPath))));
+				if (store != null)
+				{
+					TaggedSentence tagged = store.get(sId);
+					System.out.println((tagged == null) ? "" : tagged.toKAF(lang).toString());
+				}
+				else
+				{
+					System.out.println(IOUtils.toString(new FileInputStream(new File(nafPath))));
+				}
 				System.out.println("</doc>");
 			}
 		}		
 	}
 
+	/**
+	 *  Tag with eustagger the sentences in the corpus which have no tagged file yet, 'batchSize' sentences 
+	 *  per tagger call. 
+	 * 
+	 * @param nafdir : path to the directory were tagged files should be stored
+	 * @param posModel : path to the tagger
+	 * @param batchSize : number of sentences per tagger call
+	 */
+	private void eustaggerBatch(String nafdir, String posModel, int batchSize)
+	{
+		List<String> sentences = new ArrayList<String>(batchSize);
+		List<String> fnames = new ArrayList<String>(batchSize);
+		int done = 0;
+		for (Iterator<String> it = getSentences().keySet().iterator(); it.hasNext();)
+		{
+			String sId = it.next();
+			String savePathNoExt = nafdir+File.separator+sId.replace(':', '_');
+			if (!FileUtilsElh.checkFile(savePathNoExt+".kaf"))
+			{
+				sentences.add(getSentences().get(sId));
+				fnames.add(savePathNoExt);
+			}
+			if (sentences.size() == batchSize || (!it.hasNext() && !sentences.isEmpty()))
+			{
+				NLPpipelineWrapper.eustaggerCallBatch(posModel, sentences, fnames);
+				done += sentences.size();
+				System.err.println("CorpusReader::eustaggerBatch - "+done+" sentences tagged");
+				sentences.clear();
+				fnames.clear();
+			}
+		}
+	}
+
+	/**
+	 *  Tag concurrently with eustagger the sentences in the corpus which have no tagged file yet. 
+	 * 
+	 * @param nafdir : path to the directory were tagged files should be stored
+	 * @param posModel : path to the tagger
+	 * @param threads : number of concurrent sentences
+	 */
+	private void eustaggerParallel(String nafdir, final String posModel, int threads)
+	{
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<Integer>> pending = new ArrayList<Future<Integer>>();
+		for (final String sId : getSentences().keySet())
+		{
+			final String savePathNoExt = nafdir+File.separator+sId.replace(':', '_');
+			if (FileUtilsElh.checkFile(savePathNoExt+".kaf"))
+			{
+				continue;
+			}
+			final String sentence = getSentences().get(sId);
+			pending.add(pool.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() {
+					return NLPpipelineWrapper.eustaggerCall(posModel, sentence, savePathNoExt);
+				}
+			}));
+		}
+		pool.shutdown();
+		for (Future<Integer> f : pending)
+		{
+			try {
+				f.get();
+			} catch (InterruptedException | ExecutionException e) {
+				System.err.println("CorpusReader::eustaggerParallel - error when tagging sentence");
+				e.printStackTrace();
+			}
+		}
+	}
+
 	/**
 	 *  Process linguistically input sentence with ixa-pipes (tokenization and PoS tagging).
 	 *  A tagged file is generated for each sentence in the corpus and stored in the directory
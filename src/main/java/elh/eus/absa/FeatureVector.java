@@ -0,0 +1,169 @@
+/*
+ * Copyright 2014 Elhuyar Fundazioa
+
+This file is part of EliXa.
+
+    EliXa is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    EliXa is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with EliXa.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elh.eus.absa;
+
+import java.util.Arrays;
+
+import weka.core.SparseInstance;
+
+/**
+ * Sparse feature vector of an instance. Only the attributes with a value are stored (index/value arrays),
+ * instead of a dense double[numAttributes] array. Each attribute index is stored once: values added to the
+ * same index are accumulated in place, in the same order they would be in a dense array.
+ *
+ * @author isanvi
+ *
+ */
+public class FeatureVector {
+
+	private int[] indices;
+	private double[] values;
+	private int size;
+	//hash table: slot -> position in indices/values (-1 = empty slot)
+	private int[] table;
+
+	public FeatureVector ()
+	{
+		indices = new int[32];
+		values = new double[32];
+		table = new int[64];
+		Arrays.fill(table, -1);
+	}
+
+	/**
+	 * Add a value to the given attribute (dense equivalent: fVector[index] = fVector[index] + value).
+	 *
+	 * @param int index : attribute index
+	 * @param double value
+	 */
+	public void add (int index, double value)
+	{
+		int pos = position(index);
+		values[pos] = values[pos] + value;
+	}
+
+	/**
+	 * Set the value of the given attribute (dense equivalent: fVector[index] = value).
+	 *
+	 * @param int index : attribute index
+	 * @param double value
+	 */
+	public void set (int index, double value)
+	{
+		//position() may reallocate the value array, so it must be called first.
+		int pos = position(index);
+		values[pos] = value;
+	}
+
+	/**
+	 * @param int index : attribute index
+	 * @return double value of the attribute, 0 if it has no value.
+	 */
+	public double get (int index)
+	{
+		int slot = slot(index);
+		while (table[slot] != -1)
+		{
+			if (indices[table[slot]] == index)
+			{
+				return values[table[slot]];
+			}
+			slot = (slot + 1) & (table.length-1);
+		}
+		return 0;
+	}
+
+	/**
+	 * Build a weka sparse instance with the non zero values of the vector (same as
+	 * new SparseInstance(weight, denseVector)).
+	 *
+	 * @param double weight : instance weight
+	 * @param int numAttributes : number of attributes of the dataset
+	 * @return SparseInstance
+	 */
+	public SparseInstance toInstance (double weight, int numAttributes)
+	{
+		// sort positions by attribute index. indices are unique, so they can be packed with their position.
+		long[] order = new long[size];
+		int nonZero = 0;
+		for (int i=0; i<size; i++)
+		{
+			if (values[i] != 0)
+			{
+				order[nonZero++] = ((long) indices[i] << 32) | i;
+			}
+		}
+		Arrays.sort(order, 0, nonZero);
+		int[] sortedIndices = new int[nonZero];
+		double[] sortedValues = new double[nonZero];
+		for (int i=0; i<nonZero; i++)
+		{
+			sortedIndices[i] = (int) (order[i] >>> 32);
+			sortedValues[i] = values[(int) order[i]];
+		}
+		return new SparseInstance(weight, sortedValues, sortedIndices, numAttributes);
+	}
+
+	/**
+	 * Position of the attribute in the index/value arrays, adding it if needed.
+	 */
+	private int position (int index)
+	{
+		int slot = slot(index);
+		while (table[slot] != -1)
+		{
+			if (indices[table[slot]] == index)
+			{
+				return table[slot];
+			}
+			slot = (slot + 1) & (table.length-1);
+		}
+		if (size == indices.length)
+		{
+			indices = Arrays.copyOf(indices, size*2);
+			values = Arrays.copyOf(values, size*2);
+		}
+		indices[size] = index;
+		values[size] = 0;
+		table[slot] = size;
+		size++;
+		if (size*2 > table.length)
+		{
+			table = new int[table.length*2];
+			Arrays.fill(table, -1);
+			for (int i=0; i<size; i++)
+			{
+				int s = slot(indices[i]);
+				while (table[s] != -1)
+				{
+					s = (s + 1) & (table.length-1);
+				}
+				table[s] = i;
+			}
+		}
+		return size-1;
+	}
+
+	private int slot (int index)
+	{
+		int h = index * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & (table.length-1);
+	}
+}
@@ -22,7 +22,6 @@ package elh.eus.absa;
 import elh.eus.absa.CorpusReader;
 import ixa.kaflib.KAFDocument;
 import ixa.kaflib.Term;
-import ixa.kaflib.WF;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -38,12 +37,19 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import weka.core.Attribute;
 import weka.core.Instance;
@@ -75,7 +81,11 @@ public class Features {
 	private ArrayList<Attribute> atts = new ArrayList<Attribute>();
 	
 	//structure to control attribute indexes
-	private HashMap<String,Integer> attIndexes = new HashMap<String,Integer>();
+	private Vocabulary attIndexes = new Vocabulary();
+	//hash based n-gram feature lookup, built from attIndexes when instances are loaded.
+	private volatile NgramIndex ngramIndex;
+	//polarity lexicon lookup, built from the polarity lexicons and attIndexes when instances are loaded.
+	private volatile PolarityLexiconIndex polarityIndex;
 	
 	//structure to control instance ids wrt opinions/sentences
 	private HashMap<String,Integer> opInst = new HashMap<String,Integer>();
@@ -84,19 +94,19 @@ public class Features {
 	private HashMap<String, HashMap<String,Integer>> attributeSets = new HashMap<String, HashMap<String,Integer>>();
 
 	//structure to store word form ngram attributes
-	private HashMap<String, Integer> charNgrams = new HashMap<String,Integer>(); 
+	private Vocabulary charNgrams = new Vocabulary(); 
 	
 	//structure to store word form ngram attributes
-	private HashMap<String, Integer> wfNgrams = new HashMap<String,Integer>(); 
+	private Vocabulary wfNgrams = new Vocabulary(); 
 	
 	//structure to store lemma ngram attributes
-	private HashMap<String, Integer> lemmaNgrams = new HashMap<String,Integer>(); 
+	private Vocabulary lemmaNgrams = new Vocabulary(); 
 	
 	//structures to compute tf and idf values. Same structures are used for word forms and lemmas.
 	private TfIdf tfIdfStats = new TfIdf();	
 	
 	//structure to store POS ngram attributes
-	private HashMap<String, Integer> POSNgrams = new HashMap<String,Integer>(); 
+	private Vocabulary POSNgrams = new Vocabulary(); 
 	
 	//structure to store classification classes
 	private List<String> ClassificationClasses = Arrays.asList("dummy","positive","negative","neutral");  
@@ -118,6 +128,15 @@ public class Features {
 	//MicroText Normalization object
 	private MicroTextNormalizer MicrotxtNormalizer; 	
 	
+	// tagged documents shared by the feature extraction passes
+	private TaggedCorpusCache taggedCache;
+	
+	// incremental training state (trainState parameter), see TrainingState.
+	private TrainingState trainState;
+	// n-gram counts and document frequencies of the sentence being processed, recorded for the training state.
+	private Vocabulary sentenceNgrams;
+	private Vocabulary sentenceDf;
+	
 	// feature number
 	private int featNum;
 	
@@ -133,6 +152,12 @@ public class Features {
 	//pattern to match eustagger executable
 	private Pattern eustagger = Pattern.compile("(eustagger|euslem|ixa-pipe-pos-eu)",Pattern.CASE_INSENSITIVE);
 
+	// error counts (see Metrics)
+	private static final Metrics.Counter tagErrors = Metrics.counter("elixa_tag_errors_total",
+			"Sentences which could not be tagged.");
+	private static final Metrics.Counter nafReadErrors = Metrics.counter("elixa_naf_read_errors_total",
+			"Tagged documents which could not be read (empty or incorrect NAF), tagFails in the logs.");
+
 	
 	/**
 	 *  Constructor
@@ -167,6 +192,9 @@ public class Features {
 		} else if (norm.compareTo("none") != 0) {
 			MicrotxtNormalizer = new MicroTextNormalizer(corpus.getLang());
 		}
+		if (MicrotxtNormalizer != null && params.containsKey("normalizationCacheSize")) {
+			MicrotxtNormalizer.setCorrectionCacheSize(Integer.parseInt(params.getProperty("normalizationCacheSize")));
+		}
 
 		// stopword list to rule out function words or too frequent works.
 		if (params.containsKey("stopwords")) {
@@ -191,9 +219,14 @@ public class Features {
 				}
     		}
     	}
+		// external tagger: reuse long running tagger processes if so configured.
+		if (eustagger.matcher(posModel).find())
+		{
+			TaggerPool.configure(params);
+		}
 		
 		discardUrls = params.getProperty("discardUrls", "no").equalsIgnoreCase("yes");
-		System.out.println("Features::Features()  -> discard urls: "+discardUrls);
+		Log.info("Features::Features()  -> discard urls: "+discardUrls);
 		
 		// System.err.println("Features: initiate feature extraction from
 		// corpus");
@@ -227,6 +260,10 @@ public class Features {
 		{
 			MicrotxtNormalizer = new MicroTextNormalizer(corpus.getLang());
 		}
+		if (MicrotxtNormalizer != null && params.containsKey("normalizationCacheSize"))
+		{
+			MicrotxtNormalizer.setCorrectionCacheSize(Integer.parseInt(params.getProperty("normalizationCacheSize")));
+		}
 				
 		//stopword list to rule out function words or too frequent works.
 		if (params.containsKey("stopwords"))
@@ -254,9 +291,14 @@ public class Features {
 				}
     		}
     	}
+		// external tagger: reuse long running tagger processes if so configured.
+		if (eustagger.matcher(posModel).find())
+		{
+			TaggerPool.configure(params);
+		}
 		
 		discardUrls = params.getProperty("discardUrls", "no").equalsIgnoreCase("yes");
-		System.out.println("Features::Features()  -> discard urls: "+discardUrls);
+		Log.info("Features::Features()  -> discard urls: "+discardUrls);
 		if (FileUtilsElh.checkFile(modelPath))
 		{
 			createFeatureSetFromModel(modelPath);
@@ -320,22 +362,23 @@ public class Features {
 	 * @return HashMap<String, Integer> containing the name of the attributes and their indexes 
 	 * 			in the attribute vectors
 	 */
-	private HashMap<String, Integer> getAttIndexes() {
+	private Vocabulary getAttIndexes() {
 		return attIndexes;
 	}
 
 	/**
 	 * Creates a feature set from a previously saved model. This allows to load previously saved feature sets. 
 	 * 
-	 * @param model string: path to the serialized model containing header information
+	 * @param model string: path to the serialized model containing header information, or to a model bundle
 	 * @throws IOException 
 	 */
 	private void createFeatureSetFromModel (String model)
 	{
 		try
 		{
-			WekaWrapper ww = new WekaWrapper(model, corpus.getLang());
-			Instances header = ww.loadHeader(model);
+			// model bundles carry the feature dictionary, lexicons and clusters of the model (see ModelBundle)
+			ModelBundle bundle = ModelBundle.isBundle(model) ? ModelBundle.open(new File(model)) : null;
+			Instances header = (bundle != null) ? bundle.getHeader() : WekaWrapper.readHeader(model);
 			
 			int attNum = header.numAttributes();
 			for (int i= 0; i<attNum; i++) 
@@ -364,7 +407,17 @@ public class Features {
 			if (header.attribute("polLexGen_posScore")!=null)
 			{
 				String lexPath = params.getProperty("polarLexiconGeneral");
-				this.polarLexiconGen = new Lexicon(new File(lexPath),"lemma");
+				Lexicon bundled = (bundle != null) ? bundle.getLexicon(ModelBundle.GENERAL_LEXICON) : null;
+				if (bundled != null)
+				{
+					lexPath = model;
+					this.polarLexiconGen = bundled;
+				}
+				else
+				{
+					this.polarLexiconGen = new Lexicon(new File(lexPath),"lemma");
+				}
+				this.polarityIndex = null;
 				System.err.println("Features : createFeatureSetFromModel() - General polarity lexicon loaded -> "
 						+lexPath+" ("+this.polarLexiconGen.size()+" entries)");
 				//System.out.println("Features : createFeatureSetFromModel() - General polarity lexicon loaded -> "
@@ -376,7 +429,17 @@ public class Features {
 			{
 				//this.polarLexiconDom = loadPolarityLexiconFromFile(params.getProperty("polarLexiconDomain"), "polLexDom_");
 				String lexPath = params.getProperty("polarLexiconDomain");
-				this.polarLexiconDom = new Lexicon(new File(lexPath),"lemma");
+				Lexicon bundled = (bundle != null) ? bundle.getLexicon(ModelBundle.DOMAIN_LEXICON) : null;
+				if (bundled != null)
+				{
+					lexPath = model;
+					this.polarLexiconDom = bundled;
+				}
+				else
+				{
+					this.polarLexiconDom = new Lexicon(new File(lexPath),"lemma");
+				}
+				this.polarityIndex = null;
 				System.err.println("Features : createFeatureSetFromModel() - Domain polarity lexicon loaded -> "
 						+lexPath+" ("+this.polarLexiconDom.size()+" entries)");
 				//System.out.println("Features : createFeatureSetFromModel() - Domain polarity lexicon loaded -> "
@@ -386,14 +449,14 @@ public class Features {
 			
 			
 			
-			// Load clark cluster category info from files
-			loadClusterFeatures("clark");
+			// Load clark cluster category info from files (or from the bundle)
+			loadClusterFeatures("clark", bundle);
 			
-			// Load brown cluster category info from files
-			loadClusterFeatures("brown");
+			// Load brown cluster category info from files (or from the bundle)
+			loadClusterFeatures("brown", bundle);
 
-			// Load word2vec cluster category info from files
-			loadClusterFeatures("word2vec");
+			// Load word2vec cluster category info from files (or from the bundle)
+			loadClusterFeatures("word2vec", bundle);
 
 
 			
@@ -420,8 +483,15 @@ public class Features {
 		//naf paths for the tagged files		
 		String nafDir = params.getProperty("kafDir");
 		try{
-			// create pos tagging dir if not exists
-			Files.createDirectories(Paths.get(nafDir));
+			// create pos tagging dir (or binary tagged corpus store) if not exists
+			if (TaggedCorpusStore.isStore(nafDir))
+			{
+				TaggedCorpusStore.open(nafDir);
+			}
+			else
+			{
+				Files.createDirectories(Paths.get(nafDir));
+			}
 		}catch(Exception ioe){
 			System.err.println("Features::CreateFeatureSet error when creating pos tagging folder "+nafDir);
 		}
@@ -449,6 +519,9 @@ public class Features {
 		}
 
 		Set<String> corpSentenceIds = corpus.getSentences().keySet();
+		
+		// incremental training: n-gram counts of the sentences of the previous training are reused.
+		openTrainingState();
 
 //		String posModel=params.getProperty("pos-model","default");
 		
@@ -462,12 +535,55 @@ public class Features {
 
         	long tagged = 0;
         	int previouslyTagged=0;
+        	int threads = Integer.parseInt(params.getProperty("threads", "1"));
+        	if (threads > 1)
+        	{
+        		// PARALLEL NORMALIZATION AND POS TAGGING
+        		List<String> toTag = new ArrayList<String>(corpSentenceIds.size());
+        		for (String sId : corpSentenceIds)
+        		{
+        			if (trainState == null || !trainState.isReused(sId))
+        			{
+        				toTag.add(sId);
+        			}
+        		}
+        		int[] results = normalizeAndTagParallel(toTag, nafDir, threads);
+        		int i = 0;
+        		// failed sentences are removed once all workers are done, following corpus order. 
+        		for (Iterator<Entry<String, String>> it = corpus.getSentences().entrySet().iterator(); it.hasNext();)
+        		{
+        			String sId = it.next().getKey();
+        			if (trainState != null && trainState.isReused(sId))
+        			{
+        				continue;
+        			}
+        			if (results[i] == 2)
+        			{
+        				previouslyTagged++;
+        			}
+        			else if (results[i] == 0)
+        			{
+        				it.remove();
+        			}
+        			else
+        			{
+        				tagged+=results[i];
+        			}
+        			i++;
+        		}
+        	}
+        	else
+        	{
         	// SEQUENTIAL NORMALIZATION AND POS TAGGING        	
         	for (Iterator<Entry<String, String>> it = corpus.getSentences().entrySet().iterator(); it.hasNext();)
     		{									
     			Map.Entry<String, String> sntnc = it.next();
     			String sId = sntnc.getKey();
     			//System.err.print("\r normalize and tagging "+sId);
+    			if (trainState != null && trainState.isReused(sId))
+    			{
+    				continue;
+    			}
         		int success = normalizeAndTag(sId,nafDir);
         		if (success == 2)
         		{
@@ -483,6 +599,8 @@ public class Features {
         		{
         			tagged+=success;
         		}
+        		Log.progress("Features::createFeatureSet.tag", "Features::createFeatureSet() - "+(tagged+previouslyTagged)+" sentences tagged...");
+        	}
         	}
         	
         	
@@ -490,6 +608,98 @@ public class Features {
         	System.err.println("Features::createFeatureSet() - sentence normalization and tagging done: "
         			+(double)(endTime-startTime)/1000 + " seconds, "+tagged+" sentences tagged");
         	System.err.println("Features::createFeatureSet() - total sentences found that were previously tagged: "+previouslyTagged);
+        	if (MicrotxtNormalizer != null)
+        	{
+        		System.err.println("Features::createFeatureSet() - normalization cache: "+MicrotxtNormalizer.getCorrectionCache());
+        	}
+        }
+        
+        // n-gram extraction from tagged files: a single pass over the corpus feeds all the enabled ngram 
+        // counters (character, word form, lemma and PoS). Feature sets are added afterwards, in the usual order.
+        int passChrMin = 0;
+        int passChrMax = 0;
+        int passWfLength = 0;
+        int passLemmaLength = 0;
+        int passPosLength = 0;
+        if (corpus.getFormat().equalsIgnoreCase("tabNotagged") || !corpus.getFormat().startsWith("tab"))
+        {
+        	if (params.containsKey("chrngrams") && !new File(params.getProperty("chrngrams")).isFile())
+        	{
+        		String[] chrNgramsLimits = params.getProperty("chrngrams","0").split("-");
+        		if (chrNgramsLimits.length>1){
+        			passChrMin = Integer.valueOf(chrNgramsLimits[0]);
+        			passChrMax = Integer.valueOf(chrNgramsLimits[1]);
+        		}
+        		else if (chrNgramsLimits.length>0){
+        			passChrMin = 1;	
+        			passChrMax = Integer.valueOf(chrNgramsLimits[0]);				
+        		}
+        	}
+        	if (params.containsKey("wfngrams") && !new File(params.getProperty("wfngrams")).isFile())
+        	{
+        		passWfLength = Integer.valueOf(params.getProperty("wfngrams"));
+        	}
+        	if (params.containsKey("lemmaNgrams") && !new File(params.getProperty("lemmaNgrams")).isFile())
+        	{
+        		passLemmaLength = Integer.valueOf(params.getProperty("lemmaNgrams"));
+        	}
+        	String posParam = params.getProperty("pos", "0");
+        	if (!posParam.equalsIgnoreCase("0") && !new File(posParam).isFile())
+        	{
+        		passPosLength = Integer.valueOf(posParam);
+        	}
+        }
+        boolean ngramPass = (passChrMax > 0) || (passWfLength > 0) || (passLemmaLength > 0) || (passPosLength > 0);
+        if (ngramPass)
+        {
+        	int tagFails = 0;
+        	int done = 0;
+        	System.err.println("Features::createFeatureSet -> ngram extraction: chr ("+passChrMin+"-"+passChrMax+"), wf ("
+        			+passWfLength+"), lemma ("+passLemmaLength+"), pos ("+passPosLength+")...");
+        	for (String key : corpSentenceIds)
+        	{
+        		// counts of reused sentences are added afterwards
+        		if (trainState != null && trainState.isReused(key))
+        		{
+        			continue;
+        		}
+        		try {
+        			TaggedSentence naf = getTaggedCache().get(key);
+        			if (trainState != null)
+        			{
+        				sentenceNgrams = new Vocabulary(256);
+        				sentenceDf = new Vocabulary(64);
+        			}
+        			// N-gram Feature vectors : extracted from sentences
+        			extractChrNgramsKAF(passChrMin, passChrMax, naf, true);
+        			extractWfNgramsKAF(passWfLength, naf, true);
+        			extractLemmaNgrams(passLemmaLength, naf, discardPos, true);
+        			extractPosNgrams(passPosLength, naf, discardPos, true);
+        			if (trainState != null)
+        			{
+        				trainState.setCounts(key, sentenceNgrams, sentenceDf);
+        				sentenceNgrams = null;
+        				sentenceDf = null;
+        			}
+        			done++;
+        			Log.progress("Features::createFeatureSet", "Features::createFeatureSet -> ngram extraction - " + done + " docs processed...");
+        		} catch (IOException ioe) {
+        			Log.warn("Features::createFeatureSet -> error when reading naf for sentence "+key
+        					+" opinions for the sentence will be deleted from training set");
+        			corpus.removeSentenceOpinions(key);
+        			tagFails++;
+        			nafReadErrors.inc();
+        			sentenceNgrams = null;
+        			sentenceDf = null;
+        		}
+        	}
+        	System.err.println("Features : createFeatureSet() - number of files for which tagged files"
+        			+ " are problematic: "+tagFails+", if > 0 this may result in incorrect training");
+        	getTaggedCache().printStats();
+        }
+        if (trainState != null)
+        {
+        	addReusedNgramCounts(ngramPass);
         }
         
         // character ngram features
@@ -528,35 +738,8 @@ public class Features {
 				int success = extractCharNgramsTAB(minChrNgram,maxChrNgram, true);
 				addNumericFeatureSet("", charNgrams, chrfMinFreq,0);
 			}
-			// Otherwise use previously tagged files with ixa-pipes
+			// Otherwise ngrams were extracted from the previously tagged files in the n-gram extraction pass
 			else {
-				int tagFails = 0;
-				int done= 0;
-				System.err.println(
-						"Features::createFeatureSet -> character ngram extraction (" + minChrNgram + "-" + maxChrNgram + ")-grams)...");
-				for (String key : corpSentenceIds) {
-					String nafPath = nafDir + File.separator + key.replace(':', '_') + ".kaf";
-					
-					try {
-						KAFDocument naf = KAFDocument.createFromFile(new File(nafPath));
-						// N-gram Feature vector : extracted from sentences
-						int success = extractChrNgramsKAF(minChrNgram, maxChrNgram, naf, true);
-						if (done % 100 == 0 )
-						{
-							System.err.print(
-									"\rFeatures::createFeatureSet -> character ngram extraction - " + done + "docs processed...");
-						}
-						done++;
-					} catch (IOException ioe) {
-						System.err.println("Features::createFeatureSet -> error when reading naf for sentence " + key
-								+ " opinions for the sentence will be deleted from training set");
-						corpus.removeSentenceOpinions(key);
-						tagFails++;
-					}
-					
-				}
-				System.err.println("Features : createFeatureSet() - number of files for which tagged files"
-						+ " are problematic: "+tagFails+", if > 0 this may result in incorrect training");
 				addNumericFeatureSet("", charNgrams, chrfMinFreq,0);
 			}
 
@@ -598,35 +781,9 @@ public class Features {
 				int success = extractNgramsTAB(Integer.valueOf(params.getProperty("wfngrams")), "wf", discardPos, true);
 				addNumericFeatureSet("", wfNgrams, wfMinFreq,wfTfidfThreshold);
 			}
-			// Otherwise  use previously tagged files with ixa-pipes 
+			// Otherwise ngrams were extracted from the previously tagged files in the n-gram extraction pass
 			else
 			{
-				int wfNgramsLength=Integer.valueOf(params.getProperty("wfngrams"));
-				int tagFails=0;
-				int done=0;
-				System.err.println("Features::createFeatureSet -> word from ngram extraction ("+wfNgramsLength+")-grams)...");
-				for (String key : corpSentenceIds)
-				{
-					String nafPath = nafDir+File.separator+key.replace(':', '_')+".kaf";					
-					try {
-						KAFDocument naf = KAFDocument.createFromFile(new File(nafPath));
-						// N-gram Feature vector : extracted from sentences
-						int success = extractWfNgramsKAF(wfNgramsLength, naf, true);
-						if (done % 100 == 0 )
-						{
-							System.err.print(
-								"\rFeatures::createFeatureSet -> word form ngram extraction - " + done + "docs processed...");
-						}
-						done++;
-					} catch (IOException ioe){
-						System.err.println("Features::createFeatureSet -> error when reading naf for sentence "+key+" opinions for the sentence will be deleted from training set");
-						corpus.removeSentenceOpinions(key);
-						tagFails++;
-					}																
-				}
-				
-				System.err.println("Features : createFeatureSet() - number of files for which tagged files"
-						+ " are problematic: "+tagFails+", if > 0 this may result in incorrect training");
 				addNumericFeatureSet("", wfNgrams, wfMinFreq,wfTfidfThreshold);
 			}
 
@@ -634,8 +791,12 @@ public class Features {
 			System.out.println("Features : createFeatureSet() - word form ngram features -> "+(this.featNum-featPos));
 		}
 		
-		// tf-idf matrices are reinitialized, in case they are needed for lemmas.
-		tfIdfStats = new TfIdf();
+		// tf-idf matrices are reinitialized, in case they are needed for lemmas. If ngrams were extracted from
+		// tagged files, word form and lemma statistics were gathered together (keys have different prefixes).
+		if (!ngramPass)
+		{
+			tfIdfStats = new TfIdf();
+		}
 		// lemma ngram features
 		if (params.containsKey("lemmaNgrams"))
 		{	
@@ -670,47 +831,9 @@ public class Features {
 				int success = extractNgramsTAB(Integer.valueOf(params.getProperty("lemmaNgrams")), "lemma", discardPos, true);
 				addNumericFeatureSet("", lemmaNgrams, lemmaMinFreq,lemmaTfidfThreshold);
 			}
-			// Otherwise  use previously tagged files with ixa-pipes 
+			// Otherwise ngrams were extracted from the previously tagged files in the n-gram extraction pass
 			else
 			{
-				int lemmaNgramsLength=Integer.valueOf(params.getProperty("lemmaNgrams"));
-				System.err.println("Features::createFeatureSet -> lemma ngram extraction ("+lemmaNgramsLength+"-grams)...");
-				int tagFails = 0;
-				int done=0;
-				for (String key : corpSentenceIds)
-				{
-					String nafPath = nafDir+File.separator+key.replace(':', '_')+".kaf";
-					File naffile = new File(nafPath);
-					if (naffile.length()==0){
-						System.err.println("Features::createFeatureSet -> naf file is empty, sentence "+key+" opinions for the sentence will be deleted from training set");
-						corpus.removeSentenceOpinions(key);
-						tagFails++;
-					}
-					else
-					{
-						KAFDocument naf;
-						try {
-							naf = KAFDocument.createFromFile(naffile);
-							// N-gram Feature vector : extracted from sentences
-							int success = extractLemmaNgrams(lemmaNgramsLength, naf, discardPos, true);
-							if (done % 100 == 0 )
-							{
-								System.err.print(
-										"\rFeatures::createFeatureSet -> lemma ngram extraction - " + done + "docs processed...");
-							}
-							done++;
-
-						} catch (IOException e) {
-							System.err.println("Features::createFeatureSet -> error when reading naf for sentence "+key+" opinions for the sentence will be deleted from training set");
-							e.printStackTrace();							
-							corpus.removeSentenceOpinions(key);
-							tagFails++;
-						}
-					} 
-				} 	
-				System.err.println("Features : createFeatureSet() - number of files for which tagged files"
-						+ " are problematic: "+tagFails+", if > 0 this may result in incorrect training");
-				
 				addNumericFeatureSet("", lemmaNgrams, lemmaMinFreq, lemmaTfidfThreshold);					
 			}
 			System.out.println("Features : createFeatureSet() - lemma ngram features -> "+(this.featNum-featPos));
@@ -736,44 +859,9 @@ public class Features {
 				int success = extractNgramsTAB(Integer.valueOf(postagParam), "pos", discardPos, true);
 				addNumericFeatureSet("", POSNgrams, 1,0);
 			}
-			// Otherwise  use previously tagged files with ixa-pipes 
+			// Otherwise ngrams were extracted from the previously tagged files in the n-gram extraction pass
 			else
 			{
-				int posNgramLength= Integer.valueOf(postagParam);
-				int tagFails=0;
-				int done=0;
-				System.err.println("Features::createFeatureSet -> pos ngram extraction ("+posNgramLength+"-grams)...");
-				for (String key : corpSentenceIds)
-				{
-					String nafPath = nafDir+File.separator+key.replace(':', '_')+".kaf";
-					File nafFile = new File(nafPath);
-					if (nafFile.length()==0)
-					{
-						corpus.removeSentenceOpinions(key);
-						tagFails++;
-					}
-					else
-					{
-						try {
-							KAFDocument naf = KAFDocument.createFromFile(nafFile);
-							// N-gram Feature vector : extracted from sentences
-							int success = extractPosNgrams(Integer.valueOf(postagParam), naf, discardPos, true);
-							if (done % 100 == 0 )
-							{
-								System.err.print(
-										"\rFeatures::createFeatureSet -> pos ngram extraction - " + done + "docs processed...");
-							}
-							done++;
-
-						} catch (IOException ioe){
-							System.err.println("Features::createFeatureSet -> error when reading naf for sentence "+key+" opinions for the sentence will be deleted from training set");
-							corpus.removeSentenceOpinions(key);
-							tagFails++;
-						}
-					}				
-				} 
-				System.err.println("Features : createFeatureSet() - number of files for which tagged files"
-						+ " are problematic: "+tagFails+", if > 0 this may result in incorrect training");
 				addNumericFeatureSet("", POSNgrams, 1,0);
 			}
 			System.out.println("Features : createFeatureSet() - pos tag features -> "+(this.featNum-featPos));
@@ -846,6 +934,7 @@ public class Features {
 		{
 			//this.polarLexiconGen = loadPolarityLexiconFromFile(params.getProperty("polarLexiconGeneral"), "polLexGen_");
 			this.polarLexiconGen = new Lexicon(new File(params.getProperty("polarLexiconGeneral")),"lemma");
+			this.polarityIndex = null;
 			
 			System.err.println("Features : createFeatureSet() - General polarity lexicon loaded -> "
 							+params.getProperty("polarLexiconGeneral")
@@ -882,6 +971,7 @@ public class Features {
 		{
 			//this.polarLexiconDom = loadPolarityLexiconFromFile(params.getProperty("polarLexiconDomain"), "polLexDom_");
 			this.polarLexiconDom = new Lexicon(new File(params.getProperty("polarLexiconDomain")),"lemma");
+			this.polarityIndex = null;
 			System.err.println("Features : createFeatureSet() - Domain polarity lexicon loaded -> "
 							+params.getProperty("polarLexiconDomain")
 							+" ("+this.polarLexiconDom.size()+" entries)");
@@ -920,15 +1010,102 @@ public class Features {
 		}
 	}
 	
+	/**
+	 * Open the incremental training state given by the trainState parameter (if any), and reuse the n-gram counts
+	 * of the sentences that were already in the previous training (see TrainingState). Not available for corpora
+	 * in conll format, whose features are loaded by loadInstancesConll().
+	 */
+	private void openTrainingState ()
+	{
+		if (!params.containsKey("trainState"))
+		{
+			return;
+		}
+		if ((corpus.getFormat().startsWith("tab") && !corpus.getFormat().equalsIgnoreCase("tabNotagged"))
+				|| (corpus.getLang().equalsIgnoreCase("eu") && params.getProperty("pos-model","default").contains("eustagger")))
+		{
+			System.err.println("Features::openTrainingState - incremental training is not available for "+corpus.getFormat()
+					+" corpora or eustagger, the whole corpus will be processed.");
+			return;
+		}
+		trainState = TrainingState.open(new File(params.getProperty("trainState")), 
+				TrainingState.fingerprint(params, corpus.getLang(), corpus.getFormat()));
+		int reused = trainState.reuseCounts(corpus.getSentences());
+		System.err.println("Features::openTrainingState - sentences reused from the previous training: "+reused
+				+", new or modified sentences: "+(corpus.getSentences().size()-reused));
+	}
+	
+	/**
+	 * Add the stored n-gram counts of the sentences reused from the previous training to the n-gram counts of this
+	 * training. If no n-grams were extracted, the rest of the sentences are recorded with empty counts.
+	 * 
+	 * @param boolean ngramPass : whether n-grams were extracted from the tagged sentences.
+	 */
+	private void addReusedNgramCounts (boolean ngramPass)
+	{
+		if (!ngramPass)
+		{
+			for (String sId : corpus.getSentences().keySet())
+			{
+				if (!trainState.isReused(sId))
+				{
+					trainState.setCounts(sId, new Vocabulary(16), new Vocabulary(16));
+				}
+			}
+		}
+		for (int id=0; id<trainState.keyCount(); id++)
+		{
+			if (trainState.getCount(id) == 0 && trainState.getDf(id) == 0)
+			{
+				continue;
+			}
+			String key = trainState.getKey(id);
+			if (trainState.getCount(id) > 0)
+			{
+				switch (key.substring(0, key.indexOf('_')+1))
+				{
+				case "CHR_": charNgrams.increment(key, trainState.getCount(id)); break;
+				case "WF_": wfNgrams.increment(key, trainState.getCount(id)); break;
+				case "LEM_": lemmaNgrams.increment(key, trainState.getCount(id)); break;
+				case "POS_": POSNgrams.increment(key, trainState.getCount(id)); break;
+				default: System.err.println("Features::addReusedNgramCounts - unknown ngram type: "+key);
+				}
+			}
+			if (trainState.getDf(id) > 0)
+			{
+				tfIdfStats.updateDf(key, trainState.getDf(id));
+			}
+		}
+	}
+	
 		
 	private void loadClusterFeatures (String clname) 
+	{
+		loadClusterFeatures(clname, null);
+	}
+	
+	/**
+	 * @param String clname : clark|brown|word2vec
+	 * @param ModelBundle bundle : if not null and it contains the given clusters, the cluster map is read 
+	 * 								from the bundle instead of the file in the parameters.
+	 */
+	private void loadClusterFeatures (String clname, ModelBundle bundle) 
 	{
 		// Load clark cluster category info from files
 		HashMap<String, Integer> clMap = new HashMap<String, Integer>();
 		if (params.containsKey("clark"))
 		{
 			int featPos = this.featNum;
-			clMap = loadAttributeMapFromFile(params.getProperty(clname), clname+"ClId_");
+			HashMap<String, Integer> bundled = (bundle != null) ? bundle.getClusterMap(clname) : null;
+			if (bundled != null)
+			{
+				clMap = bundled;
+				addNumericFeatureSet(clname+"ClId_", new TreeSet<Integer>(clMap.values()));
+			}
+			else
+			{
+				clMap = loadAttributeMapFromFile(params.getProperty(clname), clname+"ClId_");
+			}
 			if (clMap.isEmpty())
 			{
 				params.remove(clname);
@@ -979,8 +1156,7 @@ public class Features {
         // setting class attribute (last attribute in train data.
         //traindata.setClassIndex(traindata.numAttributes() - 1);
 		
-		System.err.println("Features::loadInstances() - featNum: "+this.featNum+" - trainset attrib num -> "+rsltdata.numAttributes()+" - ");
-		System.out.println("Features::loadInstances() - featNum: "+this.featNum+" - trainset attrib num -> "+rsltdata.numAttributes()+" - ");
+		Log.info("Features::loadInstances() - featNum: "+this.featNum+" - trainset attrib num -> "+rsltdata.numAttributes()+" - ");
 		
 		// int for debuggin the number in problematic tagged files. If not 0 this means probably
 		// a problem in the corpus or the tagger (e.g., character encodings problems) 
@@ -988,8 +1164,109 @@ public class Features {
 		
 		boolean upperCaseRatio= params.getProperty("upperCaseRatio", "no").equalsIgnoreCase("yes");
 		
+		boolean tagging = params.containsKey("lemmaNgrams")
+				||params.containsKey("wfngrams")
+				||params.containsKey("chrngrams")
+				||params.containsKey("polNgrams")
+				||!params.getProperty("pos","0").equalsIgnoreCase("0")
+				||!params.getProperty("posFilter","none").equalsIgnoreCase("none");
+		String nafDir = params.getProperty("kafDir");
+		int threads = Integer.parseInt(params.getProperty("threads", "1"));
+		
 		int instId = 1;
 		int previouslyTagged=0;
+		int reusedVectors=0;
+		if (threads > 1)
+		{
+			// PARALLEL FEATURE VECTOR EXTRACTION
+			// Sentences are tagged concurrently (if needed), then feature vectors are computed concurrently and 
+			// instances are added afterwards in corpus order, so instance ids are the same as in sequential runs.
+			List<String> oIds = new ArrayList<String>(trainExamplesNum);
+			// opinions whose feature vector is reused from the previous training (incremental training)
+			HashMap<String, FeatureVector> storedVectors = new HashMap<String, FeatureVector>();
+			List<String> toVectorize = new ArrayList<String>(trainExamplesNum);
+			// sentences with no tagged file yet (several opinions may share a sentence)
+			LinkedHashSet<String> untagged = new LinkedHashSet<String>();
+			for (String oId : trainExamples.keySet())
+			{
+				FeatureVector stored = (trainState == null) ? null : trainState.getVector(oId, corpus.getOpinion(oId), attIndexes);
+				if (stored != null)
+				{
+					storedVectors.put(oId, stored);
+				}
+				else if (tagging && !isTagged(corpus.getOpinion(oId).getsId(), nafDir))
+				{
+					untagged.add(corpus.getOpinion(oId).getsId());
+				}
+			}
+			HashMap<String, Integer> tagResults = new HashMap<String, Integer>();
+			if (!untagged.isEmpty())
+			{
+				List<String> sIds = new ArrayList<String>(untagged);
+				int[] results = normalizeAndTagParallel(sIds, nafDir, threads);
+				for (int i=0; i<results.length; i++)
+				{
+					tagResults.put(sIds.get(i), results[i]);
+				}
+			}
+			for (Iterator<Entry<String, Opinion>> it = trainExamples.entrySet().iterator(); it.hasNext();)
+			{
+				String oId = it.next().getKey();
+				if (storedVectors.containsKey(oId))
+				{
+					oIds.add(oId);
+					continue;
+				}
+				Integer success = tagResults.get(corpus.getOpinion(oId).getsId());
+				if (success != null && success == 2)
+				{
+					previouslyTagged++;
+				}
+				else if (success != null && success == 0)
+				{
+					it.remove();
+					Log.warn("Features::loadInstances -> error when tagging opinion " + oId
+							+ ". Opinion removed from training set, features can not be extracted.");
+					continue;
+				}
+				oIds.add(oId);
+				toVectorize.add(oId);
+			}
+			
+			List<FeatureVector> vectors = opinionFeatureVectorsParallel(toVectorize, rsltdata, tagging, bowWin, minChrNgram, maxChrNgram, upperCaseRatio, threads);
+			int next = 0;
+			for (String oId : oIds)
+			{
+				FeatureVector vector = storedVectors.get(oId);
+				if (vector != null)
+				{
+					reusedVectors++;
+				}
+				else
+				{
+					vector = vectors.get(next++);
+					// null vectors correspond to empty or incorrect tagged files.
+					if (vector == null)
+					{
+						trainExamples.remove(oId);
+						tagFails++;
+						nafReadErrors.inc();
+						continue;
+					}
+					if (tagging)
+					{
+						previouslyTagged++;
+					}
+				}
+				long start = PipelineStage.start();
+				addInstance(rsltdata, oId, vector, instId, trainExamples);
+				PipelineStage.VECTORIZE.stop(start);
+				instId++;
+			}
+		}
+		else
+		{
+		// SEQUENTIAL FEATURE VECTOR EXTRACTION
 		// fill the vectors for each training example
 		for (Iterator<Entry<String, Opinion>> it = trainExamples.entrySet().iterator(); it.hasNext();)
 		{									
@@ -997,34 +1274,18 @@ public class Features {
 			String oId = op.getKey();
 			//System.err.println("sentence: "+ corpus.getOpinionSentence(oId));
 			
-			//value vector
-			double[] values = new double[featNum];
-			
-			// first element is the instanceId			
-			values[rsltdata.attribute("instanceId").index()] = instId;  
-			
-						
-			// string normalization (emoticons, twitter grammar,...)
-			String opNormalized = corpus.getOpinionSentence(oId);
-			
-			// compute uppercase ratio before normalization (if needed)		
-			double upRatio =0.0;
-			if (upperCaseRatio)
+			// incremental training: feature vector reused from the previous training
+			FeatureVector stored = (trainState == null) ? null : trainState.getVector(oId, corpus.getOpinion(oId), attIndexes);
+			if (stored != null)
 			{
-				String upper = opNormalized.replaceAll("[\\p{Ll}]", ""); //delete all lower case
-				upRatio = (double)upper.length() / (double)opNormalized.length();
-				values[rsltdata.attribute("upperCaseRatio").index()] = upRatio;
-				//System.err.println("upper case ratio for "+oId+" = "+upRatio);
+				addInstance(rsltdata, oId, stored, instId, trainExamples);
+				instId++;
+				reusedVectors++;
+				continue;
 			}
 			
-			
 			//process the current instance with the NLP pipeline in order to get token and lemma|pos features
-			KAFDocument nafinst = new KAFDocument("","");
-			String nafname = trainExamples.get(oId).getsId().replace(':', '_');
-			String nafDir = params.getProperty("kafDir");
-			String nafPath = nafDir+File.separator+nafname+".kaf";			
-			//counter for opinion sentence token number. Used for computing relative values of the features
-			int tokNum=1;
+			TaggedSentence nafinst = null;
 			
 			/* document tagging 
 			 * UPDATE 2017/04/03: tokenizing and pos tagging are unified, postagging is always done. 
@@ -1032,53 +1293,31 @@ public class Features {
 			 * due to the use of various taggers for basque.  
 			 * 
 			 */
-			if (params.containsKey("lemmaNgrams")
-					||params.containsKey("wfngrams")
-					||params.containsKey("chrngrams")
-					||params.containsKey("polNgrams")
-					||!params.getProperty("pos","0").equalsIgnoreCase("0")
-					||!params.getProperty("posFilter","none").equalsIgnoreCase("none"))
-			{
-				if (!FileUtilsElh.checkFile(nafPath)) {
+			if (tagging)
+			{
+				if (!isTagged(corpus.getOpinion(oId).getsId(), nafDir)) {
 					int success = normalizeAndTag(corpus.getOpinion(oId).getsId(), nafDir);
 					if  (success == 2) {
 						previouslyTagged++;
 					}
 					else if (success == 0) {
 						it.remove();
-						System.err.println("error when tagging opinion " + oId
+						Log.warn("Features::loadInstances -> error when tagging opinion " + oId
 								+ ". Opinion removed from training set, features can not be extracted.");
 						continue;
 					}					
 				}
 
-				// can not use directly KAFDocument.createFromFile because if
-				// file exist but is empty kaflib end in Exception.
-				File nafFile = new File(nafPath);				
-				if (nafFile.length() == 0) {
-					it.remove();
-					System.err.println("tagged file exist but is empty for opinion " + oId
-							+ ". Opinion removed from training set, features can not be extracted.");
-					continue;
-				} else {
-					try {
-						nafinst = KAFDocument.createFromFile(new File(nafPath));
-						previouslyTagged++;
-					} catch (IOException ioe ) {
-						System.err.println("Features::createFeatureSet -> error when reading naf for opinion " + oId
-								+ " opinion will be deleted from training set");
-						it.remove();
-						tagFails++;
-						continue;
-					}
-				}
+				// empty files and naf JDOM errors are reported by the cache as IOExceptions.
 				try {
-					tokNum = nafinst.getWFs().size();
-				}catch(NullPointerException ne){
-					System.err.println("Features::loadInstances -> error when reading naf for opinion (seems naf JDOM error) " + oId
-							+ " opinion will be deleted from training set");
+					nafinst = getTaggedCache().get(corpus.getOpinion(oId).getsId());
+					previouslyTagged++;
+				} catch (IOException ioe ) {
+					Log.warn("Features::loadInstances -> error when reading naf for opinion " + oId
+							+ " opinion will be deleted from training set ("+ioe.getMessage()+")");
 					it.remove();
 					tagFails++;
+					nafReadErrors.inc();
 					continue;
 				}
 				// System.err.println("Features::loadInstances - postagging
@@ -1086,321 +1325,446 @@ public class Features {
 				// "+corpus.getOpinionSentence(oId));
 			}
 			
-
-			boolean polNgrams=params.getProperty("polNgrams","no").equalsIgnoreCase("yes");
-			
-			List<WF> window = nafinst.getWFs();
-			Integer end = corpus.getOpinion(oId).getTo();
-			// apply window if window active (>0) and if the target is not null (to=0)
-			if ((bowWin > 0) && (end > 0))
-			{
-				Integer start = corpus.getOpinion(oId).getFrom();
-				Integer to = window.size();
-				Integer from = 0;		
-				end++;				
-				for (int i=0; i<window.size(); i++)
-				{	
-					WF wf = window.get(i);								
-					if ((wf.getOffset() == start) && (i >= bowWin))
-					{
-						from = i-bowWin;
-					}
-					else if (wf.getOffset() >= end)
-					{	
-						if (i+bowWin < window.size())
-						{
-							to = i+bowWin;
-						}
-						break;
-					}					
-				}
-				window = window.subList(from, to);
-				//System.out.println("startTgt: "+start+" - from: "+from+" | endTrgt:"+(end-1)+" - to:"+to);
+			long start = PipelineStage.start();
+			FeatureVector values = opinionFeatureVector(oId, nafinst, rsltdata, bowWin, minChrNgram, maxChrNgram, upperCaseRatio);
+			addInstance(rsltdata, oId, values, instId, trainExamples);
+			PipelineStage.VECTORIZE.stop(start);
+			instId++;
+		}
+		}
+		
+		System.err.println("Features : loadInstances() - training data ready, total number of examples -> "
+				+trainExamplesNum+" - "+rsltdata.numInstances()+"\n\t empty or incorrectly tagged opinions: "+tagFails);
+		System.err.println("Features : loadInstances() - training data ready, total number of examples previously tagged -> "+previouslyTagged);
+		
+		if (trainState != null)
+		{
+			System.err.println("Features : loadInstances() - feature vectors reused from the previous training -> "+reusedVectors);
+			try {
+				trainState.save(rsltdata, opInst, corpus);
+			} catch (IOException ioe) {
+				Log.error("Features::loadInstances - training state could not be saved to "+params.getProperty("trainState"), ioe);
 			}
-			
-			//System.out.println("Sentence: "+corpus.getOpinionSentence(oId)+" - target: "+corpus.getOpinion(oId).getTarget()+
-			//		"\n window: from-> "+window.get(0).getForm()+" to-> "+window.get(window.size()-1)+" .\n");
-
-			
-			List<String> windowWFIds = new ArrayList<String>();
+		}
 
-			
-			LinkedList<String> ngrams = new LinkedList<String>();
-			
-			if (minChrNgram >0 && maxChrNgram>minChrNgram)
-			{
-				//character ngram related features		
-				StringBuilder sb = new StringBuilder();
-				for (WF wf : window)
-				{
-					sb.append(wf.getForm()).append(" ");
-				}
-				String sentence = sb.toString(); //String sentence = punctPattern.matcher(sb).replaceAll("$1");
-				//System.err.println("Features::loadInstances - sentences for chr-ngrams - before:"
-				//		+ "\n"+sb.toString()+"\nAFTER:\n"+sentence);
-				// the following code is to threat correctly uft-16 two byte chars
-				int len = sentence.codePointCount(0, sentence.length()); 
-				int position = minChrNgram;                  // the current position per code point
-
-				while (position < len-1) 
-				{
+		
+		if (save)
+		{
+			try {	
+				String savePath = generateSavePath(prefix, bowWin, upperCaseRatio);
+				
+				ArffSaver saver = new ArffSaver();
+		
+				saver.setInstances(rsltdata);
+		
+				saver.setFile(new File(savePath));					
+				saver.writeBatch();			 
+			} catch (IOException e1) {			
+				e1.printStackTrace();
+			} catch (Exception e2) {
+				e2.printStackTrace();
+			}
+		}
+		return rsltdata;
+	}
+	
 
-					if (ngrams.size() >= maxChrNgram)
+	/**
+	 *   Compute the feature vector of an opinion. The instance id is not set.
+	 * 
+	 * @param String oId : opinion id
+	 * @param TaggedSentence nafinst : tagged sentence of the opinion (null if no tagging is needed)
+	 * @param Instances rsltdata : dataset the instance will belong to
+	 * @param int bowWin : window around the opinion target (0 = whole sentence)
+	 * @param int minChrNgram : min character ngram length
+	 * @param int maxChrNgram : max character ngram length
+	 * @param boolean upperCaseRatio : whether uppercase ratio feature is active
+	 * @return FeatureVector
+	 */
+	private FeatureVector opinionFeatureVector (String oId, TaggedSentence nafinst, Instances rsltdata, int bowWin, 
+			int minChrNgram, int maxChrNgram, boolean upperCaseRatio)
+	{
+		//value vector
+		FeatureVector values = new FeatureVector();
+		
+		// string normalization (emoticons, twitter grammar,...)
+		String opNormalized = corpus.getOpinionSentence(oId);
+		
+		// compute uppercase ratio before normalization (if needed)		
+		double upRatio =0.0;
+		if (upperCaseRatio)
+		{
+			String upper = opNormalized.replaceAll("[\\p{Ll}]", ""); //delete all lower case
+			upRatio = (double)upper.length() / (double)opNormalized.length();
+			values.set(rsltdata.attribute("upperCaseRatio").index(), upRatio);
+			//System.err.println("upper case ratio for "+oId+" = "+upRatio);
+		}
+		
+		//counter for opinion sentence token number. Used for computing relative values of the features
+		int tokNum = (nafinst == null) ? 1 : nafinst.wfCount();
+		
+		boolean polNgrams=params.getProperty("polNgrams","no").equalsIgnoreCase("yes");
+		
+		// window is the range [from,to) of word form positions in the tagged document
+		int wfNum = (nafinst == null) ? 0 : nafinst.wfCount();
+		int from = 0;
+		int to = wfNum;
+		Integer end = corpus.getOpinion(oId).getTo();
+		// apply window if window active (>0) and if the target is not null (to=0)
+		if ((bowWin > 0) && (end > 0))
+		{
+			Integer start = corpus.getOpinion(oId).getFrom();
+			end++;				
+			for (int i=0; i<wfNum; i++)
+			{	
+				if ((nafinst.getOffset(i) == start) && (i >= bowWin))
+				{
+					from = i-bowWin;
+				}
+				else if (nafinst.getOffset(i) >= end)
+				{	
+					if (i+bowWin < wfNum)
 					{
-						ngrams.removeFirst();
+						to = i+bowWin;
 					}
-					int beginc = sentence.offsetByCodePoints(0, position);   
-					int endc   = sentence.offsetByCodePoints(0, position + 1);
+					break;
+				}					
+			}
+			//System.out.println("startTgt: "+start+" - from: "+from+" | endTrgt:"+(end-1)+" - to:"+to);
+		}
+		
+		
+		LinkedList<String> ngrams = new LinkedList<String>();
+		
+		if (minChrNgram >0 && maxChrNgram>minChrNgram)
+		{
+			//character ngram related features		
+			StringBuilder sb = new StringBuilder();
+			for (int w=from; w<to; w++)
+			{
+				sb.append(nafinst.getForm(w)).append(" ");
+			}
+			String sentence = sb.toString(); //String sentence = punctPattern.matcher(sb).replaceAll("$1");
+			//System.err.println("Features::loadInstances - sentences for chr-ngrams - before:"
+			//		+ "\n"+sb.toString()+"\nAFTER:\n"+sentence);
+			// the following code is to threat correctly uft-16 two byte chars
+			int len = sentence.codePointCount(0, sentence.length()); 
+			int position = minChrNgram;                  // the current position per code point
 
-					ngrams.add(sentence.substring(beginc, endc));
+			while (position < len-1) 
+			{
 
-					// add ngrams to the feature vector
-					checkNgramFeatures(ngrams, values, "chr", 1, false, minChrNgram); //toknum
-					position++;
+				if (ngrams.size() >= maxChrNgram)
+				{
+					ngrams.removeFirst();
 				}
-				checkNgramFeatures(ngrams, values, "chr", 1, true,minChrNgram); //toknum
-			}			
-			// END OF character ngram related features		
+				int beginc = sentence.offsetByCodePoints(0, position);   
+				int endc   = sentence.offsetByCodePoints(0, position + 1);
 
-			
-            // word form ngram related features
-            int ngramDim;
-			try {
-				ngramDim = Integer.valueOf(params.getProperty("wfngrams","0"));			
-			} catch (Exception e){
-				ngramDim = 0;
+				ngrams.add(sentence.substring(beginc, endc));
+
+				// add ngrams to the feature vector
+				checkNgramFeatures(ngrams, values, "chr", 1, false, minChrNgram); //toknum
+				position++;
 			}
-			
-			for (WF wf : window)
-			{
-				
-				windowWFIds.add(wf.getId());
-				
-				String wfStr = wf.getForm();
-				
-				// word form ngram features
-				if (params.containsKey("wfngrams") && ngramDim > 0)
-				{					
-					//if the current word form is in the ngram list activate the feature in the vector
-					if (ngrams.size() >= ngramDim)
-					{
-						ngrams.removeFirst();
-					}
-					ngrams.add(wfStr);
+			checkNgramFeatures(ngrams, values, "chr", 1, true,minChrNgram); //toknum
+		}			
+		// END OF character ngram related features		
 
-					// add ngrams to the feature vector
-					checkNgramFeatures(ngrams, values, "wf", 1, false,1); //toknum
-				   
-				}
-				// Clark cluster info corresponding to the current word form
-				if (params.containsKey("clark") && attributeSets.get("ClarkCl").containsKey(wfStr))
-				{
-					values[rsltdata.attribute("ClarkClId_"+attributeSets.get("ClarkCl").get(wfStr)).index()]++;					
-				}
-				
-				// Clark cluster info corresponding to the current word form
-				if (params.containsKey("brown") && attributeSets.get("BrownCl").containsKey(wfStr))
-				{
-					values[rsltdata.attribute("BrownClId_"+attributeSets.get("BrownCl").get(wfStr)).index()]++;
-				}
-				
-				// Clark cluster info corresponding to the current word form
-				if (params.containsKey("word2vec") && attributeSets.get("w2vCl").containsKey(wfStr))
+		
+		// word form ngram related features
+		int ngramDim;
+		try {
+			ngramDim = Integer.valueOf(params.getProperty("wfngrams","0"));			
+		} catch (Exception e){
+			ngramDim = 0;
+		}
+		
+		for (int w=from; w<to; w++)
+		{
+			String wfStr = nafinst.getForm(w);
+			
+			// word form ngram features
+			if (params.containsKey("wfngrams") && ngramDim > 0)
+			{					
+				//if the current word form is in the ngram list activate the feature in the vector
+				if (ngrams.size() >= ngramDim)
 				{
-					values[rsltdata.attribute("w2vClId_"+attributeSets.get("w2vCl").get(wfStr)).index()]++;
+					ngrams.removeFirst();
 				}
+				ngrams.add(wfStr);
 
+				// add ngrams to the feature vector
+				checkNgramFeatures(ngrams, values, "wf", 1, false,1); //toknum
+			   
+			}
+			// Clark cluster info corresponding to the current word form
+			if (params.containsKey("clark") && attributeSets.get("ClarkCl").containsKey(wfStr))
+			{
+				values.add(rsltdata.attribute("ClarkClId_"+attributeSets.get("ClarkCl").get(wfStr)).index(), 1);					
 			}
 			
-			//empty ngram list and add remaining ngrams to the feature list
-			checkNgramFeatures(ngrams, values, "wf", 1, true,1); //toknum
-			
-			// END OF word form ngram related features
+			// Clark cluster info corresponding to the current word form
+			if (params.containsKey("brown") && attributeSets.get("BrownCl").containsKey(wfStr))
+			{
+				values.add(rsltdata.attribute("BrownClId_"+attributeSets.get("BrownCl").get(wfStr)).index(), 1);
+			}
 			
-			// PoS tagger related attributes: lemmas and pos tags
-			if (params.containsKey("lemmaNgrams") || 
-					(params.containsKey("pos") && !params.getProperty("pos").equalsIgnoreCase("0")) ||
-					params.containsKey("polarLexiconGeneral") ||
-					params.containsKey("polarLexiconDomain"))
+			// Clark cluster info corresponding to the current word form
+			if (params.containsKey("word2vec") && attributeSets.get("w2vCl").containsKey(wfStr))
 			{
+				values.add(rsltdata.attribute("w2vClId_"+attributeSets.get("w2vCl").get(wfStr)).index(), 1);
+			}
 
-				ngrams = new LinkedList<String>();
-				if (params.containsKey("lemmaNgrams")&& (!params.getProperty("lemmaNgrams").equalsIgnoreCase("0")))
-				{
-					ngramDim = Integer.valueOf(params.getProperty("lemmaNgrams"));
-				}
-				else
-				{
-					ngramDim = 3;
-				}
-				LinkedList<String> posNgrams = new LinkedList<String>();
-				int posNgramDim =0;
-				if (params.containsKey("pos"))
-				{
-					posNgramDim = Integer.valueOf(params.getProperty("pos"));
-				}
-						
-				for (Term t : nafinst.getTermsFromWFs(windowWFIds))
-				{	
-					//System.err.println("loadInstances: lemma related features - term loop");
+		}
+		
+		//empty ngram list and add remaining ngrams to the feature list
+		checkNgramFeatures(ngrams, values, "wf", 1, true,1); //toknum
+		
+		// END OF word form ngram related features
+		
+		// PoS tagger related attributes: lemmas and pos tags
+		if (params.containsKey("lemmaNgrams") || 
+				(params.containsKey("pos") && !params.getProperty("pos").equalsIgnoreCase("0")) ||
+				params.containsKey("polarLexiconGeneral") ||
+				params.containsKey("polarLexiconDomain"))
+		{
 
-					//lemmas // && (!params.getProperty("lemmaNgrams").equalsIgnoreCase("0"))
-					if ((params.containsKey("lemmaNgrams")) || params.containsKey("polarLexiconGeneral") || params.containsKey("polarLexiconDomain"))
-					{
-						String lemma = t.getLemma();
-						
-						if (ngrams.size() >= ngramDim)
-						{
-							ngrams.removeFirst();
-						}
-						ngrams.add(lemma);
-				        		
-						// add ngrams to the feature vector
-						for (int i=0;i<ngrams.size();i++)
-						{
-							String ng = featureFromArray(ngrams.subList(0, i+1), "lemma");
-							//if the current lemma is in the ngram list activate the feature in the vector
-							if (params.containsKey("lemmaNgrams") && (!params.getProperty("lemmaNgrams").equalsIgnoreCase("0")))
-							{
-								Attribute ngAtt = rsltdata.attribute(ng);
-								if (ngAtt != null)
-								{
-									addNumericToFeatureVector (ng, values, 1);	//tokNum							
-								}
-							}
-							
-							ng = featureFromArray(ngrams.subList(0, i+1), "");
-							if (params.containsKey("polarLexiconGeneral") || params.containsKey("polarLexiconDomain"))
-							{
-								//System.err.println("checking polarity lexicons for ngram - "+ng);
-								checkPolarityLexicons(ng, values, tokNum, polNgrams);
-							} //end polarity ngram checker
-						} //end ngram checking				        						
-					}
-					//pos tags
-					if (params.containsKey("pos") && !params.getProperty("pos").equalsIgnoreCase("0"))
-					{
-						if (posNgrams.size() >= posNgramDim)
-						{
-							posNgrams.removeFirst();
-						}
-						posNgrams.add(t.getPos());
+			ngrams = new LinkedList<String>();
+			if (params.containsKey("lemmaNgrams")&& (!params.getProperty("lemmaNgrams").equalsIgnoreCase("0")))
+			{
+				ngramDim = Integer.valueOf(params.getProperty("lemmaNgrams"));
+			}
+			else
+			{
+				ngramDim = 3;
+			}
+			LinkedList<String> posNgrams = new LinkedList<String>();
+			int posNgramDim =0;
+			if (params.containsKey("pos"))
+			{
+				posNgramDim = Integer.valueOf(params.getProperty("pos"));
+			}
+					
+			List<Integer> windowTerms = (nafinst == null) ? new ArrayList<Integer>() : nafinst.getTermsFromWFs(from, to);
+			for (int t : windowTerms)
+			{	
+				//System.err.println("loadInstances: lemma related features - term loop");
 
-						// add ngrams to the feature vector
-						checkNgramFeatures(posNgrams, values, "pos", 1, false,1);
-					}										
-				} //endFor
-				
-				//empty ngram list and add remaining ngrams to the feature list
-				while (!ngrams.isEmpty())
+				//lemmas // && (!params.getProperty("lemmaNgrams").equalsIgnoreCase("0"))
+				if ((params.containsKey("lemmaNgrams")) || params.containsKey("polarLexiconGeneral") || params.containsKey("polarLexiconDomain"))
 				{
-					String ng = featureFromArray(ngrams, "lemma");
+					String lemma = nafinst.getLemma(t);
 					
-					//if the current lemma is in the ngram list activate the feature in the vector
-					if (rsltdata.attribute(ng) != null)
+					if (ngrams.size() >= ngramDim)
 					{
-						addNumericToFeatureVector (ng, values, 1); //tokNum
+						ngrams.removeFirst();
 					}
-					
-					// polarity lexicons
+					ngrams.add(lemma);
+			        		
+					//if the current lemma ngrams are in the ngram list activate the features in the vector
+					if (params.containsKey("lemmaNgrams") && (!params.getProperty("lemmaNgrams").equalsIgnoreCase("0")))
+					{
+						getNgramIndex().addPrefixNgrams("lemma", ngrams, 1, values, 1); //tokNum
+					}
+					// add ngrams to the feature vector
 					if (params.containsKey("polarLexiconGeneral") || params.containsKey("polarLexiconDomain"))
 					{
-						checkPolarityLexicons(ng, values, tokNum, polNgrams);
-					} //end polarity ngram checker
-
-					ngrams.removeFirst();
+						for (int i=0;i<ngrams.size();i++)
+						{
+							String ng = featureFromArray(ngrams.subList(0, i+1), "");
+							//System.err.println("checking polarity lexicons for ngram - "+ng);
+							checkPolarityLexicons(ng, values, tokNum, polNgrams);
+						} //end polarity ngram checker
+					} //end ngram checking				        						
 				}
-				
-				//empty pos ngram list and add remaining pos ngrams to the feature list
-				checkNgramFeatures(posNgrams, values, "pos", 1, true,1);
-				
-			}						
-			
-			// add sentence length as a feature
-			if (params.containsKey("sentenceLength") && (! params.getProperty("sentenceLength").equalsIgnoreCase("no")))
-			{				
-				values[rsltdata.attribute("sentenceLength").index()]=tokNum;
-			}
-			
-			//create object for the current instance and associate it with the current train dataset.			
-			Instance inst = new SparseInstance(1.0, values);
-			inst.setDataset(rsltdata);
+				//pos tags
+				if (params.containsKey("pos") && !params.getProperty("pos").equalsIgnoreCase("0"))
+				{
+					if (posNgrams.size() >= posNgramDim)
+					{
+						posNgrams.removeFirst();
+					}
+					posNgrams.add(nafinst.getPos(t));
+
+					// add ngrams to the feature vector
+					checkNgramFeatures(posNgrams, values, "pos", 1, false,1);
+				}										
+			} //endFor
 			
-			// add category attributte values
-			String cat = trainExamples.get(oId).getCategory();
-		
-			if (params.containsKey("categories") && params.getProperty("categories").compareTo("E&A")==0)
+			//empty ngram list and add remaining ngrams to the feature list
+			while (!ngrams.isEmpty())
 			{
-				if (cat.compareTo("NULL")==0)
+				//if the current lemma is in the ngram list activate the feature in the vector
+				int ind = getNgramIndex().get("lemma", ngrams);
+				if (ind >= 0)
 				{
-					inst.setValue(rsltdata.attribute("entCat").index(), cat);
-					inst.setValue(rsltdata.attribute("attCat").index(), cat);	
-				}
-				else
-				{
-					String[] splitCat = cat.split("#");
-					inst.setValue(rsltdata.attribute("entCat").index(), splitCat[0]);
-					inst.setValue(rsltdata.attribute("attCat").index(), splitCat[1]);
+					values.add(ind, 1); //tokNum
 				}
 				
-				//inst.setValue(attIndexes.get("entAttCat"), cat);
-			}
-			else if (params.containsKey("categories") && params.getProperty("categories").compareTo("E#A")==0)
-			{
-				inst.setValue(rsltdata.attribute("entAttCat").index(), cat);
+				// polarity lexicons
+				if (params.containsKey("polarLexiconGeneral") || params.containsKey("polarLexiconDomain"))
+				{
+					checkPolarityLexicons(featureFromArray(ngrams, "lemma"), values, tokNum, polNgrams);
+				} //end polarity ngram checker
+
+				ngrams.removeFirst();
 			}
 			
+			//empty pos ngram list and add remaining pos ngrams to the feature list
+			checkNgramFeatures(posNgrams, values, "pos", 1, true,1);
 			
-			if (params.containsKey("polarity") && params.getProperty("polarity").compareTo("yes")==0)
+		}						
+		
+		// add sentence length as a feature
+		if (params.containsKey("sentenceLength") && (! params.getProperty("sentenceLength").equalsIgnoreCase("no")))
+		{				
+			values.set(rsltdata.attribute("sentenceLength").index(), tokNum);
+		}
+		
+		return values;
+	}
+	
+	/**
+	 *   Create the Weka instance of an opinion from its feature vector, and add it to the dataset.
+	 * 
+	 * @param Instances rsltdata : dataset the instance is added to
+	 * @param String oId : opinion id
+	 * @param FeatureVector values : feature vector of the opinion
+	 * @param int instId : instance id
+	 * @param HashMap<String, Opinion> trainExamples : opinions of the corpus
+	 */
+	private void addInstance (Instances rsltdata, String oId, FeatureVector values, int instId, HashMap<String, Opinion> trainExamples)
+	{
+		// first element is the instanceId			
+		values.set(rsltdata.attribute("instanceId").index(), instId);  
+		
+		//create object for the current instance and associate it with the current train dataset.			
+		Instance inst = values.toInstance(1.0, featNum);
+		inst.setDataset(rsltdata);
+		
+		// add category attributte values
+		String cat = trainExamples.get(oId).getCategory();
+	
+		if (params.containsKey("categories") && params.getProperty("categories").compareTo("E&A")==0)
+		{
+			if (cat.compareTo("NULL")==0)
 			{
-				// add class value as a double (Weka stores all values as doubles )
-				String pol = normalizePolarity(trainExamples.get(oId).getPolarity());
-				//System.err.println("Features::loadInstances - pol "+pol+" for oid "+oId+" - text:"+corpus.getOpinionSentence(oId));
-				if (pol != null && !pol.isEmpty())
-				{
-					//System.err.println("polarity: _"+pol+"_");
-					inst.setValue(rsltdata.attribute("polarityCat"), pol);
-				}
-				else
-				{
-					inst.setMissing(rsltdata.attribute("polarityCat"));
-				}
+				inst.setValue(rsltdata.attribute("entCat").index(), cat);
+				inst.setValue(rsltdata.attribute("attCat").index(), cat);	
+			}
+			else
+			{
+				String[] splitCat = cat.split("#");
+				inst.setValue(rsltdata.attribute("entCat").index(), splitCat[0]);
+				inst.setValue(rsltdata.attribute("attCat").index(), splitCat[1]);
 			}
 			
-			//add instance to train data
-			rsltdata.add(inst);
-						
-			//store opinion Id and instance Id
-			this.opInst.put(oId, instId);
-			instId++;
+			//inst.setValue(attIndexes.get("entAttCat"), cat);
+		}
+		else if (params.containsKey("categories") && params.getProperty("categories").compareTo("E#A")==0)
+		{
+			inst.setValue(rsltdata.attribute("entAttCat").index(), cat);
 		}
 		
-		System.err.println("Features : loadInstances() - training data ready, total number of examples -> "
-				+trainExamplesNum+" - "+rsltdata.numInstances()+"\n\t empty or incorrectly tagged opinions: "+tagFails);
-		System.err.println("Features : loadInstances() - training data ready, total number of examples previously tagged -> "+previouslyTagged);
-
 		
-		if (save)
+		if (params.containsKey("polarity") && params.getProperty("polarity").compareTo("yes")==0)
 		{
-			try {	
-				String savePath = generateSavePath(prefix, bowWin, upperCaseRatio);
-				
-				ArffSaver saver = new ArffSaver();
+			// add class value as a double (Weka stores all values as doubles )
+			String pol = normalizePolarity(trainExamples.get(oId).getPolarity());
+			//System.err.println("Features::loadInstances - pol "+pol+" for oid "+oId+" - text:"+corpus.getOpinionSentence(oId));
+			if (pol != null && !pol.isEmpty())
+			{
+				//System.err.println("polarity: _"+pol+"_");
+				inst.setValue(rsltdata.attribute("polarityCat"), pol);
+			}
+			else
+			{
+				inst.setMissing(rsltdata.attribute("polarityCat"));
+			}
+		}
 		
-				saver.setInstances(rsltdata);
+		//add instance to train data
+		rsltdata.add(inst);
+		
+		//store opinion Id and instance Id
+		this.opInst.put(oId, instId);
+	}
+	
+	/**
+	 * Compute the feature vectors of the given opinions concurrently, using a fork-join pool of 'threads' workers.
+	 * Tagged sentences are read through the tagged document cache. 
+	 * 
+	 * @return List<FeatureVector> feature vectors, in the same order as the opinion list. Null elements 
+	 *         correspond to opinions whose tagged files could not be read.
+	 * @throws IOException if the workers are interrupted. Errors in a worker are thrown as they are (or wrapped 
+	 *         in an IOException if they are checked exceptions), as in sequential runs.
+	 */
+	private List<FeatureVector> opinionFeatureVectorsParallel (List<String> oIds, final Instances rsltdata, final boolean tagging, 
+			final int bowWin, final int minChrNgram, final int maxChrNgram, final boolean upperCaseRatio, int threads) throws IOException
+	{
+		// shared structures are initialized before workers start
+		getNgramIndex();
+		getPolarityIndex();
+		getTaggedCache();
+		
+		System.err.println("Features::opinionFeatureVectorsParallel - "+threads+" workers");
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		List<Future<FeatureVector>> pending = new ArrayList<Future<FeatureVector>>(oIds.size());
+		for (final String oId : oIds)
+		{
+			pending.add(pool.submit(new Callable<FeatureVector>() {
+				@Override
+				public FeatureVector call() {
+					TaggedSentence nafinst = null;
+					if (tagging)
+					{
+						// empty files and naf JDOM errors are reported by the cache as IOExceptions.
+						try {
+							nafinst = getTaggedCache().get(corpus.getOpinion(oId).getsId());
+						} catch (IOException ioe ) {
+							Log.warn("Features::loadInstances -> error when reading naf for opinion " + oId
+									+ " opinion will be deleted from training set ("+ioe.getMessage()+")");
+							return null;
+						}
+					}
+					long start = PipelineStage.start();
+					FeatureVector values = opinionFeatureVector(oId, nafinst, rsltdata, bowWin, minChrNgram, maxChrNgram, upperCaseRatio);
+					PipelineStage.VECTORIZE.stop(start);
+					return values;
+				}
+			}));
+		}
+		pool.shutdown();
 		
-				saver.setFile(new File(savePath));					
-				saver.writeBatch();			 
-			} catch (IOException e1) {			
-				e1.printStackTrace();
-			} catch (Exception e2) {
-				e2.printStackTrace();
+		List<FeatureVector> vectors = new ArrayList<FeatureVector>(oIds.size());
+		try {
+			for (int i=0; i<oIds.size(); i++)
+			{
+				vectors.add(pending.get(i).get());
+			}
+		} catch (InterruptedException ie) {
+			pool.shutdownNow();
+			Thread.currentThread().interrupt();
+			throw new IOException("Features::opinionFeatureVectorsParallel - interrupted", ie);
+		} catch (ExecutionException ee) {
+			// as in sequential runs, feature extraction errors abort the process.
+			pool.shutdownNow();
+			Throwable cause = ee.getCause();
+			if (cause instanceof RuntimeException)
+			{
+				throw (RuntimeException) cause;
 			}
+			if (cause instanceof Error)
+			{
+				throw (Error) cause;
+			}
+			throw new IOException("Features::opinionFeatureVectorsParallel - error when extracting features for opinion "
+					+oIds.get(vectors.size()), cause);
 		}
-		return rsltdata;
+		return vectors;
 	}
 	
-
 	/**
 	 *   Function fills the attribute vectors for the instances existing in the Conll tabulated formatted corpus given. 
 	 *   Attribute vectors contain the features loaded by the creatFeatureSet() function.
@@ -1443,6 +1807,19 @@ public class Features {
 		System.err.println("Features::loadInstancesConll() - featNum: "+this.featNum+" - trainset attrib num -> "+rsltdata.numAttributes()+" - ");
 		//System.out.println("Features::loadInstancesConll() - featNum: "+this.featNum+" - trainset attrib num -> "+rsltdata.numAttributes()+" - ");
 				
+		// external tagger processes can tag several documents at the same time.
+		TaggerPool taggerPool = TaggerPool.get(params.getProperty("pos-model", "default"));
+		int taggerBatchSize = Integer.parseInt(params.getProperty("taggerBatchSize", "1"));
+		if (tag && taggerPool != null && taggerPool.size() > 1)
+		{
+			tagConllParallel(new ArrayList<String>(trainExamples.keySet()), nafdir, taggerPool.size());
+		}
+		// otherwise, several sentences may be tagged with each external tagger call. 
+		else if (tag && taggerBatchSize > 1 && eustagger.matcher(params.getProperty("pos-model", "default")).find())
+		{
+			tagConllBatch(new ArrayList<String>(trainExamples.keySet()), nafdir, taggerBatchSize);
+		}
+		
 		int instId = 1;
 		int previouslyTagged = 0;
 		// fill the vectors for each training example
@@ -1451,10 +1828,10 @@ public class Features {
 			//System.err.println("sentence: "+ corpus.getOpinionSentence(o.getId()));
 			
 			//value vector
-			double[] values = new double[featNum];
+			FeatureVector values = new FeatureVector();
 			
 			// first element is the instanceId			
-			values[rsltdata.attribute("instanceId").index()] = instId;  
+			values.set(rsltdata.attribute("instanceId").index(), instId);  
 			
 			
 			
@@ -1600,19 +1977,19 @@ public class Features {
 				// Clark cluster info corresponding to the current word form
 				if (params.containsKey("clark") && attributeSets.get("ClarkCl").containsKey(wfStr))
 				{
-					values[rsltdata.attribute("ClarkClId_"+attributeSets.get("ClarkCl").get(wfStr)).index()]++;					
+					values.add(rsltdata.attribute("ClarkClId_"+attributeSets.get("ClarkCl").get(wfStr)).index(), 1);					
 				}
 				
 				// Clark cluster info corresponding to the current word form
 				if (params.containsKey("brown") && attributeSets.get("BrownCl").containsKey(wfStr))
 				{
-					values[rsltdata.attribute("BrownClId_"+attributeSets.get("BrownCl").get(wfStr)).index()]++;
+					values.add(rsltdata.attribute("BrownClId_"+attributeSets.get("BrownCl").get(wfStr)).index(), 1);
 				}
 				
 				// Clark cluster info corresponding to the current word form
 				if (params.containsKey("word2vec") && attributeSets.get("w2vCl").containsKey(wfStr))
 				{
-					values[rsltdata.attribute("w2vClId_"+attributeSets.get("w2vCl").get(wfStr)).index()]++;
+					values.add(rsltdata.attribute("w2vClId_"+attributeSets.get("w2vCl").get(wfStr)).index(), 1);
 				}
 
 			}
@@ -1711,7 +2088,7 @@ public class Features {
 			// add sentence length as a feature
 			if (params.containsKey("sentenceLength") && (! params.getProperty("sentenceLength").equalsIgnoreCase("no")))
 			{				
-				values[rsltdata.attribute("sentenceLength").index()]=tokNum;
+				values.set(rsltdata.attribute("sentenceLength").index(), tokNum);
 			}
 			
 			// compute uppercase ratio before normalization (if needed)		
@@ -1720,7 +2097,7 @@ public class Features {
 			//{
 			//	String upper = opNormalized.replaceAll("[a-z]", "");
 			//	upRatio = (double)upper.length() / (double)opNormalized.length();
-			//	values[rsltdata.attribute("upperCaseRation").index()] = upRatio;
+			//	values.set(rsltdata.attribute("upperCaseRation").index(), upRatio);
 			//}
 			
 			
@@ -1728,7 +2105,7 @@ public class Features {
 			
 			
 			//create object for the current instance and associate it with the current train dataset.			
-			Instance inst = new SparseInstance(1.0, values);
+			Instance inst = values.toInstance(1.0, featNum);
 			inst.setDataset(rsltdata);
 			
 			// add category attributte values
@@ -2072,13 +2449,13 @@ public class Features {
 	 * 
 	 * @param int minN : minimum length for 'n-grams'
 	 * @param int maxN : minimum length for 'n-grams' 
-	 * @param KAFDocument kafDoc : postagged kaf document to extract ngrams from.
+	 * @param TaggedSentence kafDoc : postagged document to extract ngrams from.
 	 * @param boolean save : safe ngrams to file or not. 
 	 * @return TreeSet<String> return word form ngrams of length length
 	 * 
 	 * TODO: first ngram in the sentence is recorded twice. Fix bug
 	 */
-	private int extractChrNgramsKAF(int minN, int maxN, KAFDocument kafDoc, boolean save)
+	private int extractChrNgramsKAF(int minN, int maxN, TaggedSentence kafDoc, boolean save)
 	{
         //System.err.println("extractChrNgramsKAF: char ngram extraction: _"+minN+"-"+maxN);
         if (maxN == 0) {return 0;}
@@ -2088,13 +2465,13 @@ public class Features {
         	minN=1;
         }
         
-        for (List<WF> sent : kafDoc.getSentences()) 
+        for (int[] sent : kafDoc.getSentences()) 
         { 
         	LinkedList<String> ngrams = new LinkedList<String>();
         	StringBuilder sb = new StringBuilder();
-        	for (WF wf : sent)
+        	for (int wf : sent)
         	{
-        		sb.append(wf.getForm()).append(" ");
+        		sb.append(kafDoc.getForm(wf)).append(" ");
         	}
         	String sentence = sb.toString(); //String sentence = punctPattern.matcher(sb).replaceAll("$1");
         	// the following code is to threat correctly uft-16 two byte chars
@@ -2138,11 +2515,11 @@ public class Features {
 	 *  Extract word form n-grams up to a certain length from a kaf/naf file
 	 * 
 	 * @param int length : which 'n' use for 'n-grams' 
-	 * @param KAFDocument kafDoc : postagged kaf document to extract ngrams from.
+	 * @param TaggedSentence kafDoc : postagged document to extract ngrams from.
 	 * @param boolean save : safe ngrams to file or not. 
 	 * @return TreeSet<String> return word form ngrams of length length
 	 */
-	private int extractWfNgramsKAF(int length, KAFDocument kafDoc, boolean save)
+	private int extractWfNgramsKAF(int length, TaggedSentence kafDoc, boolean save)
 	{
         //System.err.println("ngram extraction: _"+length+"_");
         if (length == 0)
@@ -2154,19 +2531,19 @@ public class Features {
 		int mod = Integer.valueOf(params.getProperty("modifierTreament", "0"));
 
         
-        for (List<WF> sent : kafDoc.getSentences()) 
+        for (int[] sent : kafDoc.getSentences()) 
         {
         	
         	LinkedList<String> ngrams = new LinkedList<String>();
         	HashMap<String,Boolean> dfProcessed = new HashMap<String,Boolean>();
         	
-        	for (WF wf : sent)
+        	for (int wf : sent)
         	{
         		if (ngrams.size() >= length)
         		{
         			ngrams.removeFirst();
         		}
-        		ngrams.add(wf.getForm());
+        		ngrams.add(kafDoc.getForm(wf));
         		//ngrams.add(normalize(wf.getForm(), params.getProperty("normalization", "none")));
         		
         		// add ngrams to the feature list
@@ -2176,7 +2553,7 @@ public class Features {
         			addNgram ("wf", ng);  
         			if (!dfProcessed.containsKey(ng))
         			{
-        				tfIdfStats.updateDf(ng);
+        				updateDf(ng);
         				dfProcessed.put(ng, true);
         			}
         			
@@ -2198,7 +2575,7 @@ public class Features {
         		addNgram ("wf", ng);  
         		if (!dfProcessed.containsKey(ng))
     			{
-        			tfIdfStats.updateDf(ng);
+        			updateDf(ng);
     				dfProcessed.put(ng, true);
     			}
         		if (mod>1)
@@ -2221,11 +2598,11 @@ public class Features {
 	 *     Lemma ngram extraction from a kaf document
 	 * 
 	 * @param int length : which 'n' use for 'n-grams' 
-	 * @param KAFDocument kafDoc : postagged kaf document to extract ngrams from.
+	 * @param TaggedSentence kafDoc : postagged document to extract ngrams from.
 	 * @param boolean save : safe ngrams to file or not. 
 	 * @return TreeSet<String> return lemma ngrams of length length
 	 */
-	private int extractLemmaNgrams(int length, KAFDocument kafDoc, List<String> discardPos, boolean save)
+	private int extractLemmaNgrams(int length, TaggedSentence kafDoc, List<String> discardPos, boolean save)
 	{		
         //System.err.println("lemma ngram extraction: _"+length+"_");
         if (length == 0)
@@ -2243,7 +2620,7 @@ public class Features {
         	LinkedList<String> ngrams = new LinkedList<String>();
         	HashMap<String,Boolean> dfProcessed = new HashMap<String,Boolean>();
 
-        	for (Term term : kafDoc.getTermsBySent(s))
+        	for (int term : kafDoc.getTermsBySent(s))
         	{
         		if (ngrams.size() >= length)
         		{
@@ -2252,8 +2629,8 @@ public class Features {
         		
         		//if no alphanumeric char is present discard the element as invalid ngram. Or if it has a PoS tag that
         		//should be discarded        		
-        		String lCurrent = term.getLemma();
-        		if ((! discardPos.contains(term.getPos())) && (!lCurrent.matches("[^\\p{L}\\p{M}\\p{Nd}\\p{InEmoticons}]+")) && (lCurrent.length()>1))
+        		String lCurrent = kafDoc.getLemma(term);
+        		if ((! discardPos.contains(kafDoc.getPos(term))) && (!lCurrent.matches("[^\\p{L}\\p{M}\\p{Nd}\\p{InEmoticons}]+")) && (lCurrent.length()>1))
         		{
         			ngrams.add(lCurrent);
         			//ngrams.add(normalize(term.getLemma(), params.getProperty("normalization", "none")));
@@ -2271,7 +2648,7 @@ public class Features {
         			addNgram ("lemma", ng);  
         			if (!dfProcessed.containsKey(ng))
         			{
-        				tfIdfStats.updateDf(ng);
+        				updateDf(ng);
         				dfProcessed.put(ng, true);
         			}
         			if (mod>1)
@@ -2292,7 +2669,7 @@ public class Features {
         		addNgram ("lemma", ng);
         		if (!dfProcessed.containsKey(ng))
     			{
-        			tfIdfStats.updateDf(ng);
+        			updateDf(ng);
     				dfProcessed.put(ng, true);
     			}
         		if (mod>1)
@@ -2316,11 +2693,11 @@ public class Features {
 	 *     POS ngram extraction from a kaf document
 	 * 
 	 * @param int length : which 'n' use for 'n-grams' 
-	 * @param KAFDocument kafDoc : postagged kaf document to extract ngrams from.
+	 * @param TaggedSentence kafDoc : postagged document to extract ngrams from.
 	 * @param boolean save : safe ngrams to file or not. 
 	 * @return TreeSet<String> return lemma ngrams of length length
 	 */
-	public int extractPosNgrams(int length, KAFDocument kafDoc, List<String> discardPos, boolean save)
+	public int extractPosNgrams(int length, TaggedSentence kafDoc, List<String> discardPos, boolean save)
 	{
 		//System.err.println("POS ngram extraction: _"+length+"_");
         if (length == 0)
@@ -2332,16 +2709,16 @@ public class Features {
         for (int s=0; s<sentNum;s++) 
         { 
         	LinkedList<String> ngrams = new LinkedList<String>();
-        	for (Term term : kafDoc.getTermsBySent(s))
+        	for (int term : kafDoc.getTermsBySent(s))
         	{
         		if (ngrams.size() >= length)
         		{
         			ngrams.removeFirst();
         		}
         		
-        		if (! discardPos.contains(term.getPos()))
+        		if (! discardPos.contains(kafDoc.getPos(term)))
         		{
-        			ngrams.add(term.getPos());
+        			ngrams.add(kafDoc.getPos(term));
         		}   
         		// add ngrams to the feature list
         		for (int i=0;i<ngrams.size();i++)
@@ -2390,44 +2767,41 @@ public class Features {
 		{
 			return;
 		}
-		int freq = 0;        					
 		switch (type)
 		{
 		case "chr":
-			freq = 0;			
-			if (charNgrams.containsKey(ngram))
-			{
-				freq = charNgrams.get(ngram);
-			}
-			this.charNgrams.put(ngram, freq+1); 
+			this.charNgrams.increment(ngram);
 			break;			
 		case "wf": 
-			freq = 0;			
-			if (wfNgrams.containsKey(ngram))
-			{
-				freq = wfNgrams.get(ngram);
-			}
-			this.wfNgrams.put(ngram, freq+1); 
+			this.wfNgrams.increment(ngram);
 			break;
 		case "lemma": 
-			freq = 0;
-			if (lemmaNgrams.containsKey(ngram))
-			{
-				freq = lemmaNgrams.get(ngram);
-			}
-			this.lemmaNgrams.put(ngram, freq+1); 
+			this.lemmaNgrams.increment(ngram);
 			break;
 
 		case "pos": 
-			freq = 0;
-			if (POSNgrams.containsKey(ngram))
-			{	
-				freq = POSNgrams.get(ngram);
-			}
-			this.POSNgrams.put(ngram, freq+1); 
+			this.POSNgrams.increment(ngram);
 			break;
 		case "default": System.err.println("Features::addNgram - wrong type, no ngram added.");
 		}
+		if (sentenceNgrams != null)
+		{
+			sentenceNgrams.increment(ngram);
+		}
+	}
+	
+	/**
+	 *  Help function to update the document frequency of an ngram (once per sentence).
+	 * 
+	 * @param ngram
+	 */
+	private void updateDf (String ngram)
+	{
+		tfIdfStats.updateDf(ngram);
+		if (sentenceDf != null)
+		{
+			sentenceDf.increment(ngram);
+		}
 	}
 	
 	
@@ -2507,33 +2881,14 @@ public class Features {
 	private HashMap<String, Integer> loadAttributeMapFromFile(String fname, String attName) 			
 	{
 		HashMap<String, Integer> result = new HashMap<String, Integer>();
-		TreeSet<Integer> valueSet = new TreeSet<Integer>();
 		
 		try {
 			
 		if (FileUtilsElh.checkFile(fname))
 		{
-			BufferedReader breader = new BufferedReader(new FileReader(fname));
-			String line;
-			while ((line = breader.readLine()) != null) 
-			{
-				if (line.startsWith("#") || line.matches("^\\s*$"))
-				{
-					continue;
-				}
-				String[] fields = line.split(" ");
-				Integer attValue;
-				try {
-					attValue = Integer.valueOf(fields[1]);
-				} catch (NumberFormatException nfe){
-					attValue = Integer.parseInt(fields[1],2);
-				}
-				result.put(fields[0], attValue);
-				valueSet.add(attValue);				
-			}
-			breader.close();
+			result = readAttributeMap(fname);
 			//add features to feature map
-			addNumericFeatureSet(attName, valueSet);
+			addNumericFeatureSet(attName, new TreeSet<Integer>(result.values()));
 		}			
 
 		}catch(IOException ioe){
@@ -2541,6 +2896,39 @@ public class Features {
 		}
 		return result;
 	}
+	
+	/**
+	 * Function reads an attribute map file (mainly word cluster files): "element value" lines, where the value
+	 * is an integer or a binary string.
+	 * 
+	 * @param fname : path to the file containing the feature information
+	 * @return HashMap<String,Integer> contains the elements and their respective attribute values
+	 * 
+	 * @throws IOException if the given file give reading problems.
+	 */
+	static HashMap<String, Integer> readAttributeMap(String fname) throws IOException
+	{
+		HashMap<String, Integer> result = new HashMap<String, Integer>();
+		BufferedReader breader = new BufferedReader(new FileReader(fname));
+		String line;
+		while ((line = breader.readLine()) != null) 
+		{
+			if (line.startsWith("#") || line.matches("^\\s*$"))
+			{
+				continue;
+			}
+			String[] fields = line.split(" ");
+			Integer attValue;
+			try {
+				attValue = Integer.valueOf(fields[1]);
+			} catch (NumberFormatException nfe){
+				attValue = Integer.parseInt(fields[1],2);
+			}
+			result.put(fields[0], attValue);
+		}
+		breader.close();
+		return result;
+	}
 
 	
 	/**
@@ -2681,6 +3069,8 @@ public class Features {
 				
 		this.atts.add(new Attribute(feat, this.featNum));		
 		this.attIndexes.put(feat,this.featNum);
+		this.ngramIndex = null;
+		this.polarityIndex = null;
 		this.featNum++;	
 	}
 
@@ -2689,21 +3079,55 @@ public class Features {
 	 * @param feat
 	 * @param prefix
 	 */
-	private String featureFromArray(List<String> feat, String prefix) {
+	String featureFromArray(List<String> feat, String prefix) {
 				
-		Object[] currentNgram = feat.toArray();
-		String ng = Arrays.asList(currentNgram).toString().replaceAll("(^\\[|\\]$)", "").replace(", ", "_").toLowerCase(); //.toLowerCase()
-		// feature prefix
-		switch (prefix)
+		return NgramIndex.key(feat, prefix);
+	}
+	
+	/**
+	 * Hash based n-gram feature lookup, (re)built from the current feature set if needed. Once built, 
+	 * concurrent feature extraction workers read it without locking.
+	 * 
+	 * @return NgramIndex
+	 */
+	private NgramIndex getNgramIndex() {
+		
+		NgramIndex index = ngramIndex;
+		if (index == null)
 		{
-		case "chr": ng = "CHR_"+ng; break;
-		case "wf": ng = "WF_"+ng; break;
-		case "lemma": ng = "LEM_"+ng; break;                				
-		case "pos":	ng = "POS_"+ng; break;
-		case "" : break;
-		default: ng = prefix+"_"+ng; break;
-		}		
-		return ng;
+			synchronized (this)
+			{
+				if (ngramIndex == null)
+				{
+					ngramIndex = new NgramIndex(attIndexes);
+				}
+				index = ngramIndex;
+			}
+		}
+		return index;
+	}
+	
+	/**
+	 * Polarity lexicon lookup, (re)built from the current lexicons and feature set if needed. Once built, 
+	 * concurrent feature extraction workers read it without locking.
+	 * 
+	 * @return PolarityLexiconIndex
+	 */
+	private PolarityLexiconIndex getPolarityIndex() {
+		
+		PolarityLexiconIndex index = polarityIndex;
+		if (index == null)
+		{
+			synchronized (this)
+			{
+				if (polarityIndex == null)
+				{
+					polarityIndex = new PolarityLexiconIndex(polarLexiconGen, polarLexiconDom, attIndexes);
+				}
+				index = polarityIndex;
+			}
+		}
+		return index;
 	}
 	
 	
@@ -2810,6 +3234,8 @@ public class Features {
 			String attName  = prefix+i.toString();			
 			this.atts.add(new Attribute(attName, this.featNum));
 			this.attIndexes.put(attName, this.featNum);
+			this.ngramIndex = null;
+			this.polarityIndex = null;
 			this.featNum++;
 		}
 	}
@@ -2823,18 +3249,25 @@ public class Features {
 	 * 
 	 * TODO: for the moment, although tf-idf threshold is given, only min_df is used.
 	 */
-	private void addNumericFeatureSet(String prefix, HashMap<String,Integer> featSet, int minTf,float tfidfThreshold) {
+	private void addNumericFeatureSet(String prefix, Vocabulary featSet, int minTf,float tfidfThreshold) {
 		
 		System.err.println("Features::addNumericFeatureSet - threshold: "+minTf);
-		for (String s : featSet.keySet())
+		for (int id : featSet.hashMapOrder())
 		{
+			if (featSet.getValue(id) < minTf)
+			{
+				continue;
+			}
+			String s = featSet.getKey(id);
 			float sdf = tfIdfStats.getDf(s);
 			float stfidf = 1*sdf; 
-			if ((featSet.get(s) >= minTf) && (stfidf >= tfidfThreshold))
+			if (stfidf >= tfidfThreshold)
 			{
 				String attName  = prefix+s;			
 				this.atts.add(new Attribute(attName, this.featNum));
 				this.attIndexes.put(attName, this.featNum);
+				this.ngramIndex = null;
+				this.polarityIndex = null;
 				this.featNum++;
 			}
 			/*else 
@@ -2856,6 +3289,8 @@ public class Features {
 		
 		this.atts.add(new Attribute(feat, featValues));
 		this.attIndexes.put(feat,this.featNum);
+		this.ngramIndex = null;
+		this.polarityIndex = null;
 		this.featNum++;	
 	}
 
@@ -2863,18 +3298,18 @@ public class Features {
 	 *  Adds frequency attribute +1 to an attribute in the given feature vector
 	 * 
 	 * @param String att attribute name to add a value to.
-	 * @param double[] fVector feature vector where the value should be added
+	 * @param FeatureVector fVector feature vector where the value should be added
 	 * 
 	 */
-	private void addNumericToFeatureVector (String att, double[] fVector, int sentTokNum)
+	private void addNumericToFeatureVector (String att, FeatureVector fVector, int sentTokNum)
 	{
-		if (attIndexes.containsKey(att))
+		int current_ind = attIndexes.get(att);
+		if (current_ind >= 0)
 		{
 			//System.err.print("Features::addNumericToFeatureVector - "+att);
-			int current_ind = attIndexes.get(att);
 			//if the current word form is in the ngram list activate the feature in the vector 
-			fVector[current_ind]=fVector[current_ind]+(1/(double)sentTokNum);
-			//fVector[current_ind]++;
+			fVector.add(current_ind, (1/(double)sentTokNum));
+			//fVector.add(current_ind, 1);
 		}	
 	}
 	
@@ -2882,16 +3317,16 @@ public class Features {
 	 *  Adds frequency attribute +1 (or +(1/tokenNum) to an attribute in the given feature vector
 	 * 
 	 * @param Attribute att to add a value to.
-	 * @param double[] fVector feature vector where the value should be added
+	 * @param FeatureVector fVector feature vector where the value should be added
 	 * 
 	 */
-	private void addNumericToFeatureVector (Attribute att, double[] fVector, int sentTokNum)
+	private void addNumericToFeatureVector (Attribute att, FeatureVector fVector, int sentTokNum)
 	{
 		if (! att.equals(null))
 		{
 			int current_ind = att.index();
 			//update feature value in the feature vector 
-			fVector[current_ind]=fVector[current_ind]+(1/(double)sentTokNum);		
+			fVector.add(current_ind, (1/(double)sentTokNum));		
 		}	
 	}
 
@@ -2902,13 +3337,13 @@ public class Features {
 	 * 
 	 * @param ngrams
 	 * @param prefix String : possible prefix used to differentiate ngram groups in the attribute set.
-	 * @param double[] fVector : feature vector for the corresponding instance
+	 * @param FeatureVector fVector : feature vector for the corresponding instance
 	 * @param int tokens : number of tokens in the sentence (in case we want to add not a frequency value
 	 * but a normalized value)
 	 * @param boolean empty : whether we are at the end of the sentence or not (if so, list must be emptied)
 	 * 
 	 */
-	private void checkNgramFeatures (LinkedList<String> ngrams, double[] fVector, String prefix, int tokens, boolean empty, int minSize)
+	void checkNgramFeatures (LinkedList<String> ngrams, FeatureVector fVector, String prefix, int tokens, boolean empty, int minSize)
 	{
 		//System.err.println("features::checkNgramFeatures ->"+Arrays.asList(ngrams).toString());
 		
@@ -2918,9 +3353,12 @@ public class Features {
 		{
 			while (!ngrams.isEmpty())
 			{
-				String ng = featureFromArray(ngrams, prefix);
-				//add occurrence to feature vector (the function checks if the given ngram feature exists).
-				addNumericToFeatureVector (ng, fVector, tokens); //tokNum
+				//add occurrence to feature vector (if the given ngram feature exists).
+				int ind = getNgramIndex().get(prefix, ngrams);
+				if (ind >= 0)
+				{
+					fVector.add(ind, (1/(double)tokens)); //tokNum
+				}
 				
 				ngrams.removeFirst();
 			}
@@ -2928,13 +3366,8 @@ public class Features {
 		// if empty is false search for all ngrams in the window
 		else
 		{
-			// add ngrams to the feature list
-			for (int i=minSize-1;i<ngrams.size();i++)
-			{
-				String ng = featureFromArray(ngrams.subList(0, i+1), prefix);
-				// add occurrence to feature vector (the functions checks if the given ngram feature exists). 
-				addNumericToFeatureVector(ng, fVector, tokens);//tokNum
-			}
+			// add occurrences of the ngrams [0,minSize)...[0,size) to feature vector (if the given ngram features exist).
+			getNgramIndex().addPrefixNgrams(prefix, ngrams, minSize, fVector, 1/(double)tokens); //tokNum
 		}
 	}
 		
@@ -2944,100 +3377,13 @@ public class Features {
 	 *  updates the corresponding attributes in the feature vector
 	 * 
 	 * @param String wrd :  word/lemma/ngram to look for in the polarity lexicons
-	 * @param double[] fVector : feature vector that should be updated
+	 * @param FeatureVector fVector : feature vector that should be updated
 	 * 
 	 */
-	private void checkPolarityLexicons(String wrd, double[] fVector, int tokNum, boolean ngrams)
+	void checkPolarityLexicons(String wrd, FeatureVector fVector, int tokNum, boolean ngrams)
 	{
-		String lookupWrd=wrd;
-		
-		double modIndex = 1;
-		boolean shift = false;
-
-		//modifier treatment
-		Matcher m = modifierPrefix.matcher(wrd);
-		if (m.matches())
-		{
-			switch (m.group(2))
-			{
-			case "INT":	modIndex=1.5; break;
-			case "WEA": modIndex=0.5; break;
-			case "SHI": shift=true; break;				
-			}
-			lookupWrd = m.replaceAll("$2");
-		}
-		
-		// fill vector with general polarity scores
-		if ((polarLexiconGen != null) && (polarLexiconGen.size()>0)) //(!polarLexiconGen.isEmpty()))
-		{
-			int posScoreIndex = getAttIndexes().get("polLexGen_posScore");
-			int negScoreIndex = getAttIndexes().get("polLexGen_negScore");					
-			
-			if (polarLexiconGen.isInLexicon(lookupWrd))
-			{				
-				double posScore = polarLexiconGen.getPolarity(lookupWrd).getPositiveScore()*modIndex;
-				double negScore = polarLexiconGen.getPolarity(lookupWrd).getNegativeScore()*modIndex;
-				
-				// if word polarity balance is positive invert polarities P>N N>P
-				if (shift && posScore-negScore>0)
-				{
-					double b = negScore;
-					negScore = posScore;
-					posScore = b;
-				}
-				else if (shift && posScore-negScore<0)
-				{
-					posScore = negScore;
-					negScore = 0;
-				}
-				
-				fVector[posScoreIndex]+=(posScore/(double)tokNum);
-				fVector[negScoreIndex]+=(negScore/(double)tokNum);
-
-				if (ngrams)
-				{
-					
-					fVector[getAttIndexes().get("polgen_"+wrd)]++;
-				}
-			}
-		}
-		
-		// fill vector with domain polarity scores
-		if ((polarLexiconDom != null) && (polarLexiconDom.size()>0)) //(!polarLexiconDom.isEmpty()))
-		{
-			int posScoreIndex = getAttIndexes().get("polLexDom_posScore");
-			int negScoreIndex = getAttIndexes().get("polLexDom_negScore");			
-			
-			if (polarLexiconDom.isInLexicon(lookupWrd))
-			{				
-				double posScore = polarLexiconDom.getPolarity(lookupWrd).getPositiveScore()*modIndex;
-				double negScore = polarLexiconDom.getPolarity(lookupWrd).getNegativeScore()*modIndex;
-					
-				// if word polarity balance is positive invert polarities P>N N>P
-				if (shift && posScore-negScore>0)
-				{
-					double b = negScore;
-					negScore = posScore;
-					posScore = b;
-				}
-				// if word polarity balance is negative polarity is nullified and N>0 P>0
-				else if (shift && posScore-negScore<0)
-				{
-					posScore = 0;
-					negScore = 0;
-				}
-				//fVector[getAttIndexes().get("polLexDom_posScore")]+=(polarLexiconDom.get(wrd).get("pos")/(double)tokNum);
-				//fVector[getAttIndexes().get("polLexDom_negScore")]+=(polarLexiconDom.get(wrd).get("neg")/(double)tokNum);
-				fVector[posScoreIndex]+=(posScore/(double)tokNum);
-				fVector[negScoreIndex]+=(negScore/(double)tokNum);
-
-				if (ngrams)
-				{
-					fVector[getAttIndexes().get("poldom_"+wrd)]++;
-				}
-			}
-		}
-		
+		// scores (modifier treatment included) and feature indexes are precomputed in the polarity lexicon index.
+		getPolarityIndex().add(wrd, fVector, tokNum, ngrams);
 	}
 
 	/**
@@ -3052,7 +3398,7 @@ public class Features {
 	 * @param empty
 	 * @param ngram
 	 */
-	private void checkNgramsAndPolarLexicons(LinkedList<String> ngrams, double[] fVector, String prefix, int toknumNgram, int toknumPol, boolean empty, boolean ngram)
+	private void checkNgramsAndPolarLexicons(LinkedList<String> ngrams, FeatureVector fVector, String prefix, int toknumNgram, int toknumPol, boolean empty, boolean ngram)
 	{
 		//System.err.println(Arrays.asList(ngrams).toString());
 		// if empty is active means that we are checking the end of the sentence and 
@@ -3062,18 +3408,20 @@ public class Features {
 			// add ngrams to the feature vector
 			while (! ngrams.isEmpty())
 			{
-				String ng = featureFromArray(ngrams, prefix);
 				//if the current lemma is in the ngram list activate the feature in the vector
 				if (params.containsKey("lemmaNgrams") && (!params.getProperty("lemmaNgrams").equalsIgnoreCase("0")))
 				{
-					// add occurrence to feature vector (the functions checks if the given ngram feature exists).
-					addNumericToFeatureVector (ng, fVector, toknumNgram);	//tokNum
+					// add occurrence to feature vector (if the given ngram feature exists).
+					int ind = getNgramIndex().get(prefix, ngrams);
+					if (ind >= 0)
+					{
+						fVector.add(ind, (1/(double)toknumNgram));	//tokNum
+					}
 				}
 				
-				ng = featureFromArray(ngrams, "");
 				if (params.containsKey("polarLexiconGeneral") || params.containsKey("polarLexiconDomain"))
 				{
-					checkPolarityLexicons(ng, fVector, toknumPol, ngram);
+					checkPolarityLexicons(featureFromArray(ngrams, ""), fVector, toknumPol, ngram);
 				} //end polarity ngram checker
 
 				ngrams.removeFirst();
@@ -3083,21 +3431,18 @@ public class Features {
 		// if empty is false search for all ngrams in the window
 		else
 		{
+			//if the current lemma is in the ngram list activate the feature in the vector
+			if (params.containsKey("lemmaNgrams") && (!params.getProperty("lemmaNgrams").equalsIgnoreCase("0")))
+			{
+				// add occurrences to feature vector (if the given ngram features exist).
+				getNgramIndex().addPrefixNgrams(prefix, ngrams, 1, fVector, 1/(double)toknumNgram);	//tokNum
+			}
 			// add ngrams to the feature vector
-			for (int i=0;i<ngrams.size();i++)
+			if (params.containsKey("polarLexiconGeneral") || params.containsKey("polarLexiconDomain"))
 			{
-				String ng = featureFromArray(ngrams.subList(0, i+1), prefix);
-				//if the current lemma is in the ngram list activate the feature in the vector
-				if (params.containsKey("lemmaNgrams") && (!params.getProperty("lemmaNgrams").equalsIgnoreCase("0")))
-				{
-					// add occurrence to feature vector (the functions checks if the given ngram feature exists).
-					addNumericToFeatureVector (ng, fVector, toknumNgram);	//tokNum												
-				}
-				
-				ng = featureFromArray(ngrams.subList(0, i+1), "");
-				if (params.containsKey("polarLexiconGeneral") || params.containsKey("polarLexiconDomain"))
+				for (int i=0;i<ngrams.size();i++)
 				{
-					checkPolarityLexicons(ng, fVector, toknumPol, ngram);
+					checkPolarityLexicons(featureFromArray(ngrams.subList(0, i+1), ""), fVector, toknumPol, ngram);
 				} //end polarity ngram checker
 			} //end ngram checking				        		
 		}
@@ -3107,7 +3452,7 @@ public class Features {
 	
 	
 	/**
-	 * Set the corpus used to extract features.
+	 * Set the corpus used to extract features. Opinion -> instance mappings of the previous corpus are discarded.
 	 * 
 	 * 
 	 * @param corp
@@ -3115,6 +3460,7 @@ public class Features {
 	public void setCorpus(CorpusReader corp)
 	{
 		this.corpus = corp;
+		this.opInst = new HashMap<String,Integer>();
 	}
 	
 	
@@ -3181,23 +3527,220 @@ public class Features {
 		System.err.println("Features::setStopwords - stopword list loaded: "+stopwords.size());	
 	}
 
+	/**
+	 * Whether a tagged version of the sentence exists already, either as a kaf file in nafDir or
+	 * in the tagged corpus store nafDir points to.
+	 * 
+	 * @param sId : sentence id
+	 * @param nafDir : tagged file directory or tagged corpus store path.
+	 * @return boolean
+	 */
+	private boolean isTagged (String sId, String nafDir)
+	{
+		if (TaggedCorpusStore.isStore(nafDir))
+		{
+			try {
+				return TaggedCorpusStore.open(nafDir).contains(sId);
+			} catch (IOException ioe) {
+				System.err.println("Features::isTagged - tagged corpus store could not be opened: "+nafDir);
+				return false;
+			}
+		}
+		return FileUtilsElh.checkFile(nafDir+File.separator+sId.replace(':', '_')+".kaf");
+	}
+	
+	/**
+	 * Tagged document cache shared by all feature extraction passes. It is created on first use with the 
+	 * following configuration parameters:
+	 *    kafDir : directory where the tagged files are stored (or tagged corpus store path, '.tgs' extension).
+	 *    taggedCacheMB : memory budget of the cache in MB (default 512). 
+	 *    taggedCacheSpill : directory to spill evicted documents to (optional).
+	 *    
+	 * @return TaggedCorpusCache
+	 */
+	private TaggedCorpusCache getTaggedCache()
+	{
+		String nafDir = params.getProperty("kafDir");
+		if (taggedCache == null || !taggedCache.getNafDir().equals(nafDir))
+		{
+			long budget = Long.parseLong(params.getProperty("taggedCacheMB", "512"))*1024*1024;
+			taggedCache = new TaggedCorpusCache(nafDir, budget, params.getProperty("taggedCacheSpill"));
+		}
+		return taggedCache;
+	}
+	
 	/**
 	 * Function o normalize and tag a sentence (normalization is only done if so selected) 
 	 * @param sentence
 	 */
 	private int normalizeAndTag (String sId, String nafDir)
+	{
+		return normalizeAndTag(sId, nafDir, postagger);
+	}
+	
+	/**
+	 * Normalize and tag the sentences in the given list concurrently, using a pool of 'threads' workers.
+	 * Each worker holds its own ixa-pipe postagger object, since those are not thread safe. 
+	 * The corpus is not modified here; the caller is responsible of removing the failed sentences.
+	 *  
+	 * @param sIds : ids of the sentences to process
+	 * @param nafDir : directory where tagged files are stored
+	 * @param threads : number of workers
+	 * @return int[] : normalizeAndTag return codes, in the same order as the input ids
+	 */
+	private int[] normalizeAndTagParallel (List<String> sIds, final String nafDir, int threads)
+	{
+		final ThreadLocal<eus.ixa.ixa.pipe.pos.Annotate> taggers = new ThreadLocal<eus.ixa.ixa.pipe.pos.Annotate>(){
+			@Override
+			protected eus.ixa.ixa.pipe.pos.Annotate initialValue() {
+				return createPostagger();
+			}
+		};
+		
+		System.err.println("Features::normalizeAndTagParallel - "+threads+" workers");
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<Integer>> pending = new ArrayList<Future<Integer>>(sIds.size());
+		for (final String sId : sIds)
+		{
+			pending.add(pool.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() {
+					return normalizeAndTag(sId, nafDir, taggers.get());
+				}
+			}));
+		}
+		pool.shutdown();
+		
+		int[] results = new int[sIds.size()];
+		for (int i=0; i<results.length; i++)
+		{
+			try {
+				results[i] = pending.get(i).get();
+			} catch (InterruptedException | ExecutionException e) {
+				Log.error("Features::normalizeAndTagParallel - error when tagging sentence "+sIds.get(i), e);
+				results[i] = 0;
+			}
+		}
+		return results;
+	}
+	
+	/**
+	 * Tag concurrently the opinions in the list which have no tagged file yet, using a pool of 'threads' workers.
+	 * Used when tagging with external tagger processes (see TaggerPool); failed opinions are left untagged, 
+	 * and handled by the caller as usual.
+	 *  
+	 * @param oIds : ids of the opinions to tag
+	 * @param nafDir : directory where tagged files are stored
+	 * @param threads : number of workers
+	 */
+	private void tagConllParallel (List<String> oIds, final String nafDir, int threads)
+	{
+		System.err.println("Features::tagConllParallel - "+threads+" workers");
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<Integer>> pending = new ArrayList<Future<Integer>>(oIds.size());
+		for (final String oId : oIds)
+		{
+			final String nafPath = nafDir + File.separator + corpus.getOpinion(oId).getsId().replace(':', '_');
+			if (FileUtilsElh.checkFile(nafPath + ".kaf"))
+			{
+				continue;
+			}
+			pending.add(pool.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					return NLPpipelineWrapper.tagSentence(corpus.getOpinionSentence(oId), nafPath, corpus.getLang(), 
+							params.getProperty("pos-model", "default"), params.getProperty("lemma-model", "default"), null);
+				}
+			}));
+		}
+		pool.shutdown();
+		
+		for (Future<Integer> f : pending)
+		{
+			try {
+				f.get();
+			} catch (InterruptedException | ExecutionException e) {
+				Log.error("Features::tagConllParallel - error when tagging sentence", e);
+			}
+		}
+	}
+	
+	/**
+	 * Tag with eustagger the opinions in the list which have no tagged file yet, 'batchSize' sentences per 
+	 * tagger call (see NLPpipelineWrapper.eustaggerCallBatch). Failed opinions are left untagged, and handled 
+	 * by the caller as usual.
+	 *  
+	 * @param oIds : ids of the opinions to tag
+	 * @param nafDir : directory where tagged files are stored
+	 * @param batchSize : number of sentences per tagger call
+	 */
+	private void tagConllBatch (List<String> oIds, String nafDir, int batchSize)
+	{
+		String posModel = params.getProperty("pos-model", "default");
+		List<String> sentences = new ArrayList<String>(batchSize);
+		List<String> fnames = new ArrayList<String>(batchSize);
+		for (Iterator<String> it = oIds.iterator(); it.hasNext();)
+		{
+			String oId = it.next();
+			String nafPath = nafDir + File.separator + corpus.getOpinion(oId).getsId().replace(':', '_');
+			if (!FileUtilsElh.checkFile(nafPath + ".kaf"))
+			{
+				sentences.add(corpus.getOpinionSentence(oId));
+				fnames.add(nafPath);
+			}
+			if (sentences.size() == batchSize || (!it.hasNext() && !sentences.isEmpty()))
+			{
+				NLPpipelineWrapper.eustaggerCallBatch(posModel, sentences, fnames);
+				System.err.println("Features::tagConllBatch - "+sentences.size()+" sentences tagged");
+				sentences.clear();
+				fnames.clear();
+			}
+		}
+	}
+	
+	/**
+	 * Create a new ixa-pipe postagger object with the pos and lemma models defined in the configuration. 
+	 * If the configured tagger is eustagger (external process) no object is needed and null is returned.
+	 * 
+	 * @return eus.ixa.ixa.pipe.pos.Annotate postagger
+	 */
+	private eus.ixa.ixa.pipe.pos.Annotate createPostagger ()
+	{
+		String posModel=params.getProperty("pos-model","default");
+		if (postagger == null || eustagger.matcher(posModel).find())
+		{
+			return null;
+		}
+		Properties posProp = NLPpipelineWrapper.setPostaggerProperties(posModel, params.getProperty("lemma-model", "default"),
+				corpus.getLang(), "false", "false");
+		try {
+			return new eus.ixa.ixa.pipe.pos.Annotate(posProp);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.err.println("Features::createPostagger() error creating ixa-pipe postagger object, execution aborted.");
+			System.exit(1);
+			return null;
+		}
+	}
+	
+	/**
+	 * Normalize and tag a sentence using the given postagger object. See normalizeAndTag(sId, nafDir) 
+	 * for return codes.
+	 */
+	private int normalizeAndTag (String sId, String nafDir, eus.ixa.ixa.pipe.pos.Annotate tagger)
 	{
 		//System.err.println("Features::normalizeAndTag corpus size: "+corpus.getSentences().size());
 		String currentSent=corpus.getSentence(sId);
 		if (currentSent == null)
 		{
-			System.err.println("Features::normalizeAndTag null sentence-> "+sId);
+			Log.warn("Features::normalizeAndTag null sentence-> "+sId);
+			tagErrors.inc();
 			return 0;
 		}
 		
 		//
 		String nafPath = nafDir+File.separator+sId.replace(':', '_');	
-		if (FileUtilsElh.checkFile(nafPath+".kaf"))
+		if (isTagged(sId, nafDir))
 		{
 			//System.err.println("NLPpipelineWrapper::NormalizeAndTag : tagged file exists:"+nafPath+".kaf");
 			return 2;
@@ -3205,32 +3748,45 @@ public class Features {
 		
 		
 		//System.err.println("Features::normalizeAndTag -> "+sId+" document tagging start "+currentSent);		
-		long startTime = System.currentTimeMillis();
+		long stageStart = PipelineStage.start();
 		
 		if ((params.containsKey("wfngrams") || params.containsKey("lemmaNgrams")|| params.containsKey("chrngrams")) &&
 				(! params.getProperty("normalization", "none").equalsIgnoreCase("noEmot")))
 		{
 			currentSent = normalize(currentSent, params.getProperty("normalization", "none"));
 		}
-		long endTime = System.currentTimeMillis();
-		
-		System.err.print("Features::normalizeAndTag -> "+sId+" document normalized ( "+(double)(endTime-startTime)/1000+" seconds)");		
+		PipelineStage.NORMALIZE.stop(stageStart);
+		if (Log.isDebugEnabled())
+		{
+			Log.debug("Features::normalizeAndTag -> "+sId+" document normalized ( "+(double)(System.nanoTime()-stageStart)/1e9+" seconds)");
+		}
 		
 		try {
-			int success = NLPpipelineWrapper.tagSentence(currentSent, nafPath, corpus.getLang(),  params.getProperty("pos-model", "default"), params.getProperty("lemma-model", "default"), postagger);
+			int success;
+			if (TaggedCorpusStore.isStore(nafDir))
+			{
+				success = TaggedCorpusStore.open(nafDir).tagSentence(sId, currentSent, corpus.getLang(), params.getProperty("pos-model", "default"), 
+						params.getProperty("lemma-model", "default"), tagger);
+			}
+			else
+			{
+				success = NLPpipelineWrapper.tagSentence(currentSent, nafPath, corpus.getLang(),  params.getProperty("pos-model", "default"), params.getProperty("lemma-model", "default"), tagger);
+			}
 			//System.err.println("Features::normalizeAndTag -> "+sId+" document tagging done "+success);		
+			if (success == 0)
+			{
+				tagErrors.inc();
+			}
 			return success; //success
 		} catch (JDOMException e) {
-			System.err.println("Features::normalizeAndTag -> NAF error when tagging sentence");
-			e.printStackTrace();
+			Log.error("Features::normalizeAndTag -> NAF error when tagging sentence "+sId, e);
 		} catch (IOException ioe){
-			System.err.println("Features::normalizeAndTag -> Error when writing a tagged sentence");
-			ioe.printStackTrace();
+			Log.error("Features::normalizeAndTag -> Error when writing a tagged sentence "+sId, ioe);
 		} catch (Exception e){
-			System.err.println("Features::normalizeAndTag -> Error when tagging sentence, unknown reason \n"
-					+currentSent);
-			e.printStackTrace();
+			Log.error("Features::normalizeAndTag -> Error when tagging sentence, unknown reason \n"
+					+currentSent, e);
 		}
+		tagErrors.inc();
 		return 0; //failure
 	}	
 	
@@ -24,6 +24,7 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -45,10 +46,15 @@ import java.util.Set;
  * 
  *  -1 -> neg ; 0 -> neu ; 1 -> pos ; 2 -> intensifier ; 3 -> weakener ; 4 -> modifier
  *
+ * Lexicons can also be loaded from a compiled lexicon file (see CompiledLexicon and the compile-lexicon 
+ * command), which is memory-mapped instead of parsed.
+ *
  */
 public class Lexicon {
 
 	private Map<String, Polarity> lexicon = new HashMap<String, Polarity>();
+	//compiled lexicon, if the lexicon was loaded from a compiled file (null otherwise)
+	private CompiledLexicon compiled;
 	private int formaterror;
 	private float minAbsPolarity;
 	
@@ -304,7 +310,17 @@ public class Lexicon {
 	} // end for polarity class
 	
 	/*
-	 * constructor requires a path to the file containing the lexicon and 
+	 * constructor for an already opened compiled lexicon (e.g., a lexicon stored in a model bundle)
+	 */
+	public Lexicon(CompiledLexicon compiled)
+	{
+		this.formaterror=0;
+		this.setMinAbsPolarity(0);
+		this.compiled = compiled;
+	}
+
+	/*
+	 * constructor requires a path to the file containing the lexicon and
 	 */
 	public Lexicon(File fname, String syn)
 	{
@@ -319,7 +335,23 @@ public class Lexicon {
 		try {
 			this.formaterror=0;
 			this.setMinAbsPolarity(minEntryPolarity);
-			loadLexicon(fname, syn);
+			if (CompiledLexicon.isCompiled(fname))
+			{
+				this.compiled = CompiledLexicon.open(fname);
+				if (!compiled.getSyn().equals(syn))
+				{
+					System.err.println("Lexicon class: WARNING: lexicon "+fname+" was compiled with '"+compiled.getSyn()
+							+"' entries, but '"+syn+"' entries were requested.");
+				}
+			}
+			else
+			{
+				loadLexicon(fname, syn);
+			}
+			if (minEntryPolarity > 0)
+			{
+				applyMinPolarity();
+			}
 		} catch (IOException e) {
 			System.err.println("Lexicon class: error when loading lexicon from file: "+fname);
 			//e.printStackTrace();
@@ -335,6 +367,32 @@ public class Lexicon {
 		this.minAbsPolarity = m;
 	}
 	
+	/**
+	 * Discard the entries whose absolute numeric polarity is below minAbsPolarity. Modifiers (intensifiers, 
+	 * weakeners and shifters) have no numeric polarity and are kept. A compiled lexicon is copied to memory 
+	 * with the remaining entries, in the same order.
+	 */
+	private void applyMinPolarity ()
+	{
+		Map<String, Polarity> kept = new LinkedHashMap<String, Polarity>();
+		int discarded = 0;
+		for (String key : getEntrySet())
+		{
+			Polarity pol = getPolarity(key);
+			if (Math.abs(pol.getNumeric()) >= minAbsPolarity || (pol.getNumeric() == 0 && pol.getScalar() >= 2))
+			{
+				kept.put(key, pol);
+			}
+			else
+			{
+				discarded++;
+			}
+		}
+		lexicon = kept;
+		compiled = null;
+		System.err.println("Lexicon class: "+discarded+" entries below the minimum polarity ("+minAbsPolarity+") discarded.");
+	}
+	
 	/**
 	 * load a lexicon from a file given the file path. The format of the lexicon must be as follows:
 	 * 
@@ -568,28 +626,37 @@ public class Lexicon {
 	 */
 	public int getScalarPolarity (String entrykey)
 	{
+		if (compiled != null)
+		{
+			int i = compiled.find(entrykey);
+			return (i < 0) ? 123456789 : normalizeScalar(compiled.getScalar(i));
+		}
 		if (this.lexicon.containsKey(entrykey))
 		{
-			int result = lexicon.get(entrykey).getScalar();
-			//scalar polarity is normalized to -1|0|1 values
-			if (result > 0)
-			{
-				return result;
-			}
-			else if (result < 0)
-			{
-				return -1;
-			}
-			else
-			{
-				return 0;
-			}
+			return normalizeScalar(lexicon.get(entrykey).getScalar());
 		}
 		else
 		{
 			return 123456789;
 		}	
 	}
+	
+	private static int normalizeScalar (int result)
+	{
+		//scalar polarity is normalized to -1|0|1 values
+		if (result > 0)
+		{
+			return result;
+		}
+		else if (result < 0)
+		{
+			return -1;
+		}
+		else
+		{
+			return 0;
+		}
+	}
 
 	/**
 	 *  Function returns a float containing the numeric polarity ([-1,0,1] score)
@@ -602,6 +669,11 @@ public class Lexicon {
 	 */
 	public float getNumericPolarity (String entrykey)
 	{
+		if (compiled != null)
+		{
+			int i = compiled.find(entrykey);
+			return (i < 0) ? (float) 123456789 : compiled.getNumeric(i);
+		}
 		if (this.lexicon.containsKey(entrykey))
 		{
 			return lexicon.get(entrykey).getNumeric();
@@ -620,6 +692,10 @@ public class Lexicon {
 	 */
 	public boolean isInLexicon(String entrykey)
 	{
+		if (compiled != null)
+		{
+			return compiled.find(entrykey) >= 0;
+		}
 		return this.lexicon.containsKey(entrykey);
 	}
 	
@@ -632,6 +708,17 @@ public class Lexicon {
 	 */
 	public Polarity getPolarity(String entryKey)
 	{
+		if (compiled != null)
+		{
+			int i = compiled.find(entryKey);
+			if (i < 0)
+			{
+				return null;
+			}
+			Polarity pol = new Polarity(compiled.getPositiveScore(i), compiled.getNegativeScore(i), compiled.getScalar(i));
+			pol.numeric = compiled.getNumeric(i);
+			return pol;
+		}
 		if (this.lexicon.containsKey(entryKey))
 		{
 			return lexicon.get(entryKey);
@@ -648,6 +735,10 @@ public class Lexicon {
 	 */
 	public Set<String> getEntrySet()
 	{
+		if (compiled != null)
+		{
+			return compiled.keySet();
+		}
 		return lexicon.keySet();
 	}
 	
@@ -658,9 +749,25 @@ public class Lexicon {
 	 */
 	public int size()
 	{
+		if (compiled != null)
+		{
+			return compiled.size();
+		}
 		return lexicon.size();
 	}
 	
+	/**
+	 * Write the lexicon in the compiled (binary) format. See CompiledLexicon.
+	 * 
+	 * @param File file : output file
+	 * @param String syn : (lemma|first|rank|mfs) type of the entries the lexicon was loaded with.
+	 * @throws IOException
+	 */
+	public void compile(File file, String syn) throws IOException
+	{
+		CompiledLexicon.write(this, syn, file);
+	}
+	
 	/**
 	 * Void to print the lexicon to the stdout. Scalar polarities are printed (p|n|neu)
 	 * 
@@ -670,9 +777,9 @@ public class Lexicon {
 	{		
 		System.out.println("# Lexicon printing - class legend: \n"
 				+ "# -1 -> neg ; 0 -> neu ; 1 -> pos ; 2 -> intensifier ; 3 -> weakener ; 4 -> modifier .\n");
-		for (String s : lexicon.keySet())
+		for (String s : getEntrySet())
 		{
-			System.out.println(s+" - "+lexicon.get(s).getScalar());
+			System.out.println(s+" - "+getPolarity(s).getScalar());
 		}
 	}
 	
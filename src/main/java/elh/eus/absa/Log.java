@@ -0,0 +1,308 @@
+/*
+ * Copyright 2014 Elhuyar Fundazioa
+
+This file is part of EliXa.
+
+    EliXa is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    EliXa is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with EliXa.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elh.eus.absa;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Leveled logging of EliXa messages to the standard error. Messages below the current level are discarded
+ * before being built if the caller guards them (if (Log.isDebugEnabled()) ...), so per-sentence and
+ * per-instance messages cost nothing in normal runs.
+ *
+ * By default messages are written to System.err by the calling thread, so they keep their order with respect
+ * to the messages other code prints directly to System.err. With logAsync=yes they are written by a background
+ * thread through a bounded queue instead, so the threads tagging and classifying documents do not wait for the
+ * terminal, but they may then appear after messages printed later directly to System.err. ERROR and WARN messages
+ * are never lost (the caller waits if the queue is full), lower levels are dropped when the queue is full (counted
+ * in the elixa_log_dropped_total metric). When the process ends the writer thread is stopped and the pending
+ * messages are written.
+ *
+ * Parameters (see configure):
+ *    logLevel : ERROR|WARN|INFO (default)|DEBUG|TRACE. The elixa.logLevel system property overrides it.
+ *    logAsync : yes|no (default) write messages from a background thread.
+ *    logProgressInterval : minimum number of seconds between two progress messages of the same kind
+ *                          (default 5, see progress).
+ *
+ * @author isanvi
+ *
+ */
+public final class Log {
+
+	public enum Level {ERROR, WARN, INFO, DEBUG, TRACE}
+
+	private static final int QUEUE_SIZE = 8192;
+
+	private static final Metrics.Counter dropped = Metrics.counter("elixa_log_dropped_total",
+			"Log messages dropped because the log queue was full.");
+
+	private static final BlockingQueue<String> queue = new ArrayBlockingQueue<String>(QUEUE_SIZE);
+	private static final ConcurrentHashMap<String, AtomicLong> lastProgress = new ConcurrentHashMap<String, AtomicLong>();
+	//serializes the writes of the writer thread, flush and synchronous messages.
+	private static final Object lock = new Object();
+
+	private static volatile Level level = parseLevel(System.getProperty("elixa.logLevel"), Level.INFO);
+	private static volatile boolean async = false;
+	private static volatile long progressNanos = TimeUnit.SECONDS.toNanos(5);
+
+	private static final Thread writer;
+
+	static {
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		}, "elixa-log");
+		writer.setDaemon(true);
+		writer.start();
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				// messages logged by other shutdown hooks are written directly.
+				async = false;
+				// the writer may hold a message taken from the queue but not yet written, wait until it is written.
+				writer.interrupt();
+				try {
+					writer.join(TimeUnit.SECONDS.toMillis(5));
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+				}
+				flush();
+			}
+		});
+	}
+
+	private Log ()
+	{
+	}
+
+	/**
+	 * Set the logging options from the given parameters (logLevel, logAsync, logProgressInterval).
+	 *
+	 * @param Properties params
+	 */
+	public static void configure (Properties params)
+	{
+		level = parseLevel(System.getProperty("elixa.logLevel", params.getProperty("logLevel")), level);
+		async = params.getProperty("logAsync", "no").equalsIgnoreCase("yes");
+		if (params.containsKey("logProgressInterval"))
+		{
+			progressNanos = TimeUnit.MILLISECONDS.toNanos((long) (Double.parseDouble(params.getProperty("logProgressInterval"))*1000));
+		}
+	}
+
+	private static Level parseLevel (String name, Level defaultLevel)
+	{
+		if (name == null)
+		{
+			return defaultLevel;
+		}
+		try {
+			return Level.valueOf(name.trim().toUpperCase());
+		} catch (IllegalArgumentException iae) {
+			System.err.println("Log::configure - unknown log level "+name+", using "+defaultLevel);
+			return defaultLevel;
+		}
+	}
+
+	public static void setLevel (Level newLevel)
+	{
+		level = newLevel;
+	}
+
+	public static Level getLevel ()
+	{
+		return level;
+	}
+
+	public static boolean isEnabled (Level msgLevel)
+	{
+		return msgLevel.compareTo(level) <= 0;
+	}
+
+	public static boolean isDebugEnabled ()
+	{
+		return isEnabled(Level.DEBUG);
+	}
+
+	public static boolean isTraceEnabled ()
+	{
+		return isEnabled(Level.TRACE);
+	}
+
+	public static void error (String msg)
+	{
+		log(Level.ERROR, msg);
+	}
+
+	public static void error (String msg, Throwable t)
+	{
+		log(Level.ERROR, msg+"\n"+stackTrace(t));
+	}
+
+	public static void warn (String msg)
+	{
+		log(Level.WARN, msg);
+	}
+
+	public static void warn (String msg, Throwable t)
+	{
+		log(Level.WARN, msg+"\n"+stackTrace(t));
+	}
+
+	public static void info (String msg)
+	{
+		log(Level.INFO, msg);
+	}
+
+	public static void debug (String msg)
+	{
+		log(Level.DEBUG, msg);
+	}
+
+	public static void trace (String msg)
+	{
+		log(Level.TRACE, msg);
+	}
+
+	/**
+	 * INFO message reporting the progress of a long task. At most one message per key is written every
+	 * logProgressInterval seconds, the rest are discarded, so it can be called for every processed item.
+	 *
+	 * @param String key : kind of progress message (e.g., "Features::createFeatureSet")
+	 * @param String msg
+	 */
+	public static void progress (String key, String msg)
+	{
+		if (!isEnabled(Level.INFO))
+		{
+			return;
+		}
+		AtomicLong last = lastProgress.get(key);
+		if (last == null)
+		{
+			lastProgress.putIfAbsent(key, new AtomicLong(System.nanoTime() - progressNanos));
+			last = lastProgress.get(key);
+		}
+		long now = System.nanoTime();
+		long prev = last.get();
+		if (now - prev >= progressNanos && last.compareAndSet(prev, now))
+		{
+			log(Level.INFO, msg);
+		}
+	}
+
+	/**
+	 * Write the given message if its level is enabled.
+	 *
+	 * @param Level msgLevel
+	 * @param String msg
+	 */
+	public static void log (Level msgLevel, String msg)
+	{
+		if (!isEnabled(msgLevel))
+		{
+			return;
+		}
+		if (!async)
+		{
+			synchronized (lock)
+			{
+				System.err.println(msg);
+			}
+			return;
+		}
+		if (msgLevel.compareTo(Level.WARN) <= 0)
+		{
+			try {
+				queue.put(msg);
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				System.err.println(msg);
+			}
+		}
+		else if (!queue.offer(msg))
+		{
+			dropped.inc();
+		}
+	}
+
+	/**
+	 * Write all pending messages.
+	 */
+	public static void flush ()
+	{
+		List<String> pending = new ArrayList<String>();
+		synchronized (lock)
+		{
+			queue.drainTo(pending);
+			for (String msg : pending)
+			{
+				System.err.println(msg);
+			}
+			System.err.flush();
+		}
+	}
+
+	/**
+	 * Write the queued messages until the thread is interrupted (see the shutdown hook). A message taken from
+	 * the queue is always written before the interruption is checked again.
+	 */
+	private static void writeLoop ()
+	{
+		List<String> pending = new ArrayList<String>();
+		while (true)
+		{
+			String msg;
+			try {
+				msg = queue.take();
+			} catch (InterruptedException ie) {
+				return;
+			}
+			synchronized (lock)
+			{
+				System.err.println(msg);
+				queue.drainTo(pending);
+				for (String p : pending)
+				{
+					System.err.println(p);
+				}
+				System.err.flush();
+			}
+			pending.clear();
+		}
+	}
+
+	private static String stackTrace (Throwable t)
+	{
+		StringWriter sw = new StringWriter();
+		t.printStackTrace(new PrintWriter(sw));
+		return sw.toString().trim();
+	}
+}
@@ -0,0 +1,535 @@
+/*
+ * Copyright 2014 Elhuyar Fundazioa
+
+This file is part of EliXa.
+
+    EliXa is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    EliXa is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with EliXa.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elh.eus.absa;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Process wide registry of metrics: counters and timers (histograms of durations in seconds). Metrics
+ * are created once (usually in static fields of the classes updating them) and updating them is lock
+ * free, so they can be used in hot paths and from concurrent threads.
+ *
+ * Metrics can be exported in Prometheus text format or as JSON (toPrometheus, toJson, dump), and through
+ * JMX (registerMBean, object name elh.eus.absa:type=Metrics). Exports are configured with the following
+ * parameters (see configure):
+ *    metricsFile : file the metrics are written to when the process ends (JSON if the file name ends with
+ *                  ".json", Prometheus text format otherwise).
+ *    metricsInterval : if > 0, the metrics file is also rewritten every metricsInterval seconds.
+ *    metricsJmx : yes|no (default) register the metrics as JMX attributes.
+ *
+ * @author isanvi
+ *
+ */
+public final class Metrics {
+
+	public static final String JMX_NAME = "elh.eus.absa:type=Metrics";
+
+	/** default buckets of timers, in seconds */
+	public static final double[] TIME_BUCKETS = {0.00001, 0.0001, 0.0005, 0.001, 0.005, 0.01, 0.05, 0.1, 0.5, 1, 5, 10, 60};
+
+	private static final Map<String, Metric> metrics = new LinkedHashMap<String, Metric>();
+
+	private static String dumpFile;
+	private static ScheduledExecutorService dumper;
+	private static boolean jmxRegistered;
+
+	private Metrics ()
+	{
+	}
+
+	/**
+	 * Common part of all metrics.
+	 */
+	public static abstract class Metric
+	{
+		private final String name;
+		private final String help;
+
+		private Metric (String name, String help)
+		{
+			this.name = name;
+			this.help = help;
+		}
+
+		public String getName ()
+		{
+			return name;
+		}
+
+		public String getHelp ()
+		{
+			return help;
+		}
+
+		abstract String type ();
+	}
+
+	/**
+	 * Monotonically increasing count (e.g., cache hits, errors).
+	 */
+	public static final class Counter extends Metric
+	{
+		private final LongAdder count = new LongAdder();
+
+		private Counter (String name, String help)
+		{
+			super(name, help);
+		}
+
+		public void inc ()
+		{
+			count.increment();
+		}
+
+		public void add (long n)
+		{
+			count.add(n);
+		}
+
+		public long get ()
+		{
+			return count.sum();
+		}
+
+		String type ()
+		{
+			return "counter";
+		}
+	}
+
+	/**
+	 * Distribution of observed values: count, sum and the number of values under each bucket bound (see Timer).
+	 */
+	public static abstract class Histogram extends Metric
+	{
+		private final double[] bounds;
+		// the last bucket holds the values over the largest bound.
+		private final LongAdder[] buckets;
+		private final LongAdder count = new LongAdder();
+		private final DoubleAdder sum = new DoubleAdder();
+
+		private Histogram (String name, String help, double[] bounds)
+		{
+			super(name, help);
+			this.bounds = bounds.clone();
+			buckets = new LongAdder[bounds.length+1];
+			for (int i=0; i<buckets.length; i++)
+			{
+				buckets[i] = new LongAdder();
+			}
+		}
+
+		public void observe (double value)
+		{
+			int i = 0;
+			while (i < bounds.length && value > bounds[i])
+			{
+				i++;
+			}
+			buckets[i].increment();
+			count.increment();
+			sum.add(value);
+		}
+
+		public long getCount ()
+		{
+			return count.sum();
+		}
+
+		public double getSum ()
+		{
+			return sum.sum();
+		}
+
+		/**
+		 * @return long[] : cumulative counts of the buckets (values <= bound), the last one being the total count.
+		 */
+		public long[] getCumulativeCounts ()
+		{
+			long[] counts = new long[buckets.length];
+			long acc = 0;
+			for (int i=0; i<buckets.length; i++)
+			{
+				acc += buckets[i].sum();
+				counts[i] = acc;
+			}
+			return counts;
+		}
+
+		public double[] getBounds ()
+		{
+			return bounds.clone();
+		}
+
+		String type ()
+		{
+			return "histogram";
+		}
+
+		void reset ()
+		{
+			for (LongAdder bucket : buckets)
+			{
+				bucket.reset();
+			}
+			count.reset();
+			sum.reset();
+		}
+	}
+
+	/**
+	 * Histogram of durations, in seconds.
+	 *
+	 * Usage: long start = Metrics.start(); ...; timer.stop(start);
+	 */
+	public static final class Timer extends Histogram
+	{
+		private Timer (String name, String help, double[] bounds)
+		{
+			super(name, help, bounds);
+		}
+
+		/**
+		 * Record the time elapsed since the given start time.
+		 *
+		 * @param long start : value returned by Metrics.start()
+		 */
+		public void stop (long start)
+		{
+			observe((System.nanoTime() - start)/1e9);
+		}
+	}
+
+	/**
+	 * @return long : start time to pass to Timer.stop().
+	 */
+	public static long start ()
+	{
+		return System.nanoTime();
+	}
+
+	/**
+	 * @return Counter with the given name, created if it does not exist yet.
+	 */
+	public static Counter counter (String name, String help)
+	{
+		return register(new Counter(name, help), Counter.class);
+	}
+
+	/**
+	 * @return Timer with the given name (default time buckets), created if it does not exist yet.
+	 */
+	public static Timer timer (String name, String help)
+	{
+		return register(new Timer(name, help, TIME_BUCKETS), Timer.class);
+	}
+
+	private static synchronized <T extends Metric> T register (T metric, Class<T> type)
+	{
+		Metric existing = metrics.get(metric.getName());
+		if (existing == null)
+		{
+			metrics.put(metric.getName(), metric);
+			return metric;
+		}
+		if (existing.getClass() != type)
+		{
+			throw new IllegalArgumentException("Metrics::register - metric "+metric.getName()+" already registered as "+existing.type());
+		}
+		return type.cast(existing);
+	}
+
+	/**
+	 * @return List<Metric> : registered metrics, in registration order.
+	 */
+	public static synchronized List<Metric> getMetrics ()
+	{
+		return new ArrayList<Metric>(metrics.values());
+	}
+
+	/**
+	 * Configure metric exports from the given parameters (metricsFile, metricsInterval, metricsJmx). Exports
+	 * already configured are kept.
+	 *
+	 * @param Properties params : configuration parameters.
+	 */
+	public static synchronized void configure (Properties params)
+	{
+		if (params.getProperty("metricsJmx", "no").equalsIgnoreCase("yes"))
+		{
+			registerMBean();
+		}
+		if (!params.containsKey("metricsFile") || dumpFile != null)
+		{
+			return;
+		}
+		dumpFile = params.getProperty("metricsFile");
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				dumpQuietly();
+			}
+		});
+		int interval = Integer.parseInt(params.getProperty("metricsInterval", "0"));
+		if (interval > 0)
+		{
+			dumper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "elixa-metrics");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			dumper.scheduleAtFixedRate(new Runnable() {
+				@Override
+				public void run() {
+					dumpQuietly();
+				}
+			}, interval, interval, TimeUnit.SECONDS);
+		}
+		System.err.println("Metrics - metrics will be written to "+dumpFile);
+	}
+
+	private static void dumpQuietly ()
+	{
+		try {
+			dump(new File(dumpFile));
+		} catch (IOException ioe) {
+			System.err.println("Metrics::dump - metrics could not be written to "+dumpFile+": "+ioe.getMessage());
+		}
+	}
+
+	/**
+	 * Write the metrics to the given file: JSON if the file name ends with ".json", Prometheus text format otherwise.
+	 * The file is written to a temporal file first and then renamed, so readers never see a partial dump.
+	 *
+	 * @param File file
+	 * @throws IOException
+	 */
+	public static void dump (File file) throws IOException
+	{
+		String content = file.getName().endsWith(".json") ? toJson() : toPrometheus();
+		File tmp = new File(file.getPath()+".tmp");
+		FileUtils.writeStringToFile(tmp, content, StandardCharsets.UTF_8);
+		if (!tmp.renameTo(file))
+		{
+			FileUtils.copyFile(tmp, file);
+			tmp.delete();
+		}
+	}
+
+	/**
+	 * @return String : metrics in Prometheus text exposition format.
+	 */
+	public static String toPrometheus ()
+	{
+		StringBuilder sb = new StringBuilder();
+		for (Metric metric : getMetrics())
+		{
+			String name = metric.getName();
+			sb.append("# HELP ").append(name).append(' ').append(metric.getHelp().replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+			sb.append("# TYPE ").append(name).append(' ').append(metric.type()).append('\n');
+			if (metric instanceof Counter)
+			{
+				sb.append(name).append(' ').append(((Counter) metric).get()).append('\n');
+			}
+			else
+			{
+				Histogram h = (Histogram) metric;
+				double[] bounds = h.getBounds();
+				long[] counts = h.getCumulativeCounts();
+				for (int i=0; i<counts.length; i++)
+				{
+					String le = (i < bounds.length) ? format(bounds[i]) : "+Inf";
+					sb.append(name).append("_bucket{le=\"").append(le).append("\"} ").append(counts[i]).append('\n');
+				}
+				sb.append(name).append("_sum ").append(format(h.getSum())).append('\n');
+				sb.append(name).append("_count ").append(counts[counts.length-1]).append('\n');
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return String : metrics as a JSON object (counters as numbers, timers as objects with
+	 * their count, sum and cumulative bucket counts).
+	 */
+	public static String toJson ()
+	{
+		StringBuilder sb = new StringBuilder("{\n");
+		List<Metric> all = getMetrics();
+		for (int m=0; m<all.size(); m++)
+		{
+			Metric metric = all.get(m);
+			sb.append("  \"").append(metric.getName()).append("\": ");
+			if (metric instanceof Counter)
+			{
+				sb.append(((Counter) metric).get());
+			}
+			else
+			{
+				Histogram h = (Histogram) metric;
+				double[] bounds = h.getBounds();
+				long[] counts = h.getCumulativeCounts();
+				sb.append("{\"count\": ").append(counts[counts.length-1]).append(", \"sum\": ").append(format(h.getSum()));
+				sb.append(", \"buckets\": {");
+				for (int i=0; i<counts.length; i++)
+				{
+					sb.append((i > 0) ? ", " : "").append('"').append((i < bounds.length) ? format(bounds[i]) : "+Inf").append("\": ").append(counts[i]);
+				}
+				sb.append("}}");
+			}
+			sb.append((m < all.size()-1) ? ",\n" : "\n");
+		}
+		return sb.append("}\n").toString();
+	}
+
+	private static String format (double value)
+	{
+		return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+	}
+
+	/**
+	 * Register the metrics as attributes of a JMX MBean (elh.eus.absa:type=Metrics). Counters are
+	 * exported as their value, timers as two attributes: NAME_count and NAME_sum.
+	 */
+	public static synchronized void registerMBean ()
+	{
+		if (jmxRegistered)
+		{
+			return;
+		}
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			server.registerMBean(new MetricsMBean(), new ObjectName(JMX_NAME));
+			jmxRegistered = true;
+			System.err.println("Metrics - metrics registered in JMX as "+JMX_NAME);
+		} catch (Exception e) {
+			System.err.println("Metrics::registerMBean - metrics could not be registered in JMX: "+e.getMessage());
+		}
+	}
+
+	/**
+	 * Read only MBean whose attributes are the current metrics (metrics registered later are also listed).
+	 */
+	private static class MetricsMBean implements DynamicMBean
+	{
+		private Map<String, Object> values ()
+		{
+			Map<String, Object> values = new LinkedHashMap<String, Object>();
+			for (Metric metric : getMetrics())
+			{
+				if (metric instanceof Counter)
+				{
+					values.put(metric.getName(), ((Counter) metric).get());
+				}
+				else
+				{
+					values.put(metric.getName()+"_count", ((Histogram) metric).getCount());
+					values.put(metric.getName()+"_sum", ((Histogram) metric).getSum());
+				}
+			}
+			return values;
+		}
+
+		@Override
+		public Object getAttribute (String attribute) throws AttributeNotFoundException
+		{
+			Map<String, Object> values = values();
+			if (!values.containsKey(attribute))
+			{
+				throw new AttributeNotFoundException(attribute);
+			}
+			return values.get(attribute);
+		}
+
+		@Override
+		public AttributeList getAttributes (String[] attributes)
+		{
+			Map<String, Object> values = values();
+			AttributeList list = new AttributeList();
+			for (String attribute : attributes)
+			{
+				if (values.containsKey(attribute))
+				{
+					list.add(new Attribute(attribute, values.get(attribute)));
+				}
+			}
+			return list;
+		}
+
+		@Override
+		public void setAttribute (Attribute attribute)
+		{
+			throw new UnsupportedOperationException("Metrics are read only");
+		}
+
+		@Override
+		public AttributeList setAttributes (AttributeList attributes)
+		{
+			return new AttributeList();
+		}
+
+		@Override
+		public Object invoke (String actionName, Object[] params, String[] signature)
+		{
+			throw new UnsupportedOperationException("Metrics MBean has no operations");
+		}
+
+		@Override
+		public MBeanInfo getMBeanInfo ()
+		{
+			List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+			for (Map.Entry<String, Object> e : values().entrySet())
+			{
+				attributes.add(new MBeanAttributeInfo(e.getKey(), e.getValue().getClass().getName(), e.getKey(), true, false, false));
+			}
+			return new MBeanInfo(Metrics.class.getName(), "EliXa metrics", attributes.toArray(new MBeanAttributeInfo[0]),
+					null, null, null);
+		}
+	}
+}
@@ -23,12 +23,15 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.text.Normalizer;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import org.apache.commons.validator.routines.UrlValidator;
 
@@ -48,7 +51,6 @@ import org.apache.commons.validator.routines.UrlValidator;
 public class MicroTextNormalizer {
 
 	//various patterns used for normalization. 
-	private static Pattern affixes = Pattern.compile("^([^\\p{L}\\p{M}\\p{Nd}]*)([\\p{L}\\p{M}\\p{Nd}]+)([^\\p{L}\\p{M}\\p{Nd}]*)$"); 
 	private static Pattern allowedAcronyms = Pattern.compile("^([\\p{L}\\p{M}])\\1{1,2}(([\\p{L}\\p{M}])\\3{1,2})?$");
 	//words attached to hashtags (e.g., hello#world)
 	private static Pattern attachedWords = Pattern.compile("([^\\s])([@#][\\p{L}\\p{M}\\p{Nd}])");
@@ -64,6 +66,15 @@ public class MicroTextNormalizer {
 	private static Pattern muacks = Pattern.compile("(?i)\\b(m+u+a+c*k*s*)\\b");    
 	private static Pattern puff = Pattern.compile("(?i)\\b(p+u*f+)\\b");//INTERNEG
 	private static Pattern uf = Pattern.compile("(?i)\\b(u+f+)\\b"); //INTERNEG
+	//letters used by the interjection patterns above.
+	private static final String interjectionLetters = "abcefhijklmopsuABCEFHIJKLMOPSU";
+	
+	//character repetitions
+	private static Pattern repetitions = Pattern.compile("([\\p{L}\\p{M}])\\1{0,}");
+	private static Pattern repetitions1 = Pattern.compile("([\\p{L}\\p{M}])\\1{1,}");
+	private static Pattern repetitions2 = Pattern.compile("([\\p{L}\\p{M}])\\1{2,}");
+	
+	private static final UrlValidator urlValidator = new UrlValidator(UrlValidator.ALLOW_ALL_SCHEMES);
 	
 	//twitter users
 	private static Pattern user = Pattern.compile("@([\\p{L}\\p{M}\\p{Nd}_]{1,15})");
@@ -77,11 +88,20 @@ public class MicroTextNormalizer {
 	
 	private HashMap<String,String> emodict;
 	
+	//emoticon dictionary compiled: a pattern and replacement per entry, and all the entries in a single pattern.
+	private List<Pattern> emoticonPatterns = new ArrayList<Pattern>();
+	private List<String> emoticonReplacements = new ArrayList<String>();
+	private Pattern emoticons;
+	
+	//user provided OOV dictionary (read only)
 	private HashMap<String,String> nonStandard;
 	
+	//corrections computed for non-standard words (shared by concurrent normalizations)
+	private NormalizationCache corrections = new NormalizationCache();
+	
 	private HashMap<String,String> correctedNonStandard = new HashMap<String,String>();
 	
-	private List<String> formDict;
+	private HashSet<String> formDict;
 		
 	/**
 	 * 
@@ -123,6 +143,7 @@ public class MicroTextNormalizer {
 	 */
 	public void setEmodict(HashMap<String, String> emodict) {
 		this.emodict = emodict;
+		compileEmodict();
 	}
 	
 	/**
@@ -133,11 +154,55 @@ public class MicroTextNormalizer {
 			this.emodict = FileUtilsElh.loadTwoColumnResource(emodictFile);
 		}catch(IOException ioe){
 			System.err.println("MicroTextNormalizer::Constructor - Emoticon dictionary file could not be read. Emoticon normalization won't be performed.");
-			setEmodict(new HashMap<String, String>());
+			this.emodict = new HashMap<String, String>();
 		}
+		compileEmodict();
 		System.err.println("MicroTextNormalizer::setEmodict - Emoticon dictionary file loaded: "+emodict.size());
 	}
 
+	/**
+	 * Compile the emoticon dictionary regexes once, instead of compiling them for every sentence.
+	 * All entries are joined into a single alternation, with a capturing group per entry, so that the 
+	 * emoticons of a sentence are found and replaced in a single pass (see emoticonMapping). Entries keep 
+	 * the dictionary iteration order, since replacements are applied one after another when the single 
+	 * pass can not be used.
+	 * 
+	 * NOTE: changes made to the map returned by getEmodict() are not seen until setEmodict is called again.
+	 */
+	private void compileEmodict() {
+		List<Pattern> patterns = new ArrayList<Pattern>();
+		List<String> replacements = new ArrayList<String>();
+		StringBuilder alternation = new StringBuilder();
+		// capturing groups of the entries would shift the group of each entry (and break backreferences).
+		boolean groups = false;
+		for (String k: emodict.keySet())
+		{
+			Pattern p;
+			try{
+				p = Pattern.compile(k);
+			}catch (PatternSyntaxException pse){
+				System.err.println("MicroTextNormalizer::compileEmodict - invalid emoticon regex, entry ignored: "+k);
+				continue;
+			}
+			patterns.add(p);
+			replacements.add(" . "+emodict.get(k)+" . ");
+			groups = groups || (p.matcher("").groupCount() > 0);
+			if (alternation.length() > 0)
+			{
+				alternation.append("|");
+			}
+			alternation.append("(").append(k).append(")");
+		}
+		Pattern all = null;
+		if (!groups && !patterns.isEmpty())
+		{
+			all = Pattern.compile(alternation.toString());
+		}
+		emoticonPatterns = patterns;
+		emoticonReplacements = replacements;
+		emoticons = all;
+	}
+
 	/**
 	 * @return
 	 */
@@ -156,6 +221,12 @@ public class MicroTextNormalizer {
 	 * @param emodictFile
 	 */
 	public void setNonStandard(InputStream OOVDictFile) {
+		if (OOVDictFile == null)
+		{
+			System.err.println("MicroTextNormalizer::setNonStandard - no OOV dictionary found for language "+language+". Non standard word normalization won't use it.");
+			setNonStandard(new HashMap<String, String>());
+			return;
+		}
 		try{
 			this.nonStandard = FileUtilsElh.loadTwoColumnResource(OOVDictFile);
 		}catch (IOException ioe){
@@ -167,12 +238,31 @@ public class MicroTextNormalizer {
 	
 	
 	/**
-	 * @param forms
+	 * @return cache of the corrections computed for non-standard words.
+	 */
+	public NormalizationCache getCorrectionCache() {
+		return corrections;
+	}
+	
+	/**
+	 * @param maxSize : maximum number of corrections kept in the cache (0 = no caching). Current cache is discarded.
+	 */
+	public void setCorrectionCacheSize(int maxSize) {
+		this.corrections = new NormalizationCache(maxSize);
+	}
+	
+	/**
+	 * @param forms : standard word forms, one per line.
 	 */
-	private void setFormDict(InputStream forms) {
-		formDict = new ArrayList<String>();
+	public void setFormDict(InputStream forms) {
+		formDict = new HashSet<String>();
+		if (forms == null)
+		{
+			System.err.println("MicroTextNormalizer::setFormDict - no form dictionary found for language "+language+". Repeated character normalization won't use it.");
+			return;
+		}
 		try{
-			BufferedReader breader = new BufferedReader(new InputStreamReader(forms));
+			BufferedReader breader = new BufferedReader(new InputStreamReader(forms, StandardCharsets.UTF_8));
 			String line;
 			while ((line = breader.readLine()) != null) 
 			{
@@ -185,7 +275,7 @@ public class MicroTextNormalizer {
 			}
 		}catch (IOException ioe){
 			System.err.println("MicroTextNormalizer::setFormDict - Form dictionary file could not be read. Repeated character normalization won't be performed.");
-			formDict = new ArrayList<String>();
+			formDict = new HashSet<String>();
 		}
 		System.err.println("MicroTextNormalizer::setFormDict - Form dictionary file loaded: "+formDict.size());
 	}
@@ -198,25 +288,45 @@ public class MicroTextNormalizer {
 	 * @param user
 	 * @param hashtag
 	 * @return
+	 * 
+	 * Thread safe: the dictionaries are read only, and computed corrections are stored in a concurrent cache.
 	 */
 	public String normalizeSentence (String input, boolean url, boolean user, boolean hashtag, boolean emot, boolean nonStandard)
 	{
 		//System.out.println("MicroTextNormalization::normalizeSentence - input: "+input);
-		String out = "";
 		//separate words attached to hashtags and usernames (e.g., hello#world -> hello #world)
 		//String in = input.replaceAll("([^\\s])([@#][\\p{L}\\p{M}\\p{Nd}])", "$1 $2");
-		String in = attachedWords.matcher(input).replaceAll("$1 $2");
+		String in = input;
+		if (in.indexOf('@') >= 0 || in.indexOf('#') >= 0)
+		{
+			in = attachedWords.matcher(in).replaceAll("$1 $2");
+		}
 		if (emot && !getEmodict().isEmpty())
 		{
 			in = emoticonMapping(in);
 		}
 		
-		for (String s: in.split("\\s+"))
+		// single left to right scan: whitespace separated tokens are normalized and appended to the output,
+		// whitespace is collapsed to a single space on the fly.
+		StringBuilder out = new StringBuilder(in.length()+16);
+		int len = in.length();
+		int i = 0;
+		while (i < len)
 		{
-			String token = s;
+			if (isSpace(in.charAt(i)))
+			{
+				i++;
+				continue;
+			}
+			int start = i;
+			while (i < len && !isSpace(in.charAt(i)))
+			{
+				i++;
+			}
+			String token = in.substring(start, i);
 			if (nonStandard)
 			{
-				token = correctNonStandardWord(s);
+				token = correctNonStandardWord(token);
 			}
 			
 			if (url)
@@ -234,19 +344,67 @@ public class MicroTextNormalizer {
 					token = hashtagNormalization(token,false);					
 				}
 			} 			
-			out+=token+" ";
+			appendCollapsed(out, token);
+			appendCollapsed(out, " ");
 		}
-		out = out.trim().replaceAll("\\s+", " ");
+		String result = trim(out);
 		// Debugging messages.
-		//if (input.compareTo(out)!=0)
+		//if (input.compareTo(result)!=0)
 		//{
-		//	System.out.println("MicroTextNormalization::normalizeSentence - input: "+input+" - out: "+out+"-");
+		//	System.out.println("MicroTextNormalization::normalizeSentence - input: "+input+" - out: "+result+"-");
 		//}
-		return out;
+		return result;
 		
 		
 	}
 	
+	/**
+	 * Whitespace as defined by the "\\s" regex character class. 
+	 */
+	private static boolean isSpace (char c)
+	{
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+	
+	/**
+	 * Append a string to the output, replacing whitespace sequences with a single space 
+	 * (including whitespace sequences across appended strings).
+	 */
+	private static void appendCollapsed (StringBuilder out, String str)
+	{
+		for (int i=0; i<str.length(); i++)
+		{
+			char c = str.charAt(i);
+			if (isSpace(c))
+			{
+				if (out.length() > 0 && out.charAt(out.length()-1) == ' ')
+				{
+					continue;
+				}
+				c = ' ';
+			}
+			out.append(c);
+		}
+	}
+	
+	/**
+	 * Same as String.trim(), without creating an intermediate string.
+	 */
+	private static String trim (StringBuilder sb)
+	{
+		int start = 0;
+		int end = sb.length();
+		while (start < end && sb.charAt(start) <= ' ')
+		{
+			start++;
+		}
+		while (end > start && sb.charAt(end-1) <= ' ')
+		{
+			end--;
+		}
+		return sb.substring(start, end);
+	}
+	
 	/**
 	 *   
 	 * @param input : input string to normalize
@@ -266,15 +424,79 @@ public class MicroTextNormalizer {
 	 * 
 	 */
 	private String emoticonMapping(String input) {
-		String result = input;
+		if (emoticons != null)
+		{
+			Matcher m = emoticons.matcher(input);
+			if (!m.find())
+			{
+				return input;
+			}
+			String result = emoticonSinglePass(input, m);
+			if (result != null)
+			{
+				return result;
+			}
+		}
 		
-		for (String k: emodict.keySet())
+		// an entry after the other: dictionaries whose entries have capturing groups, and sentences whose 
+		// emoticons the single pass can not replace as the entries in order would. 
+		String result = input;
+		for (int i=0; i<emoticonPatterns.size(); i++)
 		{				
-			String kk=k;//k.replaceAll("\\\\", "\\\\\\\\");
-			result=result.replaceAll(kk," . "+emodict.get(k)+" . ");			
+			result=emoticonPatterns.get(i).matcher(result).replaceAll(emoticonReplacements.get(i));			
 		}		
 		return result;
 	}
+	
+	/**
+	 * Replace the emoticons of the input in a single pass of the combined emoticon pattern: each match is 
+	 * replaced by the replacement of the entry (group) that matched. 
+	 * 
+	 * Applying the entries one after another gives a different result if an entry matches inside the match 
+	 * of an entry after it (e.g., "D:'(" is a CRYEMOT, but "D:" is found first), or if an entry matches the 
+	 * text around a replacement. null is returned in those cases.
+	 * 
+	 * @param input : input string
+	 * @param m : matcher of the combined pattern over the input, positioned at its first match
+	 * @return String : input with its emoticons replaced, null if the entries must be applied in order.
+	 */
+	private String emoticonSinglePass(String input, Matcher m) {
+		Matcher inside = emoticons.matcher(input);
+		StringBuilder result = new StringBuilder(input.length() + 32);
+		int last = 0;
+		do {
+			int entry = matchedEntry(m);
+			for (int i=m.start()+1; i<m.end(); i++)
+			{
+				inside.region(i, input.length());
+				if (inside.lookingAt() && matchedEntry(inside) < entry)
+				{
+					return null;
+				}
+			}
+			result.append(input, last, m.start()).append(emoticonReplacements.get(entry));
+			last = m.end();
+		} while (m.find());
+		result.append(input, last, input.length());
+		
+		if (emoticons.matcher(result).find())
+		{
+			return null;
+		}
+		return result.toString();
+	}
+	
+	/**
+	 * @return int : index of the emoticon dictionary entry of the last match of the combined pattern.
+	 */
+	private static int matchedEntry(Matcher m) {
+		int group = 1;
+		while (m.start(group) < 0)
+		{
+			group++;
+		}
+		return group - 1;
+	}
 
 	/**
 	 *  Normalize input String (urls -> URL) 
@@ -284,10 +506,8 @@ public class MicroTextNormalizer {
 	 */
 	private static String normalizeURL (String input){			
 		
-		//URL normalization
-		UrlValidator defaultValidator = new UrlValidator(UrlValidator.ALLOW_ALL_SCHEMES);
-		
-		if (defaultValidator.isValid(input)) 
+		//URL normalization (urls have a scheme, so they contain ':')
+		if (input.indexOf(':') >= 0 && urlValidator.isValid(input)) 
 		{
 	          return "URLURLURL"; // valid
 		}			
@@ -306,6 +526,10 @@ public class MicroTextNormalizer {
 	private String normalizeUSR (String input, boolean anonimize){			
 		
 		String result = input;
+		if (result.indexOf('@') < 0)
+		{
+			return result;
+		}
 		Matcher m = user.matcher(result);
 		if (anonimize)
 		{
@@ -335,12 +559,28 @@ public class MicroTextNormalizer {
 		// or punctuation marks (e.g., great!, "nice"), Here separate and store those symbols to later restore 
 		// them (we want the text as close to the original as posible, only with non-standard words normalized).		
 		//Pattern affixes = Pattern.compile("^([^\\p{L}\\p{M}\\p{Nd}]*)([\\p{L}\\p{M}\\p{Nd}]+)([^\\p{L}\\p{M}\\p{Nd}]*)$"); 
-		Matcher m = affixes.matcher(input);
-		if (m.matches())
+		// hand-written equivalent of the affixes pattern.
+		int len = input.length();
+		int wStart = 0;
+		while (wStart < len && !isWordChar(input.codePointAt(wStart)))
 		{
-			prefix = m.group(1);
-			variations = m.group(2);
-			suffix = m.group(3);
+			wStart += Character.charCount(input.codePointAt(wStart));
+		}
+		int wEnd = wStart;
+		while (wEnd < len && isWordChar(input.codePointAt(wEnd)))
+		{
+			wEnd += Character.charCount(input.codePointAt(wEnd));
+		}
+		int sEnd = wEnd;
+		while (sEnd < len && !isWordChar(input.codePointAt(sEnd)))
+		{
+			sEnd += Character.charCount(input.codePointAt(sEnd));
+		}
+		if (wEnd > wStart && sEnd == len)
+		{
+			prefix = input.substring(0, wStart);
+			variations = input.substring(wStart, wEnd);
+			suffix = input.substring(wEnd);
 		}		
 		//System.err.println("MicroTextNormalization::correctNonStandardWords - "+input+" - "+variations+" - "+prefix+"("+prefix.length()+") - "+suffix+"("+suffix.length()+")");
 
@@ -352,57 +592,55 @@ public class MicroTextNormalizer {
 			
 		// OOV dictionary matching. (e.g. xo -> pero; q -> que)		
 		
-		//OOV dictionary matching if we already have the correct form it should be stored in the correctedNonStandard hashmap.
+		// Corrections already computed are memoized in the corrections cache (the OOV dictionary is not modified).
 		if (nonStandard.containsKey(variations))
 		{
 			variations = nonStandard.get(variations);
 		}
-		// Do not correct acronyms such as PP or WWW or CCAA CCOO (only one and two letter acronyms are treated)
-		//variations.matches("^([\\p{L}\\p{M}])\\1{1,2}(([\\p{L}\\p{M}])\\3{1,2})?$")
 		else
 		{
-			Matcher acro =  allowedAcronyms.matcher(variations);
-			if (acro.matches())
-			{
-				nonStandard.put(variations, variations);
-			}
-		//try to find the standard form of the word. Character repetition (e.g. feoooo -> feo; cooooool -> cool)
-			else
+			String correction = corrections.get(variations);
+			if (correction == null)
 			{
-				String repetitions = removeRepetitions(variations,2);
-				// we only try to apply the corrected form if it has a minimum length (it is very difficult to know
-				// when a single letter is the correct form of a repetition)   
-				if (repetitions.length() > 1)
+				correction = variations;
+				// Do not correct acronyms such as PP or WWW or CCAA CCOO (only one and two letter acronyms are treated)
+				//variations.matches("^([\\p{L}\\p{M}])\\1{1,2}(([\\p{L}\\p{M}])\\3{1,2})?$")
+				Matcher acro =  allowedAcronyms.matcher(variations);
+				//try to find the standard form of the word. Character repetition (e.g. feoooo -> feo; cooooool -> cool)
+				if (!acro.matches())
 				{
-					// WARNING lowercase conversion is locale dependent
-					if (formDict.contains(repetitions) || formDict.contains(repetitions.toLowerCase()))
+					String repetitions = removeRepetitions(variations,2);
+					// we only try to apply the corrected form if it has a minimum length (it is very difficult to know
+					// when a single letter is the correct form of a repetition)   
+					if (repetitions.length() > 1)
 					{
-						nonStandard.put(variations, repetitions);
-						variations = repetitions;
-					}
-					else
-					{				
-						repetitions = removeRepetitions(variations,1);
-						if (formDict.contains(repetitions)|| formDict.contains(repetitions.toLowerCase()))
-						{	
-							nonStandard.put(variations, repetitions);
-							variations = repetitions;
+						// WARNING lowercase conversion is locale dependent
+						if (formDict.contains(repetitions) || formDict.contains(repetitions.toLowerCase()))
+						{
+							correction = repetitions;
 						}
 						else
-						{
-							nonStandard.put(variations, variations);
+						{				
+							repetitions = removeRepetitions(variations,1);
+							if (formDict.contains(repetitions)|| formDict.contains(repetitions.toLowerCase()))
+							{	
+								correction = repetitions;
+							}
 						}
 					}
+					///System.err.println(input+" - "+variations+" - "+prefix+variations+suffix);		
 				}
-				else
-				{
-					nonStandard.put(variations, variations);
-				}
-				///System.err.println(input+" - "+variations+" - "+prefix+variations+suffix);		
+				corrections.put(variations, correction);
 			}
+			variations = correction;
 		}
 		String wNorm = prefix+variations+suffix;
 		
+		if (!mayBeInterjection(wNorm))
+		{
+			return wNorm;
+		}
+		
 		//onomatomeiak pos
 		wNorm = jajeji.matcher(wNorm).replaceAll(" . INTERPOS .");
 		wNorm = hahehi.matcher(wNorm).replaceAll(" . INTERPOS .");//hahaha but no ha (ha salido)
@@ -419,6 +657,68 @@ public class MicroTextNormalizer {
 		return wNorm;
 	}
 	
+	/**
+	 * Characters of the [\\p{L}\\p{M}\\p{Nd}] class.
+	 */
+	private static boolean isWordChar (int cp)
+	{
+		switch (Character.getType(cp))
+		{
+		case Character.UPPERCASE_LETTER:
+		case Character.LOWERCASE_LETTER:
+		case Character.TITLECASE_LETTER:
+		case Character.MODIFIER_LETTER:
+		case Character.OTHER_LETTER:
+		case Character.NON_SPACING_MARK:
+		case Character.ENCLOSING_MARK:
+		case Character.COMBINING_SPACING_MARK:
+		case Character.DECIMAL_DIGIT_NUMBER:
+			return true;
+		default:
+			return false;
+		}
+	}
+	
+	/**
+	 *  Quick check before applying the interjection patterns: interjections are whole words of at least two
+	 *  characters, made only of the letters used by the patterns. Returns false if the input has no such word,
+	 *  that is, if none of the interjection patterns can match.
+	 * 
+	 * @param input : input string (a single word)
+	 * @returns boolean
+	 */
+	private static boolean mayBeInterjection (String input)
+	{
+		int len = input.length();
+		int i = 0;
+		while (i < len)
+		{
+			if (interjectionLetters.indexOf(input.charAt(i)) < 0)
+			{
+				i++;
+				continue;
+			}
+			int start = i;
+			while (i < len && interjectionLetters.indexOf(input.charAt(i)) >= 0)
+			{
+				i++;
+			}
+			// a word boundary is needed at both sides. ascii letters, digits and '_' are word characters 
+			// for any regex \\b definition, other characters are left to the patterns.
+			if (i - start > 1 && (start == 0 || !isAsciiWordChar(input.charAt(start-1))) 
+					&& (i == len || !isAsciiWordChar(input.charAt(i))))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private static boolean isAsciiWordChar (char c)
+	{
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+	}
+	
 	/**
 	 *  Try to find the standard form of a given input String 
 	 * 
@@ -560,9 +860,9 @@ public class MicroTextNormalizer {
 		String result=variations;	
 		switch (i)
 		{
-		case 0: result = variations.replaceAll("([\\p{L}\\p{M}])\\1{"+i+",}", ""); break;
-		case 1: result = variations.replaceAll("([\\p{L}\\p{M}])\\1{"+i+",}", "$1"); break;
-		case 2: result = variations.replaceAll("([\\p{L}\\p{M}])\\1{"+i+",}", "$1$1"); break;
+		case 0: result = repetitions.matcher(variations).replaceAll(""); break;
+		case 1: result = repetitions1.matcher(variations).replaceAll("$1"); break;
+		case 2: result = repetitions2.matcher(variations).replaceAll("$1$1"); break;
 		default: 
 			System.err.println("MicroTextNormalization::removeRepetitions - i="+i+" only a max of two repetitions per char are allowed, function will default to i=2");
 			result = removeRepetitions(variations, 2);
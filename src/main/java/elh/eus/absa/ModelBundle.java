@@ -0,0 +1,505 @@
+/*
+ * Copyright 2014 Elhuyar Fundazioa
+
+This file is part of EliXa.
+
+    EliXa is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    EliXa is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with EliXa.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elh.eus.absa;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import weka.classifiers.Classifier;
+import weka.core.Attribute;
+import weka.core.Instances;
+
+/**
+ * Model bundle: a single versioned file holding everything tag-doc/eval-doc need to classify with a trained
+ * model, namely the classifier, the feature dictionary (the model header), and the polarity lexicons and word
+ * cluster maps the model was trained with. Bundles are created from a model and its parameter file with the
+ * bundle-model command, and can be used wherever a model path is expected.
+ *
+ * Loading a bundle does not parse the lexicon or cluster files given in the parameter file: the file is
+ * memory-mapped, lexicons are used in place (see CompiledLexicon), and the classifier is deserialized
+ * without deserializing a copy of the header.
+ *
+ * File format (big endian):
+ *    magic "ELIXAMDL" | int version | int sections | (name, long offset, long length) for each section
+ *    | section data (each section starts at an offset multiple of 8).
+ * Strings are stored as int length + UTF-8 bytes.
+ * Sections:
+ *    features         : feature dictionary, i.e. relation name, class index and the (type, name[, values])
+ *                       of each attribute of the model header.
+ *    classifier       : Java serialized Weka classifier.
+ *    lexicon.general  : general polarity lexicon, in compiled lexicon format (optional).
+ *    lexicon.domain   : domain polarity lexicon, in compiled lexicon format (optional).
+ *    clusters.NAME    : word -> cluster id map of the clark|brown|word2vec clusters (optional).
+ *
+ * @author isanvi
+ *
+ */
+public class ModelBundle {
+
+	public static final String EXTENSION = ".bundle";
+
+	public static final String GENERAL_LEXICON = "general";
+	public static final String DOMAIN_LEXICON = "domain";
+
+	private static final byte[] MAGIC = "ELIXAMDL".getBytes(StandardCharsets.US_ASCII);
+	private static final int VERSION = 1;
+
+	private static final String FEATURES = "features";
+	private static final String CLASSIFIER = "classifier";
+	private static final String LEXICON = "lexicon.";
+	private static final String CLUSTERS = "clusters.";
+
+	private static final byte NUMERIC = 0;
+	private static final byte NOMINAL = 1;
+	private static final byte STRING = 2;
+
+	private static final String[] CLUSTER_NAMES = {"clark", "brown", "word2vec"};
+
+	private String name;
+	private ByteBuffer buffer;
+	// section name -> {offset, length}
+	private Map<String, long[]> sections = new LinkedHashMap<String, long[]>();
+
+	private ModelBundle ()
+	{
+	}
+
+	/**
+	 * @param String path : model file path
+	 * @return boolean : true if the file is a model bundle.
+	 */
+	public static boolean isBundle (String path)
+	{
+		File file = new File(path);
+		if (!file.isFile())
+		{
+			return false;
+		}
+		byte[] head = new byte[MAGIC.length];
+		try (InputStream in = new FileInputStream(file)) {
+			int read = 0;
+			int n;
+			while (read < head.length && (n = in.read(head, read, head.length-read)) > 0)
+			{
+				read += n;
+			}
+			return read == head.length && Arrays.equals(head, MAGIC);
+		} catch (IOException ioe) {
+			return false;
+		}
+	}
+
+	/**
+	 * Memory-map a model bundle file.
+	 *
+	 * @param File file : model bundle.
+	 * @return ModelBundle
+	 * @throws IOException if the file can not be read or it is not a model bundle.
+	 */
+	public static ModelBundle open (File file) throws IOException
+	{
+		ModelBundle bundle = new ModelBundle();
+		bundle.name = file.toString();
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE)
+			{
+				throw new IOException("ModelBundle::open - bundle file too big: "+file);
+			}
+			// the mapping remains valid after the channel is closed.
+			bundle.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		ByteBuffer buf = bundle.buffer.duplicate();
+		byte[] magic = new byte[MAGIC.length];
+		if (buf.remaining() >= magic.length)
+		{
+			buf.get(magic);
+		}
+		if (!Arrays.equals(magic, MAGIC))
+		{
+			throw new IOException("ModelBundle::open - not a model bundle: "+file);
+		}
+		int version = buf.getInt();
+		if (version != VERSION)
+		{
+			throw new IOException("ModelBundle::open - unsupported model bundle version ("+version+"): "+file);
+		}
+		int n = buf.getInt();
+		for (int i=0; i<n; i++)
+		{
+			String section = readString(buf);
+			long offset = buf.getLong();
+			long length = buf.getLong();
+			if (offset < 0 || length < 0 || offset+length > bundle.buffer.limit())
+			{
+				throw new IOException("ModelBundle::open - corrupted model bundle (section "+section+"): "+file);
+			}
+			bundle.sections.put(section, new long[] {offset, length});
+		}
+		if (!bundle.sections.containsKey(FEATURES) || !bundle.sections.containsKey(CLASSIFIER))
+		{
+			throw new IOException("ModelBundle::open - incomplete model bundle: "+file);
+		}
+		return bundle;
+	}
+
+	/**
+	 * @param String section : section name
+	 * @return ByteBuffer : view of the section bytes (positions start at 0), or null if the bundle has no such section.
+	 */
+	private ByteBuffer section (String section)
+	{
+		long[] s = sections.get(section);
+		if (s == null)
+		{
+			return null;
+		}
+		ByteBuffer buf = buffer.duplicate();
+		buf.position((int) s[0]);
+		buf.limit((int) (s[0]+s[1]));
+		return buf.slice();
+	}
+
+	/**
+	 * @return Instances : empty dataset with the attributes of the model (same as the header of the original model).
+	 * @throws IOException
+	 */
+	public Instances getHeader () throws IOException
+	{
+		ByteBuffer buf = section(FEATURES);
+		String relation = readString(buf);
+		int classIndex = buf.getInt();
+		int n = buf.getInt();
+		ArrayList<Attribute> atts = new ArrayList<Attribute>(n);
+		for (int i=0; i<n; i++)
+		{
+			byte type = buf.get();
+			String attName = readString(buf);
+			switch (type)
+			{
+			case NUMERIC:
+				atts.add(new Attribute(attName));
+				break;
+			case NOMINAL:
+				int k = buf.getInt();
+				List<String> vals = new ArrayList<String>(k);
+				for (int j=0; j<k; j++)
+				{
+					vals.add(readString(buf));
+				}
+				atts.add(new Attribute(attName, vals));
+				break;
+			case STRING:
+				atts.add(new Attribute(attName, (List<String>) null));
+				break;
+			default:
+				throw new IOException("ModelBundle::getHeader - unknown attribute type ("+type+"): "+name);
+			}
+		}
+		Instances header = new Instances(relation, atts, 0);
+		header.setClassIndex(classIndex);
+		return header;
+	}
+
+	/**
+	 * Deserialize the classifier stored in the bundle. Each call returns a new classifier object.
+	 *
+	 * @return Classifier
+	 * @throws Exception
+	 */
+	public Classifier getClassifier () throws Exception
+	{
+		return (Classifier) weka.core.SerializationHelper.read(new ByteBufferInputStream(section(CLASSIFIER)));
+	}
+
+	/**
+	 * @param String lexicon : GENERAL_LEXICON | DOMAIN_LEXICON
+	 * @return Lexicon : polarity lexicon stored in the bundle, or null if the bundle has no such lexicon.
+	 * @throws IOException
+	 */
+	public Lexicon getLexicon (String lexicon) throws IOException
+	{
+		ByteBuffer buf = section(LEXICON+lexicon);
+		if (buf == null)
+		{
+			return null;
+		}
+		return new Lexicon(CompiledLexicon.wrap(buf, name+" ("+LEXICON+lexicon+")"));
+	}
+
+	/**
+	 * @param String clname : clark|brown|word2vec
+	 * @return HashMap<String, Integer> : word -> cluster id map stored in the bundle, or null if the bundle has no such clusters.
+	 */
+	public HashMap<String, Integer> getClusterMap (String clname)
+	{
+		ByteBuffer buf = section(CLUSTERS+clname);
+		if (buf == null)
+		{
+			return null;
+		}
+		int n = buf.getInt();
+		HashMap<String, Integer> result = new HashMap<String, Integer>(n*4/3+1);
+		for (int i=0; i<n; i++)
+		{
+			String word = readString(buf);
+			result.put(word, buf.getInt());
+		}
+		return result;
+	}
+
+	/**
+	 * @return Set<String> : names of the sections of the bundle.
+	 */
+	public Set<String> getSections ()
+	{
+		return sections.keySet();
+	}
+
+	/**
+	 * Create a model bundle from a model file (as stored by train-doc) and the parameter file it was trained with.
+	 * Polarity lexicons are included if the model uses them, and cluster maps if the parameter file activates them.
+	 *
+	 * @param String model : path to the serialized model (classifier + header)
+	 * @param Properties params : training parameters (lexicon and cluster file paths are read from here)
+	 * @param File file : output bundle file
+	 * @throws Exception
+	 */
+	public static void write (String model, Properties params, File file) throws Exception
+	{
+		Object[] ser = weka.core.SerializationHelper.readAll(model);
+		if (ser.length < 2 || !(ser[1] instanceof Instances))
+		{
+			throw new IOException("ModelBundle::write - model has no header: "+model);
+		}
+		Classifier classifier = (Classifier) ser[0];
+		Instances header = (Instances) ser[1];
+
+		Map<String, byte[]> data = new LinkedHashMap<String, byte[]>();
+		data.put(FEATURES, featureDictionary(header));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		weka.core.SerializationHelper.write(bytes, classifier);
+		data.put(CLASSIFIER, bytes.toByteArray());
+
+		addLexicon(data, GENERAL_LEXICON, header.attribute("polLexGen_posScore") != null, params.getProperty("polarLexiconGeneral"));
+		addLexicon(data, DOMAIN_LEXICON, header.attribute("polLexDom_posScore") != null, params.getProperty("polarLexiconDomain"));
+
+		// same condition Features uses to load cluster features.
+		if (params.containsKey("clark"))
+		{
+			for (String clname : CLUSTER_NAMES)
+			{
+				String clPath = params.getProperty(clname);
+				if (clPath != null && FileUtilsElh.checkFile(clPath))
+				{
+					data.put(CLUSTERS+clname, clusterMap(Features.readAttributeMap(clPath)));
+					System.err.println("ModelBundle::write - "+clname+" clusters added: "+clPath);
+				}
+			}
+		}
+
+		// section table
+		ByteArrayOutputStream tableBytes = new ByteArrayOutputStream();
+		DataOutputStream table = new DataOutputStream(tableBytes);
+		for (String section : data.keySet())
+		{
+			writeString(table, section);
+			table.writeLong(0);
+			table.writeLong(0);
+		}
+		long offset = align(MAGIC.length + 8 + tableBytes.size());
+		tableBytes.reset();
+		for (Map.Entry<String, byte[]> section : data.entrySet())
+		{
+			writeString(table, section.getKey());
+			table.writeLong(offset);
+			table.writeLong(section.getValue().length);
+			offset = align(offset + section.getValue().length);
+		}
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.write(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(data.size());
+			table.flush();
+			tableBytes.writeTo(out);
+			long pos = MAGIC.length + 8 + tableBytes.size();
+			for (byte[] section : data.values())
+			{
+				for (; pos < align(pos); pos++)
+				{
+					out.write(0);
+				}
+				out.write(section);
+				pos += section.length;
+			}
+		}
+		System.err.println("ModelBundle::write - model bundle written: "+file+" (sections: "+data.keySet()+")");
+	}
+
+	private static void addLexicon (Map<String, byte[]> data, String lexicon, boolean used, String lexPath) throws IOException
+	{
+		if (!used)
+		{
+			return;
+		}
+		if (lexPath == null || !FileUtilsElh.checkFile(lexPath))
+		{
+			System.err.println("ModelBundle::write - WARNING: the model uses the "+lexicon+" polarity lexicon, but it could"
+					+ " not be read ("+lexPath+"). It must be given in the parameter file when using the bundle.");
+			return;
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		CompiledLexicon.write(new Lexicon(new File(lexPath), "lemma"), "lemma", bytes);
+		data.put(LEXICON+lexicon, bytes.toByteArray());
+		System.err.println("ModelBundle::write - "+lexicon+" polarity lexicon added: "+lexPath);
+	}
+
+	private static byte[] featureDictionary (Instances header) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		writeString(out, header.relationName());
+		out.writeInt(header.classIndex());
+		out.writeInt(header.numAttributes());
+		for (int i=0; i<header.numAttributes(); i++)
+		{
+			Attribute att = header.attribute(i);
+			if (att.isNumeric())
+			{
+				out.writeByte(NUMERIC);
+				writeString(out, att.name());
+			}
+			else if (att.isNominal())
+			{
+				out.writeByte(NOMINAL);
+				writeString(out, att.name());
+				out.writeInt(att.numValues());
+				for (int j=0; j<att.numValues(); j++)
+				{
+					writeString(out, att.value(j));
+				}
+			}
+			else if (att.isString())
+			{
+				out.writeByte(STRING);
+				writeString(out, att.name());
+			}
+			else
+			{
+				throw new IOException("ModelBundle::write - unsupported attribute type: "+att);
+			}
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private static byte[] clusterMap (Map<String, Integer> map) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(map.size());
+		for (Map.Entry<String, Integer> e : map.entrySet())
+		{
+			writeString(out, e.getKey());
+			out.writeInt(e.getValue());
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private static long align (long pos)
+	{
+		return (pos + 7) & ~7L;
+	}
+
+	private static void writeString (DataOutputStream out, String s) throws IOException
+	{
+		byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(b.length);
+		out.write(b);
+	}
+
+	private static String readString (ByteBuffer buf)
+	{
+		byte[] b = new byte[buf.getInt()];
+		buf.get(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * InputStream over a ByteBuffer, used to deserialize the classifier directly from the mapped file.
+	 */
+	private static class ByteBufferInputStream extends InputStream
+	{
+		private final ByteBuffer buf;
+
+		private ByteBufferInputStream (ByteBuffer buf)
+		{
+			this.buf = buf;
+		}
+
+		@Override
+		public int read ()
+		{
+			return buf.hasRemaining() ? (buf.get() & 0xff) : -1;
+		}
+
+		@Override
+		public int read (byte[] b, int off, int len)
+		{
+			if (len == 0)
+			{
+				return 0;
+			}
+			if (!buf.hasRemaining())
+			{
+				return -1;
+			}
+			int n = Math.min(len, buf.remaining());
+			buf.get(b, off, n);
+			return n;
+		}
+
+		@Override
+		public int available ()
+		{
+			return buf.remaining();
+		}
+	}
+}
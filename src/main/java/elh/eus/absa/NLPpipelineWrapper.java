@@ -20,9 +20,12 @@ This file is part of EliXa.
 package elh.eus.absa;
 
 import ixa.kaflib.KAFDocument;
+import ixa.kaflib.Term;
+import ixa.kaflib.WF;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
@@ -34,14 +37,20 @@ import java.io.OutputStreamWriter;
 import java.io.StringReader;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Properties;
 import java.util.regex.Pattern;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.text.StringEscapeUtils;
 import org.jdom2.JDOMException;
 
 /**
@@ -53,6 +62,12 @@ public final class NLPpipelineWrapper {
 	
 	
 	private static final String modelDir = "morph-models-1.5.0";
+	
+	/**
+	 * Token used to separate sentences tagged in a single eustagger call (see eustaggerCallBatch).
+	 */
+	public static final String EUSTAGGER_BOUNDARY = "ELIXADOCBOUNDARY";
+	private static final String BATCH_SEPARATOR = "\n\n";
 	private static final Properties defaultModels = new Properties();
 	static {
 		try {
@@ -76,30 +91,7 @@ public final class NLPpipelineWrapper {
 	 */
 	public static KAFDocument ixaPipesTok(String text, String lang, String savePath) throws IOException, JDOMException
 	{
-		// Regex added to correct ixa-pipes treatment of punctuation marks : 
-		// <wf id="w19" sent="1" para="1" offset="76" length="4">!!??</wf>
-		// <term id="t19" type="open" lemma="!!??" pos="N" morphofeat="NCMC000">
-		text = text.replaceAll("([!¡?¿])", "$1 ");	 //\p{Po} gets too many punctuation marks.
-		
-		
-		//kaf document to store tokenized text
-		KAFDocument kaf = new KAFDocument(lang, "v1.naf");
-		KAFDocument.LinguisticProcessor newLp = kaf.addLinguisticProcessor("text", "ixa-pipe-tok-"+lang, 
-				"v1.naf" + "-" + "elixa");
-		newLp.setBeginTimestamp();
-		// objects needed to call the tokenizer
-		BufferedReader breader = new BufferedReader(new StringReader(text));
-		Properties tokProp = setTokenizerProperties(lang, "default", "no", "no");		
-		
-		// tokenizer call
-		eus.ixa.ixa.pipe.tok.Annotate tokenizer = new eus.ixa.ixa.pipe.tok.Annotate(breader,tokProp);
-		tokenizer.tokenizeToKAF(kaf);
-		newLp.setEndTimestamp();
-		
-		breader.close();
-
-		System.err.println("NLPpipelineWrapper::ixaPipesTok - tokenizing ready");
-								
+		KAFDocument kaf = TokenizerSession.get(lang).tokenize(text);
 		kaf.save(savePath);	
 		
 		return kaf;		
@@ -116,31 +108,8 @@ public final class NLPpipelineWrapper {
 	 */
 	public static KAFDocument ixaPipesTok(String text, String lang) throws IOException, JDOMException
 	{
-		// Regex added to correct ixa-pipes treatment of punctuation marks : 
-		// <wf id="w19" sent="1" para="1" offset="76" length="4">!!??</wf>
-		// <term id="t19" type="open" lemma="!!??" pos="N" morphofeat="NCMC000">
-		text = text.replaceAll("([!¡?¿])", "$1 ");	 //\p{Po} gets too many punctuation marks.
-		
-		
-		//kaf document to store tokenized text
-		KAFDocument kaf = new KAFDocument(lang, "v1.naf");
-		KAFDocument.LinguisticProcessor newLp = kaf.addLinguisticProcessor("text", "ixa-pipe-tok-"+lang, 
-				"v1.naf" + "-" + "elixa");
-		newLp.setBeginTimestamp();
-		// objects needed to call the tokenizer
-		BufferedReader breader = new BufferedReader(new StringReader(text));
-		Properties tokProp = setTokenizerProperties(lang, "default", "no", "no");		
-		
-		// tokenizer call
-		eus.ixa.ixa.pipe.tok.Annotate tokenizer = new eus.ixa.ixa.pipe.tok.Annotate(breader,tokProp);
-		tokenizer.tokenizeToKAF(kaf);
-		newLp.setEndTimestamp();
-		
-		breader.close();
-
-		System.err.println("NLPpipelineWrapper::ixaPipesTok - tokenizing ready");
-								
-		return kaf;		
+		// tokenizer configuration is reused by each thread (see TokenizerSession).
+		return TokenizerSession.get(lang).tokenize(text);
 	}
 	
 	/**
@@ -162,23 +131,22 @@ public final class NLPpipelineWrapper {
 		//pos tagger parameters
 		if (! FileUtilsElh.checkFile(posModelPath))
 		{
-			System.err.println("NLPpipelineWrapper::ixaPipesPos() - provided pos model path is problematic, "
+			Log.warn("NLPpipelineWrapper::ixaPipesPos() - provided pos model path is problematic, "
 					+ "probably pos tagging will end up badly...");
 		}
 		if (! FileUtilsElh.checkFile(lemmaModelPath))
 		{
-			System.err.println("NLPpipelineWrapper::ixaPipesPos() - provided lemma model path is problematic, "
+			Log.warn("NLPpipelineWrapper::ixaPipesPos() - provided lemma model path is problematic, "
 					+ "probably pos tagging will end up badly...");
 		}
-		Properties posProp = setPostaggerProperties(posModelPath,lemmaModelPath,tokenizedKaf.getLang(), "false", "false");
-		//pos tagger call
-		eus.ixa.ixa.pipe.pos.Annotate postagger = new eus.ixa.ixa.pipe.pos.Annotate(posProp);
+		//pos tagger call. Taggers are loaded once per model (see PosTaggerRegistry).
+		eus.ixa.ixa.pipe.pos.Annotate postagger = PosTaggerRegistry.get(posModelPath, lemmaModelPath, tokenizedKaf.getLang());
 		posLp.setBeginTimestamp();		
 		//System.err.println(postagger.annotatePOSToCoNLL(tokenizedKaf));
 		postagger.annotatePOSToKAF(tokenizedKaf);
 		posLp.setEndTimestamp();
 
-		System.err.println("NLPpipelineWrapper::ixaPipesPos - pos tagging ready");
+		Log.debug("NLPpipelineWrapper::ixaPipesPos - pos tagging ready");
 
 		return tokenizedKaf;		
 	}
@@ -202,17 +170,16 @@ public final class NLPpipelineWrapper {
 		//pos tagger parameters
 		if (! FileUtilsElh.checkFile(posModelPath))
 		{
-			System.err.println("NLPpipelineWrapper::ixaPipesPos() - provided pos model path is problematic, "
+			Log.warn("NLPpipelineWrapper::ixaPipesPos() - provided pos model path is problematic, "
 					+ "probably pos tagging will end up badly...");
 		}
 		if (! FileUtilsElh.checkFile(lemmaModelPath))
 		{
-			System.err.println("NLPpipelineWrapper::ixaPipesPos() - provided lemma model path is problematic, "
+			Log.warn("NLPpipelineWrapper::ixaPipesPos() - provided lemma model path is problematic, "
 					+ "probably pos tagging will end up badly...");
 		}
-		Properties posProp = setPostaggerProperties(posModelPath,lemmaModelPath,tokenizedKaf.getLang(), "false", "false");
-		//pos tagger call
-		eus.ixa.ixa.pipe.pos.Annotate postagger = new eus.ixa.ixa.pipe.pos.Annotate(posProp);		
+		//pos tagger call. Taggers are loaded once per model (see PosTaggerRegistry).
+		eus.ixa.ixa.pipe.pos.Annotate postagger = PosTaggerRegistry.get(posModelPath, lemmaModelPath, tokenizedKaf.getLang());		
 		return (postagger.annotatePOSToCoNLL(tokenizedKaf));
 		
 		//System.err.println("NLPpipelineWrapper::ixaPipesPos - pos tagging ready");
@@ -238,7 +205,7 @@ public final class NLPpipelineWrapper {
 		postagger.annotatePOSToKAF(tokenizedKaf);
 		posLp.setEndTimestamp();
 
-		System.err.println("NLPpipelineWrapper::ixaPipesPos - pos tagging ready");
+		Log.debug("NLPpipelineWrapper::ixaPipesPos - pos tagging ready");
 
 		return tokenizedKaf;		
 	}
@@ -262,7 +229,7 @@ public final class NLPpipelineWrapper {
 		//pos tagger parameters
 		if (! FileUtilsElh.checkFile(nercModelPath))
 		{
-			System.err.println("NLPpipelineWrapper : ixaPipesPos() - provided pos model path is problematic, "
+			Log.warn("NLPpipelineWrapper : ixaPipesPos() - provided pos model path is problematic, "
 					+ "probably pos tagging will end up badly...");
 		}
 		Properties nercProp = setIxaPipesNERCProperties(nercModelPath,
@@ -362,7 +329,7 @@ public final class NLPpipelineWrapper {
 	 * @return Properties props
 	 * 
 	 */
-	private static Properties setTokenizerProperties(String language, String normalize, String untokenizable, String hardParagraph) {
+	static Properties setTokenizerProperties(String language, String normalize, String untokenizable, String hardParagraph) {
 		Properties props = new Properties();
 		props.setProperty("language", language);
 	    props.setProperty("normalize", normalize);
@@ -423,80 +390,298 @@ public final class NLPpipelineWrapper {
 		
 		
 		try {
-			if (taggerCommand.contains("ixa-pipe-pos-eu")) 
+			// persistent tagger processes (see TaggerPool), if configured.
+			TaggerPool pool = TaggerPool.get(taggerCommand);
+			long start = PipelineStage.start();
+			if (pool != null)
 			{
-				String[] command = { taggerCommand };
-				//System.err.println("ixa-pipe-pos-eu agindua: " + Arrays.toString(command));
-
-				ProcessBuilder eustBuilder = new ProcessBuilder().command(command);				
-				Process eustagger = eustBuilder.start();
-				
-				
-				OutputStreamWriter bw = new OutputStreamWriter(eustagger.getOutputStream());
-				bw.write(string + "\n");
-				bw.close();
-				
-				int success = eustagger.waitFor();
-				
-				// System.err.println("eustagger succesful? "+success);
-				if (success != 0) {
-					System.err.println("eustaggerCall: ixa-pipe-pos-eu error: "+fname);
+				String tagged = pool.tag(string);
+				PipelineStage.TAG.stop(start);
+				if (tagged == null)
+				{
+					Log.warn("eustaggerCall: tagger pool error: "+fname);
 					return 0;
-				} else {
-					String tagged = fname + ".kaf";
-					BufferedReader reader = new BufferedReader(new InputStreamReader(eustagger.getInputStream()));
-					
-					Files.copy(eustagger.getInputStream(), Paths.get(tagged));
-					return 1;
 				}
+				start = PipelineStage.start();
+				FileUtils.writeStringToFile(new File(fname + ".kaf"), tagged, "UTF-8");
+				PipelineStage.NAF_IO.stop(start);
+				return 1;
 			}
-			else {
-
-				File temp = new File(fname);
-				// System.err.println("eustaggerCall: created temp file:
-				// "+temp.getAbsolutePath());
-				BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), "UTF8"));
-				bw.write(string + "\n");
-				bw.close();
-
-				String[] command = { taggerCommand, temp.getName() };
-				System.err.println("Eustagger agindua: " + Arrays.toString(command));
-
-				ProcessBuilder eustBuilder = new ProcessBuilder().command(command);
-				eustBuilder.directory(new File(temp.getParent()));
-				// .redirectErrorStream(true);
-				Process eustagger = eustBuilder.start();
-				int success = eustagger.waitFor();
-				// System.err.println("eustagger succesful? "+success);
-				if (success != 0) {
-					System.err.println("eustaggerCall: eustagger error");
-					return 0;
-				} else {
-					String tagged = fname + ".kaf";
-					BufferedReader reader = new BufferedReader(new InputStreamReader(eustagger.getInputStream()));
-					// new Eustagger_lite outputs to stdout. Also called
-					// ixa-pipe-pos-eu
-					if (taggerCommand.contains("eustagger") || taggerCommand.contains("ixa-pipe-pos-eu")) {
-						Files.copy(eustagger.getInputStream(), Paths.get(tagged));
-					}
-					// old eustagger (euslem)
-					else {
-						FileUtilsElh.renameFile(temp.getAbsolutePath() + ".etiketatua3", tagged);
-					}
-				}
-				//
-				// delete all temporal files used in the process.
-				temp.delete();
+			
+			byte[] tagged = runEustagger(taggerCommand, string, fname);
+			PipelineStage.TAG.stop(start);
+			if (tagged == null)
+			{
+				return 0;
 			}
+			start = PipelineStage.start();
+			Files.write(Paths.get(fname + ".kaf"), tagged);
+			PipelineStage.NAF_IO.stop(start);
 		} catch (Exception e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			Log.error("eustaggerCall: error when tagging "+fname, e);
 			return 0;
 		}
 		
 		return 1;
 	}
 	
+	/**
+	 * Tag several sentences with a single eustagger call. Sentences are sent to the tagger separated by a 
+	 * boundary token (EUSTAGGER_BOUNDARY). The tagged output is parsed as a single kaf/naf document and split 
+	 * back at the word forms of that token (see splitTaggedBatch). A tagged file is written for each sentence 
+	 * (fname.kaf), as eustaggerCall does.
+	 * 
+	 * If the output can not be split into as many documents as sentences were sent (e.g., the tagger 
+	 * modified the boundary token) each sentence is tagged on its own with eustaggerCall. Sentences are also 
+	 * tagged one by one if a tagger pool is running for the tagger (see TaggerPool).
+	 * 
+	 * @param String taggerCommand : eustagger (or ixa-pipe-pos-eu) executable
+	 * @param List<String> sentences : sentences to tag
+	 * @param List<String> fnames : path (without extension) of the tagged file of each sentence 
+	 * @return int[] : eustaggerCall return codes, in the same order as the input sentences (1 = ok, 0 = error). 
+	 */
+	public static int[] eustaggerCallBatch(String taggerCommand, List<String> sentences, List<String> fnames)
+	{
+		int[] results = new int[sentences.size()];
+		if (sentences.isEmpty())
+		{
+			return results;
+		}
+		
+		List<KAFDocument> docs = null;
+		if (sentences.size() > 1 && TaggerPool.get(taggerCommand) == null)
+		{
+			StringBuilder sb = new StringBuilder();
+			for (String sentence : sentences)
+			{
+				if (sb.length() > 0)
+				{
+					sb.append(BATCH_SEPARATOR).append(EUSTAGGER_BOUNDARY).append(BATCH_SEPARATOR);
+				}
+				sb.append(sentence.replace(EUSTAGGER_BOUNDARY, " "));
+			}
+			try {
+				long start = PipelineStage.start();
+				byte[] tagged = runEustagger(taggerCommand, sb.toString(), fnames.get(0)+"_batch");
+				PipelineStage.TAG.stop(start);
+				if (tagged != null)
+				{
+					start = PipelineStage.start();
+					docs = splitTaggedBatch(tagged);
+					PipelineStage.NAF_IO.stop(start);
+				}
+			} catch (Exception e) {
+				Log.error("eustaggerCallBatch: error when tagging a batch of "+sentences.size()+" sentences", e);
+			}
+			if (docs == null || docs.size() != sentences.size())
+			{
+				Log.warn("eustaggerCallBatch: tagged output could not be split into "+sentences.size()
+						+" documents, sentences will be tagged one by one.");
+				docs = null;
+			}
+		}
+		
+		for (int i=0; i<sentences.size(); i++)
+		{
+			if (docs == null)
+			{
+				results[i] = eustaggerCall(taggerCommand, sentences.get(i), fnames.get(i));
+				continue;
+			}
+			try {
+				long start = PipelineStage.start();
+				FileUtils.writeStringToFile(new File(fnames.get(i) + ".kaf"), docs.get(i).toString(), "UTF-8");
+				PipelineStage.NAF_IO.stop(start);
+				results[i] = 1;
+			} catch (IOException ioe) {
+				Log.warn("eustaggerCallBatch: tagged file could not be written: "+fnames.get(i)+".kaf");
+				results[i] = 0;
+			}
+		}
+		return results;
+	}
+	
+	/**
+	 * Split the tagged output of a batch into a document per sentence, cutting it at the word forms of the 
+	 * boundary token. Offsets, sentence and paragraph numbers of each document are shifted so that they start 
+	 * as they would if the sentence had been tagged on its own. Only the text and terms layers are kept (the 
+	 * ones Elixa reads, see TaggedSentence), along with the linguistic processors of the header.
+	 * 
+	 * @param byte[] tagged : kaf/naf output of the tagger for the whole batch
+	 * @return List<KAFDocument> : a document per sentence, null if a term spans over a boundary.
+	 */
+	private static List<KAFDocument> splitTaggedBatch(byte[] tagged) throws IOException, JDOMException
+	{
+		KAFDocument batch = KAFDocument.createFromStream(new InputStreamReader(new ByteArrayInputStream(tagged), StandardCharsets.UTF_8));
+		List<KAFDocument> docs = new ArrayList<KAFDocument>();
+		KAFDocument doc = newBatchPart(batch);
+		docs.add(doc);
+		// word form copies by original id, and the document each one went to.
+		HashMap<String, WF> copies = new HashMap<String, WF>();
+		HashMap<String, KAFDocument> parts = new HashMap<String, KAFDocument>();
+		int start = 0;
+		Integer firstSent = null;
+		Integer firstPara = null;
+		Integer baseSent = null;
+		Integer basePara = null;
+		for (WF wf : batch.getWFs())
+		{
+			if (wf.getForm().equals(EUSTAGGER_BOUNDARY))
+			{
+				// the next sentence starts after the separator following the boundary token.
+				start = wf.getOffset() + EUSTAGGER_BOUNDARY.length() + BATCH_SEPARATOR.length();
+				firstSent = null;
+				doc = newBatchPart(batch);
+				docs.add(doc);
+				continue;
+			}
+			if (firstSent == null)
+			{
+				firstSent = wf.getSent();
+				firstPara = wf.getPara();
+				if (baseSent == null)
+				{
+					baseSent = firstSent;
+					basePara = firstPara;
+				}
+			}
+			WF copy = doc.newWF(wf.hasOffset() ? wf.getOffset() - start : wf.getOffset(), wf.getForm(), wf.getSent() - firstSent + baseSent);
+			copy.setLength(wf.getLength());
+			if (wf.getPara() != null && firstPara != null && basePara != null)
+			{
+				copy.setPara(wf.getPara() - firstPara + basePara);
+			}
+			copies.put(wf.getId(), copy);
+			parts.put(wf.getId(), doc);
+		}
+		
+		for (Term term : batch.getTerms())
+		{
+			KAFDocument part = null;
+			List<WF> span = new ArrayList<WF>();
+			boolean boundary = false;
+			for (WF wf : term.getWFs())
+			{
+				KAFDocument wfPart = parts.get(wf.getId());
+				if (wfPart == null)
+				{
+					boundary = true;
+				}
+				else if (part != null && part != wfPart)
+				{
+					return null;
+				}
+				else
+				{
+					part = wfPart;
+					span.add(copies.get(wf.getId()));
+				}
+			}
+			if (boundary && part != null)
+			{
+				return null;
+			}
+			// the term of the boundary token itself.
+			if (part == null)
+			{
+				continue;
+			}
+			Term copy = part.newTerm(KAFDocument.newWFSpan(span));
+			if (term.getType() != null) {copy.setType(term.getType());}
+			// kaflib escapes lemmas when writing but does not unescape them when reading.
+			if (term.getLemma() != null) {copy.setLemma(StringEscapeUtils.unescapeXml(term.getLemma()));}
+			if (term.getPos() != null) {copy.setPos(term.getPos());}
+			if (term.getMorphofeat() != null) {copy.setMorphofeat(term.getMorphofeat());}
+			if (term.getCase() != null) {copy.setCase(term.getCase());}
+		}
+		return docs;
+	}
+	
+	/**
+	 * @return KAFDocument : empty document with the language, version and linguistic processors of the batch.
+	 */
+	private static KAFDocument newBatchPart(KAFDocument batch)
+	{
+		KAFDocument part = new KAFDocument(batch.getLang(), batch.getVersion());
+		part.addLinguisticProcessors(batch.getLinguisticProcessors());
+		return part;
+	}
+	
+	/**
+	 * Run eustagger (or ixa-pipe-pos-eu) over the given text.
+	 * 
+	 * @param String taggerCommand : tagger executable
+	 * @param String text : text to tag
+	 * @param String fname : path of the temporal input file (eustagger and euslem need their input in a file). 
+	 * @return byte[] : tagger output, null if the tagger ended with an error. 
+	 */
+	private static byte[] runEustagger(String taggerCommand, String text, String fname) throws IOException, InterruptedException
+	{
+		if (taggerCommand.contains("ixa-pipe-pos-eu")) 
+		{
+			String[] command = { taggerCommand };
+			//System.err.println("ixa-pipe-pos-eu agindua: " + Arrays.toString(command));
+
+			ProcessBuilder eustBuilder = new ProcessBuilder().command(command);				
+			Process eustagger = eustBuilder.start();
+
+			OutputStreamWriter bw = new OutputStreamWriter(eustagger.getOutputStream());
+			bw.write(text + "\n");
+			bw.close();
+
+			// output is read before waiting for the process, otherwise big outputs would fill the pipe.
+			byte[] tagged = IOUtils.toByteArray(eustagger.getInputStream());
+			int success = eustagger.waitFor();
+
+			// System.err.println("eustagger succesful? "+success);
+			if (success != 0) {
+				Log.warn("eustaggerCall: ixa-pipe-pos-eu error: "+fname);
+				return null;
+			}
+			return tagged;
+		}
+		
+		File temp = new File(fname);
+		// System.err.println("eustaggerCall: created temp file:
+		// "+temp.getAbsolutePath());
+		BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), "UTF8"));
+		bw.write(text + "\n");
+		bw.close();
+
+		try {
+			String[] command = { taggerCommand, temp.getName() };
+			if (Log.isDebugEnabled())
+			{
+				Log.debug("Eustagger agindua: " + Arrays.toString(command));
+			}
+
+			ProcessBuilder eustBuilder = new ProcessBuilder().command(command);
+			eustBuilder.directory(new File(temp.getAbsoluteFile().getParent()));
+			// .redirectErrorStream(true);
+			Process eustagger = eustBuilder.start();
+			byte[] tagged = IOUtils.toByteArray(eustagger.getInputStream());
+			int success = eustagger.waitFor();
+			// System.err.println("eustagger succesful? "+success);
+			if (success != 0) {
+				Log.warn("eustaggerCall: eustagger error: "+fname);
+				return null;
+			}
+			// new Eustagger_lite outputs to stdout. Also called
+			// ixa-pipe-pos-eu
+			if (taggerCommand.contains("eustagger")) {
+				return tagged;
+			}
+			// old eustagger (euslem)
+			File etiketatua = new File(temp.getAbsolutePath() + ".etiketatua3");
+			tagged = Files.readAllBytes(etiketatua.toPath());
+			etiketatua.delete();
+			return tagged;
+		} finally {
+			// delete all temporal files used in the process.
+			temp.delete();
+		}
+	}
+	
 	
 	/**
 	 *  Process linguistically input sentence with ixa-pipes (tokenization and PoS tagging).
@@ -537,8 +722,12 @@ public final class NLPpipelineWrapper {
 		else
 		{
 			//System.err.println("NLPpipelineWrapper::tagSentence - ixa-pipe");
+			long start = PipelineStage.start();
 			kafinst = ixaPipesTokPos(input, lang, posModel, postagger);
+			PipelineStage.TAG.stop(start);
+			start = PipelineStage.start();
 			kafinst.save(savePathNoExt+".kaf");										
+			PipelineStage.NAF_IO.stop(start);
 		}
 		return 1;
 	}
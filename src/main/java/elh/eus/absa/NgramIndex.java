@@ -0,0 +1,308 @@
+/*
+ * Copyright 2014 Elhuyar Fundazioa
+
+This file is part of EliXa.
+
+    EliXa is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    EliXa is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with EliXa.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elh.eus.absa;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Feature index lookup for n-grams that does not need to build the n-gram feature name.
+ *
+ * N-gram feature names are built as "PREFIX_tok1_tok2_..._tokn" (lowercased). Instead of building that
+ * string for every n-gram in a window, a 64-bit hash (FNV-1a) of the characters of the name is computed
+ * incrementally, token by token, and looked up in an open addressing table built from the feature set.
+ * Hits are verified against the feature name stored in the feature vocabulary, so the resulting indexes are
+ * exactly those of the string keys.
+ *
+ * The object is immutable once built, and can be shared by several threads as long as the feature 
+ * vocabulary is not modified.
+ *
+ * @author isanvi
+ *
+ */
+public class NgramIndex {
+
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	// lowercasing is context dependent for these locales, so tokens can not be lowercased one by one.
+	private static final boolean CONTEXT_LOWERCASE = Arrays.asList("tr","az","lt").contains(Locale.getDefault().getLanguage());
+
+	private Vocabulary features;
+	private long[] hashes;
+	private int[] values;
+	//feature vocabulary entry of each slot
+	private int[] entries;
+	private int mask;
+
+	/**
+	 * Constructor
+	 *
+	 * @param Vocabulary features : feature name -> feature index map (Features attIndexes).
+	 */
+	public NgramIndex (Vocabulary features)
+	{
+		this.features = features;
+		int capacity = 16;
+		while (capacity < features.size()*2)
+		{
+			capacity <<= 1;
+		}
+		mask = capacity - 1;
+		hashes = new long[capacity];
+		values = new int[capacity];
+		entries = new int[capacity];
+		Arrays.fill(values, -1);
+		for (int id=0; id<features.size(); id++)
+		{
+			long h = FNV_OFFSET;
+			for (int i=0; i<features.keyLength(id); i++)
+			{
+				h = hash(h, features.charAt(id, i));
+			}
+			int slot = (int) (mix(h) & mask);
+			while (values[slot] != -1)
+			{
+				slot = (slot + 1) & mask;
+			}
+			hashes[slot] = h;
+			values[slot] = features.getValue(id);
+			entries[slot] = id;
+		}
+	}
+
+	/**
+	 * Feature name prefix corresponding to each n-gram type.
+	 *
+	 * @param String type : (chr|wf|lemma|pos|"") or any other prefix.
+	 * @return String prefix
+	 */
+	public static String prefix (String type)
+	{
+		switch (type)
+		{
+		case "chr": return "CHR_";
+		case "wf": return "WF_";
+		case "lemma": return "LEM_";
+		case "pos":	return "POS_";
+		case "" : return "";
+		default: return type+"_";
+		}
+	}
+
+	/**
+	 * Build the feature name of an n-gram: "PREFIX_tok1_..._tokn", lowercased.
+	 *
+	 * @param List<String> feat : n-gram tokens
+	 * @param String type : n-gram type (see prefix())
+	 * @return String feature name
+	 */
+	public static String key (List<String> feat, String type)
+	{
+		String prefix = prefix(type);
+		StringBuilder sb = new StringBuilder(prefix.length() + feat.size()*8);
+		sb.append(prefix);
+		boolean first = true;
+		for (String tok : feat)
+		{
+			if (isSpecial(tok))
+			{
+				return prefix + legacyKey(feat);
+			}
+			if (!first)
+			{
+				sb.append('_');
+			}
+			sb.append(tok.toLowerCase());
+			first = false;
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Whether the name of an n-gram containing the token can not be built token by token:
+	 *  - feature names were historically built from the list's toString() by replacing ", " with "_", 
+	 *    which also affects tokens containing ", ".
+	 *  - Lowercasing of greek capital sigma depends on the surrounding characters (final sigma).
+	 */
+	private static boolean isSpecial (String tok)
+	{
+		return CONTEXT_LOWERCASE || (tok.indexOf(", ") >= 0) || (tok.indexOf('\u03a3') >= 0);
+	}
+
+	private static String legacyKey (List<String> feat)
+	{
+		return Arrays.asList(feat.toArray()).toString().replaceAll("(^\\[|\\]$)", "").replace(", ", "_").toLowerCase();
+	}
+
+	/**
+	 * Feature index of the n-gram formed by all the tokens in the list.
+	 *
+	 * @param String type : n-gram type (see prefix())
+	 * @param List<String> ngram : n-gram tokens
+	 * @return int feature index, or -1 if the n-gram is not a feature.
+	 */
+	public int get (String type, List<String> ngram)
+	{
+		String prefix = prefix(type);
+		long h = hash(FNV_OFFSET, prefix);
+		int n = 0;
+		for (String tok : ngram)
+		{
+			if (isSpecial(tok))
+			{
+				return get(key(ngram, type));
+			}
+			if (n > 0)
+			{
+				h = hash(h, '_');
+			}
+			h = hash(h, tok.toLowerCase());
+			n++;
+		}
+		return find(h, prefix, ngram, n);
+	}
+
+	/**
+	 * Feature index of a feature name.
+	 *
+	 * @param String name : feature name
+	 * @return int feature index, or -1 if the name is not a feature.
+	 */
+	public int get (String name)
+	{
+		return features.get(name);
+	}
+
+	/**
+	 * Add 'value' to the feature vector positions of all the n-grams starting at the first token of the list
+	 * with at least minSize tokens (i.e., the sublists [0,minSize), [0,minSize+1) ... [0,size)).
+	 * Hashes are computed incrementally, so no n-gram name is built.
+	 *
+	 * @param String type : n-gram type (see prefix())
+	 * @param List<String> ngrams : token window
+	 * @param int minSize : minimum n-gram length
+	 * @param FeatureVector fVector : feature vector to update
+	 * @param double value : value to add
+	 */
+	public void addPrefixNgrams (String type, List<String> ngrams, int minSize, FeatureVector fVector, double value)
+	{
+		String prefix = prefix(type);
+		long h = hash(FNV_OFFSET, prefix);
+		int n = 0;
+		for (Iterator<String> it = ngrams.iterator(); it.hasNext();)
+		{
+			String tok = it.next();
+			if (isSpecial(tok))
+			{
+				// rare tokens with legacy names: fall back to string keys for the remaining n-grams.
+				for (int i=Math.max(n, minSize-1); i<ngrams.size(); i++)
+				{
+					int ind = get(key(ngrams.subList(0, i+1), type));
+					if (ind >= 0)
+					{
+						fVector.add(ind, value);
+					}
+				}
+				return;
+			}
+			if (n > 0)
+			{
+				h = hash(h, '_');
+			}
+			h = hash(h, tok.toLowerCase());
+			n++;
+			if (n >= minSize)
+			{
+				int ind = find(h, prefix, ngrams, n);
+				if (ind >= 0)
+				{
+					fVector.add(ind, value);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Look for a hash in the table and verify that the stored name corresponds to the first n tokens.
+	 */
+	private int find (long h, String prefix, List<String> tokens, int n)
+	{
+		int slot = (int) (mix(h) & mask);
+		while (values[slot] != -1)
+		{
+			if (hashes[slot] == h && matches(entries[slot], prefix, tokens, n))
+			{
+				return values[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	private boolean matches (int entry, String prefix, List<String> tokens, int n)
+	{
+		if (!features.regionMatches(entry, 0, prefix))
+		{
+			return false;
+		}
+		int offset = prefix.length();
+		int i = 0;
+		for (Iterator<String> it = tokens.iterator(); it.hasNext() && i < n; i++)
+		{
+			String tok = it.next().toLowerCase();
+			if (i > 0)
+			{
+				if (offset >= features.keyLength(entry) || features.charAt(entry, offset) != '_')
+				{
+					return false;
+				}
+				offset++;
+			}
+			if (!features.regionMatches(entry, offset, tok))
+			{
+				return false;
+			}
+			offset += tok.length();
+		}
+		return offset == features.keyLength(entry);
+	}
+
+	private static long hash (long h, String s)
+	{
+		for (int i=0; i<s.length(); i++)
+		{
+			h = hash(h, s.charAt(i));
+		}
+		return h;
+	}
+
+	private static long hash (long h, char c)
+	{
+		return (h ^ c) * FNV_PRIME;
+	}
+
+	private static long mix (long h)
+	{
+		return h ^ (h >>> 32);
+	}
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2014 Elhuyar Fundazioa
+
+This file is part of EliXa.
+
+    EliXa is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    EliXa is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with EliXa.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elh.eus.absa;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Memo cache of non-standard word corrections (e.g. feoooo -> feo), used by MicroTextNormalizer.
+ *
+ * The cache is safe to use from concurrent threads and its size is bounded: entries are split into
+ * segments by hash, each segment is an LRU map guarded by its own lock, and the least recently used
+ * entry of a segment is evicted when the segment is full. Hits, misses and evictions are counted in the
+ * process wide metrics of all the caches (elixa_normalization_cache_*_total, see Metrics).
+ *
+ * @author isanvi
+ *
+ */
+public class NormalizationCache {
+
+	public static final int DEFAULT_SIZE = 100000;
+
+	private static final int SEGMENTS = 16;
+
+	private final Segment[] segments;
+	private final int maxSize;
+
+	private static final Metrics.Counter hitsTotal = Metrics.counter("elixa_normalization_cache_hits_total",
+			"Non-standard word correction cache hits.");
+	private static final Metrics.Counter missesTotal = Metrics.counter("elixa_normalization_cache_misses_total",
+			"Non-standard word correction cache misses.");
+	private static final Metrics.Counter evictionsTotal = Metrics.counter("elixa_normalization_cache_evictions_total",
+			"Non-standard word correction cache evictions.");
+
+	/**
+	 * LRU map of a segment of the cache.
+	 */
+	private class Segment extends LinkedHashMap<String, String>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final int capacity;
+
+		private Segment (int capacity)
+		{
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry (Map.Entry<String, String> eldest)
+		{
+			if (size() > capacity)
+			{
+				evictionsTotal.inc();
+				return true;
+			}
+			return false;
+		}
+	}
+
+	public NormalizationCache ()
+	{
+		this(DEFAULT_SIZE);
+	}
+
+	/**
+	 * @param int maxSize : maximum number of entries (0 = no caching).
+	 */
+	public NormalizationCache (int maxSize)
+	{
+		this.maxSize = Math.max(maxSize, 0);
+		// segment capacities add up to maxSize.
+		int n = Math.max(Math.min(SEGMENTS, this.maxSize), 1);
+		segments = new Segment[n];
+		for (int i=0; i<n; i++)
+		{
+			segments[i] = new Segment(this.maxSize / n + ((i < this.maxSize % n) ? 1 : 0));
+		}
+	}
+
+	private Segment segment (String key)
+	{
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return segments[Math.floorMod(h, segments.length)];
+	}
+
+	/**
+	 * @param String word : word to look up.
+	 * @return String : cached correction of the word, or null if the word is not in the cache.
+	 */
+	public String get (String word)
+	{
+		Segment s = segment(word);
+		String result;
+		synchronized (s)
+		{
+			result = s.get(word);
+		}
+		if (result == null)
+		{
+			missesTotal.inc();
+		}
+		else
+		{
+			hitsTotal.inc();
+		}
+		return result;
+	}
+
+	/**
+	 * @param String word : word to store.
+	 * @param String correction : standard form of the word.
+	 */
+	public void put (String word, String correction)
+	{
+		if (maxSize == 0)
+		{
+			return;
+		}
+		Segment s = segment(word);
+		synchronized (s)
+		{
+			s.put(word, correction);
+		}
+	}
+
+	public int size ()
+	{
+		int size = 0;
+		for (Segment s : segments)
+		{
+			synchronized (s)
+			{
+				size += s.size();
+			}
+		}
+		return size;
+	}
+
+	public int getMaxSize ()
+	{
+		return maxSize;
+	}
+
+	/**
+	 * Remove all entries.
+	 */
+	public void clear ()
+	{
+		for (Segment s : segments)
+		{
+			synchronized (s)
+			{
+				s.clear();
+			}
+		}
+	}
+
+	@Override
+	public String toString ()
+	{
+		return "size "+size()+"/"+maxSize;
+	}
+}
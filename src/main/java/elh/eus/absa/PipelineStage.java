@@ -0,0 +1,121 @@
+/*
+ * Copyright 2014 Elhuyar Fundazioa
+
+This file is part of EliXa.
+
+    EliXa is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    EliXa is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with EliXa.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elh.eus.absa;
+
+/**
+ * Stages of the document classification pipeline, and the time spent in each of them since the
+ * process started (or since the last reset()):
+ *    read : parsing the input corpus (CorpusReader).
+ *    normalize : micro-text normalization of the sentences before tagging.
+ *    tag : tokenization and PoS tagging (ixa-pipes or external taggers).
+ *    naf-io : writing and reading tagged sentences (NAF files, tagged corpus stores).
+ *    vectorize : computation of the feature vectors.
+ *    classify : classification of the feature vectors.
+ *
+ * Timers are cheap (System.nanoTime) and safe to use from concurrent threads. Times of stages run
+ * by several threads at once are added up, so they may be longer than the elapsed time. Each stage is
+ * also exported as a timer (elixa_STAGE_seconds) of the metrics registry (see Metrics).
+ *
+ * Usage: long start = PipelineStage.start(); ...; PipelineStage.TAG.stop(start);
+ *
+ * @author isanvi
+ *
+ */
+public enum PipelineStage {
+
+	READ("read", "Corpus reading time per corpus (batch)."),
+	NORMALIZE("normalize", "Micro-text normalization time per sentence."),
+	TAG("tag", "Tagging latency per tagger call."),
+	NAF_IO("naf-io", "Time per tagged document write or read."),
+	VECTORIZE("vectorize", "Feature vector computation time per instance."),
+	CLASSIFY("classify", "Classifier latency per instance.");
+
+	private final String label;
+	private final Metrics.Timer timer;
+
+	private PipelineStage (String label, String help)
+	{
+		this.label = label;
+		this.timer = Metrics.timer("elixa_"+label.replace('-', '_')+"_seconds", help);
+	}
+
+	/**
+	 * @return long : start time to pass to stop().
+	 */
+	public static long start ()
+	{
+		return System.nanoTime();
+	}
+
+	/**
+	 * Add the time elapsed since the given start time to this stage.
+	 *
+	 * @param long start : value returned by start()
+	 */
+	public void stop (long start)
+	{
+		timer.stop(start);
+	}
+
+	public String getLabel ()
+	{
+		return label;
+	}
+
+	/**
+	 * @return long : nanoseconds spent in this stage.
+	 */
+	public long getNanos ()
+	{
+		return (long) (timer.getSum()*1e9);
+	}
+
+	/**
+	 * @return long : number of times this stage was timed.
+	 */
+	public long getCount ()
+	{
+		return timer.getCount();
+	}
+
+	/**
+	 * Reset the timers of all stages.
+	 */
+	public static void resetAll ()
+	{
+		for (PipelineStage stage : values())
+		{
+			stage.timer.reset();
+		}
+	}
+
+	/**
+	 * @return String : one line per stage with its total time (seconds) and number of calls.
+	 */
+	public static String report ()
+	{
+		StringBuilder sb = new StringBuilder();
+		for (PipelineStage stage : values())
+		{
+			sb.append(String.format("%-10s %10.3f s %12d calls%n", stage.label, stage.getNanos()/1e9, stage.getCount()));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2014 Elhuyar Fundazioa
+
+This file is part of EliXa.
+
+    EliXa is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    EliXa is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with EliXa.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elh.eus.absa;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Polarity lexicon lookup for feature extraction. The general and domain polarity lexicons are merged in
+ * a single table, where each entry stores, for each lexicon:
+ *   - the positive and negative scores, both for the plain word and for the word with a modifier prefix
+ *     (SHI_|INT_|WEA_).
+ *   - the index of the polarity n-gram features (polgen_|poldom_ + word, with and without modifier prefix),
+ *     -1 if the feature does not exist.
+ *
+ * Scores of words with a modifier prefix are computed as Features.checkPolarityLexicons always did, so that
+ * existing models get the same feature values: the modifier is taken from the second group of the
+ * (SHI|INT|WEA)_(.*)$ pattern, which is the word itself, not the prefix. Hence the prefix does not change
+ * the scores (e.g., INT_good scores as good), except for the words "INT", "WEA" and "SHI" themselves.
+ *
+ * Thus, the polarity lexicon features of an n-gram cost a single hash lookup. The object is immutable once
+ * built, and can be shared by several threads as long as the lexicons and the feature vocabulary are not modified.
+ *
+ * @author isanvi
+ *
+ */
+public class PolarityLexiconIndex {
+
+	private static final int GEN = 0;
+	private static final int DOM = 1;
+
+	private static final String[] MODIFIERS = {"SHI_", "INT_", "WEA_"};
+
+	private Map<String, Entry> entries = new HashMap<String, Entry>();
+
+	// polLexGen|polLexDom score feature indexes.
+	private int[] posScoreIndex = new int[2];
+	private int[] negScoreIndex = new int[2];
+
+	/**
+	 * Scores and feature indexes of a lexicon entry.
+	 */
+	private static class Entry
+	{
+		private boolean[] in = new boolean[2];
+		// [lexicon][0 = plain word | 1 = word with modifier prefix]
+		private double[][] pos = new double[2][2];
+		private double[][] neg = new double[2][2];
+		// [lexicon][0 = plain word | 1 = SHI_ | 2 = INT_ | 3 = WEA_]
+		private int[][] feature = new int[2][4];
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param Lexicon general : general polarity lexicon (may be null)
+	 * @param Lexicon domain : domain polarity lexicon (may be null)
+	 * @param Vocabulary features : feature name -> feature index map (Features attIndexes).
+	 */
+	public PolarityLexiconIndex (Lexicon general, Lexicon domain, Vocabulary features)
+	{
+		addLexicon(GEN, general, "polLexGen", "polgen_", features);
+		addLexicon(DOM, domain, "polLexDom", "poldom_", features);
+	}
+
+	private void addLexicon (int lex, Lexicon lexicon, String scorePrefix, String ngramPrefix, Vocabulary features)
+	{
+		if (lexicon == null || lexicon.size() == 0)
+		{
+			return;
+		}
+		// -1 if the features do not exist (see Vocabulary.get).
+		posScoreIndex[lex] = features.get(scorePrefix+"_posScore");
+		negScoreIndex[lex] = features.get(scorePrefix+"_negScore");
+		for (String key : lexicon.getEntrySet())
+		{
+			Entry entry = entries.get(key);
+			if (entry == null)
+			{
+				entry = new Entry();
+				entries.put(key, entry);
+			}
+			Lexicon.Polarity pol = lexicon.getPolarity(key);
+			entry.in[lex] = true;
+			entry.pos[lex][0] = pol.getPositiveScore();
+			entry.neg[lex][0] = pol.getNegativeScore();
+
+			// modifier treatment. As in Features.checkPolarityLexicons, the modifier is read from
+			// group 2 of the (SHI|INT|WEA)_(.*)$ pattern, which is the word and not the prefix (see class doc).
+			double modIndex = 1;
+			boolean shift = false;
+			switch (key)
+			{
+			case "INT":	modIndex=1.5; break;
+			case "WEA": modIndex=0.5; break;
+			case "SHI": shift=true; break;
+			}
+			double posScore = pol.getPositiveScore()*modIndex;
+			double negScore = pol.getNegativeScore()*modIndex;
+			// if word polarity balance is positive invert polarities P>N N>P
+			if (shift && posScore-negScore>0)
+			{
+				double b = negScore;
+				negScore = posScore;
+				posScore = b;
+			}
+			else if (shift && posScore-negScore<0)
+			{
+				// general lexicon: N>P ; domain lexicon: polarity is nullified
+				posScore = (lex == GEN) ? negScore : 0;
+				negScore = 0;
+			}
+			entry.pos[lex][1] = posScore;
+			entry.neg[lex][1] = negScore;
+
+			entry.feature[lex][0] = features.get(ngramPrefix+key);
+			for (int m=0; m<MODIFIERS.length; m++)
+			{
+				entry.feature[lex][m+1] = features.get(ngramPrefix+MODIFIERS[m]+key);
+			}
+		}
+	}
+
+	/**
+	 * @param String wrd : word/lemma/ngram
+	 * @return int : 0 if the word has no modifier prefix, otherwise the modifier (1 = SHI_ | 2 = INT_ | 3 = WEA_).
+	 *               Hand-written equivalent of matching the "(SHI|INT|WEA)_(.*)$" pattern.
+	 */
+	private static int modifier (String wrd)
+	{
+		if (wrd.length() < 4 || wrd.charAt(3) != '_')
+		{
+			return 0;
+		}
+		int m = 0;
+		while (m < MODIFIERS.length && !wrd.startsWith(MODIFIERS[m]))
+		{
+			m++;
+		}
+		if (m == MODIFIERS.length)
+		{
+			return 0;
+		}
+		// '.' does not match line terminators
+		for (int i=4; i<wrd.length(); i++)
+		{
+			char c = wrd.charAt(i);
+			if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029')
+			{
+				return 0;
+			}
+		}
+		return m+1;
+	}
+
+	/**
+	 * Check if the given word/lemma/ngram exists in the general or domain polarity lexicons, and if yes
+	 * update the corresponding attributes in the feature vector.
+	 *
+	 * @param String wrd :  word/lemma/ngram to look for in the polarity lexicons
+	 * @param FeatureVector fVector : feature vector that should be updated
+	 * @param int tokNum : number of tokens of the sentence (scores are normalized by it)
+	 * @param boolean ngrams : whether polarity n-gram features should be activated
+	 */
+	public void add (String wrd, FeatureVector fVector, int tokNum, boolean ngrams)
+	{
+		int mod = modifier(wrd);
+		Entry entry = entries.get((mod == 0) ? wrd : wrd.substring(4));
+		if (entry == null)
+		{
+			return;
+		}
+		int variant = (mod == 0) ? 0 : 1;
+		for (int lex=GEN; lex<=DOM; lex++)
+		{
+			if (entry.in[lex])
+			{
+				// features missing from the feature set (index -1) are skipped.
+				if (posScoreIndex[lex] >= 0)
+				{
+					fVector.add(posScoreIndex[lex], (entry.pos[lex][variant]/(double)tokNum));
+				}
+				if (negScoreIndex[lex] >= 0)
+				{
+					fVector.add(negScoreIndex[lex], (entry.neg[lex][variant]/(double)tokNum));
+				}
+				if (ngrams && entry.feature[lex][mod] >= 0)
+				{
+					fVector.add(entry.feature[lex][mod], 1);
+				}
+			}
+		}
+	}
+
+	public int size ()
+	{
+		return entries.size();
+	}
+}
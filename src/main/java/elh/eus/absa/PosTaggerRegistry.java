@@ -0,0 +1,79 @@
+/*
+ * Copyright 2014 Elhuyar Fundazioa
+
+This file is part of EliXa.
+
+    EliXa is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    EliXa is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with EliXa.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elh.eus.absa;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Registry of ixa-pipe PoS tagger / lemmatizer objects, keyed by (pos model, lemma model, language).
+ * Each tagger is loaded once and reused for all the sentences tagged with the same models, instead of
+ * deserializing the models for every sentence.
+ *
+ * ixa-pipe postagger objects are not thread safe, so taggers are thread confined: get() returns the tagger
+ * of the calling thread, loading it the first time that thread asks for it.
+ *
+ * @author isanvi
+ *
+ */
+public final class PosTaggerRegistry {
+
+	private static final ThreadLocal<Map<String, eus.ixa.ixa.pipe.pos.Annotate>> taggers = new ThreadLocal<Map<String, eus.ixa.ixa.pipe.pos.Annotate>>() {
+		@Override
+		protected Map<String, eus.ixa.ixa.pipe.pos.Annotate> initialValue() {
+			return new HashMap<String, eus.ixa.ixa.pipe.pos.Annotate>();
+		}
+	};
+
+	private PosTaggerRegistry ()
+	{
+	}
+
+	/**
+	 * @param String posModel : path to the pos model (or "default")
+	 * @param String lemmaModel : path to the lemma model (or "default")
+	 * @param String lang : language (ISO-639 code)
+	 * @return eus.ixa.ixa.pipe.pos.Annotate : postagger of the calling thread for the given models.
+	 * @throws IOException if the models can not be loaded.
+	 */
+	public static eus.ixa.ixa.pipe.pos.Annotate get (String posModel, String lemmaModel, String lang) throws IOException
+	{
+		String key = posModel+"\t"+lemmaModel+"\t"+lang;
+		Map<String, eus.ixa.ixa.pipe.pos.Annotate> threadTaggers = taggers.get();
+		eus.ixa.ixa.pipe.pos.Annotate postagger = threadTaggers.get(key);
+		if (postagger == null)
+		{
+			Properties posProp = NLPpipelineWrapper.setPostaggerProperties(posModel, lemmaModel, lang, "false", "false");
+			postagger = new eus.ixa.ixa.pipe.pos.Annotate(posProp);
+			threadTaggers.put(key, postagger);
+		}
+		return postagger;
+	}
+
+	/**
+	 * Release the taggers loaded by the calling thread.
+	 */
+	public static void clear ()
+	{
+		taggers.remove();
+	}
+}
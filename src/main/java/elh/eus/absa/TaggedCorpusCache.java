@@ -0,0 +1,264 @@
+/*
+ * Copyright 2014 Elhuyar Fundazioa
+
+This file is part of EliXa.
+
+    EliXa is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    EliXa is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with EliXa.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elh.eus.absa;
+
+import ixa.kaflib.KAFDocument;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-memory cache of tagged documents, keyed by sentence id. Documents are stored in their compact form
+ * (TaggedSentence), so that tagged files are parsed only once per run and shared by all feature extraction passes.
+ *
+ * The cache has a memory budget; when it is exceeded the least recently used documents are evicted. If a spill
+ * directory is given, evicted documents are written there in binary form, which is much cheaper to read back
+ * than the original kaf/naf file.
+ *
+ * The cache can be shared by concurrent workers. Documents which are not in memory are read and parsed
+ * without holding the cache lock, so workers only wait for each other to look up and store documents.
+ *
+ * @author isanvi
+ *
+ */
+public class TaggedCorpusCache {
+
+	private LinkedHashMap<String, TaggedSentence> cache = new LinkedHashMap<String, TaggedSentence>(1024, 0.75f, true);
+	private String nafDir;
+	// tagged corpus store of nafDir, opened once (null if nafDir is a directory of tagged files).
+	private TaggedCorpusStore store;
+	private String spillDir;
+	private long budget;
+	private long used;
+
+	// process wide counters of all the caches (see Metrics)
+	private static final Metrics.Counter hitsTotal = Metrics.counter("elixa_tagged_cache_hits_total",
+			"Tagged document cache hits.");
+	private static final Metrics.Counter missesTotal = Metrics.counter("elixa_tagged_cache_misses_total",
+			"Tagged document cache misses (documents read from disk).");
+
+	/**
+	 * Constructor
+	 *
+	 * @param String nafDir : directory where tagged (kaf/naf) files are stored, or path to a tagged corpus store.
+	 * @param long budget : memory budget in bytes. 0 means no document is kept in memory.
+	 * @param String spillDir : directory to write evicted documents to. null means no disk spill.
+	 */
+	public TaggedCorpusCache (String nafDir, long budget, String spillDir)
+	{
+		this.nafDir = nafDir;
+		if (TaggedCorpusStore.isStore(nafDir))
+		{
+			try {
+				this.store = TaggedCorpusStore.open(nafDir);
+			} catch (IOException ioe) {
+				Log.error("TaggedCorpusCache - tagged corpus store could not be opened: "+nafDir, ioe);
+			}
+		}
+		this.budget = budget;
+		this.spillDir = spillDir;
+		if (spillDir != null)
+		{
+			new File(spillDir).mkdirs();
+		}
+	}
+
+	/**
+	 * Return the tagged document for the given sentence id. If it is not in memory it is read from the 
+	 * tagged corpus store, the spill directory or the kaf/naf file in nafDir.
+	 *
+	 * @param String sId : sentence id
+	 * @return TaggedSentence
+	 * @throws IOException if the tagged file does not exist, is empty or can not be parsed.
+	 */
+	public TaggedSentence get (String sId) throws IOException
+	{
+		synchronized (this)
+		{
+			TaggedSentence ts = cache.get(sId);
+			if (ts != null)
+			{
+				hitsTotal.inc();
+				return ts;
+			}
+			missesTotal.inc();
+		}
+		long start = PipelineStage.start();
+		TaggedSentence ts = load(sId);
+		PipelineStage.NAF_IO.stop(start);
+		synchronized (this)
+		{
+			// another worker may have loaded the same document meanwhile.
+			TaggedSentence loaded = cache.get(sId);
+			if (loaded != null)
+			{
+				return loaded;
+			}
+			put(sId, ts);
+		}
+		return ts;
+	}
+
+	/**
+	 * Store a tagged document in the cache, evicting least recently used ones if the budget is exceeded.
+	 *
+	 * @param String sId : sentence id
+	 * @param TaggedSentence ts
+	 */
+	public synchronized void put (String sId, TaggedSentence ts)
+	{
+		TaggedSentence prev = cache.put(sId, ts);
+		if (prev != null)
+		{
+			used -= prev.estimateSize();
+		}
+		used += ts.estimateSize();
+
+		Iterator<Map.Entry<String, TaggedSentence>> it = cache.entrySet().iterator();
+		while (used > budget && it.hasNext())
+		{
+			Map.Entry<String, TaggedSentence> eldest = it.next();
+			spill(eldest.getKey(), eldest.getValue());
+			used -= eldest.getValue().estimateSize();
+			it.remove();
+		}
+	}
+
+	/**
+	 * Remove a document from the cache (e.g., when its tagged file is regenerated).
+	 *
+	 * @param String sId : sentence id
+	 */
+	public synchronized void remove (String sId)
+	{
+		TaggedSentence ts = cache.remove(sId);
+		if (ts != null)
+		{
+			used -= ts.estimateSize();
+		}
+		if (spillDir != null)
+		{
+			spillFile(sId).delete();
+		}
+	}
+
+	public String getNafDir ()
+	{
+		return nafDir;
+	}
+	
+	/**
+	 * Print cache usage statistics to stderr. Hits and misses are those of all the caches of the process.
+	 */
+	public synchronized void printStats ()
+	{
+		System.err.println("TaggedCorpusCache - documents in memory: "+cache.size()+" ("+(used/(1024*1024))+"MB) hits: "
+				+hitsTotal.get()+" misses: "+missesTotal.get());
+	}
+
+	private TaggedSentence load (String sId) throws IOException
+	{
+		if (store == null && TaggedCorpusStore.isStore(nafDir))
+		{
+			throw new IOException("TaggedCorpusCache::load - tagged corpus store could not be opened: "+nafDir);
+		}
+		if (store != null)
+		{
+			TaggedSentence ts = store.get(sId);
+			if (ts == null)
+			{
+				throw new IOException("TaggedCorpusCache::load - sentence "+sId+" not found in tagged corpus store "+nafDir);
+			}
+			return ts;
+		}
+		
+		if (spillDir != null)
+		{
+			File spilled = spillFile(sId);
+			if (spilled.isFile())
+			{
+				DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(spilled)));
+				try {
+					return TaggedSentence.read(in);
+				} finally {
+					in.close();
+				}
+			}
+		}
+
+		// can not use directly KAFDocument.createFromFile because if
+		// file exist but is empty kaflib end in Exception.
+		File nafFile = new File(nafDir+File.separator+sId.replace(':', '_')+".kaf");
+		if (nafFile.length() == 0)
+		{
+			throw new IOException("TaggedCorpusCache::load - tagged file does not exist or is empty: "+nafFile.getPath());
+		}
+		try {
+			return TaggedSentence.fromKAF(KAFDocument.createFromFile(nafFile));
+		} catch (RuntimeException re) {
+			//kaflib returns incomplete documents (null elements) on JDOM errors.
+			throw new IOException("TaggedCorpusCache::load - error when reading tagged file: "+nafFile.getPath(), re);
+		}
+	}
+
+	private void spill (String sId, TaggedSentence ts)
+	{
+		if (spillDir == null)
+		{
+			return;
+		}
+		File spilled = spillFile(sId);
+		if (spilled.isFile())
+		{
+			return;
+		}
+		// written to a temporal file and renamed, workers reading spilled documents never see partial files.
+		File tmp = new File(spilled.getPath()+".tmp");
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			try {
+				ts.write(out);
+			} finally {
+				out.close();
+			}
+			if (!tmp.renameTo(spilled))
+			{
+				throw new IOException("rename failed");
+			}
+		} catch (IOException ioe) {
+			System.err.println("TaggedCorpusCache::spill - could not write "+spilled.getPath()+", document will be read from the tagged file.");
+			tmp.delete();
+		}
+	}
+
+	private File spillFile (String sId)
+	{
+		return new File(spillDir+File.separator+sId.replace(':', '_')+".tgd");
+	}
+}
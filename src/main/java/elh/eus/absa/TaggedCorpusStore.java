@@ -0,0 +1,405 @@
+/*
+ * Copyright 2014 Elhuyar Fundazioa
+
+This file is part of EliXa.
+
+    EliXa is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    EliXa is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with EliXa.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elh.eus.absa;
+
+import ixa.kaflib.KAFDocument;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.jdom2.JDOMException;
+
+/**
+ * Binary store for tagged corpora. All the tagged sentences of a corpus are stored in a single append-only file
+ * (extension '.tgs') instead of one kaf/naf file per sentence. Each record holds a sentence id and its compact
+ * tagged representation (TaggedSentence: word forms, offsets, lemmas, PoS tags and morphological features).
+ *
+ * The index (sentence id -> record position) is built when the store is opened, and records are read through a
+ * memory mapping of the file (records appended after the file was mapped are read with positional reads until
+ * enough of them are appended to map the file again). If a sentence is stored twice the last record is the valid one.
+ *
+ * A store path can be used wherever a tagged file directory (kafDir) is expected. Stores are shared: use
+ * open(path) to get the store object associated to a path.
+ *
+ * @author isanvi
+ *
+ */
+public class TaggedCorpusStore {
+
+	public static final String EXTENSION = ".tgs";
+
+	//"ELTS" + format version
+	private static final int MAGIC = 0x454c5453;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 8;
+	//records appended after the mapped region are read with positional reads, and the file is mapped again 
+	//only when they add up to this size, or to the mapped size if it is bigger (so remaps are logarithmic in the file size).
+	private static final long REMAP_MIN = 16L << 20;
+
+	private static Map<String, TaggedCorpusStore> openStores = new HashMap<String, TaggedCorpusStore>();
+
+	private File file;
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private MappedByteBuffer mapped;
+	private LinkedHashMap<String, Long> index = new LinkedHashMap<String, Long>();
+	//directory for the intermediate files generated by the taggers
+	private File tmpDir;
+
+	/**
+	 * Whether the given tagged file location is a binary store instead of a directory.
+	 *
+	 * @param String path
+	 * @return boolean
+	 */
+	public static boolean isStore (String path)
+	{
+		return (path != null) && path.endsWith(EXTENSION);
+	}
+
+	/**
+	 * Return the store object for the given path, opening (or creating) it if needed.
+	 *
+	 * @param String path : path to the store file.
+	 * @return TaggedCorpusStore
+	 * @throws IOException
+	 */
+	public static synchronized TaggedCorpusStore open (String path) throws IOException
+	{
+		String key = new File(path).getCanonicalPath();
+		TaggedCorpusStore store = openStores.get(key);
+		if (store == null)
+		{
+			store = new TaggedCorpusStore(new File(key));
+			openStores.put(key, store);
+		}
+		return store;
+	}
+
+	private TaggedCorpusStore (File f) throws IOException
+	{
+		file = f;
+		if (file.getParentFile() != null)
+		{
+			file.getParentFile().mkdirs();
+		}
+		raf = new RandomAccessFile(file, "rw");
+		channel = raf.getChannel();
+		if (raf.length() == 0)
+		{
+			raf.writeInt(MAGIC);
+			raf.writeInt(VERSION);
+		}
+		else
+		{
+			raf.seek(0);
+			if (raf.readInt() != MAGIC || raf.readInt() != VERSION)
+			{
+				throw new IOException("TaggedCorpusStore - "+file.getPath()+" is not a valid tagged corpus store.");
+			}
+			buildIndex();
+		}
+	}
+
+	/**
+	 * Scan the file and build the sentence index. A truncated last record (e.g., an interrupted run) is discarded.
+	 */
+	private void buildIndex () throws IOException
+	{
+		long size = raf.length();
+		long pos = HEADER_SIZE;
+		while (pos + 4 <= size)
+		{
+			raf.seek(pos);
+			int len = raf.readInt();
+			if (len <= 0 || pos + 4 + len > size)
+			{
+				break;
+			}
+			index.put(raf.readUTF(), pos);
+			pos += 4 + len;
+		}
+		if (pos < size)
+		{
+			System.err.println("TaggedCorpusStore - incomplete record found at the end of "+file.getPath()+", it will be discarded.");
+			raf.setLength(pos);
+		}
+		System.err.println("TaggedCorpusStore - "+file.getPath()+" opened: "+index.size()+" tagged sentences.");
+	}
+
+	public synchronized boolean contains (String sId)
+	{
+		return index.containsKey(key(sId));
+	}
+
+	public synchronized int size ()
+	{
+		return index.size();
+	}
+
+	/**
+	 * @return List<String> ids of the stored sentences (':' replaced by '_'), in insertion order.
+	 */
+	public synchronized List<String> getIds ()
+	{
+		return new ArrayList<String>(index.keySet());
+	}
+
+	public String getPath ()
+	{
+		return file.getPath();
+	}
+
+	/**
+	 * Read a tagged sentence from the store.
+	 *
+	 * @param String sId : sentence id
+	 * @return TaggedSentence, or null if the sentence is not in the store.
+	 * @throws IOException
+	 */
+	public TaggedSentence get (String sId) throws IOException
+	{
+		byte[] record;
+		synchronized (this)
+		{
+			Long pos = index.get(key(sId));
+			if (pos == null)
+			{
+				return null;
+			}
+			record = readRecord(pos);
+		}
+		// records are decoded outside the lock, so concurrent readers only wait for each other to copy them.
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+		in.readUTF();
+		return TaggedSentence.read(in);
+	}
+
+	/**
+	 * Append a tagged sentence to the store.
+	 *
+	 * @param String sId : sentence id
+	 * @param TaggedSentence ts
+	 * @throws IOException
+	 */
+	public synchronized void put (String sId, TaggedSentence ts) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeUTF(key(sId));
+		ts.write(out);
+		out.flush();
+
+		long pos = raf.length();
+		ByteBuffer buf = ByteBuffer.allocate(4 + bytes.size());
+		buf.putInt(bytes.size());
+		buf.put(bytes.toByteArray());
+		buf.flip();
+		while (buf.hasRemaining())
+		{
+			channel.write(buf, pos + buf.position());
+		}
+		index.put(key(sId), pos);
+	}
+
+	/**
+	 * Tag a sentence and store the result. Taggers write kaf files, so the sentence is tagged into a temporal
+	 * file which is imported and deleted afterwards. Return codes are those of NLPpipelineWrapper.tagSentence:
+	 *          0 = there was an error in the tagging process.
+	 *          1 = sentence correctly tagged
+	 *          2 = the sentence was already in the store, so no tagging was done.
+	 *
+	 * @param String sId : sentence id
+	 * @param String input : sentence text
+	 * @param String lang : sentence language
+	 * @param String posModel : pos model (or eustagger executable)
+	 * @param String lemmaModel : lemma model
+	 * @param eus.ixa.ixa.pipe.pos.Annotate postagger : ixa-pipe postagger object (null for eustagger)
+	 * @return int
+	 * @throws IOException
+	 * @throws JDOMException
+	 */
+	public int tagSentence (String sId, String input, String lang, String posModel, String lemmaModel, 
+			eus.ixa.ixa.pipe.pos.Annotate postagger) throws IOException, JDOMException
+	{
+		if (contains(sId))
+		{
+			return 2;
+		}
+		String tmpPath = getTmpDir().getPath()+File.separator+key(sId);
+		File tagged = new File(tmpPath+".kaf");
+		try {
+			int success = NLPpipelineWrapper.tagSentence(input, tmpPath, lang, posModel, lemmaModel, postagger);
+			if (success == 0 || tagged.length() == 0)
+			{
+				return 0;
+			}
+			long start = PipelineStage.start();
+			put(sId, TaggedSentence.fromKAF(KAFDocument.createFromFile(tagged)));
+			PipelineStage.NAF_IO.stop(start);
+			return 1;
+		} finally {
+			tagged.delete();
+		}
+	}
+
+	private synchronized File getTmpDir () throws IOException
+	{
+		if (tmpDir == null)
+		{
+			final File dir = FileUtilsElh.createTempDirectory();
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run() {
+					FileUtils.deleteQuietly(dir);
+				}
+			});
+			tmpDir = dir;
+		}
+		return tmpDir;
+	}
+
+	/**
+	 * Sentence ids are stored the same way tagged file names are built (':' replaced by '_'), so that
+	 * stores imported from tagged directories and stores filled directly are equivalent.
+	 */
+	private static String key (String sId)
+	{
+		return sId.replace(':', '_');
+	}
+
+	/**
+	 * Close the store file. The store can not be used afterwards.
+	 */
+	public synchronized void close () throws IOException
+	{
+		synchronized (TaggedCorpusStore.class)
+		{
+			openStores.remove(file.getPath());
+		}
+		mapped = null;
+		channel.close();
+		raf.close();
+	}
+
+	private byte[] readRecord (long pos) throws IOException
+	{
+		long mappedSize = (mapped == null) ? 0 : mapped.capacity();
+		// map the file the first time, and again when enough records were appended after the mapped region 
+		// (see REMAP_MIN). Files bigger than 2GB can not be mapped in a single buffer, positional reads are used for them.
+		if (mapped == null || pos + 4 > mappedSize)
+		{
+			long size = channel.size();
+			if (size <= Integer.MAX_VALUE && (mapped == null || size - mappedSize >= Math.max(REMAP_MIN, mappedSize)))
+			{
+				mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			}
+		}
+
+		if (mapped != null && pos + 4 <= mapped.capacity())
+		{
+			ByteBuffer view = mapped.duplicate();
+			view.position((int) pos);
+			byte[] record = new byte[view.getInt()];
+			view.get(record);
+			return record;
+		}
+
+		ByteBuffer lenBuf = ByteBuffer.allocate(4);
+		channel.read(lenBuf, pos);
+		lenBuf.flip();
+		ByteBuffer buf = ByteBuffer.allocate(lenBuf.getInt());
+		while (buf.hasRemaining())
+		{
+			if (channel.read(buf, pos + 4 + buf.position()) < 0)
+			{
+				throw new IOException("TaggedCorpusStore - unexpected end of file reading "+file.getPath());
+			}
+		}
+		return buf.array();
+	}
+
+	/**
+	 * Import all the tagged files (.kaf) in a directory into the store. File names (without extension) are
+	 * used as sentence ids.
+	 *
+	 * @param String nafDir : directory containing the tagged files.
+	 * @return int number of imported files.
+	 * @throws IOException
+	 */
+	public int importNAF (String nafDir) throws IOException
+	{
+		File[] files = new File(nafDir).listFiles();
+		if (files == null)
+		{
+			throw new IOException("TaggedCorpusStore::importNAF - "+nafDir+" is not a directory.");
+		}
+		int imported = 0;
+		for (File f : files)
+		{
+			if (!f.getName().endsWith(".kaf") || f.length() == 0)
+			{
+				continue;
+			}
+			String sId = f.getName().substring(0, f.getName().length()-4);
+			try {
+				put(sId, TaggedSentence.fromKAF(KAFDocument.createFromFile(f)));
+				imported++;
+			} catch (Exception e) {
+				System.err.println("TaggedCorpusStore::importNAF - error when reading "+f.getPath()+", file not imported.");
+			}
+		}
+		return imported;
+	}
+
+	/**
+	 * Export all the sentences in the store to a directory, one tagged (.kaf) file per sentence.
+	 *
+	 * @param String nafDir : output directory.
+	 * @param String lang : language of the documents.
+	 * @return int number of exported files.
+	 * @throws IOException
+	 */
+	public int exportNAF (String nafDir, String lang) throws IOException
+	{
+		new File(nafDir).mkdirs();
+		int exported = 0;
+		for (String sId : getIds())
+		{
+			get(sId).toKAF(lang).save(nafDir+File.separator+sId+".kaf");
+			exported++;
+		}
+		return exported;
+	}
+}
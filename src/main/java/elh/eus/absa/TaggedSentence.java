@@ -0,0 +1,393 @@
+/*
+ * Copyright 2014 Elhuyar Fundazioa
+
+This file is part of EliXa.
+
+    EliXa is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    EliXa is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with EliXa.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elh.eus.absa;
+
+import ixa.kaflib.KAFDocument;
+import ixa.kaflib.Term;
+import ixa.kaflib.WF;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Compact representation of a tagged document (word forms, offsets, lemmas, PoS tags and morphological features),
+ * holding only the information needed for feature extraction. It replaces the full KAFDocument object
+ * (JDOM based) once a tagged file has been read.
+ *
+ * Word forms and terms are identified by their position in the document. Sentence numbers are kept as they
+ * appear in the tagged file, so that sentence and window based lookups behave exactly like kaflib ones.
+ *
+ * @author isanvi
+ *
+ */
+public class TaggedSentence {
+
+	//word form layer
+	private String[] forms;
+	private int[] offsets;
+	private int[] wfSents;
+
+	//term layer
+	private String[] lemmas;
+	private String[] pos;
+	private String[] morphofeats;
+	private int[] termSents;
+	//word forms (positions) spanned by each term.
+	private int[][] termWfs;
+	//terms (positions) spanning each word form, built from termWfs (see indexTerms).
+	private int[][] wfTerms;
+
+	//sentence number of terms with an empty word form span.
+	private static final int NO_SENT = -1;
+
+	private TaggedSentence (int wfNum, int termNum)
+	{
+		forms = new String[wfNum];
+		offsets = new int[wfNum];
+		wfSents = new int[wfNum];
+		lemmas = new String[termNum];
+		pos = new String[termNum];
+		morphofeats = new String[termNum];
+		termSents = new int[termNum];
+		termWfs = new int[termNum][];
+	}
+
+	/**
+	 * Build a compact representation from a kaf/naf document.
+	 *
+	 * @param KAFDocument kaf : postagged kaf document
+	 * @return TaggedSentence
+	 */
+	public static TaggedSentence fromKAF (KAFDocument kaf)
+	{
+		List<WF> wfs = kaf.getWFs();
+		List<Term> terms = kaf.getTerms();
+		TaggedSentence ts = new TaggedSentence(wfs.size(), terms.size());
+		HashMap<String, Integer> wfIndex = new HashMap<String, Integer>();
+		for (int i=0; i<wfs.size(); i++)
+		{
+			WF wf = wfs.get(i);
+			ts.forms[i] = wf.getForm();
+			ts.offsets[i] = wf.getOffset();
+			ts.wfSents[i] = wf.getSent();
+			wfIndex.put(wf.getId(), i);
+		}
+		for (int t=0; t<terms.size(); t++)
+		{
+			Term term = terms.get(t);
+			ts.lemmas[t] = term.getLemma();
+			ts.pos[t] = term.getPos();
+			ts.morphofeats[t] = term.getMorphofeat();
+			List<WF> span = term.getWFs();
+			ts.termWfs[t] = new int[span.size()];
+			for (int j=0; j<span.size(); j++)
+			{
+				ts.termWfs[t][j] = wfIndex.get(span.get(j).getId());
+			}
+		}
+		ts.indexTerms();
+		return ts;
+	}
+
+	/**
+	 * Build a kaf/naf document with the information stored in the object (text and terms layers). 
+	 * 
+	 * @param String lang : document language
+	 * @return KAFDocument
+	 */
+	public KAFDocument toKAF (String lang)
+	{
+		KAFDocument kaf = new KAFDocument(lang, "v1.naf");
+		List<WF> wfs = new ArrayList<WF>(forms.length);
+		for (int i=0; i<forms.length; i++)
+		{
+			WF wf = kaf.newWF(offsets[i], forms[i], wfSents[i]);
+			wf.setLength(forms[i].length());
+			wfs.add(wf);
+		}
+		for (int t=0; t<lemmas.length; t++)
+		{
+			List<WF> span = new ArrayList<WF>(termWfs[t].length);
+			for (int w : termWfs[t])
+			{
+				span.add(wfs.get(w));
+			}
+			Term term = kaf.newTerm(KAFDocument.newWFSpan(span));
+			if (lemmas[t] != null) {term.setLemma(lemmas[t]);}
+			if (pos[t] != null) {term.setPos(pos[t]);}
+			if (morphofeats[t] != null) {term.setMorphofeat(morphofeats[t]);}
+		}
+		return kaf;
+	}
+
+	public int wfCount()
+	{
+		return forms.length;
+	}
+
+	public int termCount()
+	{
+		return lemmas.length;
+	}
+
+	public String getForm(int wf)
+	{
+		return forms[wf];
+	}
+
+	public int getOffset(int wf)
+	{
+		return offsets[wf];
+	}
+
+	public String getLemma(int term)
+	{
+		return lemmas[term];
+	}
+
+	public String getPos(int term)
+	{
+		return pos[term];
+	}
+
+	public String getMorphofeat(int term)
+	{
+		return morphofeats[term];
+	}
+
+	/**
+	 * Word forms grouped by sentence, sentences sorted by their number (same as KAFDocument.getSentences()).
+	 *
+	 * @return List<int[]> word form positions of each sentence.
+	 */
+	public List<int[]> getSentences()
+	{
+		return groupBySent(wfSents);
+	}
+
+	/**
+	 * Terms belonging to sentence number 'sent' (same as KAFDocument.getTermsBySent(sent)).
+	 *
+	 * @param sent : sentence number, as stored in the tagged file.
+	 * @return int[] term positions, empty if no such sentence exists.
+	 */
+	public int[] getTermsBySent(int sent)
+	{
+		int count = 0;
+		for (int s : termSents)
+		{
+			if (s == sent) {count++;}
+		}
+		int[] result = new int[count];
+		count = 0;
+		for (int t=0; t<termSents.length; t++)
+		{
+			if (termSents[t] == sent) {result[count++]=t;}
+		}
+		return result;
+	}
+
+	/**
+	 * Terms spanning the word forms in the range [from,to) (same as KAFDocument.getTermsFromWFs(ids)):
+	 * for each word form the terms containing it are returned, in document order.
+	 *
+	 * @param from : first word form position (inclusive)
+	 * @param to : last word form position (exclusive)
+	 * @return List<Integer> term positions
+	 */
+	public List<Integer> getTermsFromWFs(int from, int to)
+	{
+		List<Integer> result = new ArrayList<Integer>();
+		for (int w=from; w<to; w++)
+		{
+			for (int t : wfTerms[w])
+			{
+				result.add(t);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Compute the sentence of each term (the sentence of its first word form, NO_SENT if its span is empty) 
+	 * and the terms spanning each word form, in document order and without repetitions. 
+	 */
+	private void indexTerms()
+	{
+		int[] count = new int[forms.length];
+		for (int t=0; t<termWfs.length; t++)
+		{
+			termSents[t] = (termWfs[t].length > 0) ? wfSents[termWfs[t][0]] : NO_SENT;
+			for (int j=0; j<termWfs[t].length; j++)
+			{
+				if (!repeated(termWfs[t], j)) {count[termWfs[t][j]]++;}
+			}
+		}
+		wfTerms = new int[forms.length][];
+		for (int w=0; w<forms.length; w++)
+		{
+			wfTerms[w] = new int[count[w]];
+			count[w] = 0;
+		}
+		for (int t=0; t<termWfs.length; t++)
+		{
+			for (int j=0; j<termWfs[t].length; j++)
+			{
+				int w = termWfs[t][j];
+				if (!repeated(termWfs[t], j)) {wfTerms[w][count[w]++] = t;}
+			}
+		}
+	}
+
+	/**
+	 * @return whether span[j] already appears before position j of the span.
+	 */
+	private static boolean repeated(int[] span, int j)
+	{
+		for (int k=0; k<j; k++)
+		{
+			if (span[k] == span[j]) {return true;}
+		}
+		return false;
+	}
+
+	/**
+	 * Rough estimation of the memory used by the object, in bytes. Used by the tagged corpus cache to
+	 * enforce its memory budget.
+	 *
+	 * @return long estimated size in bytes
+	 */
+	public long estimateSize()
+	{
+		long size = 128 + (forms.length * 12L) + (lemmas.length * 16L);
+		for (String s : forms) { size += strSize(s); }
+		for (int t=0; t<lemmas.length; t++)
+		{
+			size += strSize(lemmas[t]) + strSize(pos[t]) + strSize(morphofeats[t]) + 16 + (termWfs[t].length * 8L);
+		}
+		size += forms.length * 16L;
+		return size;
+	}
+
+	/**
+	 * Serialize the object to the given stream.
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write(DataOutputStream out) throws IOException
+	{
+		out.writeInt(forms.length);
+		out.writeInt(lemmas.length);
+		for (int i=0; i<forms.length; i++)
+		{
+			writeStr(out, forms[i]);
+			out.writeInt(offsets[i]);
+			out.writeInt(wfSents[i]);
+		}
+		for (int t=0; t<lemmas.length; t++)
+		{
+			writeStr(out, lemmas[t]);
+			writeStr(out, pos[t]);
+			writeStr(out, morphofeats[t]);
+			out.writeInt(termWfs[t].length);
+			for (int w : termWfs[t])
+			{
+				out.writeInt(w);
+			}
+		}
+	}
+
+	/**
+	 * Read an object previously serialized with write().
+	 *
+	 * @param in
+	 * @return TaggedSentence
+	 * @throws IOException
+	 */
+	public static TaggedSentence read(DataInputStream in) throws IOException
+	{
+		TaggedSentence ts = new TaggedSentence(in.readInt(), in.readInt());
+		for (int i=0; i<ts.forms.length; i++)
+		{
+			ts.forms[i] = readStr(in);
+			ts.offsets[i] = in.readInt();
+			ts.wfSents[i] = in.readInt();
+		}
+		for (int t=0; t<ts.lemmas.length; t++)
+		{
+			ts.lemmas[t] = readStr(in);
+			ts.pos[t] = readStr(in);
+			ts.morphofeats[t] = readStr(in);
+			ts.termWfs[t] = new int[in.readInt()];
+			for (int j=0; j<ts.termWfs[t].length; j++)
+			{
+				ts.termWfs[t][j] = in.readInt();
+			}
+		}
+		ts.indexTerms();
+		return ts;
+	}
+
+	private static List<int[]> groupBySent(int[] sents)
+	{
+		TreeMap<Integer, List<Integer>> groups = new TreeMap<Integer, List<Integer>>();
+		for (int i=0; i<sents.length; i++)
+		{
+			if (!groups.containsKey(sents[i]))
+			{
+				groups.put(sents[i], new ArrayList<Integer>());
+			}
+			groups.get(sents[i]).add(i);
+		}
+		List<int[]> result = new ArrayList<int[]>(groups.size());
+		for (List<Integer> g : groups.values())
+		{
+			int[] sent = new int[g.size()];
+			for (int i=0; i<sent.length; i++) { sent[i] = g.get(i); }
+			result.add(sent);
+		}
+		return result;
+	}
+
+	private static long strSize(String s)
+	{
+		return (s == null) ? 0 : 40 + (2L * s.length());
+	}
+
+	private static void writeStr(DataOutputStream out, String s) throws IOException
+	{
+		out.writeBoolean(s != null);
+		if (s != null)
+		{
+			out.writeUTF(s);
+		}
+	}
+
+	private static String readStr(DataInputStream in) throws IOException
+	{
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+}
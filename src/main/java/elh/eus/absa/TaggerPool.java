@@ -0,0 +1,320 @@
+/*
+ * Copyright 2014 Elhuyar Fundazioa
+
+This file is part of EliXa.
+
+    EliXa is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    EliXa is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with EliXa.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elh.eus.absa;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of long running external tagger processes (eustagger / ixa-pipe-pos-eu), used instead of starting a
+ * new process (and loading the tagger models) for every sentence.
+ *
+ * Tagger processes must work in streaming mode: documents are written to their standard input, each
+ * followed by a delimiter line, and the tagger must write the delimiter line to its standard output after
+ * the tagged output of each document.
+ *
+ * Each process serves a single document at a time, and up to 'workers' documents are tagged concurrently.
+ * Processes which have died or do not answer within the timeout are killed and restarted.
+ *
+ * Pools are created from the configuration parameters:
+ *    taggerWorkers : number of tagger processes (0 = a process per sentence, default).
+ *    taggerCommand : command to start a tagger process in streaming mode (default: pos-model).
+ *    taggerDelimiter : document delimiter line (default: "<ELIXA_EOD>").
+ *    taggerTimeout : maximum seconds to wait for a document to be tagged (default: 120).
+ *
+ * @author isanvi
+ *
+ */
+public class TaggerPool {
+
+	public static final String DEFAULT_DELIMITER = "<ELIXA_EOD>";
+	
+	//end of tagger output mark (compared by reference)
+	private static final String EOF = new String("EOF");
+
+	//pools by tagger (pos-model) path
+	private static final Map<String, TaggerPool> pools = new HashMap<String, TaggerPool>();
+
+	private static final Metrics.Counter errors = Metrics.counter("elixa_tagger_process_errors_total",
+			"Tagger process failures (not started, died, timed out or not writable); the process is restarted.");
+
+	private String[] command;
+	private String delimiter;
+	private long timeout;
+	private BlockingQueue<Worker> idle;
+	private int workers;
+
+	/**
+	 * Tagger process, and the lines read from its output.
+	 */
+	private class Worker
+	{
+		private Process process;
+		private BufferedWriter in;
+		private BlockingQueue<String> out;
+
+		private void start () throws IOException
+		{
+			ProcessBuilder builder = new ProcessBuilder().command(command);
+			builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+			process = builder.start();
+			in = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+			final BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+			final BlockingQueue<String> lines = new LinkedBlockingQueue<String>();
+			out = lines;
+			Thread t = new Thread() {
+				@Override
+				public void run() {
+					try {
+						String line;
+						while ((line = reader.readLine()) != null)
+						{
+							lines.add(line);
+						}
+					} catch (IOException e) {
+						//process killed
+					}
+					lines.add(EOF);
+				}
+			};
+			t.setDaemon(true);
+			t.start();
+		}
+
+		/**
+		 * Kill the process and drop its output queue. Output the process may still write for an unfinished
+		 * document goes to the dropped queue, so it can never be read as the answer for another document.
+		 */
+		private void stop ()
+		{
+			if (process == null)
+			{
+				return;
+			}
+			try {
+				process.destroyForcibly().waitFor(5, TimeUnit.SECONDS);
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+			try {
+				in.close();
+			} catch (IOException ioe) {
+				//process already dead
+			}
+			process = null;
+			in = null;
+			out = null;
+		}
+
+		/**
+		 * @return boolean : whether the worker has a running process which has not been stopped.
+		 */
+		private boolean isAlive ()
+		{
+			return process != null && process.isAlive();
+		}
+	}
+
+	/**
+	 * Create (or return the already existing) tagger pool for the tagger defined in the configuration,
+	 * if a pool is requested (taggerWorkers > 0).
+	 *
+	 * @param Properties params : configuration parameters.
+	 * @return TaggerPool, or null if no pool is configured.
+	 */
+	public static synchronized TaggerPool configure (Properties params)
+	{
+		int workers = Integer.parseInt(params.getProperty("taggerWorkers", "0"));
+		String posModel = params.getProperty("pos-model", "default");
+		if (workers < 1)
+		{
+			return null;
+		}
+		String[] command = params.containsKey("taggerCommand") ? params.getProperty("taggerCommand").trim().split("\\s+") : new String[] {posModel};
+		return configure(posModel, command, workers,
+				params.getProperty("taggerDelimiter", DEFAULT_DELIMITER), Integer.parseInt(params.getProperty("taggerTimeout", "120")));
+	}
+
+	/**
+	 * Create (or return the already existing) tagger pool for the given tagger.
+	 *
+	 * @param String posModel : tagger path, as given in the pos-model parameter.
+	 * @param String[] command : command (and arguments) to start a tagger in streaming mode.
+	 * @param int workers : number of tagger processes.
+	 * @param String delimiter : document delimiter line.
+	 * @param int timeout : maximum seconds to wait for a document to be tagged.
+	 * @return TaggerPool
+	 */
+	public static synchronized TaggerPool configure (String posModel, String[] command, int workers, String delimiter, int timeout)
+	{
+		TaggerPool pool = pools.get(posModel);
+		if (pool == null)
+		{
+			pool = new TaggerPool(command, workers, delimiter, timeout);
+			pools.put(posModel, pool);
+			if (pools.size() == 1)
+			{
+				Runtime.getRuntime().addShutdownHook(new Thread() {
+					@Override
+					public void run() {
+						closeAll();
+					}
+				});
+			}
+		}
+		return pool;
+	}
+
+	/**
+	 * @param String posModel : tagger path, as given in the pos-model parameter.
+	 * @return TaggerPool for the given tagger, null if none was configured.
+	 */
+	public static synchronized TaggerPool get (String posModel)
+	{
+		return pools.get(posModel);
+	}
+
+	/**
+	 * Stop all tagger processes.
+	 */
+	public static synchronized void closeAll ()
+	{
+		for (TaggerPool pool : pools.values())
+		{
+			pool.close();
+		}
+		pools.clear();
+	}
+
+	private TaggerPool (String[] command, int workers, String delimiter, int timeout)
+	{
+		this.command = command;
+		this.workers = workers;
+		this.delimiter = delimiter;
+		this.timeout = timeout;
+		idle = new ArrayBlockingQueue<Worker>(workers);
+		for (int i=0; i<workers; i++)
+		{
+			// processes are started the first time they are used.
+			idle.add(new Worker());
+		}
+		System.err.println("TaggerPool - "+workers+" tagger processes: "+String.join(" ", command));
+	}
+
+	public int size ()
+	{
+		return workers;
+	}
+
+	/**
+	 * Tag a document. Blocks until a tagger process is free.
+	 *
+	 * @param String text : document to tag.
+	 * @return String : tagger output for the document, or null if the document could not be tagged.
+	 */
+	public String tag (String text)
+	{
+		Worker worker;
+		try {
+			worker = idle.take();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+		try {
+			return tag(worker, text);
+		} finally {
+			idle.add(worker);
+		}
+	}
+
+	private String tag (Worker worker, String text)
+	{
+		// health check: restart processes that were stopped or died since their last document.
+		if (!worker.isAlive())
+		{
+			worker.stop();
+			try {
+				worker.start();
+			} catch (IOException ioe) {
+				Log.warn("TaggerPool::tag - tagger process could not be started: "+String.join(" ", command));
+				errors.inc();
+				return null;
+			}
+		}
+		try {
+			worker.in.write(text.replace(delimiter, " "));
+			worker.in.write("\n"+delimiter+"\n");
+			worker.in.flush();
+
+			StringBuilder sb = new StringBuilder();
+			long deadline = System.currentTimeMillis() + timeout*1000;
+			while (true)
+			{
+				String line = worker.out.poll(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+				if (line == null || line == EOF)
+				{
+					Log.warn("TaggerPool::tag - "+((line == null) ? "no answer in "+timeout+" seconds" : "tagger process died")
+							+ ", restarting tagger process.");
+					worker.stop();
+					errors.inc();
+					return null;
+				}
+				if (line.trim().equals(delimiter))
+				{
+					return sb.toString();
+				}
+				sb.append(line).append("\n");
+			}
+		} catch (IOException ioe) {
+			Log.warn("TaggerPool::tag - error when writing to the tagger process, restarting tagger process.");
+			worker.stop();
+			errors.inc();
+			return null;
+		} catch (InterruptedException ie) {
+			// the process may still be writing the answer, it is not reusable.
+			worker.stop();
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+
+	/**
+	 * Stop the tagger processes of the pool.
+	 */
+	public void close ()
+	{
+		for (Worker worker : idle)
+		{
+			worker.stop();
+		}
+	}
+}
@@ -6,11 +6,11 @@ public class TfIdf {
 	
 	//structures to compute tf and idf values. Same structures are used for word forms and lemmas.
 	private HashMap<String, HashMap<String,Integer>> tfMatrix;
-	private HashMap<String, Integer> dfMatrix;
+	private Vocabulary dfMatrix;
 		
 	TfIdf(){
 		tfMatrix = new HashMap<String, HashMap<String,Integer>>();
-		dfMatrix = new HashMap<String,Integer>();		
+		dfMatrix = new Vocabulary();		
 	}
 	
 	
@@ -22,15 +22,18 @@ public class TfIdf {
 	 */
 	public void updateDf(String term)
 	{
-		if (!dfMatrix.containsKey(term))
-		{
-			dfMatrix.put(term, 1);
-		}
-		else
-		{
-			Integer updateStat = dfMatrix.get(term)+ 1;
-			dfMatrix.put(term, updateStat);
-		}
+		dfMatrix.increment(term);
+	}
+	
+	/**
+	 *  Add the given count to the document frequency of a term
+	 *  
+	 * @param term
+	 * @param count
+	 */
+	public void updateDf(String term, int count)
+	{
+		dfMatrix.increment(term, count);
 	}
 	
 	/**
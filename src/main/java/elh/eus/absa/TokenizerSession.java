@@ -0,0 +1,187 @@
+/*
+ * Copyright 2014 Elhuyar Fundazioa
+
+This file is part of EliXa.
+
+    EliXa is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    EliXa is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with EliXa.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elh.eus.absa;
+
+import eus.ixa.ixa.pipe.seg.RuleBasedSegmenter;
+import eus.ixa.ixa.pipe.tok.RuleBasedTokenizer;
+import eus.ixa.ixa.pipe.tok.StringUtils;
+import eus.ixa.ixa.pipe.tok.Token;
+import ixa.kaflib.KAFDocument;
+import ixa.kaflib.WF;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+/**
+ * Ixa-pipe tokenizer session for a language. The tokenizer (sentence segmenter and tokenizer) is created once 
+ * per language and thread, and reused for all the sentences tokenized by that thread (sessions are thread 
+ * confined, get() returns the session of the calling thread).
+ *
+ * ixa-pipe-tok binds its segmenter and tokenizer to the text they are created with, and building them loads 
+ * the non breaking prefixes of the language each time. The session builds them once, and binds them to each 
+ * new text before tokenizing it. If that is not possible with the ixa-pipe-tok version in the classpath, a 
+ * tokenizer is built for every text, as eus.ixa.ixa.pipe.tok.Annotate does.
+ *
+ * @author isanvi
+ *
+ */
+public class TokenizerSession {
+
+	// Regex added to correct ixa-pipes treatment of punctuation marks :
+	// <wf id="w19" sent="1" para="1" offset="76" length="4">!!??</wf>
+	// <term id="t19" type="open" lemma="!!??" pos="N" morphofeat="NCMC000">
+	private static final Pattern punctuation = Pattern.compile("([!¡?¿])"); //\p{Po} gets too many punctuation marks.
+
+	// text the ixa-pipe-tok segmenter and tokenizer are bound to, null if they can not be rebound.
+	private static final Field segmenterText = textField(RuleBasedSegmenter.class, "text");
+	private static final Field tokenizerText = textField(RuleBasedTokenizer.class, "originalText");
+
+	private static final ThreadLocal<Map<String, TokenizerSession>> sessions = new ThreadLocal<Map<String, TokenizerSession>>() {
+		@Override
+		protected Map<String, TokenizerSession> initialValue() {
+			return new HashMap<String, TokenizerSession>();
+		}
+	};
+
+	private String lang;
+	private Properties tokProp;
+	private RuleBasedSegmenter segmenter;
+	private RuleBasedTokenizer tokenizer;
+
+	/**
+	 * @param String lang : language (ISO-639 code)
+	 * @return TokenizerSession : tokenizer session of the calling thread for the given language.
+	 */
+	public static TokenizerSession get (String lang)
+	{
+		Map<String, TokenizerSession> threadSessions = sessions.get();
+		TokenizerSession session = threadSessions.get(lang);
+		if (session == null)
+		{
+			session = new TokenizerSession(lang);
+			threadSessions.put(lang, session);
+		}
+		return session;
+	}
+
+	private TokenizerSession (String lang)
+	{
+		this.lang = lang;
+		this.tokProp = NLPpipelineWrapper.setTokenizerProperties(lang, "default", "no", "no");
+		if (segmenterText != null && tokenizerText != null)
+		{
+			this.segmenter = new RuleBasedSegmenter("", tokProp);
+			this.tokenizer = new RuleBasedTokenizer("", tokProp);
+		}
+	}
+
+	/**
+	 * Tokenize a text with the Ixa-pipe tokenizer.
+	 *
+	 * @param String text : input text
+	 * @return KAFDocument : tokenized input text in kaf format
+	 * @throws IOException
+	 */
+	public KAFDocument tokenize (String text) throws IOException
+	{
+		text = punctuation.matcher(text).replaceAll("$1 ");
+
+		//kaf document to store tokenized text
+		KAFDocument kaf = new KAFDocument(lang, "v1.naf");
+		KAFDocument.LinguisticProcessor newLp = kaf.addLinguisticProcessor("text", "ixa-pipe-tok-"+lang,
+				"v1.naf" + "-" + "elixa");
+		newLp.setBeginTimestamp();
+		BufferedReader breader = new BufferedReader(new StringReader(text));
+		if (segmenter == null)
+		{
+			eus.ixa.ixa.pipe.tok.Annotate annotate = new eus.ixa.ixa.pipe.tok.Annotate(breader, tokProp);
+			annotate.tokenizeToKAF(kaf);
+		}
+		else
+		{
+			// the text is read (line breaks marked) and built as the Annotate constructor does.
+			String built = RuleBasedSegmenter.buildText(StringUtils.readText(breader));
+			try {
+				segmenterText.set(segmenter, built);
+				tokenizerText.set(tokenizer, built);
+			} catch (IllegalAccessException iae) {
+				throw new IOException("TokenizerSession::tokenize - tokenizer could not be bound to the text", iae);
+			}
+			tokensToKAF(tokenizer.tokenize(segmenter.segmentSentence()), kaf);
+		}
+		newLp.setEndTimestamp();
+		breader.close();
+
+		return kaf;
+	}
+
+	/**
+	 * Add the tokens to the text layer of the kaf document, as eus.ixa.ixa.pipe.tok.Annotate.tokenizeToKAF does:
+	 * paragraph marks are not added as word forms, and start a new paragraph (and a new sentence).
+	 */
+	private static void tokensToKAF (List<List<Token>> sentences, KAFDocument kaf)
+	{
+		int noSents = 0;
+		int noParas = 1;
+		for (List<Token> sentence : sentences)
+		{
+			noSents++;
+			for (Token token : sentence)
+			{
+				if (token.getTokenValue().equals(RuleBasedSegmenter.PARAGRAPH))
+				{
+					noParas++;
+					if (noSents < noParas)
+					{
+						noSents++;
+					}
+				}
+				else
+				{
+					WF wf = kaf.newWF(token.startOffset(), token.getTokenValue(), noSents);
+					wf.setLength(token.tokenLength());
+					wf.setPara(noParas);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return Field : text field of the given ixa-pipe-tok class made writable, null if it can not be found.
+	 */
+	private static Field textField (Class<?> c, String name)
+	{
+		try {
+			Field f = c.getDeclaredField(name);
+			f.setAccessible(true);
+			return f;
+		} catch (Exception e) {
+			Log.warn("TokenizerSession - "+c.getName()+"."+name+" not found, a tokenizer will be built for each text.");
+			return null;
+		}
+	}
+}
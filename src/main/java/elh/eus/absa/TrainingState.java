@@ -0,0 +1,709 @@
+/*
+ * Copyright 2014 Elhuyar Fundazioa
+
+This file is part of EliXa.
+
+    EliXa is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    EliXa is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with EliXa.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elh.eus.absa;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeSet;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * State of an incremental training (train-doc --incremental): the n-gram counts of each sentence and the feature
+ * vector of each opinion of the last training, so that a new training over an extended corpus only tags,
+ * extracts n-grams from and vectorizes the sentences that were not in the previous corpus (or whose text changed).
+ *
+ * Sentences with the same id and text reuse their stored n-gram counts, which are added to the counts of the new
+ * sentences before the minimum frequency and tf-idf thresholds are applied, as in a full training. Opinions of
+ * reused sentences keep their stored feature vector (remapped to the new feature indexes), unless an n-gram of their
+ * sentence entered or left the feature set; only those opinions and the new ones are vectorized again.
+ *
+ * The state is discarded (and a full training is done) if the feature parameters, the files they point to
+ * (lexicons, clusters...), the language or the corpus format change. N-grams spanning two sentences of a multi
+ * sentence document are not counted by the n-gram extraction, so they do not trigger the re-vectorization of an
+ * opinion by themselves.
+ *
+ * The state is a directory with three files, written at the end of each training. Each of them starts with
+ * int magic | int version | long run id (the files of a state share the run id):
+ *    header    : parameter fingerprint | n-gram keys | feature names of the trained model (by index).
+ *    sentences : for each sentence, id | text hash | number of n-grams | (key id delta, count, document frequency).
+ *    vectors   : for each opinion, id | sentence id | target offsets | number of values | (feature index delta, value).
+ * Numbers in the sentence and vector records are variable length encoded.
+ *
+ * @author isanvi
+ *
+ */
+public class TrainingState {
+
+	private static final int MAGIC = 0x454c5452;
+	private static final int VERSION = 1;
+
+	private static final String HEADER = "header";
+	private static final String SENTENCES = "sentences";
+	private static final String VECTORS = "vectors";
+
+	// parameters that do not change the features: paths, caches, tagger processes, logging and metrics.
+	private static final List<String> RUNTIME_PARAMS = Arrays.asList("fVectorDir", "kafDir", "threads", "trainState",
+			"taggedStore", "taggedCacheMB", "taggedCacheSpill", "taggerCommand", "taggerWorkers", "taggerBatchSize",
+			"taggerDelimiter", "taggerTimeout", "normalizationCacheSize", "logLevel", "logAsync", "logProgressInterval",
+			"metricsFile", "metricsInterval", "metricsJmx");
+
+	private File dir;
+	private String fingerprint;
+	// run id of the stored state, 0 if there is no usable stored state.
+	private long runId;
+
+	// n-gram keys of all types, key -> key id
+	private Vocabulary keys = new Vocabulary();
+	// feature names of the previous training -> feature index
+	private Vocabulary features = new Vocabulary();
+
+	// n-gram counts and document frequencies of the reused sentences, by key id
+	private int[] counts = new int[0];
+	private int[] dfs = new int[0];
+	// sentence id -> text hash, for the sentences whose stored counts were reused
+	private HashMap<String, Long> reused = new HashMap<String, Long>();
+	// n-gram counts of the sentences extracted in this training: sentence id -> {key ids, counts, dfs}
+	private HashMap<String, int[][]> extracted = new HashMap<String, int[][]>();
+	// stored vectors that can be reused, by opinion id. Loaded once the new feature set is known.
+	private HashMap<String, StoredVector> vectors;
+
+	private TrainingState (File dir, String fingerprint)
+	{
+		this.dir = dir;
+		this.fingerprint = fingerprint;
+	}
+
+	/**
+	 * Open the training state stored in the given directory. If there is no state, or it was created with
+	 * different feature parameters, an empty state is returned, which will be filled by the current training.
+	 *
+	 * @param File dir : state directory
+	 * @param String fingerprint : feature parameters of the current training (see fingerprint())
+	 * @return TrainingState
+	 */
+	public static TrainingState open (File dir, String fingerprint)
+	{
+		TrainingState state = new TrainingState(dir, fingerprint);
+		File header = new File(dir, HEADER);
+		if (!header.isFile())
+		{
+			Log.info("TrainingState::open - no training state in "+dir+", all the corpus will be processed.");
+			return state;
+		}
+		try (DataInputStream in = open(header)) {
+			long id = readPreamble(in);
+			if (!fingerprint.equals(readString(in)))
+			{
+				Log.info("TrainingState::open - feature parameters changed since the last training, the training state in "
+						+dir+" is discarded.");
+				return state;
+			}
+			for (int i=in.readInt(); i>0; i--)
+			{
+				state.keys.add(in.readUTF());
+			}
+			for (int i=0, n=in.readInt(); i<n; i++)
+			{
+				state.features.put(in.readUTF(), i);
+			}
+			for (String f : new String[] {SENTENCES, VECTORS})
+			{
+				try (DataInputStream fin = open(new File(dir, f))) {
+					if (readPreamble(fin) != id)
+					{
+						throw new IOException("file "+f+" does not belong to the same training");
+					}
+				}
+			}
+			state.runId = id;
+		} catch (IOException ioe) {
+			Log.warn("TrainingState::open - training state in "+dir+" could not be read ("+ioe.getMessage()
+					+"), all the corpus will be processed.");
+			state.keys = new Vocabulary();
+			state.features = new Vocabulary();
+		}
+		return state;
+	}
+
+	/**
+	 * Fingerprint of the feature parameters of a training: parameters (except those which do not affect the
+	 * features, e.g., paths and caches), size and modification time of the files they point to, language and corpus
+	 * format.
+	 *
+	 * @param Properties params
+	 * @param String lang
+	 * @param String format : corpus format
+	 * @return String
+	 */
+	public static String fingerprint (Properties params, String lang, String format)
+	{
+		StringBuilder sb = new StringBuilder("version="+VERSION+"\nlang="+lang+"\nformat="+format+"\n");
+		for (String key : new TreeSet<String>(params.stringPropertyNames()))
+		{
+			if (RUNTIME_PARAMS.contains(key))
+			{
+				continue;
+			}
+			String value = params.getProperty(key);
+			sb.append(key).append('=').append(value);
+			File f = new File(value);
+			if (f.isFile())
+			{
+				sb.append(" (").append(f.length()).append(" bytes, ").append(f.lastModified()).append(')');
+			}
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return boolean : true if a stored state (of a previous training with the same parameters) was found.
+	 */
+	public boolean isStored ()
+	{
+		return runId != 0;
+	}
+
+	/**
+	 * Reuse the stored n-gram counts of the given sentences, if their text did not change. Counts are added up
+	 * (see getCount()), and the sentences are marked as reused (see isReused()).
+	 *
+	 * @param Map<String,String> sentences : sentence id -> text of the sentences of the current corpus
+	 * @return int : number of reused sentences
+	 */
+	public int reuseCounts (Map<String, String> sentences)
+	{
+		counts = new int[keys.size()];
+		dfs = new int[keys.size()];
+		if (!isStored())
+		{
+			return 0;
+		}
+		try (DataInputStream in = open(new File(dir, SENTENCES))) {
+			readPreamble(in);
+			SentenceRecord rec = new SentenceRecord();
+			while (rec.read(in))
+			{
+				String text = sentences.get(rec.sId);
+				if (text == null || hash(text) != rec.hash)
+				{
+					continue;
+				}
+				for (int i=0; i<rec.size; i++)
+				{
+					counts[rec.keyIds[i]] += rec.counts[i];
+					dfs[rec.keyIds[i]] += rec.dfs[i];
+				}
+				reused.put(rec.sId, rec.hash);
+			}
+		} catch (IOException ioe) {
+			Log.warn("TrainingState::reuseCounts - stored sentences could not be read ("+ioe.getMessage()
+					+"), all the corpus will be processed.");
+			counts = new int[keys.size()];
+			dfs = new int[keys.size()];
+			reused.clear();
+			runId = 0;
+		}
+		return reused.size();
+	}
+
+	/**
+	 * @param String sId : sentence id
+	 * @return boolean : true if the stored n-gram counts of the sentence were reused.
+	 */
+	public boolean isReused (String sId)
+	{
+		return reused.containsKey(sId);
+	}
+
+	/**
+	 * @return int : number of n-gram keys, key ids are in [0, keyCount()).
+	 */
+	public int keyCount ()
+	{
+		return counts.length;
+	}
+
+	public String getKey (int id)
+	{
+		return keys.getKey(id);
+	}
+
+	/**
+	 * @param int id : key id
+	 * @return int : count of the n-gram in the reused sentences.
+	 */
+	public int getCount (int id)
+	{
+		return counts[id];
+	}
+
+	/**
+	 * @param int id : key id
+	 * @return int : document frequency of the n-gram in the reused sentences.
+	 */
+	public int getDf (int id)
+	{
+		return dfs[id];
+	}
+
+	/**
+	 * Record the n-gram counts extracted from a sentence in the current training.
+	 *
+	 * @param String sId : sentence id
+	 * @param Vocabulary ngrams : n-gram -> count in the sentence
+	 * @param Vocabulary df : n-gram -> document frequency in the sentence
+	 */
+	public void setCounts (String sId, Vocabulary ngrams, Vocabulary df)
+	{
+		HashMap<Integer, int[]> byKey = new HashMap<Integer, int[]>();
+		for (int i=0; i<ngrams.size(); i++)
+		{
+			int id = keys.add(ngrams.getKey(i));
+			byKey.put(id, new int[] {ngrams.getValue(i), 0});
+		}
+		for (int i=0; i<df.size(); i++)
+		{
+			int id = keys.add(df.getKey(i));
+			if (!byKey.containsKey(id))
+			{
+				byKey.put(id, new int[2]);
+			}
+			byKey.get(id)[1] = df.getValue(i);
+		}
+		int[] ids = new int[byKey.size()];
+		int n = 0;
+		for (int id : byKey.keySet())
+		{
+			ids[n++] = id;
+		}
+		Arrays.sort(ids);
+		int[][] rec = new int[3][ids.length];
+		for (int i=0; i<ids.length; i++)
+		{
+			rec[0][i] = ids[i];
+			rec[1][i] = byKey.get(ids[i])[0];
+			rec[2][i] = byKey.get(ids[i])[1];
+		}
+		extracted.put(sId, rec);
+	}
+
+	/**
+	 * Stored feature vector of an opinion, with the feature indexes of the current feature set. Vectors are only
+	 * reused if the opinion (sentence and target) did not change, and no n-gram of its sentence entered or left
+	 * the feature set.
+	 *
+	 * @param String oId : opinion id
+	 * @param Opinion op : the opinion
+	 * @param Vocabulary attIndexes : feature name -> feature index of the current training
+	 * @return FeatureVector : the vector (without instance id), or null if the opinion must be vectorized.
+	 */
+	public FeatureVector getVector (String oId, Opinion op, Vocabulary attIndexes)
+	{
+		if (vectors == null)
+		{
+			try {
+				loadVectors(attIndexes);
+			} catch (IOException ioe) {
+				Log.warn("TrainingState::getVector - stored feature vectors could not be read ("+ioe.getMessage()
+						+"), all the opinions will be vectorized.");
+				vectors = new HashMap<String, StoredVector>();
+			}
+		}
+		StoredVector sv = vectors.get(oId);
+		if (sv == null || !sv.sId.equals(op.getsId()) || sv.from != offset(op.getFrom()) || sv.to != offset(op.getTo()))
+		{
+			return null;
+		}
+		FeatureVector fv = new FeatureVector();
+		for (int i=0; i<sv.indices.length; i++)
+		{
+			fv.set(sv.indices[i], sv.values[i]);
+		}
+		return fv;
+	}
+
+	/**
+	 * Load the stored vectors which can be reused with the given feature set.
+	 */
+	private void loadVectors (Vocabulary attIndexes) throws IOException
+	{
+		vectors = new HashMap<String, StoredVector>();
+		if (!isStored() || reused.isEmpty())
+		{
+			return;
+		}
+		// n-grams which entered or left the feature set since the last training
+		boolean[] changed = new boolean[keys.size()];
+		for (int id=0; id<keys.size(); id++)
+		{
+			String key = keys.getKey(id);
+			changed[id] = features.containsKey(key) != attIndexes.containsKey(key);
+		}
+		HashSet<String> affected = new HashSet<String>();
+		try (DataInputStream in = open(new File(dir, SENTENCES))) {
+			readPreamble(in);
+			SentenceRecord rec = new SentenceRecord();
+			while (rec.read(in))
+			{
+				if (!reused.containsKey(rec.sId))
+				{
+					continue;
+				}
+				for (int i=0; i<rec.size; i++)
+				{
+					if (changed[rec.keyIds[i]])
+					{
+						affected.add(rec.sId);
+						break;
+					}
+				}
+			}
+		}
+
+		// old feature index -> current feature index (-1 if the feature is not in the current feature set)
+		int[] remap = new int[features.size()];
+		for (int id=0; id<features.size(); id++)
+		{
+			remap[features.getValue(id)] = attIndexes.get(features.getKey(id));
+		}
+		try (DataInputStream in = open(new File(dir, VECTORS))) {
+			readPreamble(in);
+			while (in.readBoolean())
+			{
+				StoredVector sv = new StoredVector();
+				String oId = in.readUTF();
+				sv.sId = in.readUTF();
+				sv.from = readVInt(in);
+				sv.to = readVInt(in);
+				int n = readVInt(in);
+				sv.indices = new int[n];
+				sv.values = new double[n];
+				boolean usable = reused.containsKey(sv.sId) && !affected.contains(sv.sId);
+				int index = 0;
+				for (int i=0; i<n; i++)
+				{
+					index += readVInt(in);
+					sv.values[i] = in.readDouble();
+					sv.indices[i] = (index < remap.length) ? remap[index] : -1;
+					usable = usable && sv.indices[i] >= 0;
+				}
+				if (usable)
+				{
+					vectors.put(oId, sv);
+				}
+			}
+		}
+		Log.info("TrainingState::loadVectors - "+vectors.size()+" stored feature vectors can be reused, "
+				+affected.size()+" reused sentences are affected by feature set changes.");
+	}
+
+	/**
+	 * Write the state of the current training: n-gram counts of the sentences in the corpus (reused and extracted)
+	 * and the feature vectors of the given instances.
+	 *
+	 * @param Instances data : training instances
+	 * @param Map<String,Integer> opInst : opinion id -> instance id (instance ids start at 1)
+	 * @param CorpusReader corpus : training corpus
+	 * @throws IOException
+	 */
+	public void save (Instances data, Map<String, Integer> opInst, CorpusReader corpus) throws IOException
+	{
+		Files.createDirectories(dir.toPath());
+		long newId = new Random().nextLong();
+		if (newId == 0)
+		{
+			newId = 1;
+		}
+		Map<String, String> sentences = corpus.getSentences();
+
+		try (DataOutputStream out = create(new File(dir, SENTENCES+".tmp"), newId)) {
+			if (isStored())
+			{
+				try (DataInputStream in = open(new File(dir, SENTENCES))) {
+					readPreamble(in);
+					SentenceRecord rec = new SentenceRecord();
+					while (rec.read(in))
+					{
+						if (reused.containsKey(rec.sId) && sentences.containsKey(rec.sId))
+						{
+							rec.write(out);
+						}
+					}
+				}
+			}
+			SentenceRecord rec = new SentenceRecord();
+			for (Map.Entry<String, int[][]> e : extracted.entrySet())
+			{
+				if (sentences.containsKey(e.getKey()))
+				{
+					rec.sId = e.getKey();
+					rec.hash = hash(sentences.get(e.getKey()));
+					rec.size = e.getValue()[0].length;
+					rec.keyIds = e.getValue()[0];
+					rec.counts = e.getValue()[1];
+					rec.dfs = e.getValue()[2];
+					rec.write(out);
+				}
+			}
+			out.writeBoolean(false);
+		}
+
+		Attribute instanceId = data.attribute("instanceId");
+		int vectorNum = 0;
+		try (DataOutputStream out = create(new File(dir, VECTORS+".tmp"), newId)) {
+			for (Map.Entry<String, Integer> e : opInst.entrySet())
+			{
+				Opinion op = corpus.getOpinion(e.getKey());
+				if (op == null)
+				{
+					continue;
+				}
+				Instance inst = data.instance(e.getValue()-1);
+				int n = 0;
+				for (int i=0; i<inst.numValues(); i++)
+				{
+					if (isStoredValue(data.attribute(inst.index(i)), instanceId))
+					{
+						n++;
+					}
+				}
+				out.writeBoolean(true);
+				out.writeUTF(e.getKey());
+				out.writeUTF(op.getsId());
+				writeVInt(out, offset(op.getFrom()));
+				writeVInt(out, offset(op.getTo()));
+				writeVInt(out, n);
+				int prev = 0;
+				for (int i=0; i<inst.numValues(); i++)
+				{
+					if (isStoredValue(data.attribute(inst.index(i)), instanceId))
+					{
+						writeVInt(out, inst.index(i)-prev);
+						out.writeDouble(inst.valueSparse(i));
+						prev = inst.index(i);
+					}
+				}
+				vectorNum++;
+			}
+			out.writeBoolean(false);
+		}
+
+		try (DataOutputStream out = create(new File(dir, HEADER+".tmp"), newId)) {
+			writeString(out, fingerprint);
+			out.writeInt(keys.size());
+			for (int id=0; id<keys.size(); id++)
+			{
+				out.writeUTF(keys.getKey(id));
+			}
+			out.writeInt(data.numAttributes());
+			for (int i=0; i<data.numAttributes(); i++)
+			{
+				out.writeUTF(data.attribute(i).name());
+			}
+		}
+
+		for (String f : new String[] {SENTENCES, VECTORS, HEADER})
+		{
+			Files.move(new File(dir, f+".tmp").toPath(), new File(dir, f).toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		System.err.println("TrainingState::save - training state written to "+dir+": "+sentences.size()+" sentences, "
+				+vectorNum+" feature vectors.");
+	}
+
+	/**
+	 * Only numeric feature values are stored. Instance ids, class and category values are set when instances are
+	 * created.
+	 */
+	private static boolean isStoredValue (Attribute att, Attribute instanceId)
+	{
+		return att.isNumeric() && att != instanceId;
+	}
+
+	private static int offset (Integer offset)
+	{
+		return (offset == null) ? 0 : offset+1;
+	}
+
+	/**
+	 * 64-bit FNV-1a hash of a sentence text.
+	 */
+	static long hash (String text)
+	{
+		long h = 0xcbf29ce484222325L;
+		for (int i=0; i<text.length(); i++)
+		{
+			h ^= text.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return h;
+	}
+
+	private static DataInputStream open (File file) throws IOException
+	{
+		return new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+	}
+
+	private static DataOutputStream create (File file, long id) throws IOException
+	{
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(id);
+		return out;
+	}
+
+	/**
+	 * @return long : run id of the file
+	 */
+	private static long readPreamble (DataInputStream in) throws IOException
+	{
+		if (in.readInt() != MAGIC || in.readInt() != VERSION)
+		{
+			throw new IOException("not a training state file of version "+VERSION);
+		}
+		return in.readLong();
+	}
+
+	private static void writeString (DataOutputStream out, String s) throws IOException
+	{
+		byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(b.length);
+		out.write(b);
+	}
+
+	private static String readString (DataInputStream in) throws IOException
+	{
+		byte[] b = new byte[in.readInt()];
+		in.readFully(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	private static void writeVInt (DataOutputStream out, int v) throws IOException
+	{
+		while ((v & ~0x7f) != 0)
+		{
+			out.writeByte((v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		out.writeByte(v);
+	}
+
+	private static int readVInt (DataInputStream in) throws IOException
+	{
+		int v = 0;
+		for (int shift=0; shift<32; shift+=7)
+		{
+			int b = in.readUnsignedByte();
+			v |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0)
+			{
+				return v;
+			}
+		}
+		throw new IOException("malformed variable length integer");
+	}
+
+	/**
+	 * N-gram counts of a sentence. The same object is reused to read all the records of a file.
+	 */
+	private static class SentenceRecord
+	{
+		String sId;
+		long hash;
+		int size;
+		int[] keyIds = new int[256];
+		int[] counts = new int[256];
+		int[] dfs = new int[256];
+
+		/**
+		 * @return boolean : false at the end of the file.
+		 */
+		boolean read (DataInputStream in) throws IOException
+		{
+			if (!in.readBoolean())
+			{
+				return false;
+			}
+			sId = in.readUTF();
+			hash = in.readLong();
+			size = readVInt(in);
+			if (size > keyIds.length)
+			{
+				keyIds = new int[size];
+				counts = new int[size];
+				dfs = new int[size];
+			}
+			int id = 0;
+			for (int i=0; i<size; i++)
+			{
+				id += readVInt(in);
+				keyIds[i] = id;
+				counts[i] = readVInt(in);
+				dfs[i] = readVInt(in);
+			}
+			return true;
+		}
+
+		void write (DataOutputStream out) throws IOException
+		{
+			out.writeBoolean(true);
+			out.writeUTF(sId);
+			out.writeLong(hash);
+			writeVInt(out, size);
+			int prev = 0;
+			for (int i=0; i<size; i++)
+			{
+				writeVInt(out, keyIds[i]-prev);
+				writeVInt(out, counts[i]);
+				writeVInt(out, dfs[i]);
+				prev = keyIds[i];
+			}
+		}
+	}
+
+	private static class StoredVector
+	{
+		String sId;
+		int from;
+		int to;
+		int[] indices;
+		double[] values;
+	}
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright 2014 Elhuyar Fundazioa
+
+This file is part of EliXa.
+
+    EliXa is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    EliXa is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with EliXa.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elh.eus.absa;
+
+import java.util.Arrays;
+
+/**
+ * Compact String -> int map, used for feature indexes and n-gram frequencies. It replaces HashMap<String,Integer>
+ * objects holding millions of entries: keys are stored contiguously in a single char array, values are
+ * primitive ints and the hash table is open addressing over entry ids, so there is no per entry object.
+ *
+ * Entries get consecutive ids in insertion order, and can not be removed.
+ *
+ * @author isanvi
+ *
+ */
+public class Vocabulary {
+
+	//hash table: slot -> entry id (-1 = empty slot)
+	private int[] table;
+	//entries
+	private int[] hashes;
+	private int[] starts;
+	private int[] values;
+	private char[] chars;
+	private int charNum;
+	private int size;
+
+	public Vocabulary ()
+	{
+		this(1024);
+	}
+
+	/**
+	 * @param int expected : expected number of entries.
+	 */
+	public Vocabulary (int expected)
+	{
+		int capacity = 16;
+		while (capacity < expected*2)
+		{
+			capacity <<= 1;
+		}
+		table = new int[capacity];
+		Arrays.fill(table, -1);
+		hashes = new int[Math.max(expected, 16)];
+		values = new int[hashes.length];
+		starts = new int[hashes.length+1];
+		chars = new char[hashes.length*8];
+	}
+
+	public int size ()
+	{
+		return size;
+	}
+
+	public boolean isEmpty ()
+	{
+		return size == 0;
+	}
+
+	public boolean containsKey (String key)
+	{
+		return id(key) >= 0;
+	}
+
+	/**
+	 * @param String key
+	 * @return int id of the entry with the given key, or -1 if the key is not in the vocabulary.
+	 */
+	public int id (String key)
+	{
+		int h = key.hashCode();
+		int slot = spread(h) & (table.length-1);
+		while (table[slot] != -1)
+		{
+			int id = table[slot];
+			if (hashes[id] == h && keyEquals(id, key))
+			{
+				return id;
+			}
+			slot = (slot + 1) & (table.length-1);
+		}
+		return -1;
+	}
+
+	/**
+	 * @param String key
+	 * @return int value associated to the key, or -1 if the key is not in the vocabulary.
+	 */
+	public int get (String key)
+	{
+		return getOrDefault(key, -1);
+	}
+
+	public int getOrDefault (String key, int defaultValue)
+	{
+		int id = id(key);
+		return (id < 0) ? defaultValue : values[id];
+	}
+
+	/**
+	 * Associate a value to a key, adding the key if it is not in the vocabulary.
+	 *
+	 * @param String key
+	 * @param int value
+	 * @return int id of the entry
+	 */
+	public int put (String key, int value)
+	{
+		int id = add(key);
+		values[id] = value;
+		return id;
+	}
+
+	/**
+	 * Increment the value (frequency) associated to a key by one. New keys start with 0.
+	 *
+	 * @param String key
+	 * @return int the new value
+	 */
+	public int increment (String key)
+	{
+		//add() may reallocate the value array, so it must be called first.
+		int id = add(key);
+		return ++values[id];
+	}
+
+	/**
+	 * Increment the value (frequency) associated to a key by the given amount. New keys start with 0.
+	 *
+	 * @param String key
+	 * @param int delta
+	 * @return int the new value
+	 */
+	public int increment (String key, int delta)
+	{
+		int id = add(key);
+		values[id] += delta;
+		return values[id];
+	}
+
+	/**
+	 * Add a key to the vocabulary if it is not there (with value 0).
+	 *
+	 * @param String key
+	 * @return int id of the entry
+	 */
+	public int add (String key)
+	{
+		int h = key.hashCode();
+		int slot = spread(h) & (table.length-1);
+		while (table[slot] != -1)
+		{
+			int id = table[slot];
+			if (hashes[id] == h && keyEquals(id, key))
+			{
+				return id;
+			}
+			slot = (slot + 1) & (table.length-1);
+		}
+
+		if (size == hashes.length)
+		{
+			int newLength = hashes.length + (hashes.length >> 1);
+			hashes = Arrays.copyOf(hashes, newLength);
+			values = Arrays.copyOf(values, newLength);
+			starts = Arrays.copyOf(starts, newLength+1);
+		}
+		if (charNum + key.length() > chars.length)
+		{
+			chars = Arrays.copyOf(chars, Math.max(charNum + key.length(), chars.length + (chars.length >> 1)));
+		}
+		key.getChars(0, key.length(), chars, charNum);
+		charNum += key.length();
+
+		int id = size++;
+		hashes[id] = h;
+		starts[id+1] = charNum;
+		table[slot] = id;
+		if (size*2 > table.length)
+		{
+			rehash(table.length*2);
+		}
+		return id;
+	}
+
+	public String getKey (int id)
+	{
+		return new String(chars, starts[id], starts[id+1]-starts[id]);
+	}
+
+	public int getValue (int id)
+	{
+		return values[id];
+	}
+
+	public int keyLength (int id)
+	{
+		return starts[id+1]-starts[id];
+	}
+
+	/**
+	 * Whether the key of the entry contains the string s starting at the given position
+	 * (same as getKey(id).regionMatches(offset, s, 0, s.length())).
+	 */
+	public boolean regionMatches (int id, int offset, String s)
+	{
+		if (offset < 0 || offset + s.length() > keyLength(id))
+		{
+			return false;
+		}
+		int start = starts[id] + offset;
+		for (int i=0; i<s.length(); i++)
+		{
+			if (chars[start+i] != s.charAt(i))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public char charAt (int id, int i)
+	{
+		return chars[starts[id]+i];
+	}
+
+	/**
+	 * Entry ids in the order a HashMap<String,Integer> filled with the same keys (in the same order) would
+	 * iterate them: by hash bucket, and by insertion order inside a bucket. Feature sets are added to the
+	 * classifier attributes in this order, so that attribute indexes are the same as those obtained with
+	 * the HashMap based feature sets used in previous versions.
+	 *
+	 * @return int[] entry ids
+	 */
+	public int[] hashMapOrder ()
+	{
+		int capacity = 16;
+		while (size > (int)(capacity*0.75f))
+		{
+			capacity <<= 1;
+		}
+		long[] order = new long[size];
+		for (int id=0; id<size; id++)
+		{
+			int h = hashes[id] ^ (hashes[id] >>> 16);
+			order[id] = ((long)(h & (capacity-1)) << 32) | id;
+		}
+		Arrays.sort(order);
+		int[] ids = new int[size];
+		for (int i=0; i<size; i++)
+		{
+			ids[i] = (int) order[i];
+		}
+		return ids;
+	}
+
+	private boolean keyEquals (int id, String key)
+	{
+		return keyLength(id) == key.length() && regionMatches(id, 0, key);
+	}
+
+	/**
+	 * String hash codes are not well distributed in their lower bits, mix them before choosing a slot.
+	 */
+	private static int spread (int h)
+	{
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		return h ^ (h >>> 16);
+	}
+
+	private void rehash (int capacity)
+	{
+		table = new int[capacity];
+		Arrays.fill(table, -1);
+		for (int id=0; id<size; id++)
+		{
+			int slot = spread(hashes[id]) & (capacity-1);
+			while (table[slot] != -1)
+			{
+				slot = (slot + 1) & (capacity-1);
+			}
+			table[slot] = id;
+		}
+	}
+}
@@ -231,7 +231,7 @@ public class WekaWrapper {
 		//}
 
 		// deserialize model
-		this.MLclass = (Classifier) weka.core.SerializationHelper.readAll(model)[0];		
+		this.MLclass = readClassifier(model);		
 		System.err.println("WekaWrapper: testModel() - Classifier ready.");
 				
 		Evaluation eTest = new Evaluation(this.testdata);
@@ -252,8 +252,7 @@ public class WekaWrapper {
 	{
 		System.err.println("WekaWrapper: loadModel() - model: "+modelPath);
 		// deserialize model
-		Object object_ser[] = weka.core.SerializationHelper.readAll(modelPath);
-		return (Classifier) object_ser[0];		
+		return readClassifier(modelPath);		
 		//System.err.println("WekaWrapper: loadModel() - Classifier ready.");				      
 	}
 
@@ -266,10 +265,46 @@ public class WekaWrapper {
 	 */
 	public Instances loadHeader(String model) throws Exception
 	{
-		// deserialize model
+		return readHeader(model);
+	}
+	
+	/**
+	 * Deserializes the classifier stored in the given model file (serialized model or model bundle). 
+	 * Each call returns a new classifier object.  
+	 * 
+	 * @param model
+	 * @return
+	 * @throws Exception
+	 */
+	public static Classifier readClassifier(String model) throws Exception
+	{
+		if (ModelBundle.isBundle(model))
+		{
+			return ModelBundle.open(new File(model)).getClassifier();
+		}
+		return (Classifier) weka.core.SerializationHelper.readAll(model)[0];
+	}
+	
+	/**
+	 * Reads the header stored in the given model file (serialized model or model bundle). 
+	 * 
+	 * Only model bundles can be read without deserializing the classifier. Serialized models store the
+	 * classifier before the header in a single object stream, and Java serialization can not skip an object,
+	 * so the whole classifier is deserialized (and discarded) to get the header. Use bundle-model to avoid it.
+	 * 
+	 * @param model
+	 * @return
+	 * @throws Exception
+	 */
+	public static Instances readHeader(String model) throws Exception
+	{
+		if (ModelBundle.isBundle(model))
+		{
+			return ModelBundle.open(new File(model)).getHeader();
+		}
+		// deserialize model (classifier and header)
 		Object object_ser[] = weka.core.SerializationHelper.readAll(model);
 		return (Instances) object_ser[1];		
-		//System.err.println("WekaWrapper: loadModel() - Classifier ready.");				      
 	}
 	
 	/**
@@ -365,7 +400,7 @@ public class WekaWrapper {
 		}
 		
 		// load classifier model		
-		this.MLclass = (Classifier) weka.core.SerializationHelper.readAll(modelPath)[0];		
+		this.MLclass = readClassifier(modelPath);		
 		System.err.println("WekaWrapper: multiLabelPrediction() - Classifier ready.");
 			
 		for (Instance i : this.testdata )
@@ -575,13 +610,16 @@ public class WekaWrapper {
 			for (String currentClass : cls.keySet())
 			{
 				double[] dist = cls.get(currentClass).distributionForInstance(inst);			
-				String[] classes = {"dummy",currentClass,"UNKNOWN"};
-				System.out.print("instance "+instId+" ("+currentClass+") --> ");
-				for (int c=0; c<dist.length; c++)
-				{					
-					System.out.print("\t cl_"+c+" ("+classes[c]+") = "+dist[c]+"; ");					
+				if (Log.isDebugEnabled())
+				{
+					String[] classes = {"dummy",currentClass,"UNKNOWN"};
+					StringBuilder sb = new StringBuilder("instance "+instId+" ("+currentClass+") --> ");
+					for (int c=0; c<dist.length; c++)
+					{					
+						sb.append("\t cl_"+c+" ("+classes[c]+") = "+dist[c]+"; ");					
+					}
+					Log.debug(sb.toString());
 				}
-				System.out.print("\n");
 			
 				//first class is always the class to identify, if unknown class has better score store -1 for the class
 				clResults.put(currentClass, dist[1]);								